@@ -0,0 +1,103 @@
+package org.pharmgkb.pharmcat;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.jupiter.api.TestInfo;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+
+
+/**
+ * Builds the VCF files used by benchmarks, using {@link TestVcfBuilder}.
+ *
+ * @author Mark Woon
+ */
+public class BenchmarkFixtures {
+  /** Genes that have dedicated per-gene benchmarks. */
+  public static final String[] GENES = new String[] { "CYP2C19", "DPYD", "RYR1", "UGT1A1" };
+  // gene, rsid, allele 1, allele 2
+  private static final String[][] sf_variations = new String[][] {
+      // *2/*17
+      { "CYP2C19", "rs12248560", "C", "T" },
+      { "CYP2C19", "rs4244285", "G", "A" },
+      { "CYP2C19", "rs3758581", "G", "G" },
+      { "DPYD", "rs3918290", "C", "T" },
+      { "DPYD", "rs1801159", "C", "T" },
+      { "RYR1", "rs34694816", "A", "G" },
+      { "RYR1", "rs137933390", "A", "G" },
+      { "RYR1", "rs145573319", "A", "G" },
+      { "UGT1A1", "rs887829", "C", "T" },
+      { "UGT1A1", "rs3064744", "TA(7)", "TA(8)" },
+      { "UGT1A1", "rs4148323", "G", "A" },
+  };
+
+
+  private BenchmarkFixtures() {
+  }
+
+
+  /**
+   * Builds a VCF for a single sample that has data for every gene PharmCAT can call, with non-reference calls for the
+   * genes in {@link #GENES}.
+   */
+  public static Path buildSampleVcf(String name) throws IOException {
+    TestVcfBuilder builder = new TestVcfBuilder(new BenchmarkInfo(name));
+    Set<String> genes = DefinitionReader.defaultReader().getGenes();
+    for (String gene : genes) {
+      builder.reference(gene);
+    }
+    addVariations(builder, genes);
+    return builder.generate();
+  }
+
+  /**
+   * Builds a VCF for a single sample that only has data for the given gene.
+   */
+  public static Path buildGeneVcf(String gene) throws IOException {
+    TestVcfBuilder builder = new TestVcfBuilder(new BenchmarkInfo(gene));
+    builder.reference(gene);
+    addVariations(builder, Set.of(gene));
+    return builder.generate();
+  }
+
+
+  /**
+   * Adds unphased, heterozygous calls so that there is something to permute and match.
+   */
+  private static void addVariations(TestVcfBuilder builder, Set<String> genes) {
+    for (String[] variation : sf_variations) {
+      if (genes.contains(variation[0])) {
+        builder.variation(variation[0], variation[1], variation[2], variation[3]);
+      }
+    }
+  }
+
+
+  /**
+   * Stand-in for JUnit's {@link TestInfo}, which {@link TestVcfBuilder} uses to name its output.
+   */
+  private record BenchmarkInfo(String name) implements TestInfo {
+
+    @Override
+    public String getDisplayName() {
+      return "benchmark-" + name;
+    }
+
+    @Override
+    public Set<String> getTags() {
+      return Set.of();
+    }
+
+    @Override
+    public Optional<Class<?>> getTestClass() {
+      return Optional.empty();
+    }
+
+    @Override
+    public Optional<Method> getTestMethod() {
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pharmgkb.pharmcat.BenchmarkFixtures;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+
+/**
+ * Benchmarks {@link CombinationUtil#generatePermutations(List)} on the sample alleles for a gene.
+ *
+ * @author Mark Woon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CombinationUtilBenchmark {
+  @Param({"CYP2C19", "DPYD", "RYR1", "UGT1A1"})
+  public String gene;
+  private List<SampleAllele> m_sampleAlleles;
+
+
+  @Setup
+  public void setup() throws Exception {
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+    VcfReader vcfReader = new VcfReader(definitionReader, BenchmarkFixtures.buildGeneVcf(gene));
+
+    m_sampleAlleles = new ArrayList<>();
+    for (VariantLocus vl : definitionReader.getMatchingIndex(gene).getPositions()) {
+      SampleAllele allele = vcfReader.getAlleleMap().get(vl.getVcfChrPosition());
+      if (allele != null) {
+        m_sampleAlleles.add(allele);
+      }
+    }
+    // same order as MatchData
+    m_sampleAlleles.sort(null);
+  }
+
+
+  @Benchmark
+  public Set<String> generatePermutations() {
+    return CombinationUtil.generatePermutations(m_sampleAlleles);
+  }
+}
@@ -0,0 +1,66 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pharmgkb.pharmcat.BenchmarkFixtures;
+import org.pharmgkb.pharmcat.Env;
+import org.pharmgkb.pharmcat.VcfFile;
+import org.pharmgkb.pharmcat.haplotype.model.DiplotypeMatch;
+
+
+/**
+ * Benchmarks {@link DiplotypeMatcher#compute(boolean, boolean)} as {@link NamedAlleleMatcher#call(VcfFile, String)}
+ * uses it, with and without combinations.
+ * <p>
+ * The match is prepared by {@link NamedAlleleMatcher#prepareDiplotypeMatch(String, Map, String)} for the same call
+ * path that {@link NamedAlleleMatcher#call(VcfFile, String)} takes for the benchmark sample, so this only measures the
+ * final match.  DPYD and RYR1 are unphased in the benchmark sample, so they always go straight to combinations and
+ * {@code findCombinations} makes no difference.
+ *
+ * @author Mark Woon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiplotypeMatcherBenchmark {
+  @Param({"CYP2C19", "DPYD", "RYR1", "UGT1A1"})
+  public String gene;
+  @Param({"false", "true"})
+  public boolean findCombinations;
+  private Supplier<SortedSet<DiplotypeMatch>> m_match;
+
+
+  @Setup
+  public void setup() throws Exception {
+    Env env = new Env();
+    NamedAlleleMatcher namedAlleleMatcher = new NamedAlleleMatcher(env, env.getDefinitionReader(), findCombinations,
+        false, false);
+    VcfReader vcfReader = new VcfFile(BenchmarkFixtures.buildGeneVcf(gene), true)
+        .getReader(env.getDefinitionReader(), null, findCombinations);
+    String sampleId = vcfReader.getSampleId();
+    Map<String, SampleAllele> alleleMap = vcfReader.getAlleleMap(sampleId);
+    m_match = namedAlleleMatcher.prepareDiplotypeMatch(sampleId, alleleMap, gene);
+  }
+
+
+  @Benchmark
+  public SortedSet<DiplotypeMatch> compute() {
+    return m_match.get();
+  }
+}
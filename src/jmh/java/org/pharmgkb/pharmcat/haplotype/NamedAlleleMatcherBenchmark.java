@@ -0,0 +1,62 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pharmgkb.pharmcat.BenchmarkFixtures;
+import org.pharmgkb.pharmcat.Env;
+import org.pharmgkb.pharmcat.VcfFile;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.haplotype.model.Result;
+import org.pharmgkb.pharmcat.util.DataManager;
+
+
+/**
+ * Benchmarks {@link NamedAlleleMatcher#call(VcfFile, String)} for a single gene.
+ * <p>
+ * Each gene gets its own {@link DefinitionReader} and VCF, so only that gene is called.  The VCF is read into memory
+ * up front.
+ *
+ * @author Mark Woon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NamedAlleleMatcherBenchmark {
+  @Param({"CYP2C19", "DPYD", "RYR1", "UGT1A1"})
+  public String gene;
+  @Param({"false", "true"})
+  public boolean findCombinations;
+  private NamedAlleleMatcher m_matcher;
+  private VcfFile m_vcfFile;
+
+
+  @Setup
+  public void setup() throws Exception {
+    Path definitionFile = DataManager.DEFAULT_DEFINITION_DIR.resolve(gene + "_translation.json");
+    DefinitionReader definitionReader = new DefinitionReader(List.of(definitionFile),
+        DataManager.DEFAULT_EXEMPTIONS_FILE);
+    m_matcher = new NamedAlleleMatcher(new Env(), definitionReader, findCombinations, false, false);
+    m_vcfFile = new VcfFile(BenchmarkFixtures.buildGeneVcf(gene), true);
+  }
+
+
+  @Benchmark
+  public Result call() throws Exception {
+    return m_matcher.call(m_vcfFile, null);
+  }
+}
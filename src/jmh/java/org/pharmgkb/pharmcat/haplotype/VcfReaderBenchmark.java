@@ -0,0 +1,57 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pharmgkb.pharmcat.BenchmarkFixtures;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+
+
+/**
+ * Benchmarks parsing a single sample VCF with {@link VcfReader}.
+ * <p>
+ * The VCF is read into memory first, so this measures filtering and parsing rather than disk I/O.
+ *
+ * @author Mark Woon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VcfReaderBenchmark {
+  @Param({"false", "true"})
+  public boolean findCombinations;
+  private DefinitionReader m_definitionReader;
+  private byte[] m_vcf;
+
+
+  @Setup
+  public void setup() throws Exception {
+    m_definitionReader = DefinitionReader.defaultReader();
+    m_vcf = Files.readAllBytes(BenchmarkFixtures.buildSampleVcf("VcfReaderBenchmark"));
+  }
+
+
+  @Benchmark
+  public Map<String, SampleAllele> read() throws Exception {
+    try (BufferedReader reader = VcfReader.filterVcfData(new ByteArrayInputStream(m_vcf), m_definitionReader)) {
+      return new VcfReader(m_definitionReader, reader, (String)null, findCombinations)
+          .getAlleleMap();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package org.pharmgkb.pharmcat.reporter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pharmgkb.pharmcat.BenchmarkFixtures;
+import org.pharmgkb.pharmcat.Env;
+import org.pharmgkb.pharmcat.VcfFile;
+import org.pharmgkb.pharmcat.haplotype.NamedAlleleMatcher;
+import org.pharmgkb.pharmcat.haplotype.model.Result;
+import org.pharmgkb.pharmcat.phenotype.Phenotyper;
+import org.pharmgkb.pharmcat.reporter.format.HtmlFormat;
+import org.pharmgkb.pharmcat.reporter.format.JsonFormat;
+
+
+/**
+ * Benchmarks the phenotyper and reporter for a single sample that has data for every gene: {@link Phenotyper}
+ * construction, {@link ReportContext} construction, and rendering with {@link HtmlFormat} and {@link JsonFormat}.
+ *
+ * @author Mark Woon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReporterBenchmark {
+  private Env m_env;
+  private Result m_matcherResult;
+  private ReportContext m_reportContext;
+  private Path m_outputDir;
+
+
+  @Setup
+  public void setup() throws Exception {
+    m_env = new Env();
+    VcfFile vcfFile = new VcfFile(BenchmarkFixtures.buildSampleVcf("ReporterBenchmark"), true);
+    m_matcherResult = new NamedAlleleMatcher(m_env, m_env.getDefinitionReader())
+        .call(vcfFile, null);
+    m_reportContext = new ReportContext(m_env, newPhenotyper().getGeneReports(), "Benchmark");
+    m_outputDir = Files.createTempDirectory("pharmcat-benchmark");
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(m_outputDir.toFile());
+  }
+
+  private Phenotyper newPhenotyper() {
+    return new Phenotyper(m_env, m_matcherResult.getGeneCalls(), Set.of(), m_matcherResult.getVcfWarnings());
+  }
+
+
+  @Benchmark
+  public Phenotyper phenotyper() {
+    return newPhenotyper();
+  }
+
+  @Benchmark
+  public ReportContext reportContext(FreshPhenotyper fresh) throws Exception {
+    return new ReportContext(m_env, fresh.phenotyper.getGeneReports(), "Benchmark");
+  }
+
+  @Benchmark
+  public Path html() throws Exception {
+    Path file = m_outputDir.resolve("report.html");
+    new HtmlFormat(file, m_env, true)
+        .write(m_reportContext);
+    return file;
+  }
+
+  @Benchmark
+  public Path json(JsonOptions options) throws Exception {
+    Path file = m_outputDir.resolve("report.json");
+    new JsonFormat(file, m_env)
+        .compact(options.compact)
+        .write(m_reportContext);
+    return file;
+  }
+
+
+  /**
+   * {@link ReportContext} adds messages and related drugs to the {@link Phenotyper}'s gene reports, so each
+   * invocation gets its own.
+   */
+  @State(Scope.Thread)
+  public static class FreshPhenotyper {
+    Phenotyper phenotyper;
+
+    @Setup(Level.Invocation)
+    public void setup(ReporterBenchmark benchmark) {
+      phenotyper = benchmark.newPhenotyper();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class JsonOptions {
+    @Param({"false", "true"})
+    public boolean compact;
+  }
+}
@@ -0,0 +1,274 @@
+package org.pharmgkb.pharmcat;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.concurrent.Callable;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * This class decides how many tasks can run concurrently in batch mode without exceeding a heap ceiling.
+ * <p>
+ * The first few tasks run with low concurrency while the heap retained by each task is measured.  Whenever a GC has
+ * happened while tasks were running, the heap still in use after that GC (less the baseline heap usage from before
+ * any tasks were run) is divided by the number of tasks in flight.  After that, concurrency is set to the number of
+ * tasks that fit between the baseline heap usage and the ceiling, capped at the maximum number of processes.
+ * Admission is paused and concurrency is lowered whenever the heap after GC is over the ceiling or too much time is
+ * being spent in GC.
+ * <p>
+ * Apart from {@link #track(Callable)}, this class is meant to be used by a single thread.
+ *
+ * @author Mark Woon
+ */
+class AdmissionController {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  public static final double DEFAULT_HEAP_CEILING = 0.8;
+  /** Number of tasks to measure before adjusting concurrency. */
+  private static final int sf_warmupTasks = 2;
+  /** Weight of the newest measurement in the moving average of heap used per task. */
+  private static final double sf_smoothing = 0.2;
+  /** Maximum fraction of time spent in GC before admission is paused. */
+  private static final double sf_maxGcTimeFraction = 0.25;
+  private final int m_maxConcurrency;
+  private final long m_heapCeiling;
+  private final HeapMonitor m_heapMonitor;
+  private final long m_baseline;
+  private int m_concurrency;
+  private int m_numCompleted;
+  private double m_bytesPerTask;
+  private int m_inFlight;
+  private long m_lastMeasuredGcCount;
+  private boolean m_paused;
+  private long m_lastGcTime;
+  private long m_lastCheck;
+
+
+  /**
+   * Constructor.
+   *
+   * @param maxConcurrency the maximum number of tasks to run concurrently
+   * @param heapCeiling the maximum fraction of the max heap size to use
+   */
+  AdmissionController(int maxConcurrency, double heapCeiling) {
+    this(maxConcurrency, heapCeiling, Runtime.getRuntime().maxMemory(), new JmxHeapMonitor());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxConcurrency the maximum number of tasks to run concurrently
+   * @param heapCeiling the maximum fraction of {@code maxHeap} to use
+   * @param maxHeap the max heap size, in bytes
+   * @param heapMonitor source of heap and GC statistics
+   */
+  AdmissionController(int maxConcurrency, double heapCeiling, long maxHeap, HeapMonitor heapMonitor) {
+    Preconditions.checkArgument(maxConcurrency > 0, "Max concurrency must be greater than 0");
+    Preconditions.checkArgument(heapCeiling > 0 && heapCeiling <= 1, "Heap ceiling must be between 0 and 1");
+    m_maxConcurrency = maxConcurrency;
+    m_heapCeiling = (long)(maxHeap * heapCeiling);
+    m_heapMonitor = heapMonitor;
+    m_baseline = heapMonitor.getHeapUsedAfterGc();
+    m_lastMeasuredGcCount = heapMonitor.getGcCount();
+    m_concurrency = Math.min(maxConcurrency, sf_warmupTasks);
+    m_lastGcTime = heapMonitor.getGcTime();
+    m_lastCheck = System.nanoTime();
+  }
+
+
+  /**
+   * Gets the number of tasks currently allowed to run concurrently.
+   */
+  int getConcurrency() {
+    return m_concurrency;
+  }
+
+  /**
+   * Gets the estimated heap retained per task, or 0 if it hasn't been measured yet.
+   */
+  synchronized long getBytesPerTask() {
+    return (long)m_bytesPerTask;
+  }
+
+  boolean isPaused() {
+    return m_paused;
+  }
+
+  /**
+   * Checks if another task can be started.  This is always true if nothing is running.
+   *
+   * @param running the number of tasks that have been started but have not been completed
+   */
+  boolean canAdmit(int running) {
+    if (running == 0) {
+      return true;
+    }
+    return !m_paused && running < m_concurrency;
+  }
+
+
+  /**
+   * Wraps {@code task} so that it is counted as in flight while it runs, and the heap retained by tasks is measured
+   * when it is done.
+   */
+  <T> Callable<T> track(Callable<T> task) {
+    return () -> {
+      synchronized (this) {
+        m_inFlight += 1;
+      }
+      try {
+        return task.call();
+      } finally {
+        synchronized (this) {
+          measureUsage();
+          m_inFlight -= 1;
+        }
+      }
+    };
+  }
+
+  /**
+   * Updates the estimated heap retained per task if there has been a GC since the last measurement.
+   * Must be called while holding the lock on this object.
+   */
+  private void measureUsage() {
+    long gcCount = m_heapMonitor.getGcCount();
+    if (gcCount == m_lastMeasuredGcCount || m_inFlight == 0) {
+      // heap used after GC hasn't changed
+      return;
+    }
+    m_lastMeasuredGcCount = gcCount;
+    double bytes = (double)Math.max(0, m_heapMonitor.getHeapUsedAfterGc() - m_baseline) / m_inFlight;
+    if (m_bytesPerTask == 0) {
+      m_bytesPerTask = bytes;
+    } else {
+      m_bytesPerTask = (sf_smoothing * bytes) + ((1 - sf_smoothing) * m_bytesPerTask);
+    }
+  }
+
+
+  /**
+   * Updates concurrency after a task has completed.
+   */
+  void taskCompleted() {
+    m_numCompleted += 1;
+
+    long now = System.nanoTime();
+    long gcTime = m_heapMonitor.getGcTime();
+    double gcFraction = 0;
+    long elapsedMs = (now - m_lastCheck) / 1_000_000;
+    if (elapsedMs > 0) {
+      gcFraction = (double)(gcTime - m_lastGcTime) / elapsedMs;
+      m_lastGcTime = gcTime;
+      m_lastCheck = now;
+    }
+
+    int oldConcurrency = m_concurrency;
+    boolean overCeiling = m_heapMonitor.getHeapUsedAfterGc() > m_heapCeiling;
+    if (overCeiling || gcFraction > sf_maxGcTimeFraction) {
+      m_paused = true;
+      m_concurrency = Math.max(1, m_concurrency - 1);
+    } else {
+      m_paused = false;
+      if (m_numCompleted >= sf_warmupTasks) {
+        m_concurrency = calculateConcurrency();
+      }
+    }
+    if (oldConcurrency != m_concurrency || m_paused) {
+      sf_logger.debug("Concurrency {} -> {} (paused: {}, over ceiling: {}, GC time: {}%, bytes per task: {})",
+          oldConcurrency, m_concurrency, m_paused, overCeiling, Math.round(gcFraction * 100), getBytesPerTask());
+    }
+  }
+
+  /**
+   * Calculates the number of tasks that fit under the heap ceiling.
+   */
+  private int calculateConcurrency() {
+    double bytesPerTask;
+    synchronized (this) {
+      bytesPerTask = m_bytesPerTask;
+    }
+    if (bytesPerTask <= 0) {
+      return m_maxConcurrency;
+    }
+    long available = m_heapCeiling - m_baseline;
+    int concurrency = (int)Math.min(m_maxConcurrency, available / bytesPerTask);
+    return Math.max(1, concurrency);
+  }
+
+
+  /**
+   * Source of heap and GC statistics.
+   */
+  interface HeapMonitor {
+
+    /**
+     * Gets heap usage as of the last GC.
+     */
+    long getHeapUsedAfterGc();
+
+    /**
+     * Gets the total number of GCs so far.
+     */
+    long getGcCount();
+
+    /**
+     * Gets the total time spent in GC so far, in milliseconds.
+     */
+    long getGcTime();
+  }
+
+
+  /**
+   * {@link HeapMonitor} backed by the platform MXBeans.
+   */
+  private static class JmxHeapMonitor implements HeapMonitor {
+    private final MemoryMXBean m_memoryBean = ManagementFactory.getMemoryMXBean();
+    private final List<GarbageCollectorMXBean> m_gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+    private final List<MemoryPoolMXBean> m_heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+        .filter(p -> p.getType() == MemoryType.HEAP && p.isCollectionUsageThresholdSupported())
+        .toList();
+
+    /**
+     * Gets heap usage as of the last GC, falling back to current heap usage if that is not available.
+     */
+    @Override
+    public long getHeapUsedAfterGc() {
+      long used = 0;
+      boolean hasData = false;
+      for (MemoryPoolMXBean pool : m_heapPools) {
+        MemoryUsage usage = pool.getCollectionUsage();
+        if (usage != null) {
+          used += usage.getUsed();
+          hasData = true;
+        }
+      }
+      return hasData ? used : m_memoryBean.getHeapMemoryUsage().getUsed();
+    }
+
+    @Override
+    public long getGcCount() {
+      long count = 0;
+      for (GarbageCollectorMXBean gcBean : m_gcBeans) {
+        count += Math.max(0, gcBean.getCollectionCount());
+      }
+      return count;
+    }
+
+    @Override
+    public long getGcTime() {
+      long time = 0;
+      for (GarbageCollectorMXBean gcBean : m_gcBeans) {
+        time += Math.max(0, gcBean.getCollectionTime());
+      }
+      return time;
+    }
+  }
+}
@@ -2,6 +2,7 @@
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -13,9 +14,13 @@
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import com.google.common.base.Splitter;
+import com.google.common.hash.Hashing;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pharmgkb.common.util.CliHelper;
+import org.pharmgkb.pharmcat.reporter.format.CallsOnlyFormat;
+import org.pharmgkb.pharmcat.reporter.format.CohortCallsOnlyWriter;
 import org.pharmgkb.pharmcat.reporter.model.DataSource;
 import org.pharmgkb.pharmcat.reporter.model.PrescribingGuidanceSource;
 
@@ -34,6 +39,10 @@ public class BaseConfig {
   public static final Pattern OUTSIDE_SUFFIX_PATTERN = Pattern.compile("^(.+)\\.outside\\d*$");
   public static final Pattern OUTSIDE_FILENAME_PATTERN = Pattern.compile("^(.+)\\.outside\\d*\\.tsv$");
   public static final Pattern OUTSIDE_EXTENSION_PATTERN = Pattern.compile("^\\.outside\\d*\\.tsv$");
+  /** Pattern for shard specification (e.g. "2/10"). */
+  private static final Pattern sf_shardPattern = Pattern.compile("^\\s*(\\d+)\\s*/\\s*(\\d+)\\s*$");
+  /** Pattern for cohort calls-only filename (e.g. "calls.tsv.gz"), split into base name and extension. */
+  private static final Pattern sf_cohortFilenamePattern = Pattern.compile("^([^/\\\\]+)(\\.tsv(?:\\.gz)?)$");
   private static final Splitter sf_commaSplitter = Splitter.on(",").trimResults().omitEmptyStrings();
   boolean runMatcher = true;
   Path definitionDir;
@@ -41,6 +50,8 @@ public class BaseConfig {
   boolean findCombinations;
   boolean callCyp2d6;
   boolean matcherHtml;
+  /** Match sample alleles to allele definitions with bit vectors instead of regular expressions. */
+  boolean matcherBitVectors;
   boolean runPhenotyper = true;
   boolean runReporter = true;
   String reporterTitle;
@@ -49,11 +60,20 @@ public class BaseConfig {
   boolean reporterJson;
   boolean reporterHtml = true;
   boolean reporterCallsOnlyTsv = false;
+  /** Name of file to write calls for all samples to, instead of one calls-only file per sample. */
+  String reporterCohortCallsOnlyFilename;
   Path outputDir;
   String baseFilename;
   boolean deleteIntermediateFiles;
+  /** Write JSON without pretty printing. */
+  boolean compactJson;
+  /** Gzip JSON and HTML output files. */
+  boolean gzipOutput;
   boolean verbose;
   SortedSet<String> samples = new TreeSet<>();
+  /** 1-based index of the shard to process. */
+  int shardIndex = 1;
+  int numShards = 1;
 
 
   BaseConfig(CliHelper cliHelper) throws IOException, ReportableException {
@@ -95,9 +115,27 @@ public class BaseConfig {
       }
     }
 
+    if (cliHelper.hasOption("shard")) {
+      String shard = Objects.requireNonNull(cliHelper.getValue("shard"));
+      Matcher m = sf_shardPattern.matcher(shard);
+      if (!m.matches()) {
+        throw new ReportableException("Invalid shard '" + shard + "' (expecting i/N, e.g. 1/4)");
+      }
+      try {
+        shardIndex = Integer.parseInt(m.group(1));
+        numShards = Integer.parseInt(m.group(2));
+      } catch (NumberFormatException ex) {
+        throw new ReportableException("Invalid shard '" + shard + "' (expecting i/N, e.g. 1/4)");
+      }
+      if (numShards < 1 || shardIndex < 1 || shardIndex > numShards) {
+        throw new ReportableException("Invalid shard '" + shard + "' (i must be between 1 and N)");
+      }
+    }
+
     boolean researchMode = false;
     if (runMatcher) {
       topCandidateOnly = !cliHelper.hasOption("ma");
+      matcherBitVectors = cliHelper.hasOption("mbv");
 
       if (cliHelper.hasOption("research")) {
         List<String> types = sf_commaSplitter.splitToStream(Objects.requireNonNull(cliHelper.getValue("research")))
@@ -128,6 +166,13 @@ public class BaseConfig {
       reporterCompact = !cliHelper.hasOption("re");
       reporterJson = cliHelper.hasOption("reporterJson");
       reporterCallsOnlyTsv = cliHelper.hasOption("reporterCallsOnly");
+      if (cliHelper.hasOption("cohortCallsOnly")) {
+        reporterCohortCallsOnlyFilename = Objects.requireNonNull(cliHelper.getValue("cohortCallsOnly"));
+        if (!sf_cohortFilenamePattern.matcher(reporterCohortCallsOnlyFilename).matches()) {
+          throw new ReportableException("Cohort calls-only filename must end with .tsv or .tsv.gz");
+        }
+        reporterCallsOnlyTsv = true;
+      }
 
       if (researchMode) {
         System.out.println("WARNING: FULL REPORTER OUTPUT NOT AVAILABLE IN RESEARCH MODE");
@@ -170,6 +215,8 @@ public class BaseConfig {
     }
     baseFilename = cliHelper.getValue("bf");
     deleteIntermediateFiles = cliHelper.hasOption("del");
+    compactJson = cliHelper.hasOption("cj");
+    gzipOutput = cliHelper.hasOption("gz");
     verbose = cliHelper.isVerbose();
   }
 
@@ -181,8 +228,87 @@ public boolean runSample(String sample) {
     return samples.contains(sample);
   }
 
+  /**
+   * Checks if the task identified by {@code key} belongs to the shard being processed.
+   * <p>
+   * Keys are assigned to shards by hash, so every node given the same inputs agrees on the partition regardless of
+   * the order in which it finds files or samples.
+   */
+  public boolean inShard(String key) {
+    if (numShards == 1) {
+      return true;
+    }
+    int hash = Hashing.murmur3_32_fixed().hashString(key, StandardCharsets.UTF_8).asInt();
+    return Math.floorMod(hash, numShards) == shardIndex - 1;
+  }
+
+  public boolean isSharded() {
+    return numShards > 1;
+  }
+
+  /**
+   * Gets the tag to add to the names of output files that are written once per shard (e.g. ".shard-2-of-10"), or an
+   * empty string if not sharding.
+   */
+  public String getShardTag() {
+    if (numShards == 1) {
+      return "";
+    }
+    return ".shard-" + shardIndex + "-of-" + numShards;
+  }
+
+  /**
+   * Gets the file to write calls for all samples to, with the shard tag (if any) added.
+   *
+   * @param defaultDir the directory to use if no output directory has been specified
+   * @return the file, or null if calls are not being written to a cohort file
+   */
+  public @Nullable Path getCohortCallsOnlyFile(Path defaultDir) {
+    if (reporterCohortCallsOnlyFilename == null) {
+      return null;
+    }
+    Matcher m = sf_cohortFilenamePattern.matcher(reporterCohortCallsOnlyFilename);
+    if (!m.matches()) {
+      throw new IllegalStateException("Invalid cohort filename: " + reporterCohortCallsOnlyFilename);
+    }
+    return (outputDir != null ? outputDir : defaultDir).resolve(m.group(1) + getShardTag() + m.group(2));
+  }
+
+  /**
+   * Opens a writer for the calls for all samples.
+   *
+   * @param file the file from {@link #getCohortCallsOnlyFile(Path)}
+   * @return the writer, or null if {@code file} is null
+   */
+  public @Nullable CohortCallsOnlyWriter openCohortCallsOnlyWriter(Env env, @Nullable Path file) throws IOException {
+    if (file == null) {
+      return null;
+    }
+    CallsOnlyFormat format = new CallsOnlyFormat(file, env);
+    if (!topCandidateOnly) {
+      format.showMatchScores();
+    }
+    return new CohortCallsOnlyWriter(file, format, 1);
+  }
+
+  /**
+   * Gets the key used to assign a sample in a VCF file to a shard.
+   */
+  public static String getShardKey(String baseFilename, @Nullable String sampleId) {
+    if (sampleId == null) {
+      return baseFilename;
+    }
+    return baseFilename + ":" + sampleId;
+  }
+
+
   public static String getBaseFilename(Path inputFile) {
-    String filename = FilenameUtils.getBaseName(inputFile.getFileName().toString());
+    String filename = inputFile.getFileName().toString();
+    if (filename.endsWith(".json.gz")) {
+      // gzipped output from a previous step
+      filename = filename.substring(0, filename.length() - 3);
+    }
+    filename = FilenameUtils.getBaseName(filename);
     if (filename.endsWith(".vcf")) {
       // because .vcf might come in as .vcf.bgz or .vcf.gz
       filename = FilenameUtils.getBaseName(filename);
@@ -0,0 +1,192 @@
+package org.pharmgkb.pharmcat;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * This is an append-only record of the tasks completed by {@link BatchPharmCAT}, used to resume interrupted batch runs.
+ * <p>
+ * Each line contains a task key, a fingerprint of the task's inputs and settings, and the path and size of every
+ * output file.  If a task is recorded more than once, the last entry wins.  A task is considered complete if it has
+ * an entry with the same fingerprint and all of its output files still exist with the same size, so outputs never need
+ * to be re-read.
+ *
+ * @author Mark Woon
+ */
+public class BatchManifest implements Closeable {
+  public static final String FILENAME = "pharmcat.manifest.tsv";
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private static final String sf_header = "#key\tfingerprint\toutput files (path, size)";
+  private static final Pattern sf_tabPattern = Pattern.compile("\t");
+  private final Path m_file;
+  private final Map<String, Entry> m_entries = new HashMap<>();
+  private BufferedWriter m_writer;
+
+
+  /**
+   * Constructor.  Reads in existing entries if {@code file} exists.
+   */
+  public BatchManifest(Path file) throws IOException {
+    m_file = file;
+    if (Files.exists(file)) {
+      try (BufferedReader reader = Files.newBufferedReader(file)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.isBlank() || line.startsWith("#")) {
+            continue;
+          }
+          parseLine(line);
+        }
+      }
+    }
+  }
+
+  private void parseLine(String line) {
+    String[] data = sf_tabPattern.split(line, -1);
+    if (data.length < 2 || data.length % 2 != 0) {
+      // probably a partial line from an interrupted run
+      sf_logger.debug("Ignoring malformed manifest line: {}", line);
+      return;
+    }
+    Map<String, Long> outputs = new LinkedHashMap<>();
+    for (int x = 2; x < data.length; x += 2) {
+      try {
+        outputs.put(data[x], Long.parseLong(data[x + 1]));
+      } catch (NumberFormatException ex) {
+        sf_logger.debug("Ignoring malformed manifest line: {}", line);
+        return;
+      }
+    }
+    m_entries.put(data[0], new Entry(data[1], outputs));
+  }
+
+
+  /**
+   * Gets the name of the manifest file for a shard.
+   *
+   * @param shardTag the shard tag from {@link BaseConfig#getShardTag()}
+   */
+  public static String getFilename(String shardTag) {
+    if (shardTag.isEmpty()) {
+      return FILENAME;
+    }
+    return FILENAME.replace(".manifest", shardTag + ".manifest");
+  }
+
+
+  public Path getFile() {
+    return m_file;
+  }
+
+  /**
+   * Gets the number of tasks in the manifest.
+   */
+  public int size() {
+    return m_entries.size();
+  }
+
+
+  /**
+   * Checks if the task identified by {@code key} has been completed with the same inputs and settings, and all of its
+   * outputs are still there.
+   */
+  public boolean isComplete(String key, String fingerprint) {
+    Entry entry = m_entries.get(key);
+    if (entry == null || !entry.fingerprint().equals(fingerprint)) {
+      return false;
+    }
+    try {
+      for (Map.Entry<String, Long> output : entry.outputs().entrySet()) {
+        Path file = Path.of(output.getKey());
+        if (!Files.isRegularFile(file) || Files.size(file) != output.getValue()) {
+          return false;
+        }
+      }
+    } catch (IOException | RuntimeException ex) {
+      sf_logger.debug("Cannot check outputs for " + key, ex);
+      return false;
+    }
+    return true;
+  }
+
+
+  /**
+   * Records that a task has been completed.
+   */
+  public void record(String key, String fingerprint, Collection<Path> outputFiles) throws IOException {
+    Map<String, Long> outputs = new LinkedHashMap<>();
+    StringBuilder builder = new StringBuilder()
+        .append(key)
+        .append("\t")
+        .append(fingerprint);
+    for (Path file : outputFiles) {
+      String path = file.toAbsolutePath().toString();
+      long size = Files.size(file);
+      outputs.put(path, size);
+      builder.append("\t")
+          .append(path)
+          .append("\t")
+          .append(size);
+    }
+    BufferedWriter writer = getWriter();
+    writer.write(builder.toString());
+    writer.newLine();
+    writer.flush();
+    m_entries.put(key, new Entry(fingerprint, outputs));
+  }
+
+  private BufferedWriter getWriter() throws IOException {
+    if (m_writer == null) {
+      boolean isNew = !Files.exists(m_file) || Files.size(m_file) == 0;
+      boolean needsNewline = !isNew && !endsWithNewline();
+      m_writer = Files.newBufferedWriter(m_file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      if (isNew) {
+        m_writer.write(sf_header);
+        m_writer.newLine();
+      } else if (needsNewline) {
+        // terminate partial line from an interrupted run
+        m_writer.newLine();
+      }
+    }
+    return m_writer;
+  }
+
+  private boolean endsWithNewline() throws IOException {
+    try (SeekableByteChannel channel = Files.newByteChannel(m_file)) {
+      channel.position(channel.size() - 1);
+      ByteBuffer buffer = ByteBuffer.allocate(1);
+      channel.read(buffer);
+      byte last = buffer.get(0);
+      return last == '\n' || last == '\r';
+    }
+  }
+
+
+  @Override
+  public void close() throws IOException {
+    if (m_writer != null) {
+      m_writer.close();
+      m_writer = null;
+    }
+  }
+
+
+  private record Entry(String fingerprint, Map<String, Long> outputs) {
+  }
+}
@@ -3,26 +3,38 @@
 import java.io.File;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
+import com.google.common.hash.Hashing;
 import org.apache.commons.io.FileUtils;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pharmgkb.common.util.AnsiConsole;
 import org.pharmgkb.common.util.CliHelper;
 import org.pharmgkb.common.util.TimeUtils;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.reporter.format.CohortCallsOnlyWriter;
 import org.pharmgkb.pharmcat.util.CliUtils;
 
 /**
@@ -35,6 +47,10 @@ public class BatchPharmCAT {
   private static final long sf_bytesPerProcess = (1024 / sf_procsPerGb) * 1024 * 1024;
   private final BaseConfig m_config;
   private final boolean m_verbose;
+  private final boolean m_resume;
+  private final Path m_manifestFile;
+  private final @Nullable Path m_workQueueDir;
+  private final @Nullable Path m_cohortCallsOnlyFile;
   private final Map<String, VcfFile> m_vcfFilesToProcess = new TreeMap<>();
   private final Map<String, Path> m_matchFilesToProcess = new TreeMap<>();
   private final Map<String, List<Path>> m_outsideCallFilesToProcess = new TreeMap<>();
@@ -55,6 +71,7 @@ public static void main(String[] args) {
           .addOption("vcf", "matcher-vcf", "Input VCF file for named allele matcher", false, "file")
           .addOption("mp", "matcher-preprocessed-only", "Only consider preprocessed VCFs")
           .addOption("ma", "matcher-all-results", "Return all possible diplotypes, not just top hits")
+          .addOption("mbv", "matcher-bit-vectors", "Match sample alleles to allele definitions with bit vectors instead of regular expressions")
           .addOption("matcherHtml", "matcher-save-html", "Save named allele matcher results as HTML")
 
           // phenotyper args
@@ -66,13 +83,20 @@ public static void main(String[] args) {
           .addOption("re", "reporter-extended", "Write an extended report (includes all possible genes and drugs, even if no data is available)")
           .addOption("reporterJson", "reporter-save-json", "Save reporter results as JSON")
           .addOption("reporterCallsOnly", "reporter-save-calls-only", "Save calls only as TSV")
+          .addOption("cohortCallsOnly", "reporter-save-cohort-calls-only", "Save calls only for all samples to a single TSV file with this name, instead of one per sample (gzipped if name ends with .gz)", false, "filename")
 
           // outputs
           .addOption("o", "output-dir", "Directory to output to (optional, default is input file directory)", false, "directory")
           .addOption("bf", "base-filename", "The base name (without file extensions) used for output files, will default to base filename of input if not specified", false, "name")
           .addOption("del", "delete-intermediate-files", "Delete intermediate PharmCAT files")
+          .addOption("cj", "compact-json", "Write JSON output without pretty printing")
+          .addOption("gz", "gzip-output", "Gzip JSON and HTML output files")
           // controls
           .addOption("cp", "max-concurrent-processes", "Maximum number of processes to use", false, "num")
+          .addOption("shard", "shard", "Only process shard i of N (e.g. 2/10), so that N nodes can split up the same inputs", false, "i/N")
+          .addOption("wq", "work-queue", "Share work with other BatchPharmCAT processes using the same output directory (e.g. on other hosts)")
+          .addOption("resume", "resume", "Skip samples completed by a previous run (as recorded in " + BatchManifest.FILENAME + ")")
+          .addOption("mh", "max-heap-usage", "Maximum percentage of heap to use before reducing the number of concurrent processes (default: " + Math.round(AdmissionController.DEFAULT_HEAP_CEILING * 100) + ")", false, "percent")
           .addOption("def", "definitions-dir", "Directory containing named allele definitions (JSON files)", false, "dir")
           .addOption("research", "research-mode", "Comma-separated list of research features to enable: [cyp2d6, combinations]", false, "type");
       if (!cliHelper.parse(args)) {
@@ -103,6 +127,22 @@ public static void main(String[] args) {
       if (maxProcesses < 1) {
         maxProcesses = 1;
       }
+      double heapCeiling = AdmissionController.DEFAULT_HEAP_CEILING;
+      if (cliHelper.hasOption("mh")) {
+        try {
+          int mh = cliHelper.getIntValue("mh");
+          if (mh < 1 || mh > 100) {
+            System.out.println("Maximum heap usage must be between 1 and 100.");
+            PharmCAT.failIfNotTest();
+            return;
+          }
+          heapCeiling = mh / 100.0;
+        } catch (NumberFormatException ex) {
+          System.out.println("\"" + cliHelper.getValue("mh") + "\" is not an integer.");
+          PharmCAT.failIfNotTest();
+          return;
+        }
+      }
 
       Path inputDir = null;
       if (cliHelper.hasOption("i")) {
@@ -122,8 +162,8 @@ public static void main(String[] args) {
       }
 
       BatchPharmCAT pcat = new BatchPharmCAT(config, inputDir, vcfFile, cliHelper.hasOption("mp"),
-          cliHelper.isVerbose());
-      pcat.execute(maxProcesses);
+          cliHelper.hasOption("resume"), cliHelper.hasOption("wq"), cliHelper.isVerbose());
+      pcat.execute(maxProcesses, heapCeiling);
 
     } catch (CliHelper.InvalidPathException | ReportableException ex) {
       System.out.println(ex.getMessage());
@@ -137,9 +177,23 @@ public static void main(String[] args) {
 
 
   private BatchPharmCAT(BaseConfig config, Path inputDir, @Nullable Path vcfFile, boolean preprocessedVcfOnly,
-      boolean verbose) throws IOException, ReportableException {
+      boolean resume, boolean useWorkQueue, boolean verbose) throws IOException, ReportableException {
     m_config = config;
     m_verbose = verbose;
+    m_resume = resume;
+    Path outputDir = config.outputDir != null ? config.outputDir : inputDir;
+    m_manifestFile = outputDir.resolve(BatchManifest.getFilename(config.getShardTag()));
+    m_workQueueDir = useWorkQueue ? outputDir.resolve("pharmcat" + config.getShardTag() + ".queue") : null;
+    m_cohortCallsOnlyFile = config.getCohortCallsOnlyFile(inputDir);
+    if (m_cohortCallsOnlyFile != null) {
+      // samples run by other processes, or by a previous run, would be missing from the cohort file
+      if (useWorkQueue) {
+        throw new ReportableException("Cannot save cohort calls-only TSV when using a work queue (use -shard instead)");
+      }
+      if (resume) {
+        throw new ReportableException("Cannot save cohort calls-only TSV when resuming");
+      }
+    }
 
     for (File f : Objects.requireNonNull(inputDir.toFile().listFiles())) {
       Path file = f.toPath();
@@ -156,7 +210,8 @@ private BatchPharmCAT(BaseConfig config, Path inputDir, @Nullable Path vcfFile,
           }
           m_vcfFilesToProcess.put(basename, new VcfFile(file));
         }
-      } else if (name.endsWith(BaseConfig.MATCHER_SUFFIX + ".json")) {
+      } else if (name.endsWith(BaseConfig.MATCHER_SUFFIX + ".json") ||
+          name.endsWith(BaseConfig.MATCHER_SUFFIX + ".json.gz")) {
         if (config.runPhenotyper) {
           m_matchFilesToProcess.put(basename, file);
         }
@@ -164,7 +219,8 @@ private BatchPharmCAT(BaseConfig config, Path inputDir, @Nullable Path vcfFile,
         if (config.runPhenotyper) {
           m_outsideCallFilesToProcess.computeIfAbsent(basename, k -> new ArrayList<>()).add(file);
         }
-      } else if (name.endsWith(BaseConfig.PHENOTYPER_SUFFIX + ".json")) {
+      } else if (name.endsWith(BaseConfig.PHENOTYPER_SUFFIX + ".json") ||
+          name.endsWith(BaseConfig.PHENOTYPER_SUFFIX + ".json.gz")) {
         if (config.runReporter) {
           m_phenotypeFilesToProcess.put(basename, file);
         }
@@ -209,10 +265,10 @@ private BatchPharmCAT(BaseConfig config, Path inputDir, @Nullable Path vcfFile,
   }
 
 
-  private void execute(int maxProcesses) throws ExecutionException, InterruptedException, IOException,
+  private void execute(int maxProcesses, double heapCeiling) throws ExecutionException, InterruptedException, IOException,
       ReportableException {
 
-    List<Builder> taskBuilders = new ArrayList<>();
+    TaskQueue tasks = new TaskQueue();
     System.out.println("Checking files...");
     if (m_config.runMatcher) {
       System.out.println("* Found " + m_vcfFilesToProcess.size() + " VCF file" +
@@ -220,12 +276,7 @@ private void execute(int maxProcesses) throws ExecutionException, InterruptedExc
       for (String baseFilename : m_vcfFilesToProcess.keySet()) {
         VcfFile vcfFile = m_vcfFilesToProcess.get(baseFilename);
         if (vcfFile != null) {
-          boolean singleSample = vcfFile.getSamples().size() == 1;
-          for (String sampleId : vcfFile.getSamples()) {
-            if (m_config.runSample(sampleId)) {
-              taskBuilders.add(new Builder().fromMatcher(baseFilename, vcfFile, sampleId, singleSample));
-            }
-          }
+          tasks.addVcfFile(baseFilename, vcfFile);
         }
       }
     }
@@ -236,7 +287,7 @@ private void execute(int maxProcesses) throws ExecutionException, InterruptedExc
             (m_matchFilesToProcess.size() > 1 ? "s" : ""));
         for (String baseFilename : new ArrayList<>(m_matchFilesToProcess.keySet())) {
           if (m_config.runSample(baseFilename)) {
-            taskBuilders.add(new Builder().fromPhenotyper(baseFilename));
+            tasks.add(new Builder().fromPhenotyper(baseFilename));
           }
         }
       }
@@ -245,7 +296,7 @@ private void execute(int maxProcesses) throws ExecutionException, InterruptedExc
             (m_outsideCallFilesToProcess.size() > 1 ? "s" : ""));
         for (String baseFilename : new ArrayList<>(m_outsideCallFilesToProcess.keySet())) {
           if (m_config.runSample(baseFilename)) {
-            taskBuilders.add(new Builder().fromPhenotyper(baseFilename));
+            tasks.add(new Builder().fromPhenotyper(baseFilename));
           }
         }
       }
@@ -257,24 +308,46 @@ private void execute(int maxProcesses) throws ExecutionException, InterruptedExc
             (m_phenotypeFilesToProcess.size() > 1 ? "s" : ""));
         for (String baseFilename : new ArrayList<>(m_phenotypeFilesToProcess.keySet())) {
           if (m_config.runSample(baseFilename)) {
-            taskBuilders.add(new Builder().fromReporter(baseFilename));
+            tasks.add(new Builder().fromReporter(baseFilename));
           }
         }
       }
     }
 
-    if (taskBuilders.size() > 1) {
+    if (m_config.isSharded()) {
+      int numTasks = tasks.size();
+      tasks.removeIf(b -> !m_config.inShard(b.getManifestKey()));
+      System.out.println("* Shard " + m_config.shardIndex + " of " + m_config.numShards + " has " +
+          tasks.size() + " of " + numTasks + " sample" + (numTasks == 1 ? "" : "s"));
+      if (tasks.isEmpty()) {
+        System.out.println();
+        System.out.println("Nothing to do for this shard.");
+        return;
+      }
+    }
+
+    BatchManifest manifest = new BatchManifest(m_manifestFile);
+    String runFingerprint = getRunFingerprint();
+    if (m_resume && manifest.size() > 0) {
+      int numTasks = tasks.size();
+      tasks.removeIf(b -> b.isComplete(manifest, runFingerprint));
+      if (tasks.size() < numTasks) {
+        System.out.println("* Skipping " + (numTasks - tasks.size()) + " sample" +
+            (numTasks - tasks.size() > 1 ? "s" : "") + " completed by a previous run");
+      }
+      if (tasks.isEmpty()) {
+        manifest.close();
+        System.out.println();
+        System.out.println("Nothing left to do.");
+        return;
+      }
+    }
+
+    if (tasks.size() > 1) {
       System.out.println();
-      System.out.println("Queueing up " + taskBuilders.size() + " samples to process...");
+      System.out.println("Queueing up " + tasks.size() + " samples to process...");
     }
     Env env = new Env(m_config.definitionDir);
-    List<Pipeline> tasks = new ArrayList<>();
-    int taskIdx = 0;
-    for (Builder builder : taskBuilders) {
-      taskIdx += 1;
-      Pipeline pipeline = builder.build(env, taskIdx, taskBuilders.size());
-      tasks.add(pipeline);
-    }
 
     int processes = Math.min(tasks.size(), maxProcesses);
     if (processes > 1) {
@@ -298,27 +371,29 @@ private void execute(int maxProcesses) throws ExecutionException, InterruptedExc
         }
         System.out.println("Recommend boosting memory to PharmCAT to at least " + recMem + "B (using -Xmx" +
             recMem.replace(" ", "") + ")");
-        long recCp = Math.max(1, maxMem / sf_bytesPerProcess);
-        System.out.println("Or running with " + recCp + " process" + (recCp == 1L ? "" : "es") +
-            " max (using -cp " + recCp + ")");
+        System.out.println("Otherwise, the number of concurrent processes will be reduced if memory runs low.");
       }
     }
 
     Stopwatch stopwatch = Stopwatch.createStarted();
-    ExecutorService executor = Executors.newWorkStealingPool(processes);
-    List<Future<PipelineResult>> futures = executor.invokeAll(tasks);
-    executor.shutdown();
-
-    // must iterate through in case of errors
-    for (Future<PipelineResult> future : futures) {
-      PipelineResult rez = future.get();
-      if (rez.getStatus() == PipelineResult.Status.FAILURE) {
-        String msg = rez.getBasename();
-        if (rez.getSampleId() != null) {
-          msg = rez.getSampleId() + " in " + rez.getBasename();
-        }
-        System.out.println("FAILED " + msg + ".vcf.  See " + rez.getBasename() + ".ERROR.txt file for details.");
+    List<PipelineResult> failures;
+    WorkQueue workQueue = m_workQueueDir != null ? new WorkQueue(m_workQueueDir) : null;
+    if (workQueue != null) {
+      System.out.println("Sharing work via " + m_workQueueDir + " as " + workQueue.getWorkerId());
+    }
+    CohortCallsOnlyWriter cohortWriter = m_config.openCohortCallsOnlyWriter(env, m_cohortCallsOnlyFile);
+    try (manifest; workQueue; cohortWriter) {
+      failures = run(env, tasks, processes, heapCeiling, manifest, workQueue, cohortWriter, runFingerprint);
+    }
+    if (cohortWriter != null) {
+      System.out.println("Saved calls for all samples to " + m_cohortCallsOnlyFile);
+    }
+    for (PipelineResult rez : failures) {
+      String msg = rez.getBasename();
+      if (rez.getSampleId() != null) {
+        msg = rez.getSampleId() + " in " + rez.getBasename();
       }
+      System.out.println("FAILED " + msg + ".vcf.  See " + rez.getBasename() + ".ERROR.txt file for details.");
     }
 
     System.out.println();
@@ -329,6 +404,315 @@ private void execute(int maxProcesses) throws ExecutionException, InterruptedExc
   }
 
 
+  /**
+   * Runs tasks, building each {@link Pipeline} only when there is room for it.
+   * <p>
+   * The number of tasks running at any time is decided by an {@link AdmissionController} (up to {@code processes}),
+   * and results are consumed as soon as they complete, so memory use does not grow with the number of samples.
+   * Samples in multi-sample VCF files are preloaded {@code processes} at a time, just ahead of when they are run.
+   * If there is a {@link WorkQueue}, tasks that cannot be claimed are skipped and completed tasks are recorded in the
+   * work queue instead of the manifest.
+   * If there is a {@link CohortCallsOnlyWriter}, calls are written to it in the order in which tasks were started.
+   * <p>
+   * If a task throws an exception, no more tasks are started, but tasks that are already running are allowed to
+   * finish (and are recorded) before the exception is rethrown.
+   *
+   * @param tasks the tasks to run, which are removed from the queue as they are started
+   * @return results of tasks that failed
+   */
+  private List<PipelineResult> run(Env env, TaskQueue tasks, int processes, double heapCeiling,
+      BatchManifest manifest, @Nullable WorkQueue workQueue, @Nullable CohortCallsOnlyWriter cohortWriter,
+      String runFingerprint)
+      throws ExecutionException, InterruptedException, IOException, ReportableException {
+
+    AdmissionController admissionController = new AdmissionController(processes, heapCeiling);
+    int totalTasks = tasks.size();
+
+    List<PipelineResult> failures = new ArrayList<>();
+    ExecutionException error = null;
+    ExecutorService executor = Executors.newWorkStealingPool(processes);
+    try {
+      CompletionService<PipelineResult> completionService = new ExecutorCompletionService<>(executor);
+      Map<Future<PipelineResult>, ManifestTask> running = new HashMap<>();
+      int taskIdx = 0;
+      long numStarted = 0;
+      int numClaimedElsewhere = 0;
+      while (!running.isEmpty() || (error == null && !tasks.isEmpty())) {
+        while (error == null && !tasks.isEmpty() && admissionController.canAdmit(running.size())) {
+          taskIdx += 1;
+          // with a work queue, most samples will be run by other workers, so don't read them up front
+          if (workQueue == null) {
+            tasks.preloadNext(env.getDefinitionReader(), processes);
+          }
+          Builder builder = tasks.poll();
+          String key = builder.getManifestKey();
+          String fingerprint = builder.getFingerprint(runFingerprint);
+          if (workQueue != null && !workQueue.claim(key, fingerprint)) {
+            numClaimedElsewhere += 1;
+            continue;
+          }
+          Pipeline pipeline = builder.build(env, taskIdx, totalTasks);
+          numStarted += 1;
+          if (cohortWriter != null) {
+            pipeline.setCohortCallsOnlyWriter(cohortWriter, numStarted);
+          }
+          Future<PipelineResult> future = completionService.submit(admissionController.track(pipeline));
+          running.put(future, new ManifestTask(key, fingerprint, pipeline));
+        }
+        if (running.isEmpty()) {
+          break;
+        }
+        Future<PipelineResult> future = completionService.take();
+        ManifestTask task = running.remove(future);
+        admissionController.taskCompleted();
+        PipelineResult rez;
+        try {
+          rez = future.get();
+        } catch (ExecutionException ex) {
+          // don't interrupt other samples, just stop starting new ones
+          if (workQueue != null) {
+            workQueue.fail(task.key());
+          }
+          if (error == null) {
+            error = ex;
+          } else {
+            error.addSuppressed(ex.getCause());
+          }
+          continue;
+        }
+        if (rez.getStatus() == PipelineResult.Status.FAILURE) {
+          failures.add(rez);
+          if (workQueue != null) {
+            workQueue.fail(task.key());
+          }
+        } else if (workQueue != null) {
+          workQueue.complete(task.key(), task.fingerprint(), task.pipeline().getOutputFiles());
+        } else if (rez.getStatus() == PipelineResult.Status.SUCCESS) {
+          manifest.record(task.key(), task.fingerprint(), task.pipeline().getOutputFiles());
+        }
+      }
+      executor.shutdown();
+      if (numClaimedElsewhere > 0) {
+        System.out.println("* Skipped " + numClaimedElsewhere + " sample" + (numClaimedElsewhere > 1 ? "s" : "") +
+            " run by other workers");
+      }
+    } finally {
+      if (!executor.isShutdown()) {
+        executor.shutdownNow();
+      }
+    }
+    if (error != null) {
+      if (!tasks.isEmpty()) {
+        System.out.println("* Did not start " + tasks.size() + " sample" + (tasks.size() > 1 ? "s" : "") +
+            " because of an unexpected error");
+      }
+      throw error;
+    }
+    return failures;
+  }
+
+
+  /**
+   * Gets a fingerprint of the PharmCAT version, allele definitions and settings used for this run.
+   */
+  private String getRunFingerprint() throws IOException {
+    StringBuilder builder = new StringBuilder()
+        .append(CliUtils.getVersion())
+        .append("|").append(m_config.runMatcher)
+        .append("|").append(m_config.runPhenotyper)
+        .append("|").append(m_config.runReporter)
+        .append("|").append(m_config.topCandidateOnly)
+        .append("|").append(m_config.callCyp2d6)
+        .append("|").append(m_config.findCombinations)
+        .append("|").append(m_config.matcherHtml)
+        .append("|").append(m_config.reporterTitle)
+        .append("|").append(m_config.reporterCompact)
+        .append("|").append(m_config.reporterSources)
+        .append("|").append(m_config.reporterJson)
+        .append("|").append(m_config.reporterHtml)
+        .append("|").append(m_config.reporterCallsOnlyTsv)
+        .append("|").append(m_config.outputDir)
+        .append("|").append(m_config.baseFilename)
+        .append("|").append(m_config.deleteIntermediateFiles)
+        .append("|").append(m_config.compactJson)
+        .append("|").append(m_config.gzipOutput);
+    if (m_config.definitionDir != null) {
+      try (Stream<Path> files = Files.list(m_config.definitionDir)) {
+        for (Path file : files.sorted().toList()) {
+          builder.append("|").append(describeFile(file));
+        }
+      }
+    }
+    return builder.toString();
+  }
+
+  private static String describeFile(Path file) throws IOException {
+    return file.toAbsolutePath() + ":" + Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+  }
+
+
+  private record ManifestTask(String key, String fingerprint, Pipeline pipeline) {
+  }
+
+
+  /**
+   * Queue of tasks to run.
+   * <p>
+   * {@link Builder}s for samples in VCF files are only created as the samples are about to run, so that there are
+   * only ever as many of them as there are running tasks.  The exception is samples that have phenotyper or reporter
+   * input files of their own, since those need to be claimed before independent phenotyper and reporter tasks are
+   * queued up.
+   */
+  private class TaskQueue {
+    private final Deque<VcfSamples> m_vcfSamples = new ArrayDeque<>();
+    private final Deque<Builder> m_builders = new ArrayDeque<>();
+
+
+    void addVcfFile(String baseFilename, VcfFile vcfFile) throws IOException {
+      boolean singleSample = vcfFile.getSamples().size() == 1;
+      VcfSamples samples = new VcfSamples(baseFilename, vcfFile, singleSample);
+      for (String sampleId : vcfFile.getSamples()) {
+        if (m_config.runSample(sampleId)) {
+          samples.sampleIds.add(sampleId);
+          if (hasOwnInputFiles(baseFilename, sampleId, singleSample)) {
+            samples.builders.put(sampleId, new Builder().fromMatcher(baseFilename, vcfFile, sampleId, singleSample));
+          }
+        }
+      }
+      if (!samples.sampleIds.isEmpty()) {
+        m_vcfSamples.add(samples);
+      }
+    }
+
+    /**
+     * Checks if there are phenotyper or reporter input files that {@link Builder#fromMatcher} would pick up for the
+     * sample.
+     */
+    private boolean hasOwnInputFiles(String baseFilename, String sampleId, boolean singleSample) {
+      List<String> basenames = new ArrayList<>(List.of(sampleId, baseFilename + "." + sampleId));
+      if (singleSample) {
+        basenames.add(baseFilename);
+      }
+      for (String basename : basenames) {
+        if (m_matchFilesToProcess.containsKey(basename) || m_outsideCallFilesToProcess.containsKey(basename) ||
+            m_phenotypeFilesToProcess.containsKey(basename)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void add(Builder builder) {
+      m_builders.add(builder);
+    }
+
+
+    int size() {
+      int size = m_builders.size();
+      for (VcfSamples samples : m_vcfSamples) {
+        size += samples.sampleIds.size();
+      }
+      return size;
+    }
+
+    boolean isEmpty() {
+      return m_vcfSamples.isEmpty() && m_builders.isEmpty();
+    }
+
+    /**
+     * Removes tasks that match {@code filter}.  {@link Builder}s are created for samples in VCF files in order to
+     * test them, but are not kept.
+     */
+    void removeIf(Predicate<Builder> filter) {
+      for (Iterator<VcfSamples> it = m_vcfSamples.iterator(); it.hasNext(); ) {
+        VcfSamples samples = it.next();
+        samples.sampleIds.removeIf(sampleId -> {
+          if (filter.test(samples.getBuilder(sampleId))) {
+            samples.builders.remove(sampleId);
+            return true;
+          }
+          return false;
+        });
+        if (samples.sampleIds.isEmpty()) {
+          it.remove();
+        }
+      }
+      m_builders.removeIf(filter);
+    }
+
+    /**
+     * Removes the next task from the queue.
+     */
+    Builder poll() {
+      VcfSamples samples = m_vcfSamples.peek();
+      if (samples != null) {
+        String sampleId = samples.sampleIds.poll();
+        Builder builder = samples.getBuilder(sampleId);
+        samples.builders.remove(sampleId);
+        if (samples.sampleIds.isEmpty()) {
+          m_vcfSamples.poll();
+        }
+        return builder;
+      }
+      return Objects.requireNonNull(m_builders.poll());
+    }
+
+    /**
+     * If the next task is for a sample in a multi-sample VCF file that has not been preloaded, preloads it along with
+     * the samples that follow it from the same file, up to {@code numSamples}.
+     */
+    void preloadNext(DefinitionReader definitionReader, int numSamples) throws IOException {
+      VcfSamples samples = m_vcfSamples.peek();
+      if (samples == null || (samples.sampleIds.size() == 1 && !samples.preloaded)) {
+        return;
+      }
+      VcfFile vcfFile = samples.vcfFile;
+      if (vcfFile.getPreloadedSample(definitionReader, samples.sampleIds.peek(), m_config.findCombinations) != null) {
+        return;
+      }
+      List<String> sampleIds = samples.sampleIds.stream()
+          .limit(numSamples)
+          .toList();
+      if (m_verbose) {
+        System.out.println("Reading " + sampleIds.size() + " samples from " + vcfFile.getFile().getFileName());
+      }
+      vcfFile.preload(definitionReader, sampleIds, m_config.findCombinations);
+      samples.preloaded = true;
+      if (sampleIds.size() == samples.sampleIds.size()) {
+        // the rest of the file's samples have been read
+        vcfFile.releaseData();
+      }
+    }
+  }
+
+  /**
+   * Samples to run from a VCF file.
+   */
+  private class VcfSamples {
+    final String baseFilename;
+    final VcfFile vcfFile;
+    final boolean singleSample;
+    final Deque<String> sampleIds = new ArrayDeque<>();
+    /** {@link Builder}s that had to be created up front. */
+    final Map<String, Builder> builders = new HashMap<>();
+    boolean preloaded;
+
+    VcfSamples(String baseFilename, VcfFile vcfFile, boolean singleSample) {
+      this.baseFilename = baseFilename;
+      this.vcfFile = vcfFile;
+      this.singleSample = singleSample;
+    }
+
+    Builder getBuilder(String sampleId) {
+      Builder builder = builders.get(sampleId);
+      if (builder == null) {
+        builder = new Builder().fromMatcher(baseFilename, vcfFile, sampleId, singleSample);
+      }
+      return builder;
+    }
+  }
+
+
   public class Builder {
     private String m_baseFilename;
     private boolean m_runMatcher;
@@ -386,6 +770,43 @@ public Builder fromReporter(String baseFilename) {
     }
 
 
+    /**
+     * Gets the key used to identify this task in the {@link BatchManifest}.
+     */
+    String getManifestKey() {
+      return BaseConfig.getShardKey(m_baseFilename, m_sampleId);
+    }
+
+    /**
+     * Gets a fingerprint of this task's inputs and the settings used to run it.
+     */
+    String getFingerprint(String runFingerprint) throws IOException {
+      StringBuilder builder = new StringBuilder(runFingerprint)
+          .append("|").append(m_sampleId)
+          .append("|").append(m_singleSample);
+      for (Path file : new Path[] { m_vcfFile == null ? null : m_vcfFile.getFile(), m_piFile, m_riFile }) {
+        builder.append("|");
+        if (file != null) {
+          builder.append(describeFile(file));
+        }
+      }
+      if (m_poFile != null) {
+        for (Path file : m_poFile) {
+          builder.append("|").append(describeFile(file));
+        }
+      }
+      return Hashing.sha256().hashString(builder, StandardCharsets.UTF_8).toString();
+    }
+
+    boolean isComplete(BatchManifest manifest, String runFingerprint) {
+      try {
+        return manifest.isComplete(getManifestKey(), getFingerprint(runFingerprint));
+      } catch (IOException ex) {
+        return false;
+      }
+    }
+
+
     /**
      * Builds {@link Pipeline}.
      */
@@ -400,7 +821,9 @@ public Pipeline build(Env env, int index, int totalTasks) throws ReportableExcep
           m_config.reporterSources, m_config.reporterCompact,
           m_config.reporterJson, m_config.reporterHtml, m_config.reporterCallsOnlyTsv,
           m_config.outputDir, m_config.baseFilename, m_config.deleteIntermediateFiles,
-          mode, (index + "/" + totalTasks), m_verbose);
+          mode, (index + "/" + totalTasks), m_verbose)
+          .setOutputFormat(m_config.compactJson, m_config.gzipOutput)
+          .setMatcherBitVectors(m_config.matcherBitVectors);
     }
 
 
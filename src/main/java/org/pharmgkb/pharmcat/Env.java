@@ -2,11 +2,10 @@
 
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pharmgkb.pharmcat.definition.DefinitionReader;
 import org.pharmgkb.pharmcat.definition.model.DefinitionFile;
@@ -18,11 +17,15 @@
 import org.pharmgkb.pharmcat.reporter.model.DataSource;
 import org.pharmgkb.pharmcat.reporter.model.MessageAnnotation;
 import org.pharmgkb.pharmcat.reporter.model.PrescribingGuidanceSource;
+import org.pharmgkb.pharmcat.reporter.model.result.Diplotype;
 import org.pharmgkb.pharmcat.reporter.model.result.Haplotype;
 
 
 /**
  * Global environment for PharmCAT.
+ * <p>
+ * A single {@code Env} is shared by all threads in a batch run, so its caches are all concurrent and never block
+ * readers.
  *
  * @author Mark Woon
  */
@@ -30,9 +33,10 @@ public class Env {
   private final DefinitionReader m_definitionReader;
   private final PhenotypeMap m_phenotypeMap;
   private final PgkbGuidelineCollection m_drugs;
-  private MessageHelper m_messageHelper;
-  private final Map<DataSource, Map<String, Map<String, Haplotype>>> m_haplotypeCache = new HashMap<>();
-  private final Multimap<String, String> m_validHaplotypes = HashMultimap.create();
+  private volatile @Nullable MessageHelper m_messageHelper;
+  private final Map<HaplotypeCacheKey, Haplotype> m_haplotypeCache = new ConcurrentHashMap<>();
+  private final Map<DiplotypeCacheKey, Diplotype> m_diplotypeCache = new ConcurrentHashMap<>();
+  private final Set<AlleleKey> m_validHaplotypes = ConcurrentHashMap.newKeySet();
 
 
   public Env() throws IOException, ReportableException {
@@ -84,19 +88,20 @@ public String getReferenceAllele(String gene) {
    */
   public boolean isValidNamedAllele(String gene, String allele) {
 
-    if (m_validHaplotypes.containsEntry(gene, allele)) {
+    AlleleKey key = new AlleleKey(gene, allele);
+    if (m_validHaplotypes.contains(key)) {
       return true;
     }
 
     if (gene.startsWith("HLA-")) {
       // HLA's are a special case
-      m_validHaplotypes.put(gene, allele);
+      m_validHaplotypes.add(key);
       return true;
     }
 
     Optional<DefinitionFile> opt = m_definitionReader.lookupDefinitionFile(gene);
     if (opt.isPresent() && opt.get().getNamedAllele(allele) != null) {
-      m_validHaplotypes.put(gene, allele);
+      m_validHaplotypes.add(key);
       return true;
     }
 
@@ -107,7 +112,7 @@ public boolean isValidNamedAllele(String gene, String allele) {
     GenePhenotype gp = m_phenotypeMap.getPhenotype(gene, DataSource.CPIC);
     if (gp != null) {
       if (gp.getHaplotypes().containsKey(inferredAllele) || gp.getActivityValues().containsKey(inferredAllele)) {
-        m_validHaplotypes.put(gene, allele);
+        m_validHaplotypes.add(key);
         return true;
       }
     }
@@ -115,7 +120,7 @@ public boolean isValidNamedAllele(String gene, String allele) {
     if (gp != null) {
       boolean rez = gp.getHaplotypes().containsKey(inferredAllele) || gp.getActivityValues().containsKey(inferredAllele);
       if (rez) {
-        m_validHaplotypes.put(gene, allele);
+        m_validHaplotypes.add(key);
       }
       return rez;
     }
@@ -154,14 +159,21 @@ public boolean isActivityScoreGene(String gene) {
 
 
   public MessageHelper getMessageHelper() {
-    if (m_messageHelper == null) {
-      try {
-        m_messageHelper = new MessageHelper();
-      } catch (IOException ex) {
-        throw new RuntimeException("Error loading messages", ex);
+    MessageHelper messageHelper = m_messageHelper;
+    if (messageHelper == null) {
+      synchronized (this) {
+        messageHelper = m_messageHelper;
+        if (messageHelper == null) {
+          try {
+            messageHelper = new MessageHelper();
+          } catch (IOException ex) {
+            throw new RuntimeException("Error loading messages", ex);
+          }
+          m_messageHelper = messageHelper;
+        }
       }
     }
-    return m_messageHelper;
+    return messageHelper;
   }
 
   public MessageAnnotation getMessage(String key) {
@@ -172,18 +184,62 @@ public MessageAnnotation getMessage(String key) {
   /**
    * Make or retrieve a cached {@link Haplotype} object that corresponds to the given allele name.
    */
-  public synchronized Haplotype makeHaplotype(String gene, String name, DataSource source) {
-    return m_haplotypeCache.computeIfAbsent(source, (s) -> new HashMap<>())
-        .computeIfAbsent(gene, (g) -> new HashMap<>())
-        .computeIfAbsent(name, (n) -> {
-          Haplotype haplotype = new Haplotype(gene, name);
-          GenePhenotype gp = getPhenotype(gene, source);
-          if (gp != null) {
-            haplotype.setFunction(gp.getHaplotypeFunction(name));
-            haplotype.setActivityValue(gp.getHaplotypeActivity(name));
-          }
-          haplotype.setReference(name.equals(getReferenceAllele(gene)));
-          return haplotype;
-        });
+  public Haplotype makeHaplotype(String gene, String name, DataSource source) {
+    HaplotypeCacheKey key = new HaplotypeCacheKey(gene, name, source);
+    // plain get first so that cache hits never lock a bin
+    Haplotype haplotype = m_haplotypeCache.get(key);
+    if (haplotype != null) {
+      return haplotype;
+    }
+    return m_haplotypeCache.computeIfAbsent(key, (k) -> {
+      Haplotype hap = new Haplotype(gene, name);
+      GenePhenotype gp = getPhenotype(gene, source);
+      if (gp != null) {
+        hap.setFunction(gp.getHaplotypeFunction(name));
+        hap.setActivityValue(gp.getHaplotypeActivity(name));
+      }
+      hap.setReference(name.equals(getReferenceAllele(gene)));
+      return hap;
+    });
+  }
+
+  /**
+   * Checks if {@code haplotype} is the cached {@link Haplotype} from {@link #makeHaplotype}.
+   */
+  public boolean isCachedHaplotype(Haplotype haplotype, DataSource source) {
+    return m_haplotypeCache.get(new HaplotypeCacheKey(haplotype.getGene(), haplotype.getName(), source)) == haplotype;
+  }
+
+
+  /**
+   * Retrieves (or makes) a cached, fully phenotyped {@link Diplotype} for the given alleles.
+   * <p>
+   * A cohort only has a limited number of distinct diplotypes, so this saves having to look up phenotype, function and
+   * activity score for every sample.  The cached diplotype must not be modified or handed out; use
+   * {@link Diplotype#Diplotype(String, String, String, Env, DataSource, int)} instead, which copies its (immutable)
+   * phenotype data.
+   */
+  public Diplotype getPhenotypedDiplotype(String gene, String hap1, @Nullable String hap2, DataSource source) {
+    DiplotypeCacheKey key = new DiplotypeCacheKey(gene, hap1, hap2, source);
+    Diplotype diplotype = m_diplotypeCache.get(key);
+    if (diplotype == null) {
+      // build outside of the map so that readers are never blocked
+      diplotype = Diplotype.newPhenotypedDiplotype(gene, makeHaplotype(gene, hap1, source),
+          hap2 == null ? null : makeHaplotype(gene, hap2, source), this, source);
+      Diplotype existing = m_diplotypeCache.putIfAbsent(key, diplotype);
+      if (existing != null) {
+        diplotype = existing;
+      }
+    }
+    return diplotype;
+  }
+
+  private record AlleleKey(String gene, String allele) {
+  }
+
+  private record HaplotypeCacheKey(String gene, String name, DataSource source) {
+  }
+
+  private record DiplotypeCacheKey(String gene, String hap1, @Nullable String hap2, DataSource source) {
   }
 }
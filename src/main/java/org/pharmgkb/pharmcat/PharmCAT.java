@@ -9,6 +9,7 @@
 import com.google.common.base.Stopwatch;
 import org.pharmgkb.common.util.CliHelper;
 import org.pharmgkb.common.util.TimeUtils;
+import org.pharmgkb.pharmcat.reporter.format.CohortCallsOnlyWriter;
 import org.pharmgkb.pharmcat.util.CliUtils;
 
 
@@ -28,11 +29,13 @@ public static void main(String[] args) {
           // inputs
           .addOption("s", "samples", "Comma-separated list of samples", false, "samples")
           .addOption("S", "sample-file", "File containing a list of sample, one per line", false, "file")
+          .addOption("shard", "shard", "Only process shard i of N (e.g. 2/10) of the samples, so that N nodes can split up the same VCF file", false, "i/N")
 
           // named allele matcher args
           .addOption("matcher", "matcher", "Run named allele matcher independently")
           .addOption("vcf", "matcher-vcf", "Input VCF file for named allele matcher", false, "file")
           .addOption("ma", "matcher-all-results", "Return all possible diplotypes, not just top hits")
+          .addOption("mbv", "matcher-bit-vectors", "Match sample alleles to allele definitions with bit vectors instead of regular expressions")
           .addOption("matcherHtml", "matcher-save-html", "Save named allele matcher results as HTML")
 
           // phenotyper args
@@ -48,11 +51,14 @@ public static void main(String[] args) {
           .addOption("re", "reporter-extended", "Write an extended report (includes all possible genes and drugs, even if no data is available)")
           .addOption("reporterJson", "reporter-save-json", "Save reporter results as JSON")
           .addOption("reporterCallsOnly", "reporter-save-calls-only", "Save calls only as TSV")
+          .addOption("cohortCallsOnly", "reporter-save-cohort-calls-only", "Save calls only for all samples to a single TSV file with this name, instead of one per sample (gzipped if name ends with .gz)", false, "filename")
 
           // outputs
           .addOption("o", "output-dir", "Directory to output to (optional, default is input file directory)", false, "directory")
           .addOption("bf", "base-filename", "The base name (without file extensions) used for output files, will default to base filename of input if not specified", false, "name")
           .addOption("del", "delete-intermediate-files", "Delete intermediate PharmCAT files")
+          .addOption("cj", "compact-json", "Write JSON output without pretty printing")
+          .addOption("gz", "gzip-output", "Gzip JSON and HTML output files")
           // controls
           .addOption("def", "definitions-dir", "Directory containing named allele definitions (JSON files)", false, "dir")
           .addOption("research", "research-mode", "Comma-separated list of research features to enable: [cyp2d6, combinations]", false, "type");
@@ -84,6 +90,10 @@ Please specify a VCF file (-vcf)"""
         }
       } else if (!config.samples.isEmpty()) {
         throw new ReportableException("Cannot specify samples unless running matcher.");
+      } else if (config.isSharded()) {
+        throw new ReportableException("Cannot specify shard unless running matcher.");
+      } else if (config.reporterCohortCallsOnlyFilename != null) {
+        throw new ReportableException("Cannot save cohort calls-only TSV unless running matcher.");
       }
 
       Path phenotyperInputFile = null;
@@ -155,28 +165,49 @@ Please specify a VCF file (-vcf)"""
                 String.join(", ", missing));
           }
         }
-
-        List<String> blankRuns = new ArrayList<>();
-        int x = 0;
+        // decide before sharding so that output filenames don't depend on how many samples land in a shard
         boolean singleSample = config.samples.size() == 1;
-        for (String sampleId : config.samples) {
-          x += 1;
-          if (config.samples.size() > 1) {
-            System.out.println(x + " / " + config.samples.size() + " - " + sampleId);
-          }
-          Pipeline pipeline = new Pipeline(env, config, vcfFile, sampleId, singleSample,
-              phenotyperInputFile, phenotyperOutsideCallsFiles, reporterInputFile);
-          if (pipeline.call().getStatus() == PipelineResult.Status.NOOP) {
-            failIfNotTest();
-            blankRuns.add(sampleId);
+        if (config.isSharded()) {
+          String baseFilename = BaseConfig.getBaseFilename(vcfFile.getFile());
+          int numSamples = config.samples.size();
+          config.samples.removeIf(s -> !config.inShard(BaseConfig.getShardKey(baseFilename, s)));
+          System.out.println("Shard " + config.shardIndex + " of " + config.numShards + " has " +
+              config.samples.size() + " of " + numSamples + " sample" + (numSamples == 1 ? "" : "s"));
+          if (config.samples.isEmpty()) {
+            System.out.println("Nothing to do for this shard.");
+            return;
           }
+        }
 
-          if (x != config.samples.size() && config.samples.size() > 1) {
-            System.out.println();
-            System.out.println("---");
-            System.out.println();
+        List<String> blankRuns = new ArrayList<>();
+        Path cohortFile = config.getCohortCallsOnlyFile(vcfFile.getFile().toAbsolutePath().getParent());
+        try (CohortCallsOnlyWriter cohortWriter = config.openCohortCallsOnlyWriter(env, cohortFile)) {
+          int x = 0;
+          for (String sampleId : config.samples) {
+            x += 1;
+            if (config.samples.size() > 1) {
+              System.out.println(x + " / " + config.samples.size() + " - " + sampleId);
+            }
+            Pipeline pipeline = new Pipeline(env, config, vcfFile, sampleId, singleSample,
+                phenotyperInputFile, phenotyperOutsideCallsFiles, reporterInputFile);
+            if (cohortWriter != null) {
+              pipeline.setCohortCallsOnlyWriter(cohortWriter, x);
+            }
+            if (pipeline.call().getStatus() == PipelineResult.Status.NOOP) {
+              failIfNotTest();
+              blankRuns.add(sampleId);
+            }
+
+            if (x != config.samples.size() && config.samples.size() > 1) {
+              System.out.println();
+              System.out.println("---");
+              System.out.println();
+            }
           }
         }
+        if (cohortFile != null) {
+          System.out.println("Saved calls for all samples to " + cohortFile);
+        }
         if (!blankRuns.isEmpty()) {
           System.out.println("Nothing to do for " + String.join(", ", blankRuns));
         }
@@ -27,9 +27,11 @@
 import org.pharmgkb.pharmcat.phenotype.model.OutsideCall;
 import org.pharmgkb.pharmcat.reporter.ReportContext;
 import org.pharmgkb.pharmcat.reporter.format.CallsOnlyFormat;
+import org.pharmgkb.pharmcat.reporter.format.CohortCallsOnlyWriter;
 import org.pharmgkb.pharmcat.reporter.format.HtmlFormat;
 import org.pharmgkb.pharmcat.reporter.format.JsonFormat;
 import org.pharmgkb.pharmcat.reporter.model.PrescribingGuidanceSource;
+import org.pharmgkb.pharmcat.util.DataSerializer;
 
 
 /**
@@ -56,6 +58,7 @@ public enum Mode {
   private boolean m_topCandidateOnly = true;
   private boolean m_findCombinations;
   private boolean m_callCyp2d6;
+  private boolean m_matcherBitVectors;
   private Path m_matcherJsonFile;
   private Path m_matcherHtmlFile;
   /** True if the VCF file only contains a single sample. */
@@ -74,7 +77,10 @@ public enum Mode {
   private Path m_reporterJsonFile;
   private Path m_reporterHtmlFile;
   private Path m_reporterCallsOnlyFile;
+  private CohortCallsOnlyWriter m_cohortCallsOnlyWriter;
+  private long m_cohortSeq;
   private ReportContext m_reportContext;
+  private boolean m_compactJson;
 
   private final boolean m_deleteIntermediateFiles;
   private final Mode m_mode;
@@ -97,6 +103,8 @@ public Pipeline(Env env, BaseConfig config, @Nullable VcfFile vcfFile,
         config.reporterJson, config.reporterHtml, config.reporterCallsOnlyTsv,
         config.outputDir, config.baseFilename, config.deleteIntermediateFiles,
         Pipeline.Mode.CLI, null, config.verbose);
+    setOutputFormat(config.compactJson, config.gzipOutput);
+    setMatcherBitVectors(config.matcherBitVectors);
   }
 
 
@@ -189,6 +197,56 @@ public Pipeline(Env env,
   }
 
 
+  /**
+   * Writes calls to {@code writer} instead of a calls-only file for this sample.
+   *
+   * @param seq the sequence number of this pipeline's calls in {@code writer}
+   */
+  public Pipeline setCohortCallsOnlyWriter(CohortCallsOnlyWriter writer, long seq) {
+    if (m_runReporter) {
+      m_cohortCallsOnlyWriter = writer;
+      m_cohortSeq = seq;
+      m_reporterCallsOnlyFile = null;
+    }
+    return this;
+  }
+
+
+  /**
+   * Sets how JSON and HTML output files are written.
+   *
+   * @param compactJson write JSON without pretty printing
+   * @param gzip gzip JSON and HTML output files
+   */
+  public Pipeline setOutputFormat(boolean compactJson, boolean gzip) {
+    m_compactJson = compactJson;
+    if (gzip) {
+      m_matcherJsonFile = gzipped(m_matcherJsonFile);
+      m_matcherHtmlFile = gzipped(m_matcherHtmlFile);
+      m_phenotyperJsonFile = gzipped(m_phenotyperJsonFile);
+      m_reporterJsonFile = gzipped(m_reporterJsonFile);
+      m_reporterHtmlFile = gzipped(m_reporterHtmlFile);
+    }
+    return this;
+  }
+
+  /**
+   * Sets whether the named allele matcher uses bit vectors instead of regular expressions to match sample alleles to
+   * allele definitions (see {@link NamedAlleleMatcher#useBitVectorMatching()}).
+   */
+  public Pipeline setMatcherBitVectors(boolean matcherBitVectors) {
+    m_matcherBitVectors = matcherBitVectors;
+    return this;
+  }
+
+  private static @Nullable Path gzipped(@Nullable Path file) {
+    if (file == null || DataSerializer.isGzipped(file)) {
+      return file;
+    }
+    return file.resolveSibling(file.getFileName() + ".gz");
+  }
+
+
   public @Nullable String getSampleId() {
     return m_sampleId;
   }
@@ -258,16 +316,25 @@ public PipelineResult call() throws IOException {
       System.out.println(builder);
     }
 
+    String cohortCalls = null;
     try {
       List<String> output = new ArrayList<>();
       org.pharmgkb.pharmcat.haplotype.model.Result matcherResult = null;
       if (m_runMatcher) {
         NamedAlleleMatcher namedAlleleMatcher = new NamedAlleleMatcher(m_env, m_env.getDefinitionReader(),
             m_findCombinations, m_topCandidateOnly, m_callCyp2d6);
+        if (m_matcherBitVectors) {
+          namedAlleleMatcher.useBitVectorMatching();
+        }
         if (!batchDisplayMode) {
           namedAlleleMatcher.printWarnings();
         }
-        matcherResult = namedAlleleMatcher.call(m_vcfFile, m_sampleId);
+        try {
+          matcherResult = namedAlleleMatcher.call(m_vcfFile, m_sampleId);
+        } finally {
+          // done with sample's VCF data
+          m_vcfFile.releaseSample(m_sampleId);
+        }
 
         if (matcherResult.getVcfWarnings() != null &&
             !matcherResult.getVcfWarnings().isEmpty()) {
@@ -292,7 +359,7 @@ public PipelineResult call() throws IOException {
               output.add("Saving named allele matcher HTML results to " + m_matcherHtmlFile);
             }
           }
-          namedAlleleMatcher.saveResults(matcherResult, m_matcherJsonFile, m_matcherHtmlFile);
+          namedAlleleMatcher.saveResults(matcherResult, m_matcherJsonFile, m_matcherHtmlFile, m_compactJson);
         }
 
         didSomething = true;
@@ -342,7 +409,7 @@ public PipelineResult call() throws IOException {
           if (!batchDisplayMode) {
             output.add("Saving phenotyper JSON results to " + m_phenotyperJsonFile);
           }
-          phenotyper.write(m_phenotyperJsonFile);
+          phenotyper.write(m_phenotyperJsonFile, m_compactJson);
         }
         didSomething = true;
       }
@@ -352,7 +419,11 @@ public PipelineResult call() throws IOException {
           Path inputFile = m_phenotyperJsonFile != null ? m_phenotyperJsonFile : m_reporterInputFile;
           phenotyper = Phenotyper.read(inputFile);
         }
-        m_reportContext = new ReportContext(m_env, phenotyper.getGeneReports(), m_reporterTitle);
+        ReportContext reportContext = new ReportContext(m_env, phenotyper.getGeneReports(), m_reporterTitle);
+        if (m_mode != Mode.BATCH) {
+          // no one asks for this in batch mode, so don't hold on to it once outputs are written
+          m_reportContext = reportContext;
+        }
         if (m_reporterHtmlFile != null) {
           if (!batchDisplayMode) {
             output.add("Saving reporter HTML results to " + m_reporterHtmlFile);
@@ -360,14 +431,15 @@ public PipelineResult call() throws IOException {
           new HtmlFormat(m_reporterHtmlFile, m_env, m_mode == Mode.TEST)
               .sources(m_reporterSources)
               .compact(m_reporterCompact)
-              .write(m_reportContext);
+              .write(reportContext);
         }
         if (m_reporterJsonFile != null) {
           if (!batchDisplayMode) {
             output.add("Saving reporter JSON results to " + m_reporterJsonFile);
           }
           new JsonFormat(m_reporterJsonFile, m_env)
-              .write(m_reportContext);
+              .compact(m_compactJson)
+              .write(reportContext);
         }
         if (m_reporterCallsOnlyFile != null) {
           if (!batchDisplayMode) {
@@ -377,7 +449,11 @@ public PipelineResult call() throws IOException {
           if (!m_topCandidateOnly) {
             caf.showMatchScores();
           }
-          caf.write(m_reportContext);
+          caf.write(reportContext);
+        }
+        if (m_cohortCallsOnlyWriter != null) {
+          cohortCalls = m_cohortCallsOnlyWriter.getFormat()
+              .getCalls(reportContext, m_sampleId != null ? m_sampleId : m_basename);
         }
         didSomething = true;
       }
@@ -416,6 +492,7 @@ public PipelineResult call() throws IOException {
           m_sampleId);
 
     } catch (Exception ex) {
+      cohortCalls = null;
       if (!m_singleSample || batchDisplayMode) {
         System.err.println("Error with " + m_displayName + ":");
         //noinspection CallToPrintStackTrace
@@ -427,15 +504,41 @@ public PipelineResult call() throws IOException {
         return new PipelineResult(PipelineResult.Status.FAILURE, m_basename, m_sampleId);
       }
       throw ex;
+    } finally {
+      if (m_cohortCallsOnlyWriter != null) {
+        // always report in, even on failure, so that later samples aren't held up
+        m_cohortCallsOnlyWriter.write(m_cohortSeq, cohortCalls);
+      }
     }
   }
 
 
-  public ReportContext getReportContext() {
+  /**
+   * Gets the report context generated by the reporter.
+   * This is not available in {@link Mode#BATCH} mode.
+   */
+  public @Nullable ReportContext getReportContext() {
     return m_reportContext;
   }
 
 
+  /**
+   * Gets the output files that have been written.
+   */
+  public List<Path> getOutputFiles() {
+    List<Path> files = new ArrayList<>();
+    for (Path file : new Path[] {
+        m_matcherJsonFile, m_matcherHtmlFile, m_phenotyperJsonFile,
+        m_reporterHtmlFile, m_reporterJsonFile, m_reporterCallsOnlyFile
+    }) {
+      if (file != null && Files.isRegularFile(file)) {
+        files.add(file);
+      }
+    }
+    return files;
+  }
+
+
   private String getInputDescription() {
     StringBuilder builder = new StringBuilder();
     if (m_vcfFile != null) {
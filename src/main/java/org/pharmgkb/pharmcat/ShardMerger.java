@@ -0,0 +1,213 @@
+package org.pharmgkb.pharmcat;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.pharmgkb.common.util.CliHelper;
+
+
+/**
+ * This class merges the per-shard outputs written by {@code -shard i/N} runs of {@link PharmCAT} and
+ * {@link BatchPharmCAT} (e.g. {@code pharmcat.shard-2-of-10.manifest.tsv}) into a single file per output (e.g.
+ * {@code pharmcat.manifest.tsv}).
+ * <p>
+ * Per-sample outputs do not need merging since every sample is only processed by one shard.
+ * Only tabular text files (optionally gzipped) are merged.  Header lines are taken from the first shard: these are
+ * the leading {@code #} lines, or the first line if there are none.  Leading lines in other shards that are identical
+ * to the first shard's header are dropped.
+ *
+ * @author Mark Woon
+ */
+public class ShardMerger {
+  public static final Pattern SHARD_FILENAME_PATTERN =
+      Pattern.compile("^(.+)\\.shard-(\\d+)-of-(\\d+)((?:\\.[^.]+)*\\.(?:tsv|txt|csv)(?:\\.gz)?)$");
+  private final Path m_inputDir;
+  private final Path m_outputDir;
+
+
+  public static void main(String[] args) {
+    try {
+      CliHelper cliHelper = new CliHelper(MethodHandles.lookup().lookupClass())
+          .addOption("i", "input-dir", "Directory containing shard outputs", true, "dir")
+          .addOption("o", "output-dir", "Directory to write merged files to (optional, default is input directory)", false, "directory")
+          .addOption("del", "delete-shard-files", "Delete shard files after they have been merged");
+      if (!cliHelper.parse(args)) {
+        PharmCAT.failIfNotTest();
+        return;
+      }
+
+      Path inputDir = cliHelper.getValidDirectory("i", false);
+      Path outputDir = inputDir;
+      if (cliHelper.hasOption("o")) {
+        outputDir = cliHelper.getValidDirectory("o", true);
+      }
+      List<Path> merged = new ShardMerger(inputDir, outputDir).merge(cliHelper.hasOption("del"));
+      if (merged.isEmpty()) {
+        System.out.println("Nothing to merge.");
+      } else {
+        for (Path file : merged) {
+          System.out.println("Merged " + file);
+        }
+      }
+
+    } catch (CliHelper.InvalidPathException | ReportableException ex) {
+      System.out.println(ex.getMessage());
+      PharmCAT.failIfNotTest();
+    } catch (Exception e) {
+      //noinspection CallToPrintStackTrace
+      e.printStackTrace();
+      PharmCAT.failIfNotTest();
+    }
+  }
+
+
+  public ShardMerger(Path inputDir, Path outputDir) {
+    m_inputDir = inputDir;
+    m_outputDir = outputDir;
+  }
+
+
+  /**
+   * Merges all complete sets of shard files in the input directory.
+   *
+   * @param deleteShardFiles true if shard files should be deleted once merged
+   * @return the merged files
+   * @throws ReportableException if a set of shard files is incomplete or inconsistent
+   */
+  public List<Path> merge(boolean deleteShardFiles) throws IOException, ReportableException {
+    // merged filename -> number of shards -> shard index -> file
+    Map<String, Map<Integer, Map<Integer, Path>>> groups = new TreeMap<>();
+    try (Stream<Path> stream = Files.list(m_inputDir)) {
+      for (Path file : stream.filter(Files::isRegularFile).toList()) {
+        Matcher m = SHARD_FILENAME_PATTERN.matcher(file.getFileName().toString());
+        if (m.matches()) {
+          String mergedName = m.group(1) + m.group(4);
+          int shard = Integer.parseInt(m.group(2));
+          int numShards = Integer.parseInt(m.group(3));
+          groups.computeIfAbsent(mergedName, k -> new TreeMap<>())
+              .computeIfAbsent(numShards, k -> new TreeMap<>())
+              .put(shard, file);
+        }
+      }
+    }
+
+    List<String> problems = new ArrayList<>();
+    for (String mergedName : groups.keySet()) {
+      Map<Integer, Map<Integer, Path>> byNumShards = groups.get(mergedName);
+      if (byNumShards.size() > 1) {
+        problems.add(mergedName + " has shard files from runs with different numbers of shards: " +
+            byNumShards.keySet());
+        continue;
+      }
+      int numShards = byNumShards.keySet().iterator().next();
+      Set<Integer> missing = new TreeSet<>();
+      for (int x = 1; x <= numShards; x += 1) {
+        if (!byNumShards.get(numShards).containsKey(x)) {
+          missing.add(x);
+        }
+      }
+      if (!missing.isEmpty()) {
+        problems.add(mergedName + " is missing shard" + (missing.size() > 1 ? "s " : " ") + missing + " of " +
+            numShards);
+      }
+    }
+    if (!problems.isEmpty()) {
+      throw new ReportableException("Cannot merge shards:\n  " + String.join("\n  ", problems));
+    }
+
+    List<Path> merged = new ArrayList<>();
+    for (String mergedName : groups.keySet()) {
+      Map<Integer, Path> shards = groups.get(mergedName).values().iterator().next();
+      Path outputFile = m_outputDir.resolve(mergedName);
+      mergeFiles(new ArrayList<>(shards.values()), outputFile);
+      merged.add(outputFile);
+      if (deleteShardFiles) {
+        for (Path file : shards.values()) {
+          Files.delete(file);
+        }
+      }
+    }
+    return merged;
+  }
+
+
+  /**
+   * Concatenates {@code files}, only keeping the header of the first one.
+   */
+  static void mergeFiles(List<Path> files, Path outputFile) throws IOException {
+    Path tmpFile = outputFile.resolveSibling(outputFile.getFileName() + ".tmp");
+    try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(openOutput(tmpFile, outputFile),
+        StandardCharsets.UTF_8))) {
+      List<String> header = null;
+      for (Path file : files) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(openInput(file),
+            StandardCharsets.UTF_8))) {
+          boolean inHeader = true;
+          int headerIdx = 0;
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (inHeader) {
+              if (header == null) {
+                // first file: header is the leading # lines, or the first line if there are none
+                header = new ArrayList<>();
+                header.add(line);
+                inHeader = line.startsWith("#");
+              } else if (files.get(0) == file) {
+                if (line.startsWith("#")) {
+                  header.add(line);
+                } else {
+                  inHeader = false;
+                }
+              } else if (headerIdx < header.size() && line.equals(header.get(headerIdx))) {
+                headerIdx += 1;
+                continue;
+              } else {
+                inHeader = false;
+              }
+            }
+            writer.write(line);
+            writer.newLine();
+          }
+        }
+      }
+    }
+    // don't leave a partially merged file behind if anything goes wrong
+    Files.move(tmpFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static InputStream openInput(Path file) throws IOException {
+    InputStream in = Files.newInputStream(file);
+    if (file.getFileName().toString().endsWith(".gz")) {
+      return new GZIPInputStream(in, 64 * 1024);
+    }
+    return in;
+  }
+
+  private static OutputStream openOutput(Path file, Path outputFile) throws IOException {
+    OutputStream out = Files.newOutputStream(file);
+    if (outputFile.getFileName().toString().endsWith(".gz")) {
+      return new GZIPOutputStream(out, 64 * 1024);
+    }
+    return out;
+  }
+}
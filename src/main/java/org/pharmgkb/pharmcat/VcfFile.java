@@ -3,30 +3,61 @@
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.zip.GZIPInputStream;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+import org.pharmgkb.pharmcat.haplotype.GenotypeMatrix;
+import org.pharmgkb.pharmcat.haplotype.GenotypeMatrixReader;
 import org.pharmgkb.pharmcat.haplotype.VcfReader;
 import org.pharmgkb.pharmcat.haplotype.VcfSampleReader;
+import org.pharmgkb.pharmcat.util.BgzfInputStream;
+import org.pharmgkb.pharmcat.util.BgzfRegionInputStream;
+import org.pharmgkb.pharmcat.util.VcfIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * This class supports working with VCF files.
  * If the file size is less than 20% of max available memory, it will be read into memory.
+ * BGZF-compressed files are decompressed in parallel (see {@link BgzfInputStream}).
+ * <p>
+ * If a bgzipped VCF file has a tabix ({@code .tbi}) or CSI ({@code .csi}) index next to it, only the blocks that overlap
+ * {@link DefinitionReader#getLocationsOfInterest()} are read when pulling sample data.
+ * <p>
+ * When working with multiple samples, use {@link #preload(DefinitionReader, Collection, boolean)} to read the data for
+ * a batch of them into a compact {@link GenotypeMatrix} in a single pass instead of re-reading the file for every
+ * sample.
  *
  * @author Mark Woon
  */
 public class VcfFile {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   private final Path m_vcfFile;
   private final boolean m_isGzipped;
   private final boolean m_readIntoMemory;
+  private final @Nullable Path m_indexFile;
+  private VcfIndex m_index;
   private byte[] m_data;
   private List<String> m_samples = new ArrayList<>();
+  /** Map of sample ID to the {@link GenotypeMatrix} it was preloaded into. */
+  private final Map<String, GenotypeMatrix> m_preloadedSamples = new HashMap<>();
+  private DefinitionReader m_preloadedDefinitionReader;
+  private boolean m_preloadedFindCombinations;
 
 
   public VcfFile(Path vcfFile) throws ReportableException, IOException {
@@ -35,8 +66,10 @@ public VcfFile(Path vcfFile) throws ReportableException, IOException {
     }
     m_vcfFile = vcfFile;
     m_isGzipped = isGzippedVcfFile(vcfFile);
+    m_indexFile = findIndex(vcfFile, m_isGzipped);
     long maxMem = Runtime.getRuntime().maxMemory();
-    m_readIntoMemory = Files.size(vcfFile) < (maxMem / 5);
+    // no need to read whole file into memory if it's indexed
+    m_readIntoMemory = m_indexFile == null && Files.size(vcfFile) < (maxMem / 5);
   }
 
   public VcfFile(Path vcfFile, boolean readIntoMemory) throws ReportableException, IOException {
@@ -45,25 +78,97 @@ public VcfFile(Path vcfFile, boolean readIntoMemory) throws ReportableException,
     }
     m_vcfFile = vcfFile;
     m_isGzipped = isGzippedVcfFile(vcfFile);
+    m_indexFile = findIndex(vcfFile, m_isGzipped);
     m_readIntoMemory = readIntoMemory;
   }
 
 
+  private static @Nullable Path findIndex(Path vcfFile, boolean isGzipped) throws IOException {
+    if (!isGzipped) {
+      return null;
+    }
+    Path indexFile = VcfIndex.findIndex(vcfFile);
+    if (indexFile != null &&
+        Files.getLastModifiedTime(indexFile).compareTo(Files.getLastModifiedTime(vcfFile)) < 0) {
+      sf_logger.warn("{} is older than {}", indexFile, vcfFile);
+    }
+    return indexFile;
+  }
+
+
+  /**
+   * Opens the VCF file, only reading the parts that overlap the locations of interest if it is indexed.
+   */
+  private BufferedReader open(DefinitionReader definitionReader) throws IOException {
+    if (m_indexFile != null) {
+      VcfIndex index = getIndex();
+      List<VcfIndex.Chunk> chunks = new ArrayList<>();
+      boolean hasSequence = false;
+      for (VariantLocus vl : definitionReader.getLocationsOfInterest().values()) {
+        if (index.hasSequence(vl.getChromosome())) {
+          hasSequence = true;
+          long start = vl.getPosition() - 1;
+          chunks.addAll(index.query(vl.getChromosome(), start, start + Math.max(1, vl.getRef().length())));
+        }
+      }
+      if (hasSequence) {
+        InputStream data = new SequenceInputStream(new ByteArrayInputStream(readHeader()),
+            new BgzfRegionInputStream(m_vcfFile, VcfIndex.merge(chunks)));
+        return VcfReader.filterVcfData(data, definitionReader);
+      }
+      sf_logger.warn("{} does not use the same chromosome names as the allele definitions, ignoring {}", m_vcfFile,
+          m_indexFile);
+    }
+    return VcfReader.filterVcfData(openData(), definitionReader);
+  }
+
+  private synchronized VcfIndex getIndex() throws IOException {
+    if (m_index == null) {
+      m_index = VcfIndex.read(Objects.requireNonNull(m_indexFile));
+    }
+    return m_index;
+  }
+
+  /**
+   * Reads the header lines (up to and including the {@code #CHROM} line).
+   */
+  private byte[] readHeader() throws IOException {
+    StringBuilder builder = new StringBuilder();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new GZIPInputStream(Files.newInputStream(m_vcfFile)), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null && line.startsWith("#")) {
+        builder.append(line).append("\n");
+        if (line.startsWith("#CHROM")) {
+          break;
+        }
+      }
+    }
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
   private BufferedReader open() throws IOException {
+    return new BufferedReader(new InputStreamReader(openData(), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Opens the raw (uncompressed) VCF data.
+   */
+  private InputStream openData() throws IOException {
     if (m_readIntoMemory) {
       if (m_data == null) {
         m_data = Files.readAllBytes(m_vcfFile);
       }
       if (m_isGzipped) {
-        return new BufferedReader(new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(m_data))));
+        return BgzfInputStream.open(new ByteArrayInputStream(m_data));
       }
-      return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(m_data)));
+      return new ByteArrayInputStream(m_data);
 
     } else {
       if (m_isGzipped) {
-        return new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(m_vcfFile))));
+        return BgzfInputStream.open(Files.newInputStream(m_vcfFile));
       }
-      return Files.newBufferedReader(m_vcfFile);
+      return Files.newInputStream(m_vcfFile);
     }
   }
 
@@ -72,6 +177,13 @@ public Path getFile() {
     return m_vcfFile;
   }
 
+  /**
+   * Gets the tabix or CSI index for this VCF file, if there is one.
+   */
+  public @Nullable Path getIndexFile() {
+    return m_indexFile;
+  }
+
   public List<String> getSamples() throws IOException {
     if (m_samples.size() == 0) {
       try (BufferedReader reader = open()) {
@@ -83,14 +195,87 @@ public List<String> getSamples() throws IOException {
   }
 
 
+  /**
+   * Gets a {@link VcfReader} with data for the specified sample.
+   */
   public VcfReader getReader(DefinitionReader definitionReader, @Nullable String sampleId, boolean findCombinations)
       throws IOException {
-    try (BufferedReader reader = open()) {
+    try (BufferedReader reader = open(definitionReader)) {
       return new VcfReader(definitionReader, reader, sampleId, findCombinations);
     }
   }
 
 
+  /**
+   * Reads data for all specified samples in a single pass through the VCF file.
+   * This data is available via {@link #getPreloadedSample(DefinitionReader, String, boolean)} to callers that use the
+   * same {@link DefinitionReader} and {@code findCombinations} setting, until it is released.
+   * <p>
+   * This can be called repeatedly to read samples in batches.  Samples from earlier batches that have not been
+   * released yet are kept as long as the same {@link DefinitionReader} and {@code findCombinations} setting are used.
+   */
+  public synchronized void preload(DefinitionReader definitionReader, Collection<String> sampleIds,
+      boolean findCombinations) throws IOException {
+    if (definitionReader != m_preloadedDefinitionReader || findCombinations != m_preloadedFindCombinations) {
+      m_preloadedSamples.clear();
+    }
+    GenotypeMatrix matrix;
+    try (BufferedReader reader = open(definitionReader)) {
+      matrix = GenotypeMatrixReader.read(definitionReader, reader, sampleIds, findCombinations);
+    }
+    for (String sampleId : matrix.getSampleIds()) {
+      m_preloadedSamples.put(sampleId, matrix);
+    }
+    m_preloadedDefinitionReader = definitionReader;
+    m_preloadedFindCombinations = findCombinations;
+  }
+
+  /**
+   * Drops the raw VCF data that has been read into memory.
+   * Call this once all samples have been preloaded, since their data will not be read from the file again.
+   */
+  public synchronized void releaseData() {
+    m_data = null;
+  }
+
+  /**
+   * Gets preloaded data for the specified sample.
+   *
+   * @return the sample's data, or null if it has not been preloaded (or has been released)
+   */
+  public synchronized GenotypeMatrix.@Nullable SampleView getPreloadedSample(DefinitionReader definitionReader,
+      @Nullable String sampleId, boolean findCombinations) {
+    if (sampleId == null || definitionReader != m_preloadedDefinitionReader ||
+        findCombinations != m_preloadedFindCombinations) {
+      return null;
+    }
+    GenotypeMatrix matrix = m_preloadedSamples.get(sampleId);
+    if (matrix == null) {
+      return null;
+    }
+    return matrix.getSample(sampleId);
+  }
+
+  /**
+   * Releases preloaded data for the specified sample.
+   * Call this once the sample's data is no longer needed.
+   * The sample's data is freed right away, and a batch of preloaded samples is dropped once all of its samples have
+   * been released.
+   */
+  public synchronized void releaseSample(@Nullable String sampleId) {
+    if (sampleId == null) {
+      return;
+    }
+    GenotypeMatrix matrix = m_preloadedSamples.remove(sampleId);
+    if (matrix != null) {
+      matrix.release(sampleId);
+    }
+    if (m_preloadedSamples.isEmpty()) {
+      m_preloadedDefinitionReader = null;
+    }
+  }
+
+
   public static boolean isGzippedVcfFile(Path vcfFile) {
     String filename = vcfFile.toString();
     return filename.endsWith(".vcf.bgz") || filename.endsWith(".vcf.gz");
@@ -0,0 +1,331 @@
+package org.pharmgkb.pharmcat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import com.google.common.base.Preconditions;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * This is a work queue that lets several {@link BatchPharmCAT} processes, possibly on different hosts, split up the
+ * same inputs using nothing but a shared filesystem.
+ * <p>
+ * Before running a task, a worker claims it by atomically creating a lease file for it in the queue directory.  Leases
+ * held by a worker are renewed in the background by touching them.  A lease that has not been renewed within the
+ * lease time is assumed to belong to a worker that has crashed, and can be taken over by another worker.  Since this
+ * relies on file modification times, the lease time should be much longer than any clock skew between hosts.
+ * <p>
+ * Each task gets its own lease directory, in which lease files are numbered by generation.  Taking over an expired
+ * lease means creating the next generation after the latest one, which only one worker can do, so two workers can never
+ * both take over the same lease.  The new holder then deletes the older generations, and the lease directory is
+ * removed when the lease is released, so only the current generation is ever left behind.
+ * <p>
+ * When a task is completed, a {@link BatchManifest} with that one task is written next to its lease and the lease is
+ * removed.  This means that tasks completed with the same fingerprint are never claimed again, so restarting workers
+ * picks up where they left off.  Delete the queue directory to start over.
+ * Tasks that fail are not retried by workers that were already running when they failed.
+ *
+ * @author Mark Woon
+ */
+public class WorkQueue implements Closeable {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  public static final Duration DEFAULT_LEASE_TIME = Duration.ofMinutes(10);
+  private static final String sf_leaseExtension = ".lease";
+  private static final String sf_doneExtension = ".done.tsv";
+  private static final String sf_failedExtension = ".failed";
+  private final Path m_dir;
+  private final String m_workerId;
+  private final long m_leaseTimeMs;
+  private final long m_startTime = System.currentTimeMillis();
+  /** Leases held by this worker, by key. */
+  private final Map<String, Lease> m_leases = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService m_renewer;
+
+
+  public WorkQueue(Path dir) throws IOException {
+    this(dir, DEFAULT_LEASE_TIME);
+  }
+
+  public WorkQueue(Path dir, Duration leaseTime) throws IOException {
+    Preconditions.checkArgument(!leaseTime.isNegative() && !leaseTime.isZero(), "Lease time must be positive");
+    m_dir = dir;
+    Files.createDirectories(dir);
+    m_workerId = getHostname() + "-" + ProcessHandle.current().pid() + "-" +
+        UUID.randomUUID().toString().substring(0, 8);
+    m_leaseTimeMs = leaseTime.toMillis();
+    m_renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "work-queue-lease");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long interval = Math.max(1, m_leaseTimeMs / 4);
+    m_renewer.scheduleWithFixedDelay(this::renewLeases, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  private static String getHostname() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (IOException ex) {
+      return "unknown";
+    }
+  }
+
+
+  public Path getDirectory() {
+    return m_dir;
+  }
+
+  public String getWorkerId() {
+    return m_workerId;
+  }
+
+
+  /**
+   * Attempts to claim the task identified by {@code key}.
+   *
+   * @return true if this worker should run the task, false if it has already been completed (with the same
+   * fingerprint), failed or is being run by another worker
+   */
+  public boolean claim(String key, String fingerprint) throws IOException {
+    if (isDone(key, fingerprint) || hasFailed(key)) {
+      return false;
+    }
+    Lease lease = acquireLease(key);
+    if (lease == null) {
+      return false;
+    }
+    m_leases.put(key, lease);
+    // another worker may have completed the task between the check and the claim
+    if (isDone(key, fingerprint) || hasFailed(key)) {
+      release(key);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Finds the latest generation of the lease for {@code key} and creates the next one if it has expired (or the first
+   * one if there is no lease).
+   *
+   * @return the lease if this worker now holds it, null if another worker holds it
+   */
+  private @Nullable Lease acquireLease(String key) throws IOException {
+    Path leaseDir = getLeaseDir(key);
+    while (true) {
+      int latest = findLatestGeneration(leaseDir);
+      try {
+        if (latest >= 0 && System.currentTimeMillis() -
+            Files.getLastModifiedTime(getLeaseFile(key, latest)).toMillis() <= m_leaseTimeMs) {
+          return null;
+        }
+        int gen = latest + 1;
+        Path leaseFile = getLeaseFile(key, gen);
+        Files.createDirectories(leaseDir);
+        if (createLease(leaseFile)) {
+          if (gen > 0) {
+            sf_logger.info("Took over expired lease for {}", key);
+          }
+          deleteOlderGenerations(key, gen);
+          return new Lease(leaseFile, gen);
+        }
+      } catch (NoSuchFileException ex) {
+        // lease was released or taken over in the meantime
+      }
+    }
+  }
+
+  /**
+   * Gets the latest generation in a lease directory.
+   *
+   * @return the latest generation, or -1 if there are none
+   */
+  private static int findLatestGeneration(Path leaseDir) throws IOException {
+    int latest = -1;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(leaseDir, "*" + sf_leaseExtension)) {
+      for (Path file : stream) {
+        String name = file.getFileName().toString();
+        try {
+          latest = Math.max(latest, Integer.parseInt(name.substring(0, name.length() - sf_leaseExtension.length())));
+        } catch (NumberFormatException ex) {
+          // not a lease file
+        }
+      }
+    } catch (NoSuchFileException ex) {
+      // no lease
+    }
+    return latest;
+  }
+
+  /**
+   * Deletes expired generations of a lease that has been taken over.
+   */
+  private void deleteOlderGenerations(String key, int generation) throws IOException {
+    for (int gen = 0; gen < generation; gen += 1) {
+      Files.deleteIfExists(getLeaseFile(key, gen));
+    }
+  }
+
+  /**
+   * Atomically creates a lease file owned by this worker.
+   * <p>
+   * The owner is written to a temporary file first, which is then hard linked into place.  Unlike a rename, which
+   * silently replaces an existing file on POSIX filesystems, creating a link fails if the lease already exists.  And
+   * unlike creating an empty file and then writing to it, other workers never see a lease without its owner.
+   *
+   * @return true if the lease was created, false if it already exists
+   */
+  private boolean createLease(Path leaseFile) throws IOException {
+    Path tmpFile = leaseFile.resolveSibling(leaseFile.getFileName() + "." + m_workerId + ".tmp");
+    Files.writeString(tmpFile, m_workerId);
+    try {
+      Files.createLink(leaseFile, tmpFile);
+      return true;
+    } catch (FileAlreadyExistsException ex) {
+      return false;
+    } finally {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+
+
+  /**
+   * Marks a claimed task as completed.
+   */
+  public void complete(String key, String fingerprint, Collection<Path> outputFiles) throws IOException {
+    Path doneFile = getFile(key, sf_doneExtension);
+    Path tmpFile = doneFile.resolveSibling(doneFile.getFileName() + "." + m_workerId);
+    Files.deleteIfExists(tmpFile);
+    try (BatchManifest manifest = new BatchManifest(tmpFile)) {
+      manifest.record(key, fingerprint, outputFiles);
+    }
+    Files.move(tmpFile, doneFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    Files.deleteIfExists(getFile(key, sf_failedExtension));
+    release(key);
+  }
+
+  /**
+   * Marks a claimed task as failed.
+   */
+  public void fail(String key) throws IOException {
+    Files.writeString(getFile(key, sf_failedExtension), m_workerId);
+    release(key);
+  }
+
+  /**
+   * Gives up a claimed task so that another worker can run it.
+   */
+  public void release(String key) throws IOException {
+    Lease lease = m_leases.remove(key);
+    if (lease != null && m_workerId.equals(readOwner(lease.file()))) {
+      Files.deleteIfExists(lease.file());
+      try {
+        Files.deleteIfExists(getLeaseDir(key));
+      } catch (DirectoryNotEmptyException ex) {
+        // another worker is claiming the task
+      }
+    }
+  }
+
+
+  private boolean isDone(String key, String fingerprint) throws IOException {
+    Path doneFile = getFile(key, sf_doneExtension);
+    if (!Files.exists(doneFile)) {
+      return false;
+    }
+    try (BatchManifest manifest = new BatchManifest(doneFile)) {
+      return manifest.isComplete(key, fingerprint);
+    }
+  }
+
+  /**
+   * Checks if the task failed after this worker started.  Failures from earlier runs get retried.
+   */
+  private boolean hasFailed(String key) throws IOException {
+    try {
+      return Files.getLastModifiedTime(getFile(key, sf_failedExtension)).toMillis() >= m_startTime;
+    } catch (NoSuchFileException ex) {
+      return false;
+    }
+  }
+
+  private @Nullable String readOwner(Path leaseFile) {
+    try {
+      return Files.readString(leaseFile);
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  private Path getFile(String key, String extension) {
+    return m_dir.resolve(URLEncoder.encode(key, StandardCharsets.UTF_8) + extension);
+  }
+
+  private Path getLeaseDir(String key) {
+    return getFile(key, sf_leaseExtension);
+  }
+
+  /**
+   * Gets the lease file for the given generation of the lease for {@code key}.
+   */
+  Path getLeaseFile(String key, int generation) {
+    return getLeaseDir(key).resolve(generation + sf_leaseExtension);
+  }
+
+
+  private void renewLeases() {
+    FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+    for (Map.Entry<String, Lease> entry : m_leases.entrySet()) {
+      Lease lease = entry.getValue();
+      try {
+        // lease has been taken over if there is a newer generation
+        if (m_workerId.equals(readOwner(lease.file())) &&
+            findLatestGeneration(getLeaseDir(entry.getKey())) == lease.generation()) {
+          Files.setLastModifiedTime(lease.file(), now);
+        } else {
+          sf_logger.warn("Lost lease for {} (lease time may be too short)", entry.getKey());
+          m_leases.remove(entry.getKey());
+        }
+      } catch (IOException ex) {
+        sf_logger.warn("Cannot renew lease for " + entry.getKey(), ex);
+      }
+    }
+  }
+
+
+  /**
+   * Stops renewing leases and releases any that are still held.
+   */
+  @Override
+  public void close() throws IOException {
+    m_renewer.shutdownNow();
+    for (String key : m_leases.keySet()) {
+      release(key);
+    }
+  }
+
+
+  private record Lease(Path file, int generation) {
+  }
+}
@@ -20,6 +20,7 @@
 import org.pharmgkb.pharmcat.definition.model.DefinitionFile;
 import org.pharmgkb.pharmcat.definition.model.NamedAllele;
 import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+import org.pharmgkb.pharmcat.haplotype.MarshalledHaplotypeCache;
 import org.pharmgkb.pharmcat.util.DataManager;
 import org.pharmgkb.pharmcat.util.DataSerializer;
 
@@ -39,6 +40,9 @@ public class DefinitionReader {
   private ImmutableMap<String, VariantLocus> m_locationsOfInterest;
   /** Map of {@code <chr:position>} Strings to gene */
   private ImmutableMap<String, String> m_locationsByGene;
+  /** Map of gene to {@link GeneMatchingIndex} */
+  private ImmutableMap<String, GeneMatchingIndex> m_matchingIndexes;
+  private final MarshalledHaplotypeCache m_haplotypeCache = new MarshalledHaplotypeCache();
 
 
   public DefinitionReader() throws IOException {
@@ -143,6 +147,21 @@ public SortedSet<NamedAllele> getHaplotypes(String gene) {
     return m_definitionFiles.get(gene).getNamedAlleles();
   }
 
+  /**
+   * Gets the precomputed data used to match samples against the gene's allele definitions.
+   */
+  public GeneMatchingIndex getMatchingIndex(String gene) {
+    Preconditions.checkArgument(m_matchingIndexes.containsKey(gene), "No definition file for " + gene);
+    return m_matchingIndexes.get(gene);
+  }
+
+  /**
+   * Gets the cache of haplotypes marshalled for samples that are missing positions.
+   */
+  public MarshalledHaplotypeCache getHaplotypeCache() {
+    return m_haplotypeCache;
+  }
+
   public NamedAllele getReferenceHaplotype(String gene) {
     return m_definitionFiles.get(gene).getReferenceNamedAllele();
   }
@@ -165,6 +184,7 @@ private void generateMetadata() {
     Set<String> data = new HashSet<>();
     ImmutableMap.Builder<String, VariantLocus> vlMapBuilder = ImmutableMap.builder();
     ImmutableMap.Builder<String, String> geneMapBuilder = ImmutableMap.builder();
+    ImmutableMap.Builder<String, GeneMatchingIndex> indexMapBuilder = ImmutableMap.builder();
     for (String gene : m_definitionFiles.keySet()) {
       Arrays.stream(m_definitionFiles.get(gene).getVariants())
           .forEach(v -> {
@@ -173,6 +193,7 @@ private void generateMetadata() {
             vlMapBuilder.put(vcp, v);
             geneMapBuilder.put(vcp, gene);
           });
+      indexMapBuilder.put(gene, new GeneMatchingIndex(m_definitionFiles.get(gene)));
       DefinitionExemption exemption = m_exemptions.get(gene.toLowerCase());
       if (exemption != null) {
         exemption.getExtraPositions()
@@ -188,6 +209,7 @@ private void generateMetadata() {
     }
     m_locationsOfInterest = vlMapBuilder.build();
     m_locationsByGene = geneMapBuilder.build();
+    m_matchingIndexes = indexMapBuilder.build();
   }
 
 
@@ -0,0 +1,254 @@
+package org.pharmgkb.pharmcat.definition;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pharmgkb.pharmcat.definition.model.DefinitionFile;
+import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+import org.pharmgkb.pharmcat.haplotype.Iupac;
+
+
+/**
+ * Immutable, precomputed data used to match samples against a gene's allele definitions.
+ * <p>
+ * This is built once per gene by {@link DefinitionReader}.  When a sample has data for all of a gene's positions, the
+ * haplotypes used for matching do not depend on the sample, so they are computed here instead of being rebuilt for
+ * every sample.  The positions each of these haplotypes has alleles for are also computed here, for use when looking
+ * for combinations.
+ * <p>
+ * Subsets of haplotypes requested via {@link #getHaplotypesExcluding(Set)} are computed on first use, and are then
+ * shared like everything else here.
+ *
+ * @author Mark Woon
+ */
+public class GeneMatchingIndex {
+  private final String m_gene;
+  private final VariantLocus[] m_positions;
+  /** Map of {@code <chr:position>} Strings to position ordinal */
+  private final ImmutableMap<String, Integer> m_ordinals;
+  private final String[] m_referenceAlleles;
+  private final ImmutableSortedSet<NamedAllele> m_haplotypes;
+  private final ImmutableSortedSet<NamedAllele> m_combinationHaplotypes;
+  private final @Nullable ImmutableSortedSet<NamedAllele> m_referenceFilledHaplotypes;
+  private final @Nullable ImmutableSortedSet<NamedAllele> m_referenceFilledCombinationHaplotypes;
+  /** Map of all haplotypes in this index to the positions they have alleles for. */
+  private final Map<NamedAllele, BitSet> m_allelePositions;
+  /** Map of excluded allele names to the rest of the gene's haplotypes, computed on first use. */
+  private final Map<Set<String>, SortedSet<NamedAllele>> m_haplotypesExcluding = new ConcurrentHashMap<>();
+
+
+  GeneMatchingIndex(DefinitionFile definitionFile) {
+    Preconditions.checkNotNull(definitionFile);
+
+    m_gene = definitionFile.getGeneSymbol();
+    m_positions = definitionFile.getVariants();
+
+    ImmutableMap.Builder<String, Integer> ordinalBuilder = ImmutableMap.builder();
+    for (int x = 0; x < m_positions.length; x += 1) {
+      ordinalBuilder.put(m_positions[x].getVcfChrPosition(), x);
+    }
+    m_ordinals = ordinalBuilder.build();
+
+    m_haplotypes = ImmutableSortedSet.copyOf(definitionFile.getNamedAlleles());
+    m_combinationHaplotypes = m_haplotypes.stream()
+        .filter(hap -> !isIgnorableCombination(m_gene, hap))
+        .collect(ImmutableSortedSet.toImmutableSortedSet(Comparator.naturalOrder()));
+
+    NamedAllele referenceHaplotype = m_haplotypes.stream()
+        .filter(NamedAllele::isReference)
+        .findFirst()
+        .orElse(null);
+    if (referenceHaplotype == null) {
+      m_referenceAlleles = new String[m_positions.length];
+      m_referenceFilledHaplotypes = null;
+      m_referenceFilledCombinationHaplotypes = null;
+    } else {
+      m_referenceAlleles = referenceHaplotype.getAlleles().clone();
+      m_referenceFilledHaplotypes = ImmutableSortedSet.copyOf(
+          defaultMissingAllelesToReference(m_gene, m_haplotypes, m_positions));
+      m_referenceFilledCombinationHaplotypes = ImmutableSortedSet.copyOf(
+          defaultMissingAllelesToReference(m_gene, m_combinationHaplotypes, m_positions));
+    }
+
+    Map<NamedAllele, BitSet> allelePositions = new IdentityHashMap<>();
+    addAllelePositions(allelePositions, m_haplotypes);
+    addAllelePositions(allelePositions, m_combinationHaplotypes);
+    if (m_referenceFilledHaplotypes != null) {
+      addAllelePositions(allelePositions, m_referenceFilledHaplotypes);
+      addAllelePositions(allelePositions, m_referenceFilledCombinationHaplotypes);
+    }
+    m_allelePositions = Collections.unmodifiableMap(allelePositions);
+  }
+
+  private static void addAllelePositions(Map<NamedAllele, BitSet> allelePositions, SortedSet<NamedAllele> haplotypes) {
+    for (NamedAllele hap : haplotypes) {
+      allelePositions.computeIfAbsent(hap, h -> {
+        BitSet positions = new BitSet(h.getAlleles().length);
+        for (int x = 0; x < h.getAlleles().length; x += 1) {
+          if (h.getAlleles()[x] != null) {
+            positions.set(x);
+          }
+        }
+        return positions;
+      });
+    }
+  }
+
+
+  /**
+   * Checks if {@link NamedAllele} should be ignored when looking for combinations.
+   */
+  public static boolean isIgnorableCombination(String gene, NamedAllele hap) {
+    if (gene.equalsIgnoreCase("UGT1A1")) {
+      return hap.getName().contains("+");
+    }
+    return false;
+  }
+
+
+  /**
+   * Creates copies of {@link NamedAllele}s where missing alleles are replaced with the reference.
+   *
+   * @param haplotypes haplotypes initialized with {@code positions}, including the reference haplotype
+   * @param positions the positions the haplotypes were initialized with
+   */
+  public static SortedSet<NamedAllele> defaultMissingAllelesToReference(String gene, SortedSet<NamedAllele> haplotypes,
+      VariantLocus[] positions) {
+
+    SortedSet<NamedAllele> updatedHaplotypes = new TreeSet<>();
+    NamedAllele referenceHaplotype = haplotypes.stream().filter(NamedAllele::isReference).findAny()
+        .orElseThrow(() -> new IllegalStateException(gene + " does not have a reference"));
+    int numAlleles = referenceHaplotype.getAlleles().length;
+    for (NamedAllele hap : haplotypes) {
+      if (referenceHaplotype == hap) {
+        updatedHaplotypes.add(hap);
+        continue;
+      }
+
+      String[] curAlleles = hap.getAlleles();
+      Preconditions.checkState(numAlleles == curAlleles.length);
+
+      String[] newAlleles = new String[numAlleles];
+      String[] cpicAlleles = new String[numAlleles];
+      for (int x = 0; x < numAlleles; x += 1) {
+        if (curAlleles[x] == null) {
+          // ref allele can be null if position is missing
+          String refAllele = referenceHaplotype.getAllele(x);
+          if (refAllele != null && Iupac.isWobble(refAllele)) {
+            newAlleles[x] = positions[x].getRef();
+          } else {
+            newAlleles[x] = refAllele;
+          }
+          cpicAlleles[x] = referenceHaplotype.getCpicAlleles()[x];
+        } else {
+          newAlleles[x] = curAlleles[x];
+          cpicAlleles[x] = hap.getCpicAlleles()[x];
+        }
+      }
+
+      NamedAllele fixedHap = new NamedAllele(hap.getId(), hap.getName(), newAlleles, cpicAlleles,
+          hap.getMissingPositions(), hap.isReference());
+      fixedHap.initialize(positions, hap.getScore());
+      updatedHaplotypes.add(fixedHap);
+    }
+    return updatedHaplotypes;
+  }
+
+
+  public String getGene() {
+    return m_gene;
+  }
+
+  /**
+   * Gets all positions for the gene, in definition order.
+   */
+  public VariantLocus[] getPositions() {
+    return m_positions;
+  }
+
+  /**
+   * Gets the ordinal of a position in {@link #getPositions()}.
+   *
+   * @return the ordinal, or -1 if position is not used by gene
+   */
+  public int getOrdinal(VariantLocus variantLocus) {
+    Integer ordinal = m_ordinals.get(variantLocus.getVcfChrPosition());
+    if (ordinal == null) {
+      return -1;
+    }
+    return ordinal;
+  }
+
+  /**
+   * Gets the reference haplotype's allele at the position with the specified ordinal.
+   */
+  public @Nullable String getReferenceAllele(int ordinal) {
+    return m_referenceAlleles[ordinal];
+  }
+
+  /**
+   * Gets all the gene's haplotypes.
+   */
+  public SortedSet<NamedAllele> getHaplotypes() {
+    return m_haplotypes;
+  }
+
+  /**
+   * Gets all the gene's haplotypes except for the specified alleles.
+   * <p>
+   * The same set is returned every time for the same allele names, so it can be shared between samples (e.g.
+   * {@link org.pharmgkb.pharmcat.haplotype.MarshalledHaplotypeCache} compares sets of haplotypes by identity).
+   *
+   * @param alleleNames names of alleles to leave out, which must not be modified afterwards
+   */
+  public SortedSet<NamedAllele> getHaplotypesExcluding(Set<String> alleleNames) {
+    return m_haplotypesExcluding.computeIfAbsent(alleleNames, names -> m_haplotypes.stream()
+        .filter(hap -> !names.contains(hap.getName()))
+        .collect(ImmutableSortedSet.toImmutableSortedSet(Comparator.naturalOrder())));
+  }
+
+  /**
+   * Gets the haplotypes to use when the sample has data for all positions.
+   *
+   * @param findCombinations true if looking for combinations (ignorable combinations will be removed)
+   * @param assumeReference true if missing alleles in haplotypes should be the reference
+   */
+  public SortedSet<NamedAllele> getHaplotypes(boolean findCombinations, boolean assumeReference) {
+    if (assumeReference) {
+      SortedSet<NamedAllele> haplotypes = findCombinations ? m_referenceFilledCombinationHaplotypes :
+          m_referenceFilledHaplotypes;
+      if (haplotypes == null) {
+        throw new IllegalStateException(m_gene + " does not have a reference");
+      }
+      return haplotypes;
+    }
+    return findCombinations ? m_combinationHaplotypes : m_haplotypes;
+  }
+
+  /**
+   * Gets the positions (as indexes into {@link NamedAllele#getAlleles()}) that a haplotype from this index has alleles
+   * for.  The returned {@link BitSet} is shared and must not be modified.
+   *
+   * @return the positions, or null if {@code hap} did not come from this index
+   */
+  public @Nullable BitSet getAllelePositions(NamedAllele hap) {
+    return m_allelePositions.get(hap);
+  }
+
+
+  @Override
+  public String toString() {
+    return m_gene + " matching index";
+  }
+}
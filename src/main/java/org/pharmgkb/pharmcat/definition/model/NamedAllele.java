@@ -62,6 +62,7 @@ public class NamedAllele implements Comparable<NamedAllele> {
   @SerializedName("score")
   private int m_score;
   private transient Pattern m_permutations;
+  private transient VariantLocus[] m_sortedRefVariants;
   // generated by combinations code
   @Expose
   @SerializedName("numCombinations")
@@ -156,6 +157,7 @@ public void initialize(VariantLocus[] refVariants) {
     m_alleleMap = new HashMap<>();
     m_cpicAlleleMap = new HashMap<>();
     m_wobblePositions = new ArrayList<>();
+    int numAlleles = 0;
     for (int x = 0; x < refVariants.length; x += 1) {
       m_alleleMap.put(refVariants[x], m_alleles[x]);
       m_cpicAlleleMap.put(refVariants[x], m_cpicAlleles[x]);
@@ -163,10 +165,10 @@ public void initialize(VariantLocus[] refVariants) {
         if (Iupac.isWobble(m_alleles[x])) {
           m_wobblePositions.add(x);
         }
-        m_score++;
+        numAlleles += 1;
       }
     }
-    m_score -= m_numPartials;
+    m_score = calculateScore(numAlleles, m_numPartials);
     calculatePermutations(refVariants);
     m_isInitialized = true;
   }
@@ -184,6 +186,13 @@ public void initialize(VariantLocus[] refVariants, int score) {
   }
 
 
+  /**
+   * Calculates the score of a {@link NamedAllele} before sample alleles are taken into consideration.
+   */
+  public static int calculateScore(int numAlleles, int numPartials) {
+    return numAlleles - numPartials;
+  }
+
   /**
    * Take sample alleles into consideration for scoring.
    * This takes wobbles into consideration.
@@ -359,6 +368,13 @@ public Pattern getPermutations() {
     return m_permutations;
   }
 
+  /**
+   * Gets the positions this {@link NamedAllele} was initialized with, in the order used by {@link #getPermutations()}.
+   */
+  public VariantLocus[] getSortedRefVariants() {
+    return m_sortedRefVariants;
+  }
+
 
   private void calculatePermutations(VariantLocus[] refVariants) {
 
@@ -379,5 +395,6 @@ private void calculatePermutations(VariantLocus[] refVariants) {
       builder.append(";");
     }
     m_permutations = Pattern.compile(builder.toString());
+    m_sortedRefVariants = sortedRefVariants.toArray(new VariantLocus[0]);
   }
 }
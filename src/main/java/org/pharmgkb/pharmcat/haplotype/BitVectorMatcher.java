@@ -0,0 +1,234 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.function.Supplier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+import org.pharmgkb.pharmcat.haplotype.model.HaplotypeMatch;
+
+
+/**
+ * This class matches sample alleles to {@link NamedAllele}s using bit vectors instead of regular expressions.
+ * <p>
+ * Each allele that a {@link NamedAllele} can accept at a position gets its own bit, plus one more bit for any other
+ * sample allele.  For each of these bits, this keeps a bit vector of the {@link NamedAllele}s that accept it (an IUPAC
+ * wobble can accept several alleles, a missing allele accepts all of them).
+ * <p>
+ * Sample alleles are taken straight from the choices at each position in {@link SamplePermutations}, without building
+ * permutation strings.  A depth-first search over these choices ANDs together the vectors of the alleles chosen so
+ * far, and stops as soon as no {@link NamedAllele} is left.  Every {@link NamedAllele} left at the end of a branch
+ * matches the sequence for that branch.
+ * <p>
+ * Vectors only depend on the {@link NamedAllele}s, so they are built when this class is constructed and the same
+ * instance can be used for every sample that shares the same set of {@link NamedAllele}s (see
+ * {@link MarshalledHaplotypeCache#getBitVectorMatcher(SortedSet)}).
+ * <p>
+ * This gives the same results as {@link HaplotypeMatch#match(String)}.  If a {@link NamedAllele} was not initialized
+ * with the same positions as the sample, matching falls back to {@link SamplePermutations#match(HaplotypeMatch,
+ * Supplier)}.
+ * <p>
+ * This class is immutable.
+ *
+ * @author Mark Woon
+ */
+class BitVectorMatcher {
+  /** Positions, in the same order as {@link SamplePermutations}. */
+  private final long[] m_positions;
+  /** Alleles that get their own bit at each position. */
+  private final String[][] m_alleles;
+  /** Offset of first bit for each position. */
+  private final int[] m_offsets;
+  /** Map of {@link NamedAllele} to its index in the bit vectors. */
+  private final Map<NamedAllele, Integer> m_indexes = new IdentityHashMap<>();
+  private final int m_numWords;
+  /** Bit vector of {@link NamedAllele}s that accept each sample allele bit. */
+  private final long[][] m_accepting;
+
+
+  /**
+   * Constructor.
+   *
+   * @param haplotypes haplotypes initialized with the positions of interest for the sample
+   */
+  BitVectorMatcher(Collection<NamedAllele> haplotypes) {
+    VariantLocus[] positions = haplotypes.stream()
+        .map(NamedAllele::getSortedRefVariants)
+        .filter(Objects::nonNull)
+        .findFirst()
+        .orElse(new VariantLocus[0]);
+    List<NamedAllele> encodableHaplotypes = haplotypes.stream()
+        .filter(hap -> positions.length > 0 && Arrays.equals(positions, hap.getSortedRefVariants()))
+        .toList();
+    for (NamedAllele hap : encodableHaplotypes) {
+      m_indexes.put(hap, m_indexes.size());
+    }
+    m_numWords = (encodableHaplotypes.size() + 63) / 64;
+
+    // assign bits
+    m_positions = new long[positions.length];
+    m_alleles = new String[positions.length][];
+    m_offsets = new int[positions.length];
+    int numBits = 0;
+    for (int p = 0; p < positions.length; p += 1) {
+      m_positions[p] = positions[p].getPosition();
+      Set<String> alleles = new LinkedHashSet<>();
+      for (NamedAllele hap : encodableHaplotypes) {
+        String hapAllele = hap.getAllele(positions[p]);
+        if (hapAllele == null) {
+          continue;
+        }
+        if (hapAllele.length() == 1) {
+          Iupac iupac = Iupac.lookup(hapAllele);
+          if (iupac == Iupac.DEL) {
+            alleles.add(iupac.getRegex());
+          } else {
+            alleles.addAll(iupac.getBases());
+          }
+        } else {
+          alleles.add(hapAllele);
+        }
+      }
+      m_alleles[p] = alleles.toArray(new String[0]);
+      m_offsets[p] = numBits;
+      // extra bit for alleles that can only be matched by a missing allele
+      numBits += alleles.size() + 1;
+    }
+
+    // build vectors
+    m_accepting = new long[numBits][m_numWords];
+    for (NamedAllele hap : encodableHaplotypes) {
+      int idx = m_indexes.get(hap);
+      for (int p = 0; p < positions.length; p += 1) {
+        String hapAllele = hap.getAllele(positions[p]);
+        String[] alleles = m_alleles[p];
+        for (int y = 0; y < alleles.length; y += 1) {
+          if (accepts(hapAllele, alleles[y])) {
+            setBit(m_accepting[m_offsets[p] + y], idx);
+          }
+        }
+        if (hapAllele == null) {
+          setBit(m_accepting[m_offsets[p] + alleles.length], idx);
+        }
+      }
+    }
+  }
+
+  private static void setBit(long[] vector, int bit) {
+    vector[bit >>> 6] |= 1L << bit;
+  }
+
+
+  /**
+   * Adds matching permutations to each {@link HaplotypeMatch}.
+   */
+  void match(Collection<HaplotypeMatch> haplotypeMatches, SamplePermutations permutations) {
+    boolean isAligned = permutations.getNumPositions() == m_positions.length;
+    for (int p = 0; isAligned && p < m_positions.length; p += 1) {
+      isAligned = permutations.getPosition(p) == m_positions[p];
+    }
+
+    HaplotypeMatch[] matches = new HaplotypeMatch[m_indexes.size()];
+    long[] alive = new long[m_numWords];
+    boolean hasAlive = false;
+    for (HaplotypeMatch hm : haplotypeMatches) {
+      Integer idx = isAligned ? m_indexes.get(hm.getHaplotype()) : null;
+      if (idx == null) {
+        permutations.match(hm, permutations::enumerate);
+      } else {
+        matches[idx] = hm;
+        setBit(alive, idx);
+        hasAlive = true;
+      }
+    }
+    if (!hasAlive) {
+      return;
+    }
+
+    for (int strand = 0; strand < 2; strand += 1) {
+      String[][] choices = permutations.getChoices(strand);
+      if (choices != null) {
+        match(permutations, choices, toBits(choices), 0, alive, new StringBuilder(), matches);
+      }
+    }
+  }
+
+  /**
+   * Gets the bit for each of the choices at each position.
+   */
+  private int[][] toBits(String[][] choices) {
+    int[][] bits = new int[choices.length][];
+    for (int p = 0; p < choices.length; p += 1) {
+      bits[p] = new int[choices[p].length];
+      String[] alleles = m_alleles[p];
+      for (int c = 0; c < choices[p].length; c += 1) {
+        int y = 0;
+        while (y < alleles.length && !alleles[y].equals(choices[p][c])) {
+          y += 1;
+        }
+        bits[p][c] = m_offsets[p] + y;
+      }
+    }
+    return bits;
+  }
+
+  /**
+   * @param alive {@link NamedAllele}s that accept the sample alleles chosen so far
+   */
+  private void match(SamplePermutations permutations, String[][] choices, int[][] bits, int idx, long[] alive,
+      StringBuilder seq, HaplotypeMatch[] matches) {
+    if (idx == choices.length) {
+      String sequence = seq.toString();
+      for (int x = 0; x < alive.length; x += 1) {
+        long word = alive[x];
+        while (word != 0) {
+          matches[(x << 6) + Long.numberOfTrailingZeros(word)].addSequence(sequence);
+          word &= word - 1;
+        }
+      }
+      return;
+    }
+    int length = seq.length();
+    for (int c = 0; c < choices[idx].length; c += 1) {
+      long[] accepting = m_accepting[bits[idx][c]];
+      long[] next = new long[alive.length];
+      boolean isEmpty = true;
+      for (int x = 0; x < alive.length; x += 1) {
+        next[x] = alive[x] & accepting[x];
+        isEmpty &= next[x] == 0;
+      }
+      if (!isEmpty) {
+        permutations.appendAllele(seq, idx, choices[idx][c]);
+        match(permutations, choices, bits, idx + 1, next, seq, matches);
+        seq.setLength(length);
+      }
+    }
+  }
+
+
+  /**
+   * Checks if a {@link NamedAllele}'s allele accepts sample allele.
+   * This mirrors the regular expression built by {@link NamedAllele#getPermutations()}.
+   */
+  static boolean accepts(@Nullable String hapAllele, String sampleAllele) {
+    if (hapAllele == null) {
+      return true;
+    }
+    if (hapAllele.length() == 1) {
+      Iupac iupac = Iupac.lookup(hapAllele);
+      if (iupac == Iupac.DEL) {
+        return sampleAllele.equals(iupac.getRegex());
+      }
+      return iupac.getBases().contains(sampleAllele);
+    }
+    return hapAllele.equals(sampleAllele);
+  }
+}
@@ -1,21 +1,31 @@
 package org.pharmgkb.pharmcat.haplotype;
 
+import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.SortedSetMultimap;
 import com.google.common.collect.TreeMultimap;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pharmgkb.pharmcat.definition.GeneMatchingIndex;
 import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
 import org.pharmgkb.pharmcat.haplotype.model.BaseMatch;
 import org.pharmgkb.pharmcat.haplotype.model.CombinationMatch;
 import org.pharmgkb.pharmcat.haplotype.model.DiplotypeMatch;
 import org.pharmgkb.pharmcat.haplotype.model.HaplotypeMatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -24,7 +34,11 @@
  * @author Mark Woon
  */
 public class DiplotypeMatcher {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   private final MatchData m_dataset;
+  private int m_maxCombinationSize;
+  private long m_numCombinationNodes;
+  private long m_numCombinationsPruned;
 
 
   public DiplotypeMatcher(MatchData dataset) {
@@ -32,6 +46,33 @@ public DiplotypeMatcher(MatchData dataset) {
   }
 
 
+  /**
+   * Limits the number of haplotypes that can be in a combination.
+   *
+   * @param maxCombinationSize maximum number of haplotypes in a combination, or 0 for no limit
+   */
+  public DiplotypeMatcher maxCombinationSize(int maxCombinationSize) {
+    Preconditions.checkArgument(maxCombinationSize >= 0, "Max combination size cannot be negative");
+    m_maxCombinationSize = maxCombinationSize;
+    return this;
+  }
+
+  /**
+   * Gets the number of combinations explored by the last call to {@link #compute}.
+   */
+  public long getNumCombinationNodes() {
+    return m_numCombinationNodes;
+  }
+
+  /**
+   * Gets the number of branches of the combination search that were cut off by the last call to {@link #compute}
+   * because they could not lead to the top candidate.
+   */
+  public long getNumCombinationsPruned() {
+    return m_numCombinationsPruned;
+  }
+
+
   public SortedSet<DiplotypeMatch> compute(boolean findCombinations) {
     return compute(findCombinations, false);
   }
@@ -55,8 +96,11 @@ public SortedSet<DiplotypeMatch> compute(boolean findCombinations, boolean findP
     }
 
     SortedSet<BaseMatch> matches = new TreeSet<>();
+    m_numCombinationNodes = 0;
+    m_numCombinationsPruned = 0;
     if (findCombinations) {
       List<CombinationMatch> combinationMatches = new ArrayList<>();
+      Map<String, CombinationSearch> searchesBySequence = new HashMap<>();
       for (int x = 0; x < haplotypeMatches.size(); x += 1) {
         HaplotypeMatch hm = haplotypeMatches.get(x);
         for (String seq : hm.getSequences()) {
@@ -66,10 +110,25 @@ public SortedSet<DiplotypeMatch> compute(boolean findCombinations, boolean findP
           individualHapMatch.finalizeCombinationHaplotype(m_dataset, findPartials);
           matches.add(individualHapMatch);
 
-          CombinationMatch combinationMatch = new CombinationMatch(m_dataset.getPositions(), hm.getHaplotype(), seq);
-          combinationMatches.addAll(calculateCombinations(haplotypeMatches, x + 1, combinationMatch));
+          CombinationSearch search = searchesBySequence.computeIfAbsent(seq,
+              s -> buildSearch(haplotypeMatches, s, findPartials, boostComboScores));
+          int rootIdx = 0;
+          while (search.candidates.get(rootIdx).matchIdx() != x) {
+            rootIdx += 1;
+          }
+          Candidate root = search.candidates.get(rootIdx);
+          List<Candidate> components = new ArrayList<>();
+          components.add(root);
+          BitSet used = new BitSet(search.candidates.size());
+          used.set(rootIdx);
+          calculateCombinations(search, rootIdx + 1, components, used, root.positions(), root.scoreDelta(),
+              topCandidateOnly, combinationMatches);
         }
       }
+      if (m_numCombinationNodes > 0) {
+        sf_logger.debug("{}: explored {} combinations, pruned {}", m_dataset, m_numCombinationNodes,
+            m_numCombinationsPruned);
+      }
 
       // finalize the combination match and check for partials (if findPartials = true)
       for (CombinationMatch combinationMatch : combinationMatches) {
@@ -85,12 +144,11 @@ public SortedSet<DiplotypeMatch> compute(boolean findCombinations, boolean findP
         Set<String> matchedSequences = matches.stream()
             .flatMap(bm -> bm.getSequences().stream())
             .collect(Collectors.toSet());
-        for (String seq : m_dataset.getPermutations()) {
-          if (matchedSequences.contains(seq)) {
-            continue;
+        m_dataset.forEachPermutation(seq -> {
+          if (!matchedSequences.contains(seq)) {
+            matches.add(new CombinationMatch(m_dataset, referenceHaplotype, seq));
           }
-          matches.add(new CombinationMatch(m_dataset, referenceHaplotype, seq));
-        }
+        });
       }
 
     } else {
@@ -98,7 +156,7 @@ public SortedSet<DiplotypeMatch> compute(boolean findCombinations, boolean findP
     }
 
     List<DiplotypeMatch> pairs;
-    if (m_dataset.getPermutations().size() == 1) {
+    if (m_dataset.getNumPermutations() == 1) {
       pairs = determineHomozygousPairs(matches);
     } else {
       // find matched pairs
@@ -157,35 +215,185 @@ private int newComboScore(@Nullable BaseMatch match, int maxBonus, boolean boost
       return 0;
     }
     NamedAllele na = match.getHaplotype();
-    int score = na.scoreForSample(m_dataset, match.getSequences()) - na.getNumPartials();
+    return comboScore(na.scoreForSample(m_dataset, match.getSequences()), na.getNumPartials(),
+        na.getNumCombinations(), maxBonus, boostCombos);
+  }
+
+  /**
+   * Scores a combination.
+   *
+   * @param haplotypeScore the score of the combined haplotype, which already accounts for partials once
+   */
+  private static int comboScore(int haplotypeScore, int numPartials, int numCombinations, int maxBonus,
+      boolean boostCombos) {
+    int score = haplotypeScore - numPartials;
     int bonus;
     if (boostCombos) {
       // prefer more combos
-      bonus = match.getHaplotype().getNumCombinations();
+      bonus = numCombinations;
     } else {
       // default behavior - prefer fewer combos
-      bonus = maxBonus - match.getHaplotype().getNumCombinations();
+      bonus = maxBonus - numCombinations;
     }
     return score + bonus;
   }
 
 
-  private List<CombinationMatch> calculateCombinations(List<HaplotypeMatch> matches, int position,
-      CombinationMatch combinationMatch) {
+  /**
+   * A {@link HaplotypeMatch} that can be part of a combination for a specific sequence.
+   *
+   * @param matchIdx index of the {@link HaplotypeMatch}
+   * @param positions the positions the haplotype has alleles for
+   * @param scoreDelta how much adding this haplotype changes the score of a combination (see
+   * {@link #newComboScore(BaseMatch, int, boolean)})
+   */
+  private record Candidate(int matchIdx, NamedAllele haplotype, BitSet positions, int scoreDelta) {
+  }
+
+  /**
+   * The search for combinations that match a specific sequence.
+   */
+  private static class CombinationSearch {
+    final String seq;
+    /** The {@link HaplotypeMatch}es that match the sequence, in order. */
+    final List<Candidate> candidates;
+    /** Sum of the positive score deltas of the candidates from each index on. */
+    final int[] maxGain;
+    /** Indexes of the candidates that improve the score of any combination they can be added to. */
+    final int[] improving;
+    /** The best score of any combination found so far. */
+    int bestScore = Integer.MIN_VALUE;
+
+    CombinationSearch(String seq, List<Candidate> candidates) {
+      this.seq = seq;
+      this.candidates = candidates;
+      maxGain = new int[candidates.size() + 1];
+      for (int x = candidates.size() - 1; x >= 0; x -= 1) {
+        maxGain[x] = maxGain[x + 1] + Math.max(0, candidates.get(x).scoreDelta());
+      }
+      improving = IntStream.range(0, candidates.size())
+          .filter(x -> candidates.get(x).scoreDelta() > 0)
+          .toArray();
+    }
+  }
+
+  /**
+   * Sets up the search for combinations that match {@code seq}.
+   * <p>
+   * The score of a combination is the sum of the score deltas of its components.  This works because components
+   * cannot share positions, and scoring is done position by position.
+   */
+  private CombinationSearch buildSearch(List<HaplotypeMatch> matches, String seq, boolean findPartials,
+      boolean boostComboScores) {
+
+    VariantLocus[] refVariants = m_dataset.getPositions();
+    GeneMatchingIndex index = m_dataset.getMatchingIndex();
+    List<String> sequences = List.of(seq);
+    List<Candidate> candidates = new ArrayList<>();
+    for (int x = 0; x < matches.size(); x += 1) {
+      HaplotypeMatch hm = matches.get(x);
+      if (!hm.getSequences().contains(seq)) {
+        continue;
+      }
+      NamedAllele hap = hm.getHaplotype();
+      BitSet positions = index != null ? index.getAllelePositions(hap) : null;
+      if (positions == null) {
+        positions = new BitSet(refVariants.length);
+        for (int y = 0; y < hap.getAlleles().length; y += 1) {
+          if (hap.getAlleles()[y] != null) {
+            positions.set(y);
+          }
+        }
+      }
+      // without this haplotype, its positions that are not reference would be partials
+      int numPartials = 0;
+      if (findPartials) {
+        for (int y = positions.nextSetBit(0); y >= 0; y = positions.nextSetBit(y + 1)) {
+          if (!m_dataset.getAllele(seq, y).equals(refVariants[y].getRef())) {
+            numPartials += 1;
+          }
+        }
+      }
+      int scoreDelta = comboScore(hap.scoreForSample(m_dataset, sequences), 0, 1, 0, boostComboScores) -
+          comboScore(NamedAllele.calculateScore(0, numPartials), numPartials, 0, 0, boostComboScores);
+      candidates.add(new Candidate(x, hap, positions, scoreDelta));
+    }
+    return new CombinationSearch(seq, candidates);
+  }
+
+
+  /**
+   * Finds all combinations that can be built by adding candidates after {@code position} to {@code components}.
+   * <p>
+   * Combinations are explored using the positions each candidate has alleles for, and a {@link CombinationMatch} is
+   * only built for combinations that are kept.
+   * <p>
+   * If {@code topCandidateOnly} is true, this is a branch-and-bound search.  The best score found so far is tracked,
+   * and a branch is not explored if adding all the remaining candidates that improve the score would not reach it.
+   * Combinations are also dropped if they score lower than the best so far, or if they can be extended with another
+   * candidate that improves their score, since any diplotype they are part of will score lower than the same diplotype
+   * with a better combination.
+   *
+   * @param used the indexes of the candidates in {@code components}
+   * @param score the score of {@code components}
+   */
+  private void calculateCombinations(CombinationSearch search, int position, List<Candidate> components,
+      BitSet used, BitSet occupied, int score, boolean topCandidateOnly, List<CombinationMatch> combinationMatches) {
 
-    List<CombinationMatch> combinationMatches = new ArrayList<>();
-    for (int x = position; x < matches.size(); x += 1) {
-      HaplotypeMatch haplotypeMatch = matches.get(x);
-      for (String seq : haplotypeMatch.getSequences()) {
-        if (combinationMatch.canMerge(haplotypeMatch.getHaplotype(), seq)) {
-          CombinationMatch newCombo = new CombinationMatch(combinationMatch);
-          newCombo.merge(haplotypeMatch.getHaplotype());
-          combinationMatches.add(newCombo);
-          combinationMatches.addAll(calculateCombinations(matches, x + 1, newCombo));
+    if (m_maxCombinationSize > 0 && components.size() >= m_maxCombinationSize) {
+      return;
+    }
+    for (int x = position; x < search.candidates.size(); x += 1) {
+      if (topCandidateOnly && score + search.maxGain[x] < search.bestScore) {
+        // nothing from here on can reach the best score
+        m_numCombinationsPruned += 1;
+        return;
+      }
+      Candidate candidate = search.candidates.get(x);
+      // haplotypes cannot have overlapping variations (no sharing!)
+      if (candidate.positions().intersects(occupied)) {
+        continue;
+      }
+      m_numCombinationNodes += 1;
+      components.add(candidate);
+      used.set(x);
+      BitSet newOccupied = (BitSet)occupied.clone();
+      newOccupied.or(candidate.positions());
+      int newScore = score + candidate.scoreDelta();
+
+      boolean keep = true;
+      if (topCandidateOnly) {
+        search.bestScore = Math.max(search.bestScore, newScore);
+        keep = newScore == search.bestScore && !canImprove(search, used, newOccupied, components.size());
+      }
+      if (keep) {
+        CombinationMatch combinationMatch = new CombinationMatch(m_dataset.getPositions(),
+            components.get(0).haplotype(), search.seq);
+        for (int y = 1; y < components.size(); y += 1) {
+          combinationMatch.merge(components.get(y).haplotype());
         }
+        combinationMatches.add(combinationMatch);
+      }
+      calculateCombinations(search, x + 1, components, used, newOccupied, newScore, topCandidateOnly,
+          combinationMatches);
+      used.clear(x);
+      components.remove(components.size() - 1);
+    }
+  }
+
+  /**
+   * Checks if combination can be extended with another candidate that improves its score.
+   */
+  private boolean canImprove(CombinationSearch search, BitSet used, BitSet occupied, int numComponents) {
+    if (m_maxCombinationSize > 0 && numComponents >= m_maxCombinationSize) {
+      return false;
+    }
+    for (int x : search.improving) {
+      if (!used.get(x) && !search.candidates.get(x).positions().intersects(occupied)) {
+        return true;
       }
     }
-    return combinationMatches;
+    return false;
   }
 
 
@@ -196,7 +404,7 @@ private List<CombinationMatch> calculateCombinations(List<HaplotypeMatch> matche
    */
   private List<DiplotypeMatch> determineHomozygousPairs(SortedSet<BaseMatch> haplotypeMatches) {
 
-    String seq = m_dataset.getPermutations().iterator().next();
+    String seq = m_dataset.getFirstPermutation();
     List<DiplotypeMatch> matches = new ArrayList<>();
     if (haplotypeMatches.size() == 1) {
       // matched a single haplotype: need to return that as either homozygous diplotype or haploid
@@ -3,8 +3,8 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import org.pharmgkb.pharmcat.Env;
@@ -32,7 +32,7 @@ public class DpydHapB3Matcher {
   public static final String HAPB3_EXONIC_RSID = "rs56038477";
   public static final String HAPB3_INTRONIC_RSID = "rs75017182";
 
-  private final SortedMap<String, SampleAllele> m_alleleMap;
+  private final Map<String, SampleAllele> m_alleleMap;
   private final boolean m_isMissingHapB3;
   private List<String> m_hapB3IntronCall;
   private List<String> m_hapB3Call;
@@ -41,7 +41,7 @@ public class DpydHapB3Matcher {
   private MessageAnnotation m_warning;
 
 
-  public DpydHapB3Matcher(Env env, SortedMap<String, SampleAllele> alleleMap, boolean isEffectivelyPhased) {
+  public DpydHapB3Matcher(Env env, Map<String, SampleAllele> alleleMap, boolean isEffectivelyPhased) {
     m_alleleMap = alleleMap;
     DefinitionReader definitionReader = env.getDefinitionReader();
 
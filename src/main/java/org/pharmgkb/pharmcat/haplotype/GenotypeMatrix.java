@@ -0,0 +1,382 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.lang.reflect.Array;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.SortedSetMultimap;
+import com.google.common.collect.TreeMultimap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+
+/**
+ * This class is a compact, columnar (positions &times; samples) store of sample genotypes at positions of interest.
+ * <p>
+ * Instead of holding a {@link SampleAllele} per sample per position, GT allele indexes, phasing and other flags are
+ * packed into primitive arrays, one per sample.  Data that is shared by all samples (e.g. VCF alleles) is only stored
+ * once per position.  {@link SampleAllele}s are only created on demand via {@link SampleView}.
+ * <p>
+ * Once a sample's data is no longer needed, {@link #release(String)} frees it, without waiting on other samples.
+ * <p>
+ * Use {@link GenotypeMatrixReader} to build one.
+ *
+ * @author Mark Woon
+ */
+public class GenotypeMatrix {
+  /** Sample has a valid genotype at this position. */
+  private static final byte sf_flagPresent = 1;
+  private static final byte sf_flagPhased = 1 << 1;
+  private static final byte sf_flagEffectivelyPhased = 1 << 2;
+  /** Genotype was discarded (e.g. because AD field contradicts GT field). */
+  private static final byte sf_flagDiscarded = 1 << 3;
+  /** Allele code for missing allele (i.e. "."). */
+  private static final byte sf_missingAllele = -1;
+  /** Allele code for no allele (e.g. haploid GT). */
+  private static final byte sf_noAllele = -2;
+  private static final int sf_initialRows = 256;
+
+  private final List<String> m_sampleIds;
+  private final Map<String, Integer> m_sampleIdx = new HashMap<>();
+  private final int m_numSamples;
+  // per position
+  private int m_numRows;
+  private int m_capacity = sf_initialRows;
+  private String[] m_chromosomes = new String[sf_initialRows];
+  private int[] m_positions = new int[sf_initialRows];
+  private List<String>[] m_vcfAlleles = newArray(List.class, sf_initialRows);
+  private boolean[] m_treatUndocumentedAsReference = new boolean[sf_initialRows];
+  /** Map of chr:position to rows (there can be more than one if VCF has duplicate entries). */
+  private final Map<String, int[]> m_rowIndex = new HashMap<>();
+  // per sample (column), indexed by row; null once released
+  private final byte[][] m_allele1;
+  private final byte[][] m_allele2;
+  private final byte[][] m_flags;
+  // sparse per sample data, only created if needed
+  /** GT values that cannot be rebuilt from allele codes, by row. */
+  private final Map<Integer, String>[] m_irregularGt;
+  private final Map<Integer, Set<String>>[] m_undocumentedVariations;
+  private final SortedSetMultimap<String, String>[] m_warnings;
+
+
+  GenotypeMatrix(List<String> sampleIds) {
+    Preconditions.checkArgument(!sampleIds.isEmpty(), "No samples specified");
+    m_sampleIds = ImmutableList.copyOf(sampleIds);
+    for (int x = 0; x < m_sampleIds.size(); x += 1) {
+      if (m_sampleIdx.putIfAbsent(m_sampleIds.get(x), x) != null) {
+        throw new IllegalArgumentException("Duplicate sample '" + m_sampleIds.get(x) + "'");
+      }
+    }
+    m_numSamples = m_sampleIds.size();
+    m_allele1 = new byte[m_numSamples][sf_initialRows];
+    m_allele2 = new byte[m_numSamples][sf_initialRows];
+    m_flags = new byte[m_numSamples][sf_initialRows];
+    m_irregularGt = newArray(Map.class, m_numSamples);
+    m_undocumentedVariations = newArray(Map.class, m_numSamples);
+    m_warnings = newArray(SortedSetMultimap.class, m_numSamples);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T[] newArray(Class<?> type, int size) {
+    return (T[])Array.newInstance(type, size);
+  }
+
+
+  /**
+   * Gets the IDs of the samples in this matrix, in column order.
+   */
+  public List<String> getSampleIds() {
+    return m_sampleIds;
+  }
+
+  public boolean hasSample(String sampleId) {
+    return m_sampleIdx.containsKey(sampleId);
+  }
+
+  /**
+   * Gets the number of positions (i.e. VCF lines) in this matrix.
+   */
+  public int getNumPositions() {
+    return m_numRows;
+  }
+
+  /**
+   * Gets view of data for the specified sample.
+   *
+   * @throws IllegalStateException if the sample's data has been released
+   */
+  public SampleView getSample(String sampleId) {
+    int idx = getColumn(sampleId);
+    Preconditions.checkState(m_flags[idx] != null, "Data for sample '%s' has been released", sampleId);
+    return new SampleView(sampleId, idx);
+  }
+
+  /**
+   * Frees the specified sample's data.  Views of the sample must not be used after this.
+   */
+  public void release(String sampleId) {
+    int idx = getColumn(sampleId);
+    m_allele1[idx] = null;
+    m_allele2[idx] = null;
+    m_flags[idx] = null;
+    m_irregularGt[idx] = null;
+    m_undocumentedVariations[idx] = null;
+    m_warnings[idx] = null;
+  }
+
+  private int getColumn(String sampleId) {
+    Integer idx = m_sampleIdx.get(sampleId);
+    if (idx == null) {
+      throw new IllegalArgumentException("No data for sample '" + sampleId + "'");
+    }
+    return idx;
+  }
+
+
+  /**
+   * Adds a position (i.e. VCF line).
+   *
+   * @return row index of position
+   */
+  int addRow(String chromosome, long position, List<String> vcfAlleles, boolean treatUndocumentedAsReference) {
+    Preconditions.checkArgument(vcfAlleles.size() <= Byte.MAX_VALUE, "Too many alleles at %s:%s", chromosome,
+        position);
+    if (m_numRows == m_capacity) {
+      m_capacity = m_numRows * 2;
+      m_chromosomes = Arrays.copyOf(m_chromosomes, m_capacity);
+      m_positions = Arrays.copyOf(m_positions, m_capacity);
+      m_vcfAlleles = Arrays.copyOf(m_vcfAlleles, m_capacity);
+      m_treatUndocumentedAsReference = Arrays.copyOf(m_treatUndocumentedAsReference, m_capacity);
+      for (int x = 0; x < m_numSamples; x += 1) {
+        m_allele1[x] = Arrays.copyOf(m_allele1[x], m_capacity);
+        m_allele2[x] = Arrays.copyOf(m_allele2[x], m_capacity);
+        m_flags[x] = Arrays.copyOf(m_flags[x], m_capacity);
+      }
+    }
+    int row = m_numRows;
+    m_numRows += 1;
+    m_chromosomes[row] = chromosome;
+    m_positions[row] = (int)position;
+    m_vcfAlleles[row] = vcfAlleles;
+    m_treatUndocumentedAsReference[row] = treatUndocumentedAsReference;
+    m_rowIndex.merge(chromosome + ":" + position, new int[] { row }, (a, b) -> {
+      int[] rows = Arrays.copyOf(a, a.length + 1);
+      rows[a.length] = b[0];
+      return rows;
+    });
+    return row;
+  }
+
+  /**
+   * Sets sample's genotype at a position.
+   *
+   * @param allele1Idx index of first allele in VCF alleles, or -1 if missing
+   * @param allele2Idx index of second allele in VCF alleles, -1 if missing or -2 if there is no second allele
+   */
+  void setGenotype(int row, int sampleIdx, String gt, int allele1Idx, int allele2Idx, boolean isPhased,
+      boolean isEffectivelyPhased, Set<String> undocumentedVariations) {
+    m_allele1[sampleIdx][row] = (byte)allele1Idx;
+    m_allele2[sampleIdx][row] = (byte)allele2Idx;
+    byte flags = sf_flagPresent;
+    if (isPhased) {
+      flags |= sf_flagPhased;
+    }
+    if (isEffectivelyPhased) {
+      flags |= sf_flagEffectivelyPhased;
+    }
+    m_flags[sampleIdx][row] = flags;
+    if (!gt.equals(buildGt((byte)allele1Idx, (byte)allele2Idx, isPhased))) {
+      if (m_irregularGt[sampleIdx] == null) {
+        m_irregularGt[sampleIdx] = new HashMap<>();
+      }
+      m_irregularGt[sampleIdx].put(row, gt);
+    }
+    if (!undocumentedVariations.isEmpty()) {
+      if (m_undocumentedVariations[sampleIdx] == null) {
+        m_undocumentedVariations[sampleIdx] = new HashMap<>();
+      }
+      m_undocumentedVariations[sampleIdx].put(row, undocumentedVariations);
+    }
+  }
+
+  /**
+   * Flags sample's genotype at a position as having been discarded.
+   */
+  void flagDiscarded(int row, int sampleIdx) {
+    m_flags[sampleIdx][row] |= sf_flagDiscarded;
+  }
+
+  /**
+   * Checks if sample has a valid genotype at the specified position.
+   */
+  boolean hasGenotype(int sampleIdx, String chrPos) {
+    return findRow(sampleIdx, chrPos, sf_flagPresent) != -1;
+  }
+
+  /**
+   * Checks if sample's genotype at the specified position has been discarded (in any of the VCF's entries for the
+   * position).
+   */
+  boolean isDiscarded(int sampleIdx, String chrPos) {
+    return findRow(sampleIdx, chrPos, sf_flagDiscarded) != -1;
+  }
+
+  void addWarning(int sampleIdx, String chrPos, String msg) {
+    if (m_warnings[sampleIdx] == null) {
+      m_warnings[sampleIdx] = TreeMultimap.create();
+    }
+    m_warnings[sampleIdx].put(chrPos, msg);
+  }
+
+
+  /**
+   * Finds the first row for {@code chrPos} where the sample has the specified flag.
+   *
+   * @return the row, or -1 if there is none
+   */
+  private int findRow(int sampleIdx, String chrPos, byte flag) {
+    int[] rows = m_rowIndex.get(chrPos);
+    if (rows == null) {
+      return -1;
+    }
+    byte[] flags = m_flags[sampleIdx];
+    for (int row : rows) {
+      if ((flags[row] & flag) != 0) {
+        return row;
+      }
+    }
+    return -1;
+  }
+
+  private static String buildGt(byte allele1, byte allele2, boolean isPhased) {
+    StringBuilder builder = new StringBuilder();
+    builder.append(allele1 == sf_missingAllele ? "." : Integer.toString(allele1));
+    if (allele2 != sf_noAllele) {
+      builder.append(isPhased ? "|" : "/")
+          .append(allele2 == sf_missingAllele ? "." : Integer.toString(allele2));
+    }
+    return builder.toString();
+  }
+
+  private SampleAllele decode(int row, int sampleIdx) {
+    List<String> vcfAlleles = m_vcfAlleles[row];
+    byte a1 = m_allele1[sampleIdx][row];
+    byte a2 = m_allele2[sampleIdx][row];
+    byte flags = m_flags[sampleIdx][row];
+    boolean isPhased = (flags & sf_flagPhased) != 0;
+    String gt = m_irregularGt[sampleIdx] == null ? null : m_irregularGt[sampleIdx].get(row);
+    if (gt == null) {
+      gt = buildGt(a1, a2, isPhased);
+    }
+    return new SampleAllele(m_chromosomes[row], m_positions[row],
+        a1 >= 0 ? vcfAlleles.get(a1) : null,
+        a2 >= 0 ? vcfAlleles.get(a2) : null,
+        isPhased, (flags & sf_flagEffectivelyPhased) != 0, vcfAlleles, gt,
+        m_undocumentedVariations[sampleIdx] == null ? null : m_undocumentedVariations[sampleIdx].get(row),
+        m_treatUndocumentedAsReference[row]);
+  }
+
+
+  /**
+   * A read-only, per-sample view of a {@link GenotypeMatrix}.
+   * <p>
+   * This is a map of {@code <chr:position, SampleAllele>}, but {@link SampleAllele}s are built on demand and are not
+   * retained.
+   */
+  public class SampleView extends AbstractMap<String, SampleAllele> {
+    private final String m_sampleId;
+    private final int m_idx;
+
+    private SampleView(String sampleId, int idx) {
+      m_sampleId = sampleId;
+      m_idx = idx;
+    }
+
+    public String getSampleId() {
+      return m_sampleId;
+    }
+
+    /**
+     * Gets warnings from reading data, keyed to chromosomal position.
+     */
+    public SortedSetMultimap<String, String> getWarnings() {
+      SortedSetMultimap<String, String> warnings = m_warnings[m_idx];
+      if (warnings == null) {
+        return TreeMultimap.create();
+      }
+      return warnings;
+    }
+
+    @Override
+    public @Nullable SampleAllele get(Object key) {
+      if (!(key instanceof String chrPos)) {
+        return null;
+      }
+      int row = findRow(m_idx, chrPos, sf_flagPresent);
+      if (row == -1) {
+        return null;
+      }
+      return decode(row, m_idx);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key instanceof String chrPos && hasGenotype(m_idx, chrPos);
+    }
+
+    @Override
+    public Set<Entry<String, SampleAllele>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<String, SampleAllele>> iterator() {
+          return new Iterator<>() {
+            private final byte[] m_sampleFlags = m_flags[m_idx];
+            private int m_nextRow = findNext(0);
+
+            private int findNext(int row) {
+              while (row < m_numRows && (m_sampleFlags[row] & sf_flagPresent) == 0) {
+                row += 1;
+              }
+              return row;
+            }
+
+            @Override
+            public boolean hasNext() {
+              return m_nextRow < m_numRows;
+            }
+
+            @Override
+            public Entry<String, SampleAllele> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              int row = m_nextRow;
+              m_nextRow = findNext(row + 1);
+              SampleAllele allele = decode(row, m_idx);
+              return new SimpleImmutableEntry<>(allele.getChrPosition(), allele);
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          byte[] flags = m_flags[m_idx];
+          int size = 0;
+          for (int row = 0; row < m_numRows; row += 1) {
+            if ((flags[row] & sf_flagPresent) != 0) {
+              size += 1;
+            }
+          }
+          return size;
+        }
+      };
+    }
+  }
+}
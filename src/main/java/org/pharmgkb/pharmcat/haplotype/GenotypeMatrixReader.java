@@ -0,0 +1,55 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import com.google.common.base.Preconditions;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pharmgkb.pharmcat.ParseException;
+import org.pharmgkb.pharmcat.VcfFile;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+
+
+/**
+ * This class reads VCF files and pulls the alleles of multiple samples at positions of interest into a
+ * {@link GenotypeMatrix} in a single pass.
+ * <p>
+ * Alleles are validated exactly as they are by {@link VcfReader}.
+ *
+ * @author Mark Woon
+ */
+public class GenotypeMatrixReader {
+
+  private GenotypeMatrixReader() {
+  }
+
+
+  /**
+   * Reads alleles at positions of interest.
+   *
+   * @param sampleIds samples to read, or all samples in the VCF file if null or empty
+   * @throws ParseException if there are no samples in the VCF file
+   */
+  public static GenotypeMatrix read(DefinitionReader definitionReader, Path vcfFile,
+      @Nullable Collection<String> sampleIds, boolean findCombinations) throws IOException, ParseException {
+    Preconditions.checkNotNull(vcfFile);
+    Preconditions.checkArgument(VcfFile.isVcfFile(vcfFile), "%s is not a VCF file", vcfFile);
+
+    try (BufferedReader reader = VcfReader.filterVcfData(VcfReader.openVcfData(vcfFile), definitionReader)) {
+      return read(definitionReader, reader, sampleIds, findCombinations);
+    }
+  }
+
+  /**
+   * Reads alleles at positions of interest.
+   *
+   * @param sampleIds samples to read, or all samples in the VCF file if null or empty
+   * @throws ParseException if there are no samples in the VCF file
+   */
+  public static GenotypeMatrix read(DefinitionReader definitionReader, BufferedReader vcfReader,
+      @Nullable Collection<String> sampleIds, boolean findCombinations) throws IOException, ParseException {
+    return new VcfReader(definitionReader, vcfReader, sampleIds, findCombinations, true)
+        .getGenotypeMatrix();
+  }
+}
@@ -0,0 +1,156 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+
+
+/**
+ * This is a cache of the haplotypes generated by {@link MatchData#marshallHaplotypes} for samples that are missing
+ * positions.
+ * <p>
+ * Samples genotyped on the same array are usually missing the same positions, so the trimmed {@link NamedAllele}
+ * copies only need to be built once per gene and set of missing positions.  Entries are keyed by gene, the identity of
+ * the set of haplotypes being marshalled, bitmaps of missing and ignored position ordinals (see
+ * {@link org.pharmgkb.pharmcat.definition.GeneMatchingIndex#getOrdinal}), and the {@code findCombinations} and
+ * {@code assumeReference} flags.
+ * <p>
+ * The set of haplotypes being marshalled is compared by identity so that lookups don't have to hash or compare every
+ * haplotype in it.  It should be a set that is shared between samples (i.e. from a
+ * {@link org.pharmgkb.pharmcat.definition.GeneMatchingIndex}); any other set will never get a hit.
+ * <p>
+ * It also holds the {@link BitVectorMatcher}s built for sets of haplotypes that are shared between samples (either
+ * from this cache or from a {@link org.pharmgkb.pharmcat.definition.GeneMatchingIndex}), so that their masks are only
+ * built once.  These are only kept for as long as the set of haplotypes is in use.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Mark Woon
+ */
+public class MarshalledHaplotypeCache {
+  public static final long DEFAULT_MAX_SIZE = 1000;
+  private final Cache<Key, SortedSet<NamedAllele>> m_cache;
+  /** Weak keys are compared by identity. */
+  private final Cache<SortedSet<NamedAllele>, BitVectorMatcher> m_bitVectorMatchers = CacheBuilder.newBuilder()
+      .weakKeys()
+      .build();
+
+
+  public MarshalledHaplotypeCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize the maximum number of sets of haplotypes to keep
+   */
+  public MarshalledHaplotypeCache(long maxSize) {
+    Preconditions.checkArgument(maxSize > 0, "Cache size must be greater than 0");
+    m_cache = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .recordStats()
+        .build();
+  }
+
+
+  /**
+   * Gets cached haplotypes, calling {@code loader} to generate them if they aren't already cached.
+   *
+   * @param allHaplotypes the haplotypes that {@code loader} marshalls (compared by identity), which must not be
+   * modified afterwards
+   */
+  SortedSet<NamedAllele> get(String gene, SortedSet<NamedAllele> allHaplotypes, BitSet missingPositions,
+      BitSet ignoredPositions, boolean findCombinations, boolean assumeReference,
+      Supplier<SortedSet<NamedAllele>> loader) {
+
+    Key key = new Key(gene, allHaplotypes, missingPositions, ignoredPositions, findCombinations, assumeReference);
+    try {
+      return m_cache.get(key, () -> Collections.unmodifiableSortedSet(loader.get()));
+    } catch (UncheckedExecutionException ex) {
+      if (ex.getCause() instanceof RuntimeException re) {
+        throw re;
+      }
+      throw ex;
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException("Error marshalling " + gene + " haplotypes", ex.getCause());
+    }
+  }
+
+
+  /**
+   * Gets the {@link BitVectorMatcher} for a set of haplotypes that is shared between samples, building it if necessary.
+   */
+  BitVectorMatcher getBitVectorMatcher(SortedSet<NamedAllele> haplotypes) {
+    try {
+      return m_bitVectorMatchers.get(haplotypes, () -> new BitVectorMatcher(haplotypes));
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException("Error building bit vector matcher", ex.getCause());
+    }
+  }
+
+
+  public long getHitCount() {
+    return m_cache.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return m_cache.stats().missCount();
+  }
+
+  public long size() {
+    return m_cache.size();
+  }
+
+  public void clear() {
+    m_cache.invalidateAll();
+    m_bitVectorMatchers.invalidateAll();
+  }
+
+
+  @Override
+  public String toString() {
+    CacheStats stats = m_cache.stats();
+    return "Marshalled haplotype cache: " + m_cache.size() + " entries, " + stats.hitCount() + " hits, " +
+        stats.missCount() + " misses";
+  }
+
+
+  /**
+   * Cache key.  {@code allHaplotypes} is compared by identity.
+   */
+  private record Key(String gene, SortedSet<NamedAllele> allHaplotypes, BitSet missingPositions,
+      BitSet ignoredPositions, boolean findCombinations, boolean assumeReference) {
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key key)) {
+        return false;
+      }
+      return allHaplotypes == key.allHaplotypes &&
+          findCombinations == key.findCombinations &&
+          assumeReference == key.assumeReference &&
+          gene.equals(key.gene) &&
+          missingPositions.equals(key.missingPositions) &&
+          ignoredPositions.equals(key.ignoredPositions);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(gene, System.identityHashCode(allHaplotypes), missingPositions, ignoredPositions,
+          findCombinations, assumeReference);
+    }
+  }
+}
@@ -2,11 +2,13 @@
 
 import java.lang.invoke.MethodHandles;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import com.google.common.base.Preconditions;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pharmgkb.pharmcat.definition.GeneMatchingIndex;
 import org.pharmgkb.pharmcat.definition.model.DefinitionExemption;
 import org.pharmgkb.pharmcat.definition.model.NamedAllele;
 import org.pharmgkb.pharmcat.definition.model.VariantLocus;
@@ -53,6 +55,13 @@ public class MatchData {
   @SerializedName("effectivelyPhased")
   private boolean m_isEffectivelyPhased;
   private final Map<String, Map<Object, Object>> m_sequenceAlleleCache = new HashMap<>();
+  private boolean m_useBitVectorMatching;
+  private boolean m_prunePermutations;
+  private SamplePermutations m_samplePermutations;
+  private @Nullable MarshalledHaplotypeCache m_haplotypeCache;
+  /** Haplotypes from {@link GeneMatchingIndex} or {@link MarshalledHaplotypeCache} that are shared with other samples. */
+  private @Nullable SortedSet<NamedAllele> m_sharedHaplotypes;
+  private @Nullable GeneMatchingIndex m_matchingIndex;
 
 
   /**
@@ -64,7 +73,7 @@ public class MatchData {
    * @param extraPositions extra positions to track sample alleles for
    * @param ignoredPositions ignored positions to remove from matching (used for special cases like DPYD)
    */
-  public MatchData(String sampleId, String gene, SortedMap<String, SampleAllele> alleleMap, VariantLocus[] allPositions,
+  public MatchData(String sampleId, String gene, Map<String, SampleAllele> alleleMap, VariantLocus[] allPositions,
       @Nullable SortedSet<VariantLocus> extraPositions, @Nullable SortedSet<VariantLocus> ignoredPositions) {
     m_sampleId = sampleId;
     m_gene = gene;
@@ -121,7 +130,7 @@ void marshallHaplotypes(String gene, SortedSet<NamedAllele> allHaplotypes, boole
       if (findCombinations) {
         m_haplotypes = new TreeSet<>();
         for (NamedAllele hap : allHaplotypes) {
-          if (isIgnorableCombination(gene, hap)) {
+          if (GeneMatchingIndex.isIgnorableCombination(gene, hap)) {
             continue;
           }
           m_haplotypes.add(hap);
@@ -135,7 +144,7 @@ void marshallHaplotypes(String gene, SortedSet<NamedAllele> allHaplotypes, boole
       m_haplotypes = new TreeSet<>();
       for (NamedAllele hap : allHaplotypes) {
         if (findCombinations) {
-          if (isIgnorableCombination(gene, hap)) {
+          if (GeneMatchingIndex.isIgnorableCombination(gene, hap)) {
             continue;
           }
         }
@@ -162,67 +171,88 @@ void marshallHaplotypes(String gene, SortedSet<NamedAllele> allHaplotypes, boole
   }
 
   /**
-   * Checks if any of the sample's alleles is partially missing.
+   * Organizes the {@link NamedAllele} data for analysis using a precomputed {@link GeneMatchingIndex}.
+   * <p>
+   * If the sample has data for all positions, the haplotypes come straight from the index.  Otherwise, this falls back
+   * to {@link #marshallHaplotypes(String, SortedSet, boolean)} and {@link #defaultMissingAllelesToReference()}, using
+   * the {@link MarshalledHaplotypeCache} if one has been set.
    */
-  public boolean hasPartialMissingAlleles() {
-    return m_sampleMap.values().stream()
-        .anyMatch(sa -> sa.getVcfCall().contains("."));
+  void marshallHaplotypes(GeneMatchingIndex index, boolean findCombinations, boolean assumeReference) {
+    marshallHaplotypes(index, index.getHaplotypes(), findCombinations, assumeReference);
   }
 
-  private boolean isIgnorableCombination(String gene, NamedAllele hap) {
-    if (gene.equalsIgnoreCase("UGT1A1")) {
-      return hap.getName().contains("+");
+  /**
+   * Organizes the {@link NamedAllele} data for analysis using a precomputed {@link GeneMatchingIndex}.
+   *
+   * @param allHaplotypes the haplotypes to use if the sample is missing positions or positions are being ignored
+   */
+  void marshallHaplotypes(GeneMatchingIndex index, SortedSet<NamedAllele> allHaplotypes, boolean findCombinations,
+      boolean assumeReference) {
+
+    m_matchingIndex = index;
+    if (m_missingPositions.isEmpty() && m_ignoredPositions.isEmpty()) {
+      m_haplotypes = index.getHaplotypes(findCombinations, assumeReference);
+      m_sharedHaplotypes = m_haplotypes;
+      return;
     }
-    return false;
+    if (m_haplotypeCache == null) {
+      marshallHaplotypes(m_gene, allHaplotypes, findCombinations);
+      if (assumeReference) {
+        defaultMissingAllelesToReference();
+      }
+      return;
+    }
+    m_haplotypes = m_haplotypeCache.get(m_gene, allHaplotypes, toBitSet(index, m_missingPositions),
+        toBitSet(index, m_ignoredPositions), findCombinations, assumeReference, () -> {
+          marshallHaplotypes(m_gene, allHaplotypes, findCombinations);
+          if (assumeReference) {
+            defaultMissingAllelesToReference();
+          }
+          return m_haplotypes;
+        });
+    m_sharedHaplotypes = m_haplotypes;
   }
 
+  private static BitSet toBitSet(GeneMatchingIndex index, Collection<VariantLocus> positions) {
+    BitSet bitSet = new BitSet(index.getPositions().length);
+    for (VariantLocus vl : positions) {
+      int ordinal = index.getOrdinal(vl);
+      Preconditions.checkState(ordinal >= 0, "%s is not a %s position", vl, index.getGene());
+      bitSet.set(ordinal);
+    }
+    return bitSet;
+  }
 
   /**
-   * Assumes that missing alleles in {@link NamedAllele}s should be the reference.
+   * Gets the {@link GeneMatchingIndex} the haplotypes were marshalled with, if any.
    */
-  void defaultMissingAllelesToReference() {
+  @Nullable GeneMatchingIndex getMatchingIndex() {
+    return m_matchingIndex;
+  }
 
-    SortedSet<NamedAllele> updatedHaplotypes = new TreeSet<>();
-    NamedAllele referenceHaplotype = m_haplotypes.stream().filter(NamedAllele::isReference).findAny()
-        .orElseThrow(() -> new IllegalStateException(m_gene + " does not have a reference"));
-    int numAlleles = referenceHaplotype.getAlleles().length;
-    for (NamedAllele hap : m_haplotypes) {
-      if (referenceHaplotype == hap) {
-        updatedHaplotypes.add(hap);
-        continue;
-      }
+  /**
+   * Sets the {@link MarshalledHaplotypeCache} to use when the sample is missing positions.
+   */
+  void setHaplotypeCache(@Nullable MarshalledHaplotypeCache haplotypeCache) {
+    m_haplotypeCache = haplotypeCache;
+  }
 
-      String[] curAlleles = hap.getAlleles();
-      Preconditions.checkState(numAlleles == curAlleles.length);
-
-      String[] newAlleles = new String[numAlleles];
-      String[] cpicAlleles = new String[numAlleles];
-      for (int x = 0; x < numAlleles; x += 1) {
-        if (curAlleles[x] == null) {
-          // ref allele can be null if position is missing
-          String refAllele = referenceHaplotype.getAllele(x);
-          if (refAllele != null && Iupac.isWobble(refAllele)) {
-            newAlleles[x] = m_positions[x].getRef();
-          } else {
-            newAlleles[x] = refAllele;
-          }
-          cpicAlleles[x] = referenceHaplotype.getCpicAlleles()[x];
-        } else {
-          newAlleles[x] = curAlleles[x];
-          cpicAlleles[x] = hap.getCpicAlleles()[x];
-        }
-      }
+  /**
+   * Checks if any of the sample's alleles is partially missing.
+   */
+  public boolean hasPartialMissingAlleles() {
+    return m_sampleMap.values().stream()
+        .anyMatch(sa -> sa.getVcfCall().contains("."));
+  }
 
-      NamedAllele fixedHap = new NamedAllele(hap.getId(), hap.getName(), newAlleles, cpicAlleles,
-          hap.getMissingPositions(), hap.isReference());
-      fixedHap.initialize(m_positions, hap.getScore());
-      updatedHaplotypes.add(fixedHap);
-    }
 
-    m_haplotypes = updatedHaplotypes;
+  /**
+   * Assumes that missing alleles in {@link NamedAllele}s should be the reference.
+   */
+  void defaultMissingAllelesToReference() {
+    m_haplotypes = GeneMatchingIndex.defaultMissingAllelesToReference(m_gene, m_haplotypes, m_positions);
   }
 
-
   public int getNumSampleAlleles() {
     return m_sampleMap.size();
   }
@@ -242,25 +272,87 @@ public boolean isHaploid() {
 
   /**
    * Gets all permutations of sample alleles at positions of interest.
+   * <p>
+   * If permutations are being pruned (see {@link #setPrunePermutations(boolean)}), this will enumerate them on first
+   * use.
    */
   public Set<String> getPermutations() {
     if (m_permutations == null) {
-      throw new IllegalStateException("Not initialized - call generateSamplePermutations()");
+      if (m_samplePermutations == null) {
+        throw new IllegalStateException("Not initialized - call generateSamplePermutations()");
+      }
+      m_permutations = m_samplePermutations.enumerate();
     }
     return m_permutations;
   }
 
+  /**
+   * Passes each permutation of sample alleles at positions of interest to {@code consumer}.
+   * Unlike {@link #getPermutations()}, this does not collect permutations if they are being pruned.
+   */
+  public void forEachPermutation(Consumer<String> consumer) {
+    if (m_permutations != null) {
+      m_permutations.forEach(consumer);
+      return;
+    }
+    if (m_samplePermutations == null) {
+      throw new IllegalStateException("Not initialized - call generateSamplePermutations()");
+    }
+    m_samplePermutations.forEach(consumer);
+  }
+
+  /**
+   * Gets the first permutation of sample alleles at positions of interest.
+   * This is the only permutation if {@link #getNumPermutations()} is 1.
+   * Unlike {@link #getPermutations()}, this does not require permutations to be enumerated.
+   */
+  public String getFirstPermutation() {
+    if (m_permutations != null) {
+      return m_permutations.iterator().next();
+    }
+    if (m_samplePermutations == null) {
+      throw new IllegalStateException("Not initialized - call generateSamplePermutations()");
+    }
+    return m_samplePermutations.first();
+  }
+
+  /**
+   * Gets the number of permutations of sample alleles at positions of interest.
+   * Unlike {@code getPermutations().size()}, this does not require permutations to be enumerated.
+   */
+  public long getNumPermutations() {
+    if (m_permutations != null) {
+      return m_permutations.size();
+    }
+    if (m_samplePermutations == null) {
+      throw new IllegalStateException("Not initialized - call generateSamplePermutations()");
+    }
+    return m_samplePermutations.size();
+  }
+
+  /**
+   * Sets whether to avoid enumerating all permutations of sample alleles up front.
+   * Haplotypes will be matched position by position instead (see {@link SamplePermutations}).
+   */
+  void setPrunePermutations(boolean prunePermutations) {
+    m_prunePermutations = prunePermutations;
+  }
+
   /**
    * Generate all permutations of sample alleles at positions of interest.
    */
   void generateSamplePermutations() {
 
-    m_permutations = CombinationUtil.generatePermutations(
-        m_sampleMap.values().stream()
-            .sorted()
-            .toList()
-    );
-    m_isEffectivelyPhased = m_permutations.size() <= 2;
+    List<SampleAllele> sampleAlleles = m_sampleMap.values().stream()
+        .sorted()
+        .toList();
+    if (m_prunePermutations || m_useBitVectorMatching) {
+      // bit vectors are matched against the choices at each position rather than against permutations
+      m_samplePermutations = new SamplePermutations(sampleAlleles);
+    } else {
+      m_permutations = CombinationUtil.generatePermutations(sampleAlleles);
+    }
+    m_isEffectivelyPhased = getNumPermutations() <= 2;
   }
 
   /**
@@ -352,6 +444,16 @@ public String getAllele(String sequence, int idx) {
   }
 
 
+  /**
+   * Sets whether to use {@link BitVectorMatcher} instead of regular expressions to compare sample alleles to haplotype
+   * definitions.
+   * Bit vectors are compared to the alleles at each position in {@link SamplePermutations}, so permutations are not
+   * enumerated up front.
+   */
+  void setUseBitVectorMatching(boolean useBitVectorMatching) {
+    m_useBitVectorMatching = useBitVectorMatching;
+  }
+
   /**
    * Compares a sample's allele permutations to haplotype definitions and return matches.
    */
@@ -359,9 +461,19 @@ protected SortedSet<HaplotypeMatch> comparePermutations() {
     Set<HaplotypeMatch> haplotypeMatches = getHaplotypes().stream()
         .map(HaplotypeMatch::new)
         .collect(Collectors.toSet());
-    for (String p : getPermutations()) {
+    if (m_useBitVectorMatching) {
+      BitVectorMatcher matcher = m_haplotypes == m_sharedHaplotypes && m_haplotypeCache != null ?
+          m_haplotypeCache.getBitVectorMatcher(m_haplotypes) : new BitVectorMatcher(getHaplotypes());
+      matcher.match(haplotypeMatches, m_samplePermutations);
+    } else if (m_samplePermutations != null) {
       for (HaplotypeMatch hm : haplotypeMatches) {
-        hm.match(p);
+        m_samplePermutations.match(hm, this::getPermutations);
+      }
+    } else {
+      for (String p : getPermutations()) {
+        for (HaplotypeMatch hm : haplotypeMatches) {
+          hm.match(p);
+        }
       }
     }
     return haplotypeMatches.stream()
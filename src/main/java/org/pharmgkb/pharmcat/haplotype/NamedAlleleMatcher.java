@@ -11,18 +11,21 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
+import com.google.common.collect.SortedSetMultimap;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pharmgkb.common.util.CliHelper;
 import org.pharmgkb.pharmcat.BaseConfig;
 import org.pharmgkb.pharmcat.Env;
 import org.pharmgkb.pharmcat.VcfFile;
 import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.definition.GeneMatchingIndex;
 import org.pharmgkb.pharmcat.definition.model.DefinitionExemption;
 import org.pharmgkb.pharmcat.definition.model.NamedAllele;
 import org.pharmgkb.pharmcat.definition.model.VariantLocus;
@@ -52,6 +55,9 @@ public class NamedAlleleMatcher {
       "RYR1",
       "TPMT"
   );
+  /** DPYD alleles that are called separately (see {@link DpydHapB3Matcher}). */
+  private static final Set<String> sf_dpydHapB3Alleles = Set.of(DpydHapB3Matcher.HAPB3_ALLELE,
+      DpydHapB3Matcher.HAPB3_INTRONIC_ALLELE);
 
   private final Env m_env;
   private final DefinitionReader m_definitionReader;
@@ -59,6 +65,9 @@ public class NamedAlleleMatcher {
   private final boolean m_topCandidateOnly;
   private final boolean m_callCyp2d6;
   private boolean m_printWarnings;
+  private boolean m_useBitVectorMatching;
+  private boolean m_prunePermutations;
+  private int m_maxCombinationSize;
 
 
   /**
@@ -92,6 +101,34 @@ public NamedAlleleMatcher printWarnings() {
     return this;
   }
 
+  /**
+   * Use bit vectors instead of regular expressions to match sample alleles to haplotype definitions.
+   */
+  public NamedAlleleMatcher useBitVectorMatching() {
+    m_useBitVectorMatching = true;
+    return this;
+  }
+
+  /**
+   * Match haplotype definitions position by position instead of enumerating all permutations of unphased sample
+   * alleles up front.
+   */
+  public NamedAlleleMatcher prunePermutations() {
+    m_prunePermutations = true;
+    return this;
+  }
+
+  /**
+   * Limits the number of haplotypes that can be in a combination when looking for combinations.
+   *
+   * @param maxCombinationSize maximum number of haplotypes in a combination, or 0 for no limit
+   */
+  public NamedAlleleMatcher maxCombinationSize(int maxCombinationSize) {
+    Preconditions.checkArgument(maxCombinationSize >= 0, "Max combination size cannot be negative");
+    m_maxCombinationSize = maxCombinationSize;
+    return this;
+  }
+
 
   public static void main(String[] args) {
 
@@ -158,7 +195,18 @@ public static void main(String[] args) {
 
 
   public void saveResults(Result result, @Nullable Path jsonFile, @Nullable Path htmlFile) throws IOException {
-    ResultSerializer resultSerializer = new ResultSerializer();
+    saveResults(result, jsonFile, htmlFile, false);
+  }
+
+  /**
+   * Saves results to JSON and/or HTML.  Files are gzipped if their names end with {@code .gz}.
+   *
+   * @param compactJson true to write JSON without pretty printing
+   */
+  public void saveResults(Result result, @Nullable Path jsonFile, @Nullable Path htmlFile, boolean compactJson)
+      throws IOException {
+    ResultSerializer resultSerializer = new ResultSerializer()
+        .compactJson(compactJson);
     if (jsonFile != null) {
       resultSerializer.toJson(result, jsonFile);
     }
@@ -182,15 +230,28 @@ private boolean getTopCandidateOnly(String gene) {
    * Calls diplotypes for the given VCF file for all genes for which a definition exists.
    */
   public Result call(VcfFile vcfFile, @Nullable String sampleId) throws IOException {
-    VcfReader vcfReader = vcfFile.getReader(m_definitionReader, sampleId, m_findCombinations);
-    SortedMap<String, SampleAllele> alleleMap = vcfReader.getAlleleMap();
+    Map<String, SampleAllele> alleleMap;
+    SortedSetMultimap<String, String> warnings;
+    GenotypeMatrix.SampleView preloadedSample = vcfFile.getPreloadedSample(m_definitionReader, sampleId,
+        m_findCombinations);
+    if (preloadedSample != null) {
+      alleleMap = preloadedSample;
+      warnings = preloadedSample.getWarnings();
+    } else {
+      VcfReader vcfReader = vcfFile.getReader(m_definitionReader, sampleId, m_findCombinations);
+      if (sampleId == null) {
+        sampleId = vcfReader.getSampleId();
+      }
+      alleleMap = vcfReader.getAlleleMap(sampleId);
+      warnings = vcfReader.getWarnings(sampleId);
+    }
     ResultBuilder resultBuilder = new ResultBuilder(m_definitionReader, m_topCandidateOnly, m_findCombinations, m_callCyp2d6)
-        .forFile(vcfFile, vcfReader.getWarnings().asMap());
+        .forFile(vcfFile, warnings.asMap());
     if (m_printWarnings) {
-      vcfReader.getWarnings().keySet()
+      warnings.keySet()
           .forEach(key -> {
             System.out.println(key);
-            vcfReader.getWarnings().get(key)
+            warnings.get(key)
                 .forEach(msg -> System.out.println("\t" + msg));
           });
     }
@@ -200,11 +261,11 @@ public Result call(VcfFile vcfFile, @Nullable String sampleId) throws IOExceptio
         continue;
       }
       if (gene.equals("DPYD")) {
-        callDpyd(vcfReader.getSampleId(), alleleMap, resultBuilder);
+        callDpyd(sampleId, alleleMap, resultBuilder);
       } else if (gene.equals("RYR1")) {
-        callLowestFunctionGene(vcfReader.getSampleId(), "RYR1", alleleMap, resultBuilder);
+        callLowestFunctionGene(sampleId, "RYR1", alleleMap, resultBuilder);
       } else {
-        callAssumingReference(vcfReader.getSampleId(), alleleMap, gene, resultBuilder);
+        callAssumingReference(sampleId, alleleMap, gene, resultBuilder);
       }
     }
     return resultBuilder.build();
@@ -213,7 +274,7 @@ public Result call(VcfFile vcfFile, @Nullable String sampleId) throws IOExceptio
   /**
    * Call standard gene haplotypes.
    */
-  private void callAssumingReference(String sampleId, SortedMap<String, SampleAllele> alleleMap, String gene,
+  private void callAssumingReference(String sampleId, Map<String, SampleAllele> alleleMap, String gene,
       ResultBuilder resultBuilder) {
 
     MatchData data = initializeCallData(sampleId, alleleMap, gene, true, false);
@@ -231,7 +292,7 @@ private void callAssumingReference(String sampleId, SortedMap<String, SampleAlle
       return;
     }
 
-    SortedSet<DiplotypeMatch> matches = new DiplotypeMatcher(data)
+    SortedSet<DiplotypeMatch> matches = newDiplotypeMatcher(data)
         .compute(false, getTopCandidateOnly(gene));
     if (matches.isEmpty()) {
       if (!m_findCombinations) {
@@ -244,7 +305,7 @@ private void callAssumingReference(String sampleId, SortedMap<String, SampleAlle
     resultBuilder.diplotypes(gene, data, matches);
   }
 
-  private void callCombination(String sampleId, SortedMap<String, SampleAllele> alleleMap, String gene,
+  private void callCombination(String sampleId, Map<String, SampleAllele> alleleMap, String gene,
       ResultBuilder resultBuilder) {
 
     MatchData data = initializeCallData(sampleId, alleleMap, gene, false, true);
@@ -253,13 +314,13 @@ private void callCombination(String sampleId, SortedMap<String, SampleAllele> al
       return;
     }
 
-    SortedSet<DiplotypeMatch> matches = new DiplotypeMatcher(data)
+    SortedSet<DiplotypeMatch> matches = newDiplotypeMatcher(data)
         .compute(true, getTopCandidateOnly(gene));
     resultBuilder.diplotypes(gene, data, matches);
   }
 
 
-  private void callLowestFunctionGene(String sampleId, String gene, SortedMap<String, SampleAllele> alleleMap,
+  private void callLowestFunctionGene(String sampleId, String gene, Map<String, SampleAllele> alleleMap,
       ResultBuilder resultBuilder) {
 
     MatchData origData = initializeCallData(sampleId, alleleMap, gene, true, false);
@@ -272,7 +333,7 @@ private void callLowestFunctionGene(String sampleId, String gene, SortedMap<Stri
     // try for diplotypes if effectively phased
     if (origData.isEffectivelyPhased()) {
       // first look for exact matches (use topCandidateOnly = false because looking for exact match)
-      SortedSet<DiplotypeMatch> diplotypeMatches = new DiplotypeMatcher(origData)
+      SortedSet<DiplotypeMatch> diplotypeMatches = newDiplotypeMatcher(origData)
           .compute(false, false);
       if (diplotypeMatches.size() == 1) {
         resultBuilder.diplotypes(gene, origData, diplotypeMatches);
@@ -298,7 +359,7 @@ private void callLowestFunctionGene(String sampleId, String gene, SortedMap<Stri
   private SortedSet<DiplotypeMatch> callPhasedLowestFunctionGeneWithCombination(MatchData comboData,
       boolean isHomozygous) {
 
-    SortedSet<DiplotypeMatch> diplotypeMatches = new DiplotypeMatcher(comboData)
+    SortedSet<DiplotypeMatch> diplotypeMatches = newDiplotypeMatcher(comboData)
         .compute(true, false, false, true);
     if (!diplotypeMatches.isEmpty()) {
       DiplotypeMatch[] matches = diplotypeMatches.toArray(new DiplotypeMatch[0]);
@@ -329,7 +390,7 @@ private List<HaplotypeMatch> callHaplotypesForLowestFunctionGene(String gene, Ma
 
     SortedSet<HaplotypeMatch> hapMatches = comboData.comparePermutations();
     // have to compute diplotypes so that we can check for homozygous and partials
-    SortedSet<DiplotypeMatch> matches = new DiplotypeMatcher(comboData)
+    SortedSet<DiplotypeMatch> matches = newDiplotypeMatcher(comboData)
         .compute(true, getTopCandidateOnly(gene));
     Set<String> homozygous = new HashSet<>();
     int numPartials = 0;
@@ -398,7 +459,7 @@ private List<HaplotypeMatch> callHaplotypesForLowestFunctionGene(String gene, Ma
    * If there is no exact match, we only look for potential haplotypes.
    * This tries to match all permutations to any potential haplotype (won't assume reference).
    */
-  private void callDpyd(String sampleId, SortedMap<String, SampleAllele> alleleMap, ResultBuilder resultBuilder) {
+  private void callDpyd(String sampleId, Map<String, SampleAllele> alleleMap, ResultBuilder resultBuilder) {
     final String gene = "DPYD";
 
     MatchData origData = initializeCallData(sampleId, alleleMap, gene, true, false);
@@ -419,7 +480,7 @@ private void callDpyd(String sampleId, SortedMap<String, SampleAllele> alleleMap
     // try for diplotypes if effectively phased
     if (origData.isEffectivelyPhased()) {
      // first look for exact matches (use topCandidateOnly = false because looking for exact match)
-      SortedSet<DiplotypeMatch> diplotypeMatches = new DiplotypeMatcher(workingData)
+      SortedSet<DiplotypeMatch> diplotypeMatches = newDiplotypeMatcher(workingData)
           .compute(false, false);
       if (diplotypeMatches.size() == 1) {
         if (!dpydHapB3Matcher.isMissingHapB3Positions()) {
@@ -492,16 +553,59 @@ private Set<String> getNames(@Nullable BaseMatch bm) {
   }
 
 
+  /**
+   * Prepares the final diplotype match that {@link #call(VcfFile, String)} would make for an unphased sample, so that it
+   * can be run on its own (e.g. to benchmark it).
+   * <ul>
+   *   <li>DPYD and RYR1 go straight to combinations</li>
+   *   <li>other genes assume reference, falling back to combinations only if {@code findCombinations} is set and there
+   *   are partially missing alleles or no matches</li>
+   * </ul>
+   *
+   * @return supplier that computes the diplotype matches each time it is called
+   */
+  @VisibleForTesting
+  Supplier<SortedSet<DiplotypeMatch>> prepareDiplotypeMatch(String sampleId, Map<String, SampleAllele> alleleMap,
+      String gene) {
+
+    MatchData origData = initializeCallData(sampleId, alleleMap, gene, true, false);
+    Preconditions.checkState(origData.getNumSampleAlleles() > 0, "No sample alleles for " + gene);
+    boolean topCandidateOnly = getTopCandidateOnly(gene);
+
+    if (gene.equals("DPYD") || gene.equals("RYR1")) {
+      // see callDpyd() and callLowestFunctionGene()
+      Preconditions.checkState(!origData.isEffectivelyPhased(), "Sample must be unphased for " + gene);
+      MatchData comboData = gene.equals("DPYD") ?
+          initializeDpydCallData(sampleId, alleleMap, false, true) :
+          initializeCallData(sampleId, alleleMap, gene, false, true);
+      return () -> newDiplotypeMatcher(comboData).compute(true, topCandidateOnly);
+    }
+
+    // see callAssumingReference() and callCombination()
+    if (m_findCombinations && (origData.hasPartialMissingAlleles() ||
+        newDiplotypeMatcher(origData).compute(false, topCandidateOnly).isEmpty())) {
+      MatchData comboData = initializeCallData(sampleId, alleleMap, gene, false, true);
+      return () -> newDiplotypeMatcher(comboData).compute(true, topCandidateOnly);
+    }
+    return () -> newDiplotypeMatcher(origData).compute(false, topCandidateOnly);
+  }
+
+
+  private DiplotypeMatcher newDiplotypeMatcher(MatchData data) {
+    return new DiplotypeMatcher(data)
+        .maxCombinationSize(m_maxCombinationSize);
+  }
+
+
   /**
    * Initializes data required to call a diplotype.
    *
    * @param alleleMap map of {@link SampleAllele}s from VCF
    */
-  private MatchData initializeCallData(String sampleId, SortedMap<String, SampleAllele> alleleMap, String gene,
+  private MatchData initializeCallData(String sampleId, Map<String, SampleAllele> alleleMap, String gene,
       boolean assumeReference, boolean findCombinations) {
 
-    SortedSet<NamedAllele> alleles = m_definitionReader.getHaplotypes(gene);
-    VariantLocus[] allPositions = m_definitionReader.getPositions(gene);
+    GeneMatchingIndex index = m_definitionReader.getMatchingIndex(gene);
     DefinitionExemption exemption = m_definitionReader.getExemption(gene);
 
     SortedSet<VariantLocus> extraPositions = null;
@@ -510,33 +614,30 @@ private MatchData initializeCallData(String sampleId, SortedMap<String, SampleAl
     }
 
     // grab SampleAlleles for all positions related to the current gene
-    MatchData data = new MatchData(sampleId, gene, alleleMap, allPositions, extraPositions, null);
+    MatchData data = new MatchData(sampleId, gene, alleleMap, index.getPositions(), extraPositions, null);
     if (data.getNumSampleAlleles() == 0) {
       return data;
     }
 
+    data.setUseBitVectorMatching(m_useBitVectorMatching);
+    data.setPrunePermutations(m_prunePermutations);
+    data.setHaplotypeCache(m_definitionReader.getHaplotypeCache());
     // handle missing positions (if any)
-    data.marshallHaplotypes(gene, alleles, findCombinations);
-
-    if (assumeReference) {
-      data.defaultMissingAllelesToReference();
-    }
+    data.marshallHaplotypes(index, findCombinations, assumeReference);
 
     data.generateSamplePermutations();
     return data;
   }
 
 
-  private MatchData initializeDpydCallData(String sampleId, SortedMap<String, SampleAllele> alleleMap,
+  private MatchData initializeDpydCallData(String sampleId, Map<String, SampleAllele> alleleMap,
       boolean assumeReference, boolean findCombinations) {
 
     String gene = "DPYD";
+    GeneMatchingIndex index = m_definitionReader.getMatchingIndex(gene);
     // remove HapB3 and HapB3Intron
-    SortedSet<NamedAllele> alleles = m_definitionReader.getHaplotypes(gene).stream()
-        .filter(a -> !a.getName().equals(DpydHapB3Matcher.HAPB3_ALLELE) &&
-            !a.getName().equals(DpydHapB3Matcher.HAPB3_INTRONIC_ALLELE))
-        .collect(Collectors.toCollection(TreeSet::new));
-    VariantLocus[] allPositions = m_definitionReader.getPositions(gene);
+    SortedSet<NamedAllele> alleles = index.getHaplotypesExcluding(sf_dpydHapB3Alleles);
+    VariantLocus[] allPositions = index.getPositions();
     DefinitionExemption exemption = m_definitionReader.getExemption(gene);
 
     SortedSet<VariantLocus> extraPositions = null;
@@ -557,12 +658,11 @@ private MatchData initializeDpydCallData(String sampleId, SortedMap<String, Samp
       return data;
     }
 
+    data.setUseBitVectorMatching(m_useBitVectorMatching);
+    data.setPrunePermutations(m_prunePermutations);
+    data.setHaplotypeCache(m_definitionReader.getHaplotypeCache());
     // handle missing positions (if any)
-    data.marshallHaplotypes(gene, alleles, findCombinations);
-
-    if (assumeReference) {
-      data.defaultMissingAllelesToReference();
-    }
+    data.marshallHaplotypes(index, alleles, findCombinations, assumeReference);
 
     data.generateSamplePermutations();
     return data;
@@ -1,10 +1,8 @@
 package org.pharmgkb.pharmcat.haplotype;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
@@ -40,6 +38,7 @@
  */
 public class ResultSerializer {
   private boolean m_alwaysShowUnmatchedHaplotypes;
+  private boolean m_compactJson;
   private final SimpleDateFormat m_dateFormat = new SimpleDateFormat("MM/dd/yy");
   private String m_htmlTemplate;
 
@@ -53,6 +52,14 @@ public ResultSerializer alwaysShowUnmatchedHaplotypes(boolean alwaysShowUnmatche
     return this;
   }
 
+  /**
+   * Sets whether JSON should be written without pretty printing.
+   */
+  public ResultSerializer compactJson(boolean compactJson) {
+    m_compactJson = compactJson;
+    return this;
+  }
+
 
   private String getHtmlTemplate() throws IOException {
     if (m_htmlTemplate == null) {
@@ -67,21 +74,20 @@ private String getHtmlTemplate() throws IOException {
   public ResultSerializer toJson(Result result, Path jsonFile) throws IOException {
     Preconditions.checkNotNull(result);
     Preconditions.checkNotNull(jsonFile);
-    Preconditions.checkArgument(jsonFile.toString().endsWith(".json"), "Output JSON file needs to end in '.json'");
+    Preconditions.checkArgument(DataSerializer.hasExtension(jsonFile, ".json"),
+        "Output JSON file needs to end in '.json' or '.json.gz'");
 
-    try (BufferedWriter writer = Files.newBufferedWriter(jsonFile, StandardCharsets.UTF_8)) {
-      writer.write(DataSerializer.GSON.toJson(result));
-    }
+    DataSerializer.toJson(result, jsonFile, m_compactJson);
     return this;
   }
 
 
   public Result fromJson(Path jsonFile) throws IOException {
     Preconditions.checkNotNull(jsonFile);
-    Preconditions.checkArgument(jsonFile.toString().endsWith(".json"));
+    Preconditions.checkArgument(DataSerializer.hasExtension(jsonFile, ".json"));
     Preconditions.checkArgument(Files.isRegularFile(jsonFile));
 
-    try (BufferedReader reader = Files.newBufferedReader(jsonFile, StandardCharsets.UTF_8)) {
+    try (BufferedReader reader = DataSerializer.newReader(jsonFile)) {
       return DataSerializer.GSON.fromJson(reader, Result.class);
     }
   }
@@ -91,7 +97,7 @@ public Result fromJson(Path jsonFile) throws IOException {
   public ResultSerializer toHtml(Result result, Path htmlFile) throws IOException {
     Preconditions.checkNotNull(result);
     Preconditions.checkNotNull(htmlFile);
-    Preconditions.checkArgument(htmlFile.toString().endsWith(".html"));
+    Preconditions.checkArgument(DataSerializer.hasExtension(htmlFile, ".html"));
 
     StringBuilder builder = new StringBuilder();
     for (GeneCall call : result.getGeneCalls()) {
@@ -247,7 +253,7 @@ public ResultSerializer toHtml(Result result, Path htmlFile) throws IOException
       builder.append("\n");
     }
 
-    try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(htmlFile, StandardCharsets.UTF_8))) {
+    try (PrintWriter writer = new PrintWriter(DataSerializer.newWriter(htmlFile))) {
       Map<String, String> varMap = new HashMap<>();
       varMap.put("title", "PharmCAT Allele Call Report for " + result.getMetadata().getInputFilename());
       varMap.put("content", builder.toString());
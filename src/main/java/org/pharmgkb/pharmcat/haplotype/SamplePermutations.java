@@ -0,0 +1,275 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import com.google.common.base.Preconditions;
+import com.google.common.math.LongMath;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+import org.pharmgkb.pharmcat.haplotype.model.HaplotypeMatch;
+
+
+/**
+ * This class represents all permutations of a sample's alleles (as generated by
+ * {@link CombinationUtil#generatePermutations(List)}) without enumerating them.
+ * <p>
+ * Each unphased heterozygous position doubles the number of permutations.  Instead of building all of them up front,
+ * this keeps the possible alleles for each position and matches {@link NamedAllele}s with a depth-first search that
+ * prunes as soon as a position does not match.  The cost is proportional to the number of matching sequences rather
+ * than 2<sup>hets</sup>.
+ *
+ * @author Mark Woon
+ */
+class SamplePermutations {
+  private final List<SampleAllele> m_alleles;
+  private final int[] m_positions;
+  /** Possible alleles at each position, for each strand (null if strand is blank). */
+  private final String[][][] m_strands = new String[2][][];
+  private final long m_size;
+
+
+  /**
+   * Constructor.
+   *
+   * @param alleles sample alleles, sorted
+   */
+  SamplePermutations(List<SampleAllele> alleles) {
+    Preconditions.checkNotNull(alleles);
+    Preconditions.checkArgument(!alleles.isEmpty(), "No alleles to generate permutations for");
+    m_alleles = alleles;
+
+    boolean isS1Blank = alleles.stream().allMatch(sa -> sa.getAllele1() == null);
+    boolean isS2Blank = alleles.stream().allMatch(sa -> sa.getAllele2() == null);
+    m_positions = new int[alleles.size()];
+    for (int x = 0; x < alleles.size(); x += 1) {
+      m_positions[x] = alleles.get(x).getPosition();
+    }
+    if (!isS1Blank) {
+      m_strands[0] = buildChoices(alleles, isS2Blank, true);
+    }
+    if (!isS2Blank) {
+      m_strands[1] = buildChoices(alleles, isS1Blank, false);
+    }
+    if (m_strands[0] == null && m_strands[1] == null) {
+      throw new IllegalStateException("No permutations generated from " + alleles.size() + " alleles");
+    }
+
+    // |S1 ∪ S2| = |S1| + |S2| - |S1 ∩ S2|
+    long size = 0;
+    for (String[][] choices : m_strands) {
+      if (choices != null) {
+        size = LongMath.saturatedAdd(size, countSequences(choices, null));
+      }
+    }
+    if (m_strands[0] != null && m_strands[1] != null) {
+      size -= countSequences(m_strands[0], m_strands[1]);
+    }
+    m_size = size;
+  }
+
+  /**
+   * Mirrors the choices made by {@link CombinationUtil#generatePermutations(List)}.
+   */
+  private static String[][] buildChoices(List<SampleAllele> alleles, boolean isHaploid, boolean firstAllele) {
+    String[][] choices = new String[alleles.size()][];
+    for (int x = 0; x < alleles.size(); x += 1) {
+      SampleAllele sa = alleles.get(x);
+      String a1 = String.valueOf(sa.getComputedAllele1());
+      String a2 = String.valueOf(sa.getComputedAllele2());
+      if (sa.isEffectivelyPhased() || isHaploid) {
+        choices[x] = new String[] { firstAllele ? a1 : a2 };
+      } else if (a1.equals(a2)) {
+        choices[x] = new String[] { a1 };
+      } else {
+        choices[x] = new String[] { a1, a2 };
+      }
+    }
+    return choices;
+  }
+
+  /**
+   * Counts number of distinct sequences that can be generated from {@code choices}, or in common with
+   * {@code otherChoices} if specified.
+   */
+  private static long countSequences(String[][] choices, String @Nullable [][] otherChoices) {
+    long count = 1;
+    for (int x = 0; x < choices.length; x += 1) {
+      int numChoices = choices[x].length;
+      if (otherChoices != null) {
+        numChoices = 0;
+        for (String a : choices[x]) {
+          for (String b : otherChoices[x]) {
+            if (a.equals(b)) {
+              numChoices += 1;
+            }
+          }
+        }
+        if (numChoices == 0) {
+          return 0;
+        }
+      }
+      count = LongMath.saturatedMultiply(count, numChoices);
+    }
+    return count;
+  }
+
+
+  /**
+   * Gets the number of distinct permutations.
+   */
+  long size() {
+    return m_size;
+  }
+
+  /**
+   * Gets the number of positions in each permutation.
+   */
+  int getNumPositions() {
+    return m_positions.length;
+  }
+
+  /**
+   * Gets the position at {@code idx} in each permutation.
+   */
+  long getPosition(int idx) {
+    return m_positions[idx];
+  }
+
+  /**
+   * Gets the possible alleles at each position for a strand.
+   *
+   * @param strand 0 for the first strand, 1 for the second
+   * @return possible alleles at each position, or null if strand is blank
+   */
+  String @Nullable [][] getChoices(int strand) {
+    return m_strands[strand];
+  }
+
+  /**
+   * Enumerates all permutations.
+   */
+  Set<String> enumerate() {
+    return CombinationUtil.generatePermutations(m_alleles);
+  }
+
+  /**
+   * Gets the first permutation, without enumerating the rest.
+   * This is the only permutation if {@link #size()} is 1.
+   */
+  String first() {
+    String[][] choices = m_strands[0] != null ? m_strands[0] : m_strands[1];
+    StringBuilder seq = new StringBuilder();
+    for (int x = 0; x < choices.length; x += 1) {
+      appendAllele(seq, x, choices[x][0]);
+    }
+    return seq.toString();
+  }
+
+  /**
+   * Passes each distinct permutation to {@code consumer}, generating them one at a time instead of collecting them.
+   */
+  void forEach(Consumer<String> consumer) {
+    if (m_strands[0] != null) {
+      generate(m_strands[0], null, 0, false, new StringBuilder(), consumer);
+    }
+    if (m_strands[1] != null) {
+      // skip sequences that the first strand already generated
+      generate(m_strands[1], m_strands[0], 0, m_strands[0] != null, new StringBuilder(), consumer);
+    }
+  }
+
+  /**
+   * @param skipChoices choices for sequences that have already been generated
+   * @param isSkipped true if sequence so far can be generated from {@code skipChoices}
+   */
+  private void generate(String[][] choices, String @Nullable [][] skipChoices, int idx, boolean isSkipped,
+      StringBuilder seq, Consumer<String> consumer) {
+    if (idx == choices.length) {
+      if (!isSkipped) {
+        consumer.accept(seq.toString());
+      }
+      return;
+    }
+    int length = seq.length();
+    for (String allele : choices[idx]) {
+      appendAllele(seq, idx, allele);
+      generate(choices, skipChoices, idx + 1, isSkipped && Arrays.asList(skipChoices[idx]).contains(allele), seq,
+          consumer);
+      seq.setLength(length);
+    }
+  }
+
+  /**
+   * Appends allele at {@code idx} to {@code seq} in the same format as {@link CombinationUtil#generatePermutations(List)}.
+   */
+  void appendAllele(StringBuilder seq, int idx, String allele) {
+    seq.append(m_positions[idx])
+        .append(":")
+        .append(allele)
+        .append(";");
+  }
+
+
+  /**
+   * Adds all permutations that match {@link HaplotypeMatch}'s haplotype to it.
+   *
+   * @param permutations supplies enumerated permutations if haplotype cannot be matched position by position
+   */
+  void match(HaplotypeMatch hm, Supplier<Set<String>> permutations) {
+    NamedAllele hap = hm.getHaplotype();
+    VariantLocus[] refVariants = hap.getSortedRefVariants();
+    String[] hapAlleles = getHapAlleles(hap, refVariants);
+    if (hapAlleles == null) {
+      for (String seq : permutations.get()) {
+        hm.match(seq);
+      }
+      return;
+    }
+    Set<String> matches = new HashSet<>();
+    for (String[][] choices : m_strands) {
+      if (choices != null) {
+        match(choices, hapAlleles, 0, new StringBuilder(), matches);
+      }
+    }
+    matches.forEach(hm::addSequence);
+  }
+
+  /**
+   * Gets haplotype's alleles in the same order as positions in permutations.
+   *
+   * @return alleles, or null if haplotype's positions do not line up with permutations
+   */
+  private String @Nullable [] getHapAlleles(NamedAllele hap, VariantLocus @Nullable [] refVariants) {
+    if (refVariants == null || refVariants.length != m_positions.length) {
+      return null;
+    }
+    String[] hapAlleles = new String[refVariants.length];
+    for (int x = 0; x < refVariants.length; x += 1) {
+      if (refVariants[x].getPosition() != m_positions[x]) {
+        return null;
+      }
+      hapAlleles[x] = hap.getAllele(refVariants[x]);
+    }
+    return hapAlleles;
+  }
+
+  private void match(String[][] choices, String[] hapAlleles, int idx, StringBuilder seq, Set<String> matches) {
+    if (idx == choices.length) {
+      matches.add(seq.toString());
+      return;
+    }
+    int length = seq.length();
+    for (String allele : choices[idx]) {
+      if (BitVectorMatcher.accepts(hapAlleles[idx], allele)) {
+        appendAllele(seq, idx, allele);
+        match(choices, hapAlleles, idx + 1, seq, matches);
+        seq.setLength(length);
+      }
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * This {@link InputStream} drops raw VCF data lines that are not at a location of interest before they are decoded
+ * and handed to the VCF parser.
+ * <p>
+ * The underlying stream is read into a byte buffer in large blocks, and the CHROM and POS columns of each data line
+ * are scanned in place.  Lines of interest are copied straight out of the buffer, unchanged; nothing is decoded or
+ * allocated for the rest.  This makes reading un-preprocessed whole-genome or exome VCF files much cheaper.
+ * <p>
+ * Contigs are matched exactly, the same way {@link VcfReader} builds its {@code chr:pos} keys, so lines on contigs
+ * that the allele definitions don't use (e.g. {@code 1} instead of {@code chr1}) are dropped because {@link VcfReader}
+ * would never read them.  Positions are looked up in a sorted array of {@code long} keys (contig index in the upper 32
+ * bits, position in the lower 32 bits).
+ * <p>
+ * Header lines, and lines on a contig of interest with a POS that cannot be parsed, are always passed through so that
+ * the VCF parser can deal with them.
+ *
+ * @author Mark Woon
+ */
+class VcfLineFilter extends InputStream {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private static final int sf_bufferSize = 64 * 1024;
+  private final InputStream m_in;
+  /** Map of contig name to contig index. */
+  private final Map<String, Integer> m_chromosomes = new HashMap<>();
+  private final long[] m_keys;
+  private byte[] m_buffer = new byte[sf_bufferSize];
+  /** Start of data that has not been handed out or skipped yet. */
+  private int m_pos;
+  /** End of line of interest that is being handed out (equal to {@link #m_pos} if there is none). */
+  private int m_lineEnd;
+  /** End of data in {@link #m_buffer}. */
+  private int m_end;
+  private boolean m_eof;
+  /** Last contig looked up, to avoid a map lookup for consecutive lines on the same contig. */
+  private byte[] m_lastContig = new byte[0];
+  private int m_lastChrIdx = -1;
+  private long m_numSkipped;
+
+
+  /**
+   * Constructor.
+   *
+   * @param in the underlying raw VCF data
+   * @param locations the locations of interest
+   */
+  VcfLineFilter(InputStream in, Collection<VariantLocus> locations) {
+    m_in = in;
+    m_keys = new long[locations.size()];
+    int x = 0;
+    for (VariantLocus vl : locations) {
+      int chrIdx = m_chromosomes.computeIfAbsent(vl.getChromosome(), c -> m_chromosomes.size());
+      m_keys[x] = toKey(chrIdx, vl.getPosition());
+      x += 1;
+    }
+    Arrays.sort(m_keys);
+  }
+
+
+  @Override
+  public int read() throws IOException {
+    if (!nextLine()) {
+      return -1;
+    }
+    int b = m_buffer[m_pos] & 0xff;
+    m_pos += 1;
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    Objects.checkFromIndexSize(off, len, b.length);
+    if (len == 0) {
+      return 0;
+    }
+    if (!nextLine()) {
+      return -1;
+    }
+    int numRead = Math.min(len, m_lineEnd - m_pos);
+    System.arraycopy(m_buffer, m_pos, b, off, numRead);
+    m_pos += numRead;
+    return numRead;
+  }
+
+  /**
+   * Makes sure that there is data left in the current line of interest, skipping lines that are not of interest and
+   * reading more data from the underlying stream if necessary.
+   *
+   * @return false if there are no more lines
+   */
+  private boolean nextLine() throws IOException {
+    // everything between m_pos and scan is known not to have a line ending
+    int scan = m_pos;
+    while (m_pos == m_lineEnd) {
+      int eol = scan;
+      while (eol < m_end && m_buffer[eol] != '\n') {
+        eol += 1;
+      }
+      if (eol == m_end && !m_eof) {
+        scan = m_end - m_pos;
+        fill();
+        continue;
+      }
+      if (eol == m_end && m_pos == m_end) {
+        return false;
+      }
+      // include line ending, if there is one
+      int next = Math.min(eol + 1, m_end);
+      if (isOfInterest(m_buffer, m_pos, eol)) {
+        m_lineEnd = next;
+      } else {
+        m_numSkipped += 1;
+        m_pos = next;
+        m_lineEnd = next;
+        scan = next;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Moves unread data to the start of the buffer (growing it if a single line doesn't fit) and reads more data from
+   * the underlying stream.
+   */
+  private void fill() throws IOException {
+    int remaining = m_end - m_pos;
+    if (m_pos > 0) {
+      System.arraycopy(m_buffer, m_pos, m_buffer, 0, remaining);
+    } else if (remaining == m_buffer.length) {
+      m_buffer = Arrays.copyOf(m_buffer, m_buffer.length * 2);
+    }
+    m_pos = 0;
+    m_lineEnd = 0;
+    m_end = remaining;
+    int numRead = m_in.read(m_buffer, m_end, m_buffer.length - m_end);
+    if (numRead == -1) {
+      m_eof = true;
+    } else {
+      m_end += numRead;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    sf_logger.debug("Skipped {} VCF lines not at locations of interest", m_numSkipped);
+    m_in.close();
+  }
+
+  /**
+   * Gets the number of data lines that have been dropped.
+   */
+  long getNumSkipped() {
+    return m_numSkipped;
+  }
+
+
+  /**
+   * Checks if line (from {@code start} to {@code end}, not including line ending) should be passed on to the VCF
+   * parser.
+   */
+  private boolean isOfInterest(byte[] buffer, int start, int end) {
+    if (start == end || buffer[start] == '#') {
+      return true;
+    }
+    int chrEnd = start;
+    while (chrEnd < end && buffer[chrEnd] != '\t') {
+      chrEnd += 1;
+    }
+    int chrIdx = lookupChromosome(buffer, start, chrEnd);
+    if (chrIdx == -1) {
+      return false;
+    }
+    long pos = 0;
+    int x = chrEnd + 1;
+    for (; x < end; x += 1) {
+      byte c = buffer[x];
+      if (c == '\t') {
+        break;
+      }
+      if (c < '0' || c > '9' || pos > Integer.MAX_VALUE) {
+        return true;
+      }
+      pos = pos * 10 + (c - '0');
+    }
+    if (x == chrEnd + 1 || pos > Integer.MAX_VALUE) {
+      return true;
+    }
+    return Arrays.binarySearch(m_keys, toKey(chrIdx, pos)) >= 0;
+  }
+
+  private int lookupChromosome(byte[] buffer, int start, int end) {
+    if (!Arrays.equals(buffer, start, end, m_lastContig, 0, m_lastContig.length)) {
+      m_lastContig = Arrays.copyOfRange(buffer, start, end);
+      m_lastChrIdx = m_chromosomes.getOrDefault(new String(m_lastContig, StandardCharsets.UTF_8), -1);
+    }
+    return m_lastChrIdx;
+  }
+
+  private static long toKey(int chrIdx, long position) {
+    return ((long)chrIdx << 32) | position;
+  }
+}
@@ -2,21 +2,25 @@
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -36,6 +40,7 @@
 import org.pharmgkb.pharmcat.VcfFile;
 import org.pharmgkb.pharmcat.definition.DefinitionReader;
 import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+import org.pharmgkb.pharmcat.util.BgzfInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +50,13 @@
 /**
  * This class reads VCF files and pulls the sample's alleles for positions of interest (i.e. is necessary to make a
  * haplotype call).
+ * <p>
+ * It can also pull alleles for multiple samples in a single pass through the VCF file (see
+ * {@link #VcfReader(DefinitionReader, BufferedReader, Collection, boolean)}).  When reading many samples, use
+ * {@link GenotypeMatrixReader} instead to store them in a compact {@link GenotypeMatrix}.
+ * <p>
+ * Lines that are not at a location of interest are ignored.  When reading large VCF files, pass the raw data through
+ * {@link #filterVcfData(InputStream, DefinitionReader)} so that they are dropped before they are decoded and parsed.
  *
  * @author Mark Woon
  */
@@ -61,17 +73,16 @@ public class VcfReader implements VcfLineParser {
   private final ImmutableMap<String, String> m_locationsByGene;
   private final boolean m_findCombinations;
   private final boolean m_useSpecificSample;
+  private final boolean m_useMatrix;
+  private final List<String> m_requestedSampleIds = new ArrayList<>();
   private String m_sampleId;
-  private int m_sampleIdx = -1;
+  /** Data for each sample being read, in the order requested. */
+  private final Map<String, SampleData> m_sampleData = new LinkedHashMap<>();
+  private GenotypeMatrix m_matrix;
   private VcfMetadata m_vcfMetadata;
   private boolean m_adFormatDefined;
   private boolean m_useAdFormat = true;
   private String m_genomeBuild;
-  // <chr:position, allele>
-  private final SortedMap<String, SampleAllele> m_alleleMap = new TreeMap<>(ChromosomePositionComparator.getComparator());
-  // <chr:position, warning>
-  private final SortedSetMultimap<String, String> m_warnings = TreeMultimap.create();
-  private final Set<String> m_discardedPositions = new HashSet<>();
 
 
   /**
@@ -86,7 +97,54 @@ public VcfReader(DefinitionReader definitionReader, BufferedReader vcfReader, @N
     m_locationsByGene = definitionReader.getLocationsByGene();
     m_sampleId = sampleId;
     m_useSpecificSample = m_sampleId != null;
+    if (m_useSpecificSample) {
+      m_requestedSampleIds.add(sampleId);
+    }
+    m_findCombinations = findCombinations;
+    m_useMatrix = false;
+    read(vcfReader);
+  }
+
+  /**
+   * Constructor.
+   * Reads in a VCF file and pulls alleles at positions of interest for all specified samples in a single pass.
+   *
+   * @param sampleIds the samples to read, must not be empty
+   * @throws IllegalArgumentException if {@code sampleIds} is empty
+   * @throws ParseException if there are no samples in the VCF file
+   */
+  public VcfReader(DefinitionReader definitionReader, BufferedReader vcfReader, Collection<String> sampleIds,
+      boolean findCombinations) throws IOException, ParseException {
+    Preconditions.checkArgument(!sampleIds.isEmpty(), "No samples specified");
+    m_locationsOfInterest = definitionReader.getLocationsOfInterest();
+    m_locationsByGene = definitionReader.getLocationsByGene();
+    m_requestedSampleIds.addAll(sampleIds);
+    m_sampleId = m_requestedSampleIds.get(0);
+    m_useSpecificSample = true;
+    m_findCombinations = findCombinations;
+    m_useMatrix = false;
+    read(vcfReader);
+  }
+
+
+  /**
+   * Constructor.
+   * Reads in a VCF file and stores alleles at positions of interest for the specified samples (or all samples if none
+   * are specified) into a {@link GenotypeMatrix} in a single pass.  Use {@link GenotypeMatrixReader} instead of calling
+   * this directly.
+   *
+   * @throws ParseException if there are no samples in the VCF file
+   */
+  VcfReader(DefinitionReader definitionReader, BufferedReader vcfReader, @Nullable Collection<String> sampleIds,
+      boolean findCombinations, boolean useMatrix) throws IOException, ParseException {
+    m_locationsOfInterest = definitionReader.getLocationsOfInterest();
+    m_locationsByGene = definitionReader.getLocationsByGene();
+    if (sampleIds != null) {
+      m_requestedSampleIds.addAll(sampleIds);
+    }
+    m_useSpecificSample = true;
     m_findCombinations = findCombinations;
+    m_useMatrix = useMatrix;
     read(vcfReader);
   }
 
@@ -103,6 +161,7 @@ public VcfReader(DefinitionReader definitionReader, Path vcfFile) throws IOExcep
     m_sampleId = null;
     m_useSpecificSample = false;
     m_findCombinations = false;
+    m_useMatrix = false;
     read(vcfFile);
   }
 
@@ -118,6 +177,7 @@ public VcfReader(DefinitionReader definitionReader, Path vcfFile) throws IOExcep
     m_sampleId = null;
     m_useSpecificSample = false;
     m_findCombinations = false;
+    m_useMatrix = false;
     read(vcfFile);
   }
 
@@ -126,6 +186,28 @@ public VcfReader(DefinitionReader definitionReader, Path vcfFile) throws IOExcep
     return m_sampleId;
   }
 
+  /**
+   * Gets the IDs of all samples that were read.
+   */
+  public Set<String> getSampleIds() {
+    return m_sampleData.keySet();
+  }
+
+  /**
+   * Checks if data for the specified sample was read.
+   */
+  public boolean hasSample(String sampleId) {
+    return m_sampleData.containsKey(sampleId);
+  }
+
+  /**
+   * Discards data read for the specified sample.
+   * Use this to free up memory once the sample's data is no longer needed.
+   */
+  public void removeSample(String sampleId) {
+    m_sampleData.remove(sampleId);
+  }
+
 
   public VcfMetadata getVcfMetadata() {
     return m_vcfMetadata;
@@ -147,7 +229,16 @@ public VcfMetadata getVcfMetadata() {
    * @return map of {@code <chr:position, SampleAllele>}
    */
   public SortedMap<String, SampleAllele> getAlleleMap() {
-    return m_alleleMap;
+    return Objects.requireNonNull(getSampleData(m_sampleId).alleleMap);
+  }
+
+  /**
+   * Gets data for the specified sample.
+   *
+   * @return map of {@code <chr:position, SampleAllele>}
+   */
+  public SortedMap<String, SampleAllele> getAlleleMap(String sampleId) {
+    return Objects.requireNonNull(getSampleData(sampleId).alleleMap);
   }
 
 
@@ -155,7 +246,34 @@ public SortedMap<String, SampleAllele> getAlleleMap() {
    * Gets warnings from reading data, keyed to chromosomal position.
    */
   public SortedSetMultimap<String, String> getWarnings() {
-    return m_warnings;
+    return Objects.requireNonNull(getSampleData(m_sampleId).warnings);
+  }
+
+  /**
+   * Gets warnings from reading data for the specified sample, keyed to chromosomal position.
+   */
+  public SortedSetMultimap<String, String> getWarnings(String sampleId) {
+    return Objects.requireNonNull(getSampleData(sampleId).warnings);
+  }
+
+
+  /**
+   * Gets the {@link GenotypeMatrix} data was read into.
+   * Only available if this reader was created with {@code useMatrix}.
+   */
+  GenotypeMatrix getGenotypeMatrix() {
+    Preconditions.checkState(m_matrix != null, "Data was not read into a GenotypeMatrix");
+    return m_matrix;
+  }
+
+
+  private SampleData getSampleData(String sampleId) {
+    Preconditions.checkState(m_matrix == null, "Data was read into a GenotypeMatrix");
+    SampleData data = m_sampleData.get(sampleId);
+    if (data == null) {
+      throw new IllegalArgumentException("No data for sample '" + sampleId + "'");
+    }
+    return data;
   }
 
 
@@ -168,7 +286,8 @@ private void read(Path vcfFile) throws IOException, ParseException {
     Preconditions.checkNotNull(vcfFile);
     Preconditions.checkArgument(VcfFile.isVcfFile(vcfFile), "%s is not a VCF file", vcfFile);
 
-    try (BufferedReader reader = openVcfFile(vcfFile)) {
+    try (BufferedReader reader = m_locationsOfInterest != null ?
+        filterVcfData(openVcfData(vcfFile), m_locationsOfInterest.values()) : openVcfFile(vcfFile)) {
       read(reader);
     }
   }
@@ -185,6 +304,37 @@ private void read(BufferedReader reader) throws IOException, ParseException {
         .parseWith(this)
         .build()) {
       m_vcfMetadata = vcfParser.parseMetadata();
+      if (m_vcfMetadata.getNumSamples() == 0) {
+        // check here because data lines might all be filtered out before they get to parseLine()
+        throw new ParseException("VCF does not contain sample data");
+      }
+      if (m_useMatrix && m_requestedSampleIds.isEmpty()) {
+        for (int x = 0; x < m_vcfMetadata.getNumSamples(); x += 1) {
+          m_requestedSampleIds.add(m_vcfMetadata.getSampleName(x));
+        }
+      }
+      if (m_useSpecificSample) {
+        Map<String, Integer> sampleIdxMap = new HashMap<>();
+        for (int x = 0; x < m_vcfMetadata.getNumSamples(); x += 1) {
+          sampleIdxMap.putIfAbsent(m_vcfMetadata.getSampleName(x), x);
+        }
+        for (String sampleId : m_requestedSampleIds) {
+          Integer sampleIdx = sampleIdxMap.get(sampleId);
+          if (sampleIdx == null) {
+            throw new IllegalStateException("Cannot find sample '" + sampleId + "'");
+          }
+          if (!m_sampleData.containsKey(sampleId)) {
+            m_sampleData.put(sampleId, new SampleData(sampleIdx, m_sampleData.size(), m_useMatrix));
+          }
+        }
+        m_sampleId = m_requestedSampleIds.get(0);
+      } else {
+        m_sampleId = m_vcfMetadata.getSampleName(0);
+        m_sampleData.put(m_sampleId, new SampleData(0, 0, m_useMatrix));
+      }
+      if (m_useMatrix) {
+        m_matrix = new GenotypeMatrix(new ArrayList<>(m_sampleData.keySet()));
+      }
       FormatMetadata adFormat = m_vcfMetadata.getFormats().get("AD");
       if (adFormat != null) {
         m_adFormatDefined = true;
@@ -197,20 +347,6 @@ private void read(BufferedReader reader) throws IOException, ParseException {
           }
         }
       }
-      if (m_useSpecificSample) {
-        for (int x = 0; x < m_vcfMetadata.getNumSamples(); x += 1) {
-          if (m_sampleId.equals(m_vcfMetadata.getSampleName(x))) {
-            m_sampleIdx = x;
-            break;
-          }
-        }
-        if (m_sampleIdx == -1) {
-          throw new IllegalStateException("Cannot find sample '" + m_sampleId + "'");
-        }
-      } else {
-        m_sampleId = m_vcfMetadata.getSampleName(0);
-        m_sampleIdx = 0;
-      }
       for (ContigMetadata cm : m_vcfMetadata.getContigs().values()) {
         if (cm.getAssembly() != null) {
           if (m_genomeBuild == null) {
@@ -226,17 +362,70 @@ private void read(BufferedReader reader) throws IOException, ParseException {
   }
 
 
+  /**
+   * Adds warning for all samples.
+   */
   private void addWarning(String chrPos, String msg) {
-    addWarning(chrPos, msg, msg);
+    addWarning(m_sampleData.values(), chrPos, msg);
+  }
+
+  /**
+   * Adds warning for specified samples.
+   */
+  private void addWarning(Collection<SampleData> samples, String chrPos, String msg) {
+    // saved to report
+    for (SampleData data : samples) {
+      saveWarning(data, chrPos, msg);
+    }
+    // prints to the command line
+    sf_logger.warn(msg);
+  }
+
+  private void addWarning(SampleData data, String chrPos, String msg) {
+    addWarning(data, chrPos, msg, msg);
   }
 
-  private void addWarning(String chrPos, String reportMsg, String clMsg) {
+  private void addWarning(SampleData data, String chrPos, String reportMsg, String clMsg) {
     // saved to report
-    m_warnings.put(chrPos, reportMsg);
+    saveWarning(data, chrPos, reportMsg);
     // prints to the command line
     sf_logger.warn(clMsg);
   }
 
+  private void saveWarning(SampleData data, String chrPos, String msg) {
+    if (m_matrix != null) {
+      m_matrix.addWarning(data.column, chrPos, msg);
+    } else {
+      Objects.requireNonNull(data.warnings).put(chrPos, msg);
+    }
+  }
+
+  /**
+   * Marks position as discarded for specified samples.
+   *
+   * @param row row in {@link GenotypeMatrix} (only used if reading into matrix)
+   */
+  private void discardPosition(Collection<SampleData> samples, String chrPos, int row) {
+    for (SampleData data : samples) {
+      discardPosition(data, chrPos, row);
+    }
+  }
+
+  private void discardPosition(SampleData data, String chrPos, int row) {
+    if (m_matrix != null) {
+      m_matrix.flagDiscarded(row, data.column);
+    } else {
+      Objects.requireNonNull(data.discardedPositions).add(chrPos);
+    }
+  }
+
+  private boolean isDiscarded(SampleData data, String chrPos) {
+    if (m_matrix != null) {
+      return m_matrix.isDiscarded(data.column, chrPos);
+    }
+    return Objects.requireNonNull(data.discardedPositions).contains(chrPos);
+  }
+
 
   /**
    * Parses a single line from VCF.
@@ -251,9 +440,16 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
     }
 
     final String chrPos = position.getChromosome() + ":" + position.getPosition();
-    if (m_alleleMap.containsKey(chrPos)) {
-      addWarning(chrPos, "Duplicate entry found in VCF; this entry trumps others.",
-          "Duplicate entry: first valid position wins");
+    List<SampleData> samples = new ArrayList<>();
+    for (SampleData data : m_sampleData.values()) {
+      if (hasAllele(data, chrPos)) {
+        addWarning(data, chrPos, "Duplicate entry found in VCF; this entry trumps others.",
+            "Duplicate entry: first valid position wins");
+      } else {
+        samples.add(data);
+      }
+    }
+    if (samples.isEmpty()) {
       return;
     }
 
@@ -265,36 +461,71 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
         sf_logger.warn("Ignoring {}", chrPos);
         return;
       }
+    }
+
+    // shared by all samples
+    List<String> vcfAlleles = new ArrayList<>();
+    vcfAlleles.add(position.getRef());
+    vcfAlleles.addAll(position.getAltBases());
+
+    int row = -1;
+    if (m_matrix != null) {
+      row = m_matrix.addRow(position.getChromosome(), position.getPosition(), vcfAlleles,
+          m_locationsByGene != null && treatUndocumentedAsReference(chrPos));
+    }
+
+    if (varLoc != null) {
       if (!position.getRef().equals(varLoc.getRef())) {
-        addWarning(chrPos, "Discarded genotype at this position because REF in VCF (" + position.getRef() +
+        addWarning(samples, chrPos, "Discarded genotype at this position because REF in VCF (" + position.getRef() +
             ") does not match expected reference (" + varLoc.getRef() + ")");
-        m_discardedPositions.add(chrPos);
+        discardPosition(samples, chrPos, row);
         return;
       } else if (position.getFilters().contains(sf_filterCodeRef)) {
-        addWarning(chrPos, "PharmCAT preprocessor detected REF mismatch (filter " + sf_filterCodeRef +
+        addWarning(samples, chrPos, "PharmCAT preprocessor detected REF mismatch (filter " + sf_filterCodeRef +
             ") but this does not match current data.  Was the VCF preprocessed with a different version of PharmCAT?");
       }
     } else {
       // for some reason we don't have locations of interest, so pass on warnings from preprocessor
       if (position.getFilters().contains(sf_filterCodeRef)) {
-        addWarning(chrPos, "Discarded genotype at this position because REF in VCF (" + position.getRef() +
+        addWarning(samples, chrPos, "Discarded genotype at this position because REF in VCF (" + position.getRef() +
             ") does not match expected reference");
-        m_discardedPositions.add(chrPos);
+        discardPosition(samples, chrPos, row);
         return;
       }
       if (position.getFilters().contains(sf_filterCodeAlt)) {
-        addWarning(chrPos, "The genetic variation at this position does not match what is in the allele definition");
+        addWarning(samples, chrPos, "The genetic variation at this position does not match what is in the allele definition");
       }
       if (position.getFilters().contains(sf_filterCodeIndel)) {
-        addWarning(chrPos, "Genotype at this position uses unexpected format for INDEL");
+        addWarning(samples, chrPos, "Genotype at this position uses unexpected format for INDEL");
       }
     }
 
+    for (SampleData data : samples) {
+      parseSample(data, chrPos, varLoc, position, sampleData, vcfAlleles, row);
+    }
+  }
+
+
+  private boolean hasAllele(SampleData data, String chrPos) {
+    if (m_matrix != null) {
+      return m_matrix.hasGenotype(data.column, chrPos);
+    }
+    return Objects.requireNonNull(data.alleleMap).containsKey(chrPos);
+  }
+
+
+  /**
+   * Pulls a single sample's alleles from a line in the VCF.
+   *
+   * @param row row in {@link GenotypeMatrix} (only used if reading into matrix)
+   */
+  private void parseSample(SampleData data, String chrPos, @Nullable VariantLocus varLoc, VcfPosition position,
+      List<VcfSample> sampleData, List<String> vcfAlleles, int row) {
 
-    String gt = sampleData.get(m_sampleIdx).getProperty("GT");
+    String gt = sampleData.get(data.sampleIdx).getProperty("GT");
     if (gt == null) {
-      addWarning(chrPos, "Ignoring: no genotype");
-      m_discardedPositions.add(chrPos);
+      addWarning(data, chrPos, "Ignoring: no genotype");
+      discardPosition(data, chrPos, row);
       return;
     }
     String[] gtArray = GT_DELIMITER.split(gt);
@@ -303,32 +534,32 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
         .map(Integer::parseInt)
         .toList();
     if (gtNonMissing.isEmpty()) {
-      addWarning(chrPos, "Ignoring: no call (" + gt + ")");
-      m_discardedPositions.add(chrPos);
+      addWarning(data, chrPos, "Ignoring: no call (" + gt + ")");
+      discardPosition(data, chrPos, row);
       return;
     }
 
     if (sf_haploidChromosomes.contains(position.getChromosome())) {
       // expect a single allele
       if (gtNonMissing.size() > 1) {
-        addWarning(chrPos, gtNonMissing.size() + " genotypes found (GT=" + gt + getGeneForWarning(chrPos) +
+        addWarning(data, chrPos, gtNonMissing.size() + " genotypes found (GT=" + gt + getGeneForWarning(chrPos) +
             ") for haploid chromosome. Will only use first non-missing genotype.");
       }
     } else {
       // diploid chromosome
       if (gtNonMissing.size() > 2) {
-        addWarning(chrPos, gtNonMissing.size() + " genotypes found (GT=" + gt + getGeneForWarning(chrPos) +
+        addWarning(data, chrPos, gtNonMissing.size() + " genotypes found (GT=" + gt + getGeneForWarning(chrPos) +
             "). Will only use first two genotypes.");
       } else if (gtNonMissing.size() == 1) {
         if (!position.getChromosome().equals("chrX")) {
           if (gtNonMissing.get(0) == 0) {
             // treating "./0" or "0/." like any other missing position
-            addWarning(chrPos, "Ignoring: only a single genotype found (GT=" + gt +
+            addWarning(data, chrPos, "Ignoring: only a single genotype found (GT=" + gt +
                 ").  Since it's reference, treating this as a missing position.");
-            m_discardedPositions.add(chrPos);
+            discardPosition(data, chrPos, row);
             return;
           }
-          addWarning(chrPos, gtNonMissing.size() + " genotype found (GT=" + gt + getGeneForWarning(chrPos) +
+          addWarning(data, chrPos, gtNonMissing.size() + " genotype found (GT=" + gt + getGeneForWarning(chrPos) +
               "), expecting 2.");
         }
       }
@@ -345,10 +576,10 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
       boolean hasMultiBase = altBases.stream().anyMatch(a -> a.length() > 1);
       if (expectMultiBase && !hasMultiBase) {
         if (altBases.isEmpty()) {
-          addWarning(chrPos, "Genotype at this position has no ALT allele and an indel or repeat is expected. " +
+          addWarning(data, chrPos, "Genotype at this position has no ALT allele and an indel or repeat is expected. " +
               "PharmCAT cannot validate this position");
         } else {
-          addWarning(chrPos, "Genotype at this position has SNPs ( " +
+          addWarning(data, chrPos, "Genotype at this position has SNPs ( " +
               String.join("/", position.getAltBases()) + ") but PharmCAT expects indel or repeat (" +
               String.join("/", varLoc.getAlts()) + ")");
         }
@@ -372,9 +603,9 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
           if (treatUndocumentedAsReference(chrPos)) {
             msgBuilder.append(".  Undocumented variations will be replaced with reference.");
           }
-          addWarning(chrPos, msgBuilder.toString());
+          addWarning(data, chrPos, msgBuilder.toString());
         } else if (position.getFilters().contains(sf_filterCodeAlt) && sampleData.size() == 1) {
-          addWarning(chrPos, "PharmCAT preprocessor detected ALT mismatch (filter " + sf_filterCodeAlt +
+          addWarning(data, chrPos, "PharmCAT preprocessor detected ALT mismatch (filter " + sf_filterCodeAlt +
               ") but this does not match current data (expected " + String.join("/", varLoc.getAlts()) +
               " and got " + String.join("/", position.getAltBases()) +
               ").  Was the VCF preprocessed with a different version of PharmCAT?");
@@ -384,8 +615,8 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
 
     if (sampleData.size() > 1 && !m_useSpecificSample) {
       // only warn once
-      if (m_alleleMap.isEmpty()) {
-        addWarning(chrPos, "Multiple samples found, only using first entry.");
+      if (Objects.requireNonNull(data.alleleMap).isEmpty()) {
+        addWarning(data, chrPos, "Multiple samples found, only using first entry.");
       }
     }
 
@@ -393,8 +624,8 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
     List<String> alleles = new ArrayList<>();
     if (position.getAltBases().isEmpty()) {
       String gt1 = position.getAllele(0);
-      if (!validateAlleles(chrPos, gt1, null, false)) {
-        m_discardedPositions.add(chrPos);
+      if (!validateAlleles(data, chrPos, gt1, null, false)) {
+        discardPosition(data, chrPos, row);
         return;
       }
 
@@ -406,8 +637,8 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
       for (int x = 1; x <= position.getAltBases().size(); x += 1) {
         String gt2 = position.getAllele(x);
         boolean isSelected = gtNonMissing.contains(x);
-        if (!validateAlleles(chrPos, gt1, gt2, isSelected)) {
-          m_discardedPositions.add(chrPos);
+        if (!validateAlleles(data, chrPos, gt1, gt2, isSelected)) {
+          discardPosition(data, chrPos, row);
           return;
         }
 
@@ -429,10 +660,10 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
 
     if (m_useAdFormat) {
       // reference: https://gatk.broadinstitute.org/hc/en-us/articles/360035531692-VCF-Variant-Call-Format
-      String allelicDepth = sampleData.get(0).getProperty("AD");
+      String allelicDepth = sampleData.get(data.sampleIdx).getProperty("AD");
       if (allelicDepth != null) {
         if (!m_adFormatDefined) {
-          addWarning("VCF", MSG_AD_FORMAT_MISSING);
+          addWarning(data, "VCF", MSG_AD_FORMAT_MISSING);
         }
         if (!".".equals(allelicDepth)) {
           // try to catch reference overlap style VCF where
@@ -447,13 +678,13 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
             gtNonMissing.forEach(g -> genotype.merge(g, 1, Integer::sum));
             // GT is het, but AD is not (only one side has any reads)
             if (genotype.size() != 1 && depths.stream().filter(d -> d > 0).count() == 1) {
-              addWarning(chrPos, "Discarding genotype at this position because GT field indicates heterozygous (" +
+              addWarning(data, chrPos, "Discarding genotype at this position because GT field indicates heterozygous (" +
                   gt + ") but AD field indicates homozygous (" + allelicDepth + ")");
-              m_discardedPositions.add(chrPos);
+              discardPosition(data, chrPos, row);
               return;
             }
           } catch (NumberFormatException ex) {
-            addWarning(chrPos, "Invalid allelic depth (AD) field: " + allelicDepth);
+            addWarning(data, chrPos, "Invalid allelic depth (AD) field: " + allelicDepth);
           }
         }
       }
@@ -466,14 +697,18 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
       }
     }
 
+    int a1Idx = -1;
     String a1 = null;
     if (!gtArray[0].equals(".")) {
-      a1 = alleles.get(Integer.parseInt(gtArray[0]));
+      a1Idx = Integer.parseInt(gtArray[0]);
+      a1 = alleles.get(a1Idx);
     }
+    int a2Idx = gtArray.length > 1 ? -1 : -2;
     String a2 = null;
     if (!sf_haploidChromosomes.contains(position.getChromosome()) || a1 == null) {
       if (gtArray.length > 1 && !gtArray[1].equals(".")) {
-        a2 = alleles.get(Integer.parseInt(gtArray[1]));
+        a2Idx = Integer.parseInt(gtArray[1]);
+        a2 = alleles.get(a2Idx);
       }
     }
 
@@ -488,16 +723,16 @@ public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample
        }
     }
 
-    List<String> vcfAlleles = new ArrayList<>();
-    vcfAlleles.add(position.getRef());
-    vcfAlleles.addAll(position.getAltBases());
-
-    boolean treatUndocumentedAsReference = m_locationsByGene != null && treatUndocumentedAsReference(chrPos);
-    SampleAllele sampleAllele = new SampleAllele(position.getChromosome(), position.getPosition(), a1, a2, isPhased,
-        isEffectivelyPhased, vcfAlleles, gt, undocumentedVariations, treatUndocumentedAsReference);
-    m_alleleMap.put(chrPos, sampleAllele);
-    if (m_discardedPositions.contains(chrPos)) {
-      addWarning(chrPos, "Duplicate entry found in VCF; this entry trumps previous invalid entry.",
+    if (m_matrix != null) {
+      m_matrix.setGenotype(row, data.column, gt, a1Idx, a2Idx, isPhased, isEffectivelyPhased, undocumentedVariations);
+    } else {
+      boolean treatUndocumentedAsReference = m_locationsByGene != null && treatUndocumentedAsReference(chrPos);
+      SampleAllele sampleAllele = new SampleAllele(position.getChromosome(), position.getPosition(), a1, a2, isPhased,
+          isEffectivelyPhased, vcfAlleles, gt, undocumentedVariations, treatUndocumentedAsReference);
+      Objects.requireNonNull(data.alleleMap).put(chrPos, sampleAllele);
+    }
+    if (isDiscarded(data, chrPos)) {
+      addWarning(data, chrPos, "Duplicate entry found in VCF; this entry trumps previous invalid entry.",
           "Duplicate entry: first valid position wins");
     }
   }
@@ -548,17 +783,18 @@ private String[] normalizeAlleles(String refAllele, @Nullable String varAllele)
   /**
    * Validate GT input per VCF 4.2 specification.
    */
-  private boolean validateAlleles(String chrPos, String gt1, @Nullable String gt2, boolean isG2Selected) {
+  private boolean validateAlleles(SampleData data, String chrPos, String gt1, @Nullable String gt2,
+      boolean isG2Selected) {
 
     boolean isValid = true;
     if (gt1.startsWith("<")) {
-      addWarning(chrPos, "Discarded genotype at this position because REF uses structural variation '" + gt1 + "'");
+      addWarning(data, chrPos, "Discarded genotype at this position because REF uses structural variation '" + gt1 + "'");
       isValid = false;
     } else if (gt1.toUpperCase().contains("N")) {
-      addWarning(chrPos, "Discarded genotype at this position because REF uses ambiguous allele in '" + gt1 + "'");
+      addWarning(data, chrPos, "Discarded genotype at this position because REF uses ambiguous allele in '" + gt1 + "'");
       isValid = false;
     } else if (!sf_allelePattern.matcher(gt1).matches()) {
-      addWarning(chrPos, "Discarded genotype at this position because REF uses unknown base in '" + gt1 + "'");
+      addWarning(data, chrPos, "Discarded genotype at this position because REF uses unknown base in '" + gt1 + "'");
       isValid = false;
     }
 
@@ -568,23 +804,23 @@ private boolean validateAlleles(String chrPos, String gt1, @Nullable String gt2,
         if (isG2Selected) {
           isValid = false;
         }
-        addWarning(chrPos, prefix + "ALT uses structural variation '" + gt2 + "'");
+        addWarning(data, chrPos, prefix + "ALT uses structural variation '" + gt2 + "'");
       } else if (gt2.toUpperCase().contains("N")) {
         if (isG2Selected) {
           isValid = false;
         }
-        addWarning(chrPos, prefix + "ALT uses ambiguous allele in '" + gt2 + "'");
+        addWarning(data, chrPos, prefix + "ALT uses ambiguous allele in '" + gt2 + "'");
 
       } else if (gt2.contains("*")) {
         if (isG2Selected) {
           isValid = false;
         }
-        addWarning(chrPos, prefix + "ALT uses missing allele in '" + gt2 + "'");
+        addWarning(data, chrPos, prefix + "ALT uses missing allele in '" + gt2 + "'");
       } else if (!sf_allelePattern.matcher(gt2).matches()) {
         if (isG2Selected) {
           isValid = false;
         }
-        addWarning(chrPos, prefix + "ALT uses unknown base in '" + gt2 + "'");
+        addWarning(data, chrPos, prefix + "ALT uses unknown base in '" + gt2 + "'");
       }
     }
 
@@ -595,8 +831,61 @@ private boolean validateAlleles(String chrPos, String gt1, @Nullable String gt2,
   static BufferedReader openVcfFile(Path vcfFile) throws  IOException {
     String filename = vcfFile.toString();
     if (filename.endsWith(".vcf.bgz") || filename.endsWith(".vcf.gz")) {
-      return new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(vcfFile))));
+      return new BufferedReader(new InputStreamReader(BgzfInputStream.open(Files.newInputStream(vcfFile))));
     }
     return Files.newBufferedReader(vcfFile);
   }
+
+  /**
+   * Opens the raw (uncompressed) data in a VCF file.
+   */
+  static InputStream openVcfData(Path vcfFile) throws IOException {
+    String filename = vcfFile.toString();
+    if (filename.endsWith(".vcf.bgz") || filename.endsWith(".vcf.gz")) {
+      return BgzfInputStream.open(Files.newInputStream(vcfFile));
+    }
+    return Files.newInputStream(vcfFile);
+  }
+
+  /**
+   * Wraps raw VCF data in a reader that drops data lines that are not at a location of interest before they are
+   * decoded (see {@link VcfLineFilter}).
+   */
+  public static BufferedReader filterVcfData(InputStream vcfData, DefinitionReader definitionReader) {
+    return filterVcfData(vcfData, definitionReader.getLocationsOfInterest().values());
+  }
+
+  private static BufferedReader filterVcfData(InputStream vcfData, Collection<VariantLocus> locations) {
+    return new BufferedReader(new InputStreamReader(new VcfLineFilter(vcfData, locations), StandardCharsets.UTF_8));
+  }
+
+
+  /**
+   * Data read for a single sample.
+   */
+  private static class SampleData {
+    private final int sampleIdx;
+    // column in GenotypeMatrix
+    private final int column;
+    // the rest is only used if not reading into a GenotypeMatrix, which stores all of this itself
+    // <chr:position, allele>
+    private final @Nullable SortedMap<String, SampleAllele> alleleMap;
+    // <chr:position, warning>
+    private final @Nullable SortedSetMultimap<String, String> warnings;
+    private final @Nullable Set<String> discardedPositions;
+
+    private SampleData(int sampleIdx, int column, boolean useMatrix) {
+      this.sampleIdx = sampleIdx;
+      this.column = column;
+      if (useMatrix) {
+        alleleMap = null;
+        warnings = null;
+        discardedPositions = null;
+      } else {
+        alleleMap = new TreeMap<>(ChromosomePositionComparator.getComparator());
+        warnings = TreeMultimap.create();
+        discardedPositions = new HashSet<>();
+      }
+    }
+  }
 }
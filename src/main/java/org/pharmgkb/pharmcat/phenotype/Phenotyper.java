@@ -1,10 +1,8 @@
 package org.pharmgkb.pharmcat.phenotype;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
@@ -142,10 +140,19 @@ public Optional<GeneReport> findGeneReport(DataSource source, String geneSymbol)
    * @throws IOException can occur from writing the file to the filesystem
    */
   public void write(Path outputPath) throws IOException {
-    try (BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)) {
-      writer.write(DataSerializer.GSON.toJson(this));
-      sf_logger.info("Writing Phenotyper JSON to " + outputPath);
-    }
+    write(outputPath, false);
+  }
+
+  /**
+   * Writes out {@link Phenotyper} data.
+   *
+   * @param outputPath the path to write a JSON file of data to (gzipped if it ends with {@code .gz})
+   * @param compact true to skip pretty printing
+   * @throws IOException can occur from writing the file to the filesystem
+   */
+  public void write(Path outputPath, boolean compact) throws IOException {
+    sf_logger.info("Writing Phenotyper JSON to " + outputPath);
+    DataSerializer.toJson(this, outputPath, compact);
   }
 
   /**
@@ -154,7 +161,7 @@ public void write(Path outputPath) throws IOException {
   public static Phenotyper read(Path filePath) throws IOException {
     Preconditions.checkNotNull(filePath);
     Preconditions.checkArgument(Files.isRegularFile(filePath));
-    try (BufferedReader reader = Files.newBufferedReader(filePath)) {
+    try (BufferedReader reader = DataSerializer.newReader(filePath)) {
       return DataSerializer.GSON.fromJson(reader, Phenotyper.class);
     }
   }
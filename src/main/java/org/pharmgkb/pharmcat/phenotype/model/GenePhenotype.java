@@ -45,6 +45,9 @@ public class GenePhenotype {
   @SerializedName("diplotypeFunctions")
   private List<DiplotypeFunction> m_diplotypeFunctions;
 
+  /** Diplotype records by diplotype key, built on first use. */
+  private transient volatile @Nullable DiplotypeIndex m_diplotypeIndex;
+
   // only used by Subsetter
   private final transient Set<String> m_modifiedActivity = new HashSet<>();
   private final transient Set<String> m_modifiedFunction = new HashSet<>();
@@ -140,9 +143,10 @@ public List<HaplotypeRecord> getNamedAlleles() {
   }
 
   public Optional<DiplotypeRecord> findDiplotype(Map<String,Integer> diplotypeKey) {
-    List<DiplotypeRecord> diplotypes = m_diplotypes.stream()
-        .filter(d -> d.matchesKey(diplotypeKey))
-        .toList();
+    if (diplotypeKey == null || diplotypeKey.isEmpty()) {
+      return Optional.empty();
+    }
+    List<DiplotypeRecord> diplotypes = findDiplotypes(diplotypeKey);
     if (diplotypes.size() == 1) {
       return Optional.of(diplotypes.get(0));
     } else if (diplotypes.isEmpty()) {
@@ -155,6 +159,55 @@ public Optional<DiplotypeRecord> findDiplotype(Map<String,Integer> diplotypeKey)
             .collect(Collectors.joining(", ")));
   }
 
+  /**
+   * Finds all diplotype records with the given diplotype key.
+   */
+  public List<DiplotypeRecord> findDiplotypes(Map<String,Integer> diplotypeKey) {
+    return getDiplotypeIndex().records().getOrDefault(diplotypeKey, Collections.emptyList());
+  }
+
+  /**
+   * Gets diplotype keys that are used by more than one diplotype record.  This should always be empty.
+   */
+  public Set<Map<String,Integer>> getAmbiguousDiplotypeKeys() {
+    return getDiplotypeIndex().ambiguousKeys();
+  }
+
+  private DiplotypeIndex getDiplotypeIndex() {
+    DiplotypeIndex index = m_diplotypeIndex;
+    if (index == null) {
+      // no need to synchronize, worst case is that the index gets built more than once
+      index = DiplotypeIndex.build(m_diplotypes);
+      m_diplotypeIndex = index;
+    }
+    return index;
+  }
+
+  private record DiplotypeIndex(Map<Map<String,Integer>, List<DiplotypeRecord>> records,
+      Set<Map<String,Integer>> ambiguousKeys) {
+
+    static DiplotypeIndex build(@Nullable Collection<DiplotypeRecord> diplotypes) {
+      Map<Map<String,Integer>, List<DiplotypeRecord>> records = new HashMap<>();
+      Set<Map<String,Integer>> ambiguousKeys = new HashSet<>();
+      if (diplotypes != null) {
+        for (DiplotypeRecord dr : diplotypes) {
+          if (dr.getDiplotypeKey() == null) {
+            continue;
+          }
+          // copy into HashMap so that lookups don't depend on the key's comparator
+          Map<String,Integer> key = Collections.unmodifiableMap(new HashMap<>(dr.getDiplotypeKey()));
+          List<DiplotypeRecord> list = records.computeIfAbsent(key, k -> new ArrayList<>(1));
+          list.add(dr);
+          if (list.size() > 1) {
+            ambiguousKeys.add(key);
+          }
+        }
+      }
+      records.replaceAll((k, v) -> Collections.unmodifiableList(v));
+      return new DiplotypeIndex(Collections.unmodifiableMap(records), Collections.unmodifiableSet(ambiguousKeys));
+    }
+  }
+
 
   /**
    * Gets the version of the {@link DataSource} the phenotype mapping is from.
@@ -273,6 +326,7 @@ public boolean isModified(String allele) {
    */
   public void generateDiplotypes(DataSource source) {
     m_diplotypes = new TreeSet<>(makeDiplotypes(this, source));
+    m_diplotypeIndex = null;
   }
 
   private static Set<DiplotypeRecord> makeDiplotypes(GenePhenotype gp, DataSource source) {
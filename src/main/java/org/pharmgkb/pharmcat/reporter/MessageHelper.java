@@ -4,15 +4,16 @@
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Stream;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import org.apache.commons.lang3.StringUtils;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pharmgkb.common.util.PathUtils;
@@ -47,25 +48,39 @@ public class MessageHelper {
   // -- end static keys
   public static final String MESSAGES_JSON_FILE_NAME = "messages.json";
   private static final String sf_messagesFile   = "org/pharmgkb/pharmcat/reporter/" + MESSAGES_JSON_FILE_NAME;
-  private final Multimap<String, MessageAnnotation> m_geneMap = HashMultimap.create();
-  private final Multimap<String, MessageAnnotation> m_drugMap = HashMultimap.create();
+  private final Map<String, GeneRules> m_geneRules = new HashMap<>();
+  private final Map<PrescribingGuidanceSource, ListMultimap<String, MessageRule>> m_drugRules =
+      new EnumMap<>(PrescribingGuidanceSource.class);
   private final Map<String, MessageAnnotation> m_staticMap = new HashMap<>();
 
 
   /**
    * Public constructor. Will load message data from the file system.
+   * <p>
+   * Each message's {@link MatchLogic} is compiled into a {@link MessageRule} and indexed by gene and by drug, so that
+   * reports only evaluate the rules that could possibly apply to them.
    *
    * @throws IOException can occur when reading the messages file
    */
   public MessageHelper() throws IOException {
+    for (PrescribingGuidanceSource source : PrescribingGuidanceSource.values()) {
+      m_drugRules.put(source, ArrayListMultimap.create());
+    }
     try (BufferedReader reader = Files.newBufferedReader(PathUtils.getPathToResource(sf_messagesFile))) {
       MessageAnnotation[] messages = DataSerializer.GSON.fromJson(reader, MessageAnnotation[].class);
       for (MessageAnnotation msg : messages) {
-        if (msg.getMatches().getGene() != null) {
-          m_geneMap.put(msg.getMatches().getGene(), msg);
+        MessageRule rule = new MessageRule(msg);
+        if (rule.getGene() != null) {
+          m_geneRules.computeIfAbsent(rule.getGene(), (g) -> new GeneRules())
+              .add(rule);
+        }
+        for (String drug : new LinkedHashSet<>(msg.getMatches().getDrugs())) {
+          for (PrescribingGuidanceSource source : PrescribingGuidanceSource.values()) {
+            if (rule.isAllowedFor(source)) {
+              m_drugRules.get(source).put(drug, rule);
+            }
+          }
         }
-        msg.getMatches().getDrugs()
-            .forEach((d) -> m_drugMap.put(d, msg));
         if (msg.getName().startsWith("pcat-")) {
           m_staticMap.put(msg.getName(), msg);
         }
@@ -85,66 +100,31 @@ public MessageHelper() throws IOException {
    * @param report the {@link GeneReport} to possibly add messages to
    */
   public void addMatchingMessagesTo(GeneReport report) {
+    GeneRules rules = m_geneRules.get(report.getGene());
+    if (rules == null) {
+      return;
+    }
     if (!report.isReportable()) {
       if (!report.isNoData()) {
         // if not reportable but does have data apply only "non-match" rules
-        m_geneMap.get(report.getGene()).stream()
-            .filter(m -> m.getExceptionType().equalsIgnoreCase(MessageAnnotation.TYPE_NONMATCH) && matchesGeneReport(m, report))
-            .forEach(report::addMessage);
+        MessageRule.GeneFacts facts = new MessageRule.GeneFacts(report);
+        for (MessageRule rule : rules.m_nonMatch) {
+          if (rule.matches(facts)) {
+            report.addMessage(rule.getMessage());
+          }
+        }
       }
       return;
     }
     if (report.getCallSource() != CallSource.MATCHER) {
       return;
     }
-    m_geneMap.get(report.getGene()).stream()
-        .filter(m -> !m.getExceptionType().equalsIgnoreCase(MessageAnnotation.TYPE_NONMATCH))
-        .filter(m -> matchesGeneReport(m, report))
-        .forEach(report::addMessage);
-  }
-
-  /**
-   * Method that will determine if a message's {@link MatchLogic} applies to a {@link GeneReport}
-   * @param message match logic from a {@link MessageAnnotation}
-   * @param gene a {@link GeneReport} to try to match to
-   * @return true if the given logic matches
-   */
-  private static boolean matchesGeneReport(MessageAnnotation message, GeneReport gene) {
-    MatchLogic match = message.getMatches();
-
-    if (!Objects.equals(match.getGene(), gene.getGene())) {
-      return false;
-    }
-
-    boolean passHapMatchCriteria = match.getHapsCalled().isEmpty() ||
-        match.getHapsCalled().stream().allMatch(gene::hasHaplotype);
-    boolean passHapMissingCriteria = match.getHapsMissing().isEmpty() ||
-        gene.getUncalledHaplotypes().containsAll(match.getHapsMissing());
-    boolean passVariantMatchCriteria = StringUtils.isBlank(match.getVariant()) ||
-        gene.findVariantReport(match.getVariant()).map((v) -> !v.isMissing()).orElse(false);
-    boolean passVariantMissingCriteria = match.getVariantsMissing().isEmpty() ||
-        match.getVariantsMissing().stream()
-            .allMatch((r) -> gene.findVariantReport(r).map(VariantReport::isMissing).orElse(false));
-    boolean passDipMatchCriteria = match.getDips().isEmpty() ||
-        match.getDips().stream()
-            .allMatch(d -> gene.getSourceDiplotypes().stream()
-                .anyMatch(e -> e.getLabel().equals(d)));
-
-    boolean passAmbiguityCriteria = true;
-    if (message.getExceptionType().equals(MessageAnnotation.TYPE_AMBIGUITY)) {
-      // ambiguity messages with diplotypes only apply if gene is unphased
-      if (!match.getDips().isEmpty() && gene.isPhased()) {
-        passAmbiguityCriteria = false;
-      }
-      // ambiguity messages with a variant only apply when that variant is het
-      else if (!StringUtils.isBlank(match.getVariant()) &&
-          !gene.findVariantReport(match.getVariant()).map(VariantReport::isHetCall).orElse(false)) {
-        passAmbiguityCriteria = false;
+    MessageRule.GeneFacts facts = new MessageRule.GeneFacts(report);
+    for (MessageRule rule : rules.findCandidates(facts)) {
+      if (rule.matches(facts)) {
+        report.addMessage(rule.getMessage());
       }
     }
-
-    return passHapMatchCriteria && passHapMissingCriteria && passVariantMatchCriteria && passVariantMissingCriteria
-        && passDipMatchCriteria && passAmbiguityCriteria;
   }
 
   /**
@@ -155,32 +135,30 @@ else if (!StringUtils.isBlank(match.getVariant()) &&
    * @param reportContext the report context to pull related information from
    */
   public void addMatchingMessagesTo(DrugReport drugReport, ReportContext reportContext, PrescribingGuidanceSource source) {
-    Collection<MessageAnnotation> allMessages = m_drugMap.get(drugReport.getName()).stream()
-        .filter((ma) -> allowedForSource(ma, source))
-        .toList();
-    if (allMessages.isEmpty()) {
+    List<MessageRule> rules = m_drugRules.get(source).get(drugReport.getName());
+    if (rules.isEmpty()) {
       return;
     }
-    List<MessageAnnotation> reportAsGenotype = new ArrayList<>();
-    for (MessageAnnotation messageAnnotation : allMessages) {
-      if (messageAnnotation.getExceptionType().equals(MessageAnnotation.TYPE_REPORT_AS_GENOTYPE)) {
-        reportAsGenotype.add(messageAnnotation);
+    List<MessageRule> reportAsGenotype = new ArrayList<>();
+    for (MessageRule rule : rules) {
+      if (rule.isReportAsGenotype()) {
+        reportAsGenotype.add(rule);
       } else {
-        if (matchDrugReport(messageAnnotation, reportContext, source)) {
-          drugReport.addMessage(messageAnnotation);
+        if (matchDrugReport(rule, reportContext, source)) {
+          drugReport.addMessage(rule.getMessage());
         }
       }
     }
 
     if (!reportAsGenotype.isEmpty()) {
-      for (MessageAnnotation msgAnn : reportAsGenotype) {
-        String geneSymbol = msgAnn.getMatches().getGene();
+      for (MessageRule rule : reportAsGenotype) {
+        String geneSymbol = rule.getGene();
         String genotype = null;
         for (GuidelineReport guidelineReport : drugReport.getGuidelines()) {
           if (geneSymbol == null || guidelineReport.getGenes().contains(geneSymbol)) {
             for (AnnotationReport annotationReport : guidelineReport.getAnnotations()) {
               if (genotype == null) {
-                genotype = computeGenotype(msgAnn, reportContext, source.getPhenoSource());
+                genotype = computeGenotype(rule.getMessage(), reportContext, source.getPhenoSource());
               }
               annotationReport.addHighlightedVariant(genotype);
             }
@@ -190,17 +168,6 @@ public void addMatchingMessagesTo(DrugReport drugReport, ReportContext reportCon
     }
   }
 
-  private boolean allowedForSource(MessageAnnotation messageAnnotation, PrescribingGuidanceSource source) {
-    String key = messageAnnotation.getName();
-    if (key.contains("cpic-") && source != PrescribingGuidanceSource.CPIC_GUIDELINE) {
-      return false;
-    }
-    if (key.contains("dpwg-") && source != PrescribingGuidanceSource.DPWG_GUIDELINE) {
-      return false;
-    }
-    return !key.contains("fda-") || source == PrescribingGuidanceSource.FDA_LABEL;
-  }
-
 
   private String computeGenotype(MessageAnnotation msgAnn, ReportContext reportContext, DataSource source) {
     String geneSymbol = Objects.requireNonNull(msgAnn.getMatches().getGene());
@@ -224,24 +191,76 @@ private String computeGenotype(MessageAnnotation msgAnn, ReportContext reportCon
 
 
   /**
-   * See if the supplied {@link MessageAnnotation} applies to the given {@link DrugReport} based on gene-related
+   * See if the supplied {@link MessageRule} applies to the given {@link DrugReport} based on gene-related
    * matches.
    * <p>
    * <strong>NOTE:</strong> This method assumes that {@link MessageAnnotation} objects have already been assigned to
    * {@link GeneReport} objects.
    *
-   * @param message a message annotation to test for a match
+   * @param rule the compiled message annotation to test for a match
    * @param reportContext the report context to look up related gene information
    * @return true if the message is a match, false otherwise
    */
-  private boolean matchDrugReport(MessageAnnotation message, ReportContext reportContext,
-      PrescribingGuidanceSource source) {
-    String gene = message.getMatches().getGene();
-    if (StringUtils.isBlank(gene)) {
+  private boolean matchDrugReport(MessageRule rule, ReportContext reportContext, PrescribingGuidanceSource source) {
+    String gene = rule.getGene();
+    if (gene == null) {
       return true;
     }
     GeneReport geneReport = reportContext.getGeneReport(source, gene);
     // don't apply message if gene has no data
-    return geneReport != null && !geneReport.isNoData() && geneReport.hasMessage(message.getName());
+    return geneReport != null && !geneReport.isNoData() && geneReport.hasMessage(rule.getMessage().getName());
+  }
+
+
+  /**
+   * The {@link MessageRule}s for a single gene, indexed by something the gene must have for the rule to apply.
+   * <p>
+   * Each rule is only indexed once, by the first of: a called haplotype, a diplotype or a variant it requires.  Rules
+   * that don't require any of these are always candidates.
+   */
+  private static class GeneRules {
+    private final List<MessageRule> m_nonMatch = new ArrayList<>();
+    private final List<MessageRule> m_unconditional = new ArrayList<>();
+    private final ListMultimap<String, MessageRule> m_byHaplotype = ArrayListMultimap.create();
+    private final ListMultimap<String, MessageRule> m_byDiplotype = ArrayListMultimap.create();
+    private final ListMultimap<String, MessageRule> m_byVariant = ArrayListMultimap.create();
+
+
+    void add(MessageRule rule) {
+      if (rule.isNonMatch()) {
+        m_nonMatch.add(rule);
+      } else if (!rule.getHapsCalled().isEmpty()) {
+        m_byHaplotype.put(rule.getHapsCalled().get(0), rule);
+      } else if (!rule.getDips().isEmpty()) {
+        m_byDiplotype.put(rule.getDips().get(0), rule);
+      } else if (rule.getVariant() != null) {
+        m_byVariant.put(rule.getVariant(), rule);
+      } else {
+        m_unconditional.add(rule);
+      }
+    }
+
+    /**
+     * Finds the (non-"non-match") rules that might apply to a gene.
+     */
+    List<MessageRule> findCandidates(MessageRule.GeneFacts facts) {
+      List<MessageRule> candidates = new ArrayList<>(m_unconditional);
+      if (!m_byHaplotype.isEmpty()) {
+        for (String hap : facts.getHaplotypes()) {
+          candidates.addAll(m_byHaplotype.get(hap));
+        }
+      }
+      if (!m_byDiplotype.isEmpty()) {
+        for (String dip : facts.getDiplotypes()) {
+          candidates.addAll(m_byDiplotype.get(dip));
+        }
+      }
+      for (String rsid : m_byVariant.keySet()) {
+        if (facts.findVariantReport(rsid).map((v) -> !v.isMissing()).orElse(false)) {
+          candidates.addAll(m_byVariant.get(rsid));
+        }
+      }
+      return candidates;
+    }
   }
 }
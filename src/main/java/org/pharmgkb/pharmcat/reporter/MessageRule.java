@@ -0,0 +1,200 @@
+package org.pharmgkb.pharmcat.reporter;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.apache.commons.lang3.StringUtils;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pharmgkb.pharmcat.reporter.model.MatchLogic;
+import org.pharmgkb.pharmcat.reporter.model.MessageAnnotation;
+import org.pharmgkb.pharmcat.reporter.model.PrescribingGuidanceSource;
+import org.pharmgkb.pharmcat.reporter.model.VariantReport;
+import org.pharmgkb.pharmcat.reporter.model.result.Diplotype;
+import org.pharmgkb.pharmcat.reporter.model.result.GeneReport;
+
+
+/**
+ * The {@link MatchLogic} of a {@link MessageAnnotation}, compiled into a predicate when messages are loaded so that
+ * none of it has to be re-parsed for every report.
+ *
+ * @author Mark Woon
+ */
+class MessageRule {
+  private final MessageAnnotation m_message;
+  private final @Nullable String m_gene;
+  private final List<String> m_hapsCalled;
+  private final List<String> m_hapsMissing;
+  private final @Nullable String m_variant;
+  private final List<String> m_variantsMissing;
+  private final List<String> m_dips;
+  private final boolean m_nonMatch;
+  private final boolean m_ambiguity;
+  private final boolean m_reportAsGenotype;
+  private final Set<PrescribingGuidanceSource> m_sources = EnumSet.noneOf(PrescribingGuidanceSource.class);
+
+
+  MessageRule(MessageAnnotation message) {
+    MatchLogic match = message.getMatches();
+    m_message = message;
+    m_gene = StringUtils.stripToNull(match.getGene());
+    m_hapsCalled = List.copyOf(match.getHapsCalled());
+    m_hapsMissing = List.copyOf(match.getHapsMissing());
+    m_variant = StringUtils.stripToNull(match.getVariant());
+    m_variantsMissing = List.copyOf(match.getVariantsMissing());
+    m_dips = List.copyOf(match.getDips());
+    m_nonMatch = message.getExceptionType().equalsIgnoreCase(MessageAnnotation.TYPE_NONMATCH);
+    m_ambiguity = message.getExceptionType().equals(MessageAnnotation.TYPE_AMBIGUITY);
+    m_reportAsGenotype = message.getExceptionType().equals(MessageAnnotation.TYPE_REPORT_AS_GENOTYPE);
+
+    String key = message.getName();
+    for (PrescribingGuidanceSource source : PrescribingGuidanceSource.values()) {
+      if (key.contains("cpic-") && source != PrescribingGuidanceSource.CPIC_GUIDELINE) {
+        continue;
+      }
+      if (key.contains("dpwg-") && source != PrescribingGuidanceSource.DPWG_GUIDELINE) {
+        continue;
+      }
+      if (key.contains("fda-") && source != PrescribingGuidanceSource.FDA_LABEL) {
+        continue;
+      }
+      m_sources.add(source);
+    }
+  }
+
+
+  MessageAnnotation getMessage() {
+    return m_message;
+  }
+
+  @Nullable String getGene() {
+    return m_gene;
+  }
+
+  List<String> getHapsCalled() {
+    return m_hapsCalled;
+  }
+
+  @Nullable String getVariant() {
+    return m_variant;
+  }
+
+  List<String> getDips() {
+    return m_dips;
+  }
+
+  boolean isNonMatch() {
+    return m_nonMatch;
+  }
+
+  boolean isReportAsGenotype() {
+    return m_reportAsGenotype;
+  }
+
+  boolean isAllowedFor(PrescribingGuidanceSource source) {
+    return m_sources.contains(source);
+  }
+
+
+  /**
+   * Checks if this rule applies to a gene.  Assumes that the rule is for the same gene.
+   */
+  boolean matches(GeneFacts facts) {
+    for (String hap : m_hapsCalled) {
+      if (!facts.hasHaplotype(hap)) {
+        return false;
+      }
+    }
+    if (!facts.getReport().getUncalledHaplotypes().containsAll(m_hapsMissing)) {
+      return false;
+    }
+    if (m_variant != null && !facts.findVariantReport(m_variant).map((v) -> !v.isMissing()).orElse(false)) {
+      return false;
+    }
+    for (String rsid : m_variantsMissing) {
+      if (!facts.findVariantReport(rsid).map(VariantReport::isMissing).orElse(false)) {
+        return false;
+      }
+    }
+    for (String dip : m_dips) {
+      if (!facts.hasDiplotype(dip)) {
+        return false;
+      }
+    }
+
+    if (m_ambiguity) {
+      // ambiguity messages with diplotypes only apply if gene is unphased
+      if (!m_dips.isEmpty() && facts.getReport().isPhased()) {
+        return false;
+      }
+      // ambiguity messages with a variant only apply when that variant is het
+      return m_variant == null ||
+          facts.findVariantReport(m_variant).map(VariantReport::isHetCall).orElse(false);
+    }
+    return true;
+  }
+
+
+  /**
+   * Lookups into a {@link GeneReport} that are shared by all the rules evaluated against it.
+   */
+  static class GeneFacts {
+    private final GeneReport m_report;
+    private final Set<String> m_haplotypes = new HashSet<>();
+    private final Set<String> m_diplotypes = new HashSet<>();
+    private final Map<String, Optional<VariantReport>> m_variants = new HashMap<>();
+
+
+    GeneFacts(GeneReport report) {
+      m_report = report;
+      for (Diplotype diplotype : report.getRecommendationDiplotypes()) {
+        if (diplotype.getAllele1() != null) {
+          m_haplotypes.add(diplotype.getAllele1().getName());
+        }
+        if (diplotype.getAllele2() != null) {
+          m_haplotypes.add(diplotype.getAllele2().getName());
+        }
+      }
+      for (Diplotype diplotype : report.getSourceDiplotypes()) {
+        m_diplotypes.add(diplotype.getLabel());
+      }
+    }
+
+
+    GeneReport getReport() {
+      return m_report;
+    }
+
+    /**
+     * Same as {@link GeneReport#hasHaplotype(String)}.
+     */
+    boolean hasHaplotype(String haplotype) {
+      return m_haplotypes.contains(haplotype);
+    }
+
+    Set<String> getHaplotypes() {
+      return m_haplotypes;
+    }
+
+    /**
+     * Checks if any of the source diplotypes has the given label.
+     */
+    boolean hasDiplotype(String label) {
+      return m_diplotypes.contains(label);
+    }
+
+    Set<String> getDiplotypes() {
+      return m_diplotypes;
+    }
+
+    /**
+     * Same as {@link GeneReport#findVariantReport(String)}, but only looks up each rsid once.
+     */
+    Optional<VariantReport> findVariantReport(String rsid) {
+      return m_variants.computeIfAbsent(rsid, m_report::findVariantReport);
+    }
+  }
+}
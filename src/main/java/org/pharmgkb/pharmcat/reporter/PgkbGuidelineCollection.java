@@ -5,13 +5,20 @@
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.SortedSetMultimap;
 import com.google.common.collect.TreeMultimap;
 import com.google.gson.annotations.Expose;
@@ -35,8 +42,17 @@ public class PgkbGuidelineCollection {
   @SerializedName("guidelines")
   private final List<GuidelinePackage> f_guidelinePackages = new ArrayList<>();
   private final SortedSetMultimap<String,GuidelinePackage> f_guidelineMap = TreeMultimap.create(String::compareToIgnoreCase, Comparator.naturalOrder());
-  private SortedSet<String> m_genes;
+  private final SortedSet<String> m_genes;
   private final String m_version;
+  // indexes, computed once at load time
+  private final Map<DataSource, SortedSet<String>> m_genesBySource = new EnumMap<>(DataSource.class);
+  private final Map<DataSource, Set<GuidelinePackage>> m_packagesByDataSource = new EnumMap<>(DataSource.class);
+  private final Map<PrescribingGuidanceSource, Set<GuidelinePackage>> m_packagesBySource =
+      new EnumMap<>(PrescribingGuidanceSource.class);
+  private final Map<PrescribingGuidanceSource, Set<String>> m_chemicalsBySource =
+      new EnumMap<>(PrescribingGuidanceSource.class);
+  private final Map<PrescribingGuidanceSource, SortedMap<String, List<GuidelinePackage>>> m_packagesByDrug =
+      new EnumMap<>(PrescribingGuidanceSource.class);
 
 
   public PgkbGuidelineCollection() throws IOException {
@@ -53,11 +69,50 @@ public PgkbGuidelineCollection(Path guidanceDataPath) throws IOException {
 
       for (GuidelinePackage guidelinePackage : dataset.getGuidelinePackages()) {
         guidelinePackage.getCitations().forEach(Publication::normalize);
+        guidelinePackage.indexRecommendations();
         for (AccessionObject chemical : guidelinePackage.getGuideline().getRelatedChemicals()) {
           f_guidelineMap.put(chemical.getName(), guidelinePackage);
         }
       }
     }
+
+    m_genes = f_guidelinePackages.stream()
+        .flatMap(p -> p.getRecommendations().stream())
+        .filter(Objects::nonNull)
+        .flatMap(r -> r.getLookupKey().keySet().stream())
+        .collect(ImmutableSortedSet.toImmutableSortedSet(Comparator.naturalOrder()));
+    for (DataSource source : DataSource.values()) {
+      m_genesBySource.put(source, f_guidelinePackages.stream()
+          .filter(p -> p.getGuideline().getSource().equalsIgnoreCase(source.getPharmgkbName()))
+          .flatMap(p -> p.getGenes().stream())
+          .filter(Objects::nonNull)
+          .collect(ImmutableSortedSet.toImmutableSortedSet(Comparator.naturalOrder())));
+      m_packagesByDataSource.put(source, f_guidelineMap.values().stream()
+          .filter(g -> g.getGuideline().getSource().equalsIgnoreCase(source.getPharmgkbName()))
+          .collect(ImmutableSet.toImmutableSet()));
+    }
+    for (PrescribingGuidanceSource source : PrescribingGuidanceSource.values()) {
+      m_packagesBySource.put(source, f_guidelineMap.values().stream()
+          .filter(g -> g.isDataSourceType(source))
+          .collect(ImmutableSet.toImmutableSet()));
+      m_chemicalsBySource.put(source, f_guidelineMap.values().stream()
+          .map(GuidelinePackage::getGuideline)
+          .filter(g -> g.getSource().equalsIgnoreCase(source.getPgkbSource().getPharmgkbName()) &&
+              g.getObjCls().equalsIgnoreCase(source.getPgkbObjectType()))
+          .flatMap(g -> g.getRelatedChemicals().stream())
+          .map(AccessionObject::getName)
+          .collect(ImmutableSet.toImmutableSet()));
+      SortedMap<String, List<GuidelinePackage>> drugMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      for (Map.Entry<String, Collection<GuidelinePackage>> entry : f_guidelineMap.asMap().entrySet()) {
+        List<GuidelinePackage> packages = entry.getValue().stream()
+            .filter(p -> p.isDataSourceType(source))
+            .collect(ImmutableList.toImmutableList());
+        if (!packages.isEmpty()) {
+          drugMap.put(entry.getKey(), packages);
+        }
+      }
+      m_packagesByDrug.put(source, Collections.unmodifiableSortedMap(drugMap));
+    }
   }
 
   public List<GuidelinePackage> getGuidelinePackages() {
@@ -69,9 +124,15 @@ public String getVersion() {
   }
 
   public List<GuidelinePackage> findGuidelinePackages(String chemicalName, PrescribingGuidanceSource source) {
-    return f_guidelineMap.get(chemicalName).stream()
-        .filter(p -> p.isDataSourceType(source))
-        .collect(Collectors.toList());
+    return m_packagesByDrug.get(source).getOrDefault(chemicalName, Collections.emptyList());
+  }
+
+  /**
+   * Gets the guideline packages from the given source, by drug name (case-insensitive).
+   * Drugs without any guideline packages from the source are not included.
+   */
+  public SortedMap<String, List<GuidelinePackage>> getGuidelinePackagesByDrug(PrescribingGuidanceSource source) {
+    return m_packagesByDrug.get(source);
   }
 
   public SortedSetMultimap<String,GuidelinePackage> getGuidelineMap() {
@@ -79,43 +140,23 @@ public SortedSetMultimap<String,GuidelinePackage> getGuidelineMap() {
   }
 
   public Set<GuidelinePackage> getGuidelinesFromSource(DataSource dataSource) {
-    return f_guidelineMap.values().stream()
-        .filter(g -> g.getGuideline().getSource().equalsIgnoreCase(dataSource.getPharmgkbName()))
-        .collect(Collectors.toSet());
+    return m_packagesByDataSource.get(dataSource);
   }
 
   public Set<GuidelinePackage> getGuidelinesFromSource(PrescribingGuidanceSource source) {
-    return f_guidelineMap.values().stream()
-        .filter(g -> g.isDataSourceType(source))
-        .collect(Collectors.toSet());
+    return m_packagesBySource.get(source);
   }
 
   public Set<String> getChemicalsUsedInSource(PrescribingGuidanceSource source) {
-    return f_guidelineMap.values().stream()
-        .map(GuidelinePackage::getGuideline)
-        .filter(g -> g.getSource().equalsIgnoreCase(source.getPgkbSource().getPharmgkbName()) && g.getObjCls().equalsIgnoreCase(source.getPgkbObjectType()))
-        .flatMap(g -> g.getRelatedChemicals().stream())
-        .map(AccessionObject::getName)
-        .collect(Collectors.toSet());
+    return m_chemicalsBySource.get(source);
   }
 
   public SortedSet<String> getGenesWithRecommendations() {
-    if (m_genes == null) {
-      m_genes = f_guidelinePackages.stream()
-          .flatMap(p -> p.getRecommendations().stream())
-          .filter(Objects::nonNull)
-          .flatMap(r -> r.getLookupKey().keySet().stream())
-          .collect(Collectors.toCollection(TreeSet::new));
-    }
     return m_genes;
   }
 
   public SortedSet<String> getGenesUsedInSource(DataSource source) {
-    return f_guidelinePackages.stream()
-        .filter(p -> p.getGuideline().getSource().equalsIgnoreCase(source.getPharmgkbName()))
-        .flatMap(p -> p.getGenes().stream())
-        .filter(Objects::nonNull)
-        .collect(Collectors.toCollection(TreeSet::new));
+    return m_genesBySource.get(source);
   }
 
 
@@ -0,0 +1,83 @@
+package org.pharmgkb.pharmcat.reporter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.pharmgkb.pharmcat.reporter.model.pgkb.RecommendationAnnotation;
+
+
+/**
+ * Index of the {@link RecommendationAnnotation}s for a drug in a guideline, by lookup key.
+ * <p>
+ * A recommendation matches a genotype's key if its lookup key is a subset of that key (see
+ * {@link RecommendationUtils#mapContains(Map, Map)}).  Recommendations in a guideline only use a handful of different
+ * sets of genes, so instead of testing every recommendation, this projects the genotype's key onto each set of genes
+ * and finds the matching recommendations by hash lookup.
+ *
+ * @author Mark Woon
+ */
+public class RecommendationIndex {
+  private final Map<Map<String, Object>, List<RecommendationAnnotation>> m_recommendations = new HashMap<>();
+  private final List<Set<String>> m_geneSets = new ArrayList<>();
+
+
+  /**
+   * Constructor.
+   *
+   * @param recommendations all recommendations in a guideline
+   * @param drugName only index recommendations that apply to this drug
+   */
+  public RecommendationIndex(Collection<RecommendationAnnotation> recommendations, String drugName) {
+    for (RecommendationAnnotation rec : recommendations) {
+      if (rec == null || !rec.appliesToDrug(drugName) || rec.getLookupKey() == null ||
+          rec.getLookupKey().isEmpty()) {
+        continue;
+      }
+      Map<String, Object> key = new HashMap<>(rec.getLookupKey());
+      m_recommendations.computeIfAbsent(key, k -> new ArrayList<>()).add(rec);
+      if (!m_geneSets.contains(key.keySet())) {
+        m_geneSets.add(Set.copyOf(key.keySet()));
+      }
+    }
+  }
+
+
+  /**
+   * Finds recommendations with a lookup key that is contained by {@code key}.
+   */
+  public Set<RecommendationAnnotation> find(Map<String, Object> key) {
+    Set<RecommendationAnnotation> matches = new LinkedHashSet<>();
+    if (key == null || key.isEmpty()) {
+      return matches;
+    }
+    for (Set<String> genes : m_geneSets) {
+      if (!key.keySet().containsAll(genes)) {
+        continue;
+      }
+      Map<String, Object> projection = new HashMap<>();
+      for (String gene : genes) {
+        projection.put(gene, key.get(gene));
+      }
+      List<RecommendationAnnotation> recs = m_recommendations.get(projection);
+      if (recs != null) {
+        matches.addAll(recs);
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Finds recommendations with a lookup key that is contained by any of the {@code keys}.
+   */
+  public Set<RecommendationAnnotation> find(Collection<Map<String, Object>> keys) {
+    Set<RecommendationAnnotation> matches = new LinkedHashSet<>();
+    for (Map<String, Object> key : keys) {
+      matches.addAll(find(key));
+    }
+    return matches;
+  }
+}
@@ -67,12 +67,10 @@ public ReportContext(Env env, SortedMap<DataSource, SortedMap<String, GeneReport
     for (PrescribingGuidanceSource dataSourceType : PrescribingGuidanceSource.values()) {
       Map<String, DrugReport> drugReports = m_drugReports.computeIfAbsent(dataSourceType, (s) -> new TreeMap<>());
       // go through all drugs, we iterate this way because one guideline may have multiple chemicals/drugs
-      for (String drugName : env.getDrugs().getGuidelineMap().keys()) {
-        List<GuidelinePackage> guidelinePackages = env.getDrugs().findGuidelinePackages(drugName, dataSourceType);
-        if (guidelinePackages != null && !guidelinePackages.isEmpty()) {
-          DrugReport newDrugReport = new DrugReport(drugName, guidelinePackages, this);
-          drugReports.put(drugName.toLowerCase(), newDrugReport);
-        }
+      for (Map.Entry<String, List<GuidelinePackage>> entry :
+          env.getDrugs().getGuidelinePackagesByDrug(dataSourceType).entrySet()) {
+        DrugReport newDrugReport = new DrugReport(entry.getKey(), entry.getValue(), this);
+        drugReports.put(entry.getKey().toLowerCase(), newDrugReport);
       }
     }
 
@@ -2,6 +2,7 @@
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -10,6 +11,7 @@
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pharmgkb.pharmcat.BaseConfig;
 import org.pharmgkb.pharmcat.Env;
 import org.pharmgkb.pharmcat.phenotype.Phenotyper;
@@ -46,93 +48,127 @@ public CallsOnlyFormat showMatchScores() {
   @Override
   public void write(ReportContext reportContext) throws IOException {
     try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(getOutputPath(), StandardCharsets.UTF_8))) {
-      writer.print("Gene\tDiplotype\tPhenotype\tActivity Score" +
-          "\tHaplotype 1\tHaplotype 1 Function\tHaplotype 1 Activity Value" +
-          "\tHaplotype 2\tHaplotype 2 Function\tHaplotype 2 Activity Value" +
-          "\tOutside Call\t");
-      if (m_showMatchScores) {
-        writer.print("Match Score\t");
-      }
-      writer.println("Missing positions?");
+      writer.println(getHeader(false));
+      printCalls(writer, reportContext, null);
+    }
+  }
 
-      for (String gene : getEnv().getDefinitionReader().getGenes()) {
-        GeneReport cpicReport = reportContext.getGeneReport(DataSource.CPIC, gene);
-        GeneReport dpwgReport = reportContext.getGeneReport(DataSource.DPWG, gene);
-        if ((cpicReport == null || !cpicReport.isCalled()) && (dpwgReport == null || !dpwgReport.isCalled())) {
-          continue;
-        }
 
-        GeneReport primary = (cpicReport == null || !cpicReport.isCalled()) ? dpwgReport : cpicReport;
-        for (Diplotype dip : primary.getSourceDiplotypes()) {
-          writer.print(gene);
+  /**
+   * Gets the header line.
+   *
+   * @param includeSample true if the first column should be the sample
+   */
+  public String getHeader(boolean includeSample) {
+    StringBuilder builder = new StringBuilder();
+    if (includeSample) {
+      builder.append("Sample\t");
+    }
+    builder.append("Gene\tDiplotype\tPhenotype\tActivity Score" +
+        "\tHaplotype 1\tHaplotype 1 Function\tHaplotype 1 Activity Value" +
+        "\tHaplotype 2\tHaplotype 2 Function\tHaplotype 2 Activity Value" +
+        "\tOutside Call\t");
+    if (m_showMatchScores) {
+      builder.append("Match Score\t");
+    }
+    builder.append("Missing positions?");
+    return builder.toString();
+  }
+
+  /**
+   * Gets the calls in {@code reportContext} as lines of TSV data, starting with a sample column.
+   * This is used to write calls for multiple samples to a single file.
+   */
+  public String getCalls(ReportContext reportContext, String sampleId) {
+    StringWriter stringWriter = new StringWriter();
+    try (PrintWriter writer = new PrintWriter(stringWriter)) {
+      printCalls(writer, reportContext, sampleId);
+    }
+    return stringWriter.toString();
+  }
+
+  private void printCalls(PrintWriter writer, ReportContext reportContext, @Nullable String sampleId) {
+    for (String gene : getEnv().getDefinitionReader().getGenes()) {
+      GeneReport cpicReport = reportContext.getGeneReport(DataSource.CPIC, gene);
+      GeneReport dpwgReport = reportContext.getGeneReport(DataSource.DPWG, gene);
+      if ((cpicReport == null || !cpicReport.isCalled()) && (dpwgReport == null || !dpwgReport.isCalled())) {
+        continue;
+      }
+
+      GeneReport primary = (cpicReport == null || !cpicReport.isCalled()) ? dpwgReport : cpicReport;
+      for (Diplotype dip : primary.getSourceDiplotypes()) {
+        if (sampleId != null) {
+          writer.print(sampleId);
           writer.print("\t");
-          // diplotype
-          if (dip.getAllele1() != null) {
-            writer.print(dip.getAllele1().getName());
-            if (dip.getAllele2() != null) {
-              writer.print("/");
-              writer.print(dip.getAllele2().getName());
-            }
+        }
+        writer.print(gene);
+        writer.print("\t");
+        // diplotype
+        if (dip.getAllele1() != null) {
+          writer.print(dip.getAllele1().getName());
+          if (dip.getAllele2() != null) {
+            writer.print("/");
+            writer.print(dip.getAllele2().getName());
           }
+        }
+        writer.print("\t");
+        // phenotype
+        if (!dip.getPhenotypes().isEmpty()) {
+          writer.print(dip.getPhenotypes().stream()
+              .filter(p -> !p.equals(TextConstants.NO_RESULT))
+              .collect(Collectors.joining(", ")));
+        }
+        writer.print("\t");
+        // activity score
+        if (dip.getActivityScore() != null) {
+          writer.print(dip.getActivityScore());
+        }
+        writer.print("\t");
+        // haplotype 1
+        if (dip.getAllele1() != null) {
+          writer.print(dip.getAllele1().getName());
           writer.print("\t");
-          // phenotype
-          if (!dip.getPhenotypes().isEmpty()) {
-            writer.print(dip.getPhenotypes().stream()
-                .filter(p -> !p.equals(TextConstants.NO_RESULT))
-                .collect(Collectors.joining(", ")));
+          if (dip.getAllele1().getFunction() != null) {
+            writer.print(dip.getAllele1().getFunction());
           }
           writer.print("\t");
-          // activity score
-          if (dip.getActivityScore() != null) {
-            writer.print(dip.getActivityScore());
+          if (dip.getAllele1().getActivityValue() != null &&
+              !dip.getAllele1().getActivityValue().equals(TextConstants.NA)) {
+            writer.print(dip.getAllele1().getActivityValue());
           }
+        } else {
           writer.print("\t");
-          // haplotype 1
-          if (dip.getAllele1() != null) {
-            writer.print(dip.getAllele1().getName());
-            writer.print("\t");
-            if (dip.getAllele1().getFunction() != null) {
-              writer.print(dip.getAllele1().getFunction());
-            }
-            writer.print("\t");
-            if (dip.getAllele1().getActivityValue() != null &&
-                !dip.getAllele1().getActivityValue().equals(TextConstants.NA)) {
-              writer.print(dip.getAllele1().getActivityValue());
-            }
-          } else {
-            writer.print("\t");
-            writer.print("\t");
+          writer.print("\t");
+        }
+        writer.print("\t");
+        // haplotype 2
+        if (dip.getAllele2() != null) {
+          writer.print(dip.getAllele2());
+          writer.print("\t");
+          if (dip.getAllele2().getFunction() != null) {
+            writer.print(dip.getAllele2().getFunction());
           }
           writer.print("\t");
-          // haplotype 2
-          if (dip.getAllele2() != null) {
-            writer.print(dip.getAllele2());
-            writer.print("\t");
-            if (dip.getAllele2().getFunction() != null) {
-              writer.print(dip.getAllele2().getFunction());
-            }
-            writer.print("\t");
-            if (dip.getAllele2().getActivityValue() != null &&
-                !dip.getAllele2().getActivityValue().equals(TextConstants.NA)) {
-              writer.print(dip.getAllele2().getActivityValue());
-            }
-          } else {
-            writer.print("\t");
-            writer.print("\t");
+          if (dip.getAllele2().getActivityValue() != null &&
+              !dip.getAllele2().getActivityValue().equals(TextConstants.NA)) {
+            writer.print(dip.getAllele2().getActivityValue());
           }
+        } else {
           writer.print("\t");
-          // outside call
-          writer.print(primary.isOutsideCall());
           writer.print("\t");
-          if (m_showMatchScores) {
-            // match score
-            writer.print(dip.getMatchScore());
-            writer.print("\t");
-          }
-          // missing positions
-          writer.print(primary.isMissingVariants());
-          writer.println();
         }
+        writer.print("\t");
+        // outside call
+        writer.print(primary.isOutsideCall());
+        writer.print("\t");
+        if (m_showMatchScores) {
+          // match score
+          writer.print(dip.getMatchScore());
+          writer.print("\t");
+        }
+        // missing positions
+        writer.print(primary.isMissingVariants());
+        writer.println();
       }
     }
   }
@@ -0,0 +1,165 @@
+package org.pharmgkb.pharmcat.reporter.format;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Writes the calls for all samples in a run to a single TSV file (see {@link CallsOnlyFormat}), instead of one file
+ * per sample.  The file is gzipped if its name ends with {@code .gz}.
+ * <p>
+ * Tasks can finish in any order, but each one is given a sequence number and rows are written in sequence order, so
+ * output is the same no matter how many tasks run concurrently.  Calls that arrive early are held until all earlier
+ * tasks have reported in.  All writing happens on a single background thread, so callers never block on I/O.
+ * <p>
+ * When the file is closed, calls still waiting on tasks that never reported in are written anyway, and the missing
+ * sequence numbers are logged.
+ *
+ * @author Mark Woon
+ */
+public class CohortCallsOnlyWriter implements Closeable {
+  private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private final Path m_file;
+  private final CallsOnlyFormat m_format;
+  private final BufferedWriter m_writer;
+  private final ExecutorService m_executor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "cohort-calls-writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+  // only accessed by writer thread
+  private final Map<Long, String> m_pending = new TreeMap<>();
+  private long m_nextSeq;
+  private volatile @Nullable IOException m_error;
+
+
+  /**
+   * Constructor.
+   *
+   * @param file the file to write to
+   * @param format used to generate the header and the calls for each task
+   * @param firstSeq the sequence number of the first task
+   */
+  public CohortCallsOnlyWriter(Path file, CallsOnlyFormat format, long firstSeq) throws IOException {
+    m_file = file;
+    m_format = format;
+    OutputStream out = Files.newOutputStream(file);
+    if (file.getFileName().toString().endsWith(".gz")) {
+      out = new GZIPOutputStream(out, 64 * 1024);
+    }
+    m_writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+    m_writer.write(format.getHeader(true));
+    m_writer.newLine();
+    m_nextSeq = firstSeq;
+  }
+
+
+  public Path getFile() {
+    return m_file;
+  }
+
+  /**
+   * Gets the format used to generate calls for this file.  It is shared by all tasks.
+   */
+  public CallsOnlyFormat getFormat() {
+    return m_format;
+  }
+
+
+  /**
+   * Adds the calls from a task.  This must be called exactly once for each sequence number, even if the task did not
+   * produce any calls.
+   *
+   * @param seq the task's sequence number
+   * @param calls lines of TSV data from {@link CallsOnlyFormat#getCalls}, or null if there is nothing to write
+   */
+  public void write(long seq, @Nullable String calls) throws IOException {
+    checkError();
+    m_executor.execute(() -> {
+      m_pending.put(seq, calls == null ? "" : calls);
+      try {
+        flushPending(false);
+      } catch (IOException ex) {
+        m_error = ex;
+      }
+    });
+  }
+
+  /**
+   * Writes out pending calls that are next in sequence.
+   *
+   * @param all write out all pending calls, even if there are gaps in the sequence (missing sequence numbers are
+   * logged)
+   */
+  private void flushPending(boolean all) throws IOException {
+    List<String> missing = new ArrayList<>();
+    while (!m_pending.isEmpty()) {
+      long seq = m_pending.keySet().iterator().next();
+      if (seq != m_nextSeq) {
+        if (!all) {
+          return;
+        }
+        missing.add(seq - 1 == m_nextSeq ? Long.toString(m_nextSeq) : m_nextSeq + "-" + (seq - 1));
+      }
+      m_writer.write(m_pending.remove(seq));
+      m_nextSeq = seq + 1;
+    }
+    if (!missing.isEmpty()) {
+      sf_logger.warn("Calls for task(s) {} never reported in and are missing from {}", String.join(", ", missing),
+          m_file);
+    }
+  }
+
+  private void checkError() throws IOException {
+    IOException error = m_error;
+    if (error != null) {
+      throw new IOException("Error writing to " + m_file, error);
+    }
+  }
+
+
+  /**
+   * Writes out everything that is pending, in sequence order, and closes the file.
+   */
+  @Override
+  public void close() throws IOException {
+    m_executor.execute(() -> {
+      try {
+        // tasks that never reported in shouldn't hold up the ones after them
+        flushPending(true);
+      } catch (IOException ex) {
+        m_error = ex;
+      }
+    });
+    m_executor.shutdown();
+    try {
+      if (!m_executor.awaitTermination(1, TimeUnit.HOURS)) {
+        throw new IOException("Timed out writing to " + m_file);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing to " + m_file, ex);
+    } finally {
+      m_writer.close();
+    }
+    checkError();
+  }
+}
@@ -2,8 +2,6 @@
 
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -17,6 +15,8 @@
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.Template;
+import com.github.jknack.handlebars.cache.ConcurrentMapTemplateCache;
 import com.github.jknack.handlebars.helper.StringHelpers;
 import com.github.jknack.handlebars.io.ClassPathTemplateLoader;
 import com.google.common.collect.HashMultimap;
@@ -25,6 +25,7 @@
 import com.google.common.collect.SortedSetMultimap;
 import com.google.common.collect.TreeMultimap;
 import org.apache.commons.lang3.StringUtils;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pharmgkb.pharmcat.Env;
 import org.pharmgkb.pharmcat.phenotype.model.GenePhenotype;
 import org.pharmgkb.pharmcat.reporter.ReportContext;
@@ -38,6 +39,7 @@
 import org.pharmgkb.pharmcat.reporter.model.result.DrugReport;
 import org.pharmgkb.pharmcat.reporter.model.result.GeneReport;
 import org.pharmgkb.pharmcat.reporter.model.result.GuidelineReport;
+import org.pharmgkb.pharmcat.util.DataSerializer;
 
 import static org.pharmgkb.pharmcat.Constants.isLowestFunctionGene;
 import static org.pharmgkb.pharmcat.reporter.caller.Slco1b1CustomCaller.isSlco1b1;
@@ -49,6 +51,8 @@
 public class HtmlFormat extends AbstractFormat {
   private static final String sf_templatePrefix = "/org/pharmgkb/pharmcat/reporter";
   private static final String sf_handlebarTemplateName = "report";
+  /** Compiled report template, shared by all reports since compiling it (and its partials) is expensive. */
+  private static volatile @Nullable Template s_template;
   private Set<DataSource> m_geneSources = ImmutableSet.of(DataSource.CPIC, DataSource.DPWG);
   private List<PrescribingGuidanceSource> m_sources = PrescribingGuidanceSource.listValues();
   private boolean m_compact;
@@ -84,13 +88,31 @@ public HtmlFormat compact(boolean compact) {
   public void write(ReportContext reportContext) throws IOException {
     Map<String, Object> reportData = compile(reportContext);
 
-    Handlebars handlebars = new Handlebars(new ClassPathTemplateLoader(sf_templatePrefix));
-    StringHelpers.register(handlebars);
-    handlebars.registerHelpers(ReportHelpers.class);
+    try (BufferedWriter writer = DataSerializer.newWriter(getOutputPath())) {
+      getTemplate().apply(reportData, writer);
+    }
+  }
 
-    try (BufferedWriter writer = Files.newBufferedWriter(getOutputPath(), StandardCharsets.UTF_8)) {
-      writer.write(handlebars.compile(sf_handlebarTemplateName).apply(reportData));
+  /**
+   * Gets the compiled report template, compiling it on first use.  Compiled templates are thread-safe.
+   */
+  private static Template getTemplate() throws IOException {
+    Template template = s_template;
+    if (template == null) {
+      synchronized (HtmlFormat.class) {
+        template = s_template;
+        if (template == null) {
+          Handlebars handlebars = new Handlebars(new ClassPathTemplateLoader(sf_templatePrefix))
+              // partials are compiled when they are first used, so cache them too
+              .with(new ConcurrentMapTemplateCache());
+          StringHelpers.register(handlebars);
+          handlebars.registerHelpers(ReportHelpers.class);
+          template = handlebars.compile(sf_handlebarTemplateName);
+          s_template = template;
+        }
+      }
     }
+    return template;
   }
 
   /**
@@ -1,9 +1,6 @@
 package org.pharmgkb.pharmcat.reporter.format;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import org.pharmgkb.pharmcat.Env;
 import org.pharmgkb.pharmcat.reporter.ReportContext;
@@ -14,15 +11,22 @@
  * A JSON-formatted version of {@link ReportContext} data.
  */
 public class JsonFormat extends AbstractFormat {
+  private boolean m_compact;
 
   public JsonFormat(Path outputPath, Env env) {
     super(outputPath, env);
   }
 
+  /**
+   * Sets whether to skip pretty printing.
+   */
+  public JsonFormat compact(boolean compact) {
+    m_compact = compact;
+    return this;
+  }
+
   @Override
   public void write(ReportContext reportContext) throws IOException {
-    try (BufferedWriter writer = Files.newBufferedWriter(getOutputPath(), StandardCharsets.UTF_8)) {
-      writer.write(DataSerializer.GSON.toJson(reportContext));
-    }
+    DataSerializer.toJson(reportContext, getOutputPath(), m_compact);
   }
 }
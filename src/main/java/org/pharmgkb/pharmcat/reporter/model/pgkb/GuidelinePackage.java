@@ -1,11 +1,15 @@
 package org.pharmgkb.pharmcat.reporter.model.pgkb;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
+import org.pharmgkb.pharmcat.reporter.RecommendationIndex;
 import org.pharmgkb.pharmcat.reporter.model.PrescribingGuidanceSource;
 
 
@@ -27,6 +31,8 @@ public class GuidelinePackage implements Comparable<GuidelinePackage> {
   @Expose
   @SerializedName("url")
   private String url;
+  /** Recommendation indexes by (lower case) drug name. */
+  private transient Map<String, RecommendationIndex> m_recommendationIndexes = Collections.emptyMap();
 
 
   /**
@@ -45,6 +51,30 @@ public List<RecommendationAnnotation> getRecommendations() {
     return recommendations;
   }
 
+  /**
+   * Builds a {@link RecommendationIndex} for each drug in this guideline.  This should be called once, before this
+   * package is shared between threads.
+   */
+  public void indexRecommendations() {
+    Map<String, RecommendationIndex> indexes = new HashMap<>();
+    for (String drug : getDrugs()) {
+      indexes.put(drug.toLowerCase(), new RecommendationIndex(recommendations, drug));
+    }
+    m_recommendationIndexes = indexes;
+  }
+
+  /**
+   * Gets the {@link RecommendationIndex} for recommendations that apply to the given drug.
+   */
+  public RecommendationIndex getRecommendationIndex(String drugName) {
+    RecommendationIndex index = m_recommendationIndexes.get(drugName.toLowerCase());
+    if (index == null) {
+      // not indexed (e.g. package was not loaded by PgkbGuidelineCollection)
+      index = new RecommendationIndex(recommendations, drugName);
+    }
+    return index;
+  }
+
   public boolean hasRecommendations() {
     return guideline.isRecommendation() && recommendations != null && !recommendations.isEmpty();
   }
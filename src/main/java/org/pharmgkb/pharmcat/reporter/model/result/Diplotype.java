@@ -101,6 +101,41 @@ private Diplotype() {
    * Mainly used to create diplotypes from custom callers.
    */
   public Diplotype(String gene, Haplotype h1, @Nullable Haplotype h2, Env env, DataSource source) {
+    if (env.isCachedHaplotype(h1, source) && (h2 == null || env.isCachedHaplotype(h2, source))) {
+      copyPhenotype(env.getPhenotypedDiplotype(gene, h1.getName(), h2 == null ? null : h2.getName(), source));
+    } else {
+      phenotype(gene, h1, h2, env, source);
+    }
+  }
+
+  /**
+   * Public constructor.
+   * Mainly used to create diplotypes from {@link NamedAlleleMatcher}.
+   */
+  public Diplotype(String gene, String hap1, @Nullable String hap2, Env env, DataSource source, int matchScore) {
+    copyPhenotype(env.getPhenotypedDiplotype(gene, hap1, hap2, source));
+    m_matchScore = matchScore;
+  }
+
+  /**
+   * Makes a new, uncached, diplotype.
+   * <p>
+   * NOT PART OF PUBLIC API.  Only used by {@link Env} to build the diplotypes it caches; everything else should use a
+   * constructor.
+   */
+  public static Diplotype newPhenotypedDiplotype(String gene, Haplotype h1, @Nullable Haplotype h2, Env env,
+      DataSource source) {
+    Diplotype diplotype = new Diplotype();
+    diplotype.phenotype(gene, h1, h2, env, source);
+    // cached diplotypes are shared, so make sure they can't be modified
+    diplotype.m_phenotypes = Collections.unmodifiableList(diplotype.m_phenotypes);
+    diplotype.m_lookupKeys = diplotype.m_phenotypes == diplotype.m_lookupKeys ? diplotype.m_phenotypes :
+        Collections.unmodifiableList(diplotype.m_lookupKeys);
+    diplotype.m_diplotypeKey = Collections.unmodifiableSortedMap(diplotype.m_diplotypeKey);
+    return diplotype;
+  }
+
+  private void phenotype(String gene, Haplotype h1, @Nullable Haplotype h2, Env env, DataSource source) {
     m_gene = gene;
     m_phenotypeDataSource = source;
     m_allele1 = h1;
@@ -114,21 +149,18 @@ public Diplotype(String gene, Haplotype h1, @Nullable Haplotype h2, Env env, Dat
   }
 
   /**
-   * Public constructor.
-   * Mainly used to create diplotypes from {@link NamedAlleleMatcher}.
+   * Copies phenotype data from a cached diplotype.  The copied collections are unmodifiable and shared.
    */
-  public Diplotype(String gene, String hap1, @Nullable String hap2, Env env, DataSource source, int matchScore) {
-    m_gene = gene;
-    m_phenotypeDataSource = source;
-    m_allele1 = env.makeHaplotype(gene, hap1, source);
-    m_allele2 = hap2 == null ? null : env.makeHaplotype(gene, hap2, source);
-    m_matchScore = matchScore;
-    annotateDiplotype(env.getPhenotype(m_gene, source));
-    m_label = buildLabel(false);
-    addAlleleToDiplotypeKey(hap1);
-    if (hap2 != null) {
-      addAlleleToDiplotypeKey(hap2);
-    }
+  private void copyPhenotype(Diplotype cached) {
+    m_gene = cached.m_gene;
+    m_phenotypeDataSource = cached.m_phenotypeDataSource;
+    m_allele1 = cached.m_allele1;
+    m_allele2 = cached.m_allele2;
+    m_phenotypes = cached.m_phenotypes;
+    m_activityScore = cached.m_activityScore;
+    m_lookupKeys = cached.m_lookupKeys;
+    m_label = cached.m_label;
+    m_diplotypeKey = cached.m_diplotypeKey;
   }
 
   /**
@@ -620,8 +652,7 @@ else if (isUnknownAlleles()) {
   }
 
   private String lookupKeys(String keyType, GenePhenotype gp, Map<String, Integer> lookupMap) {
-    Set<String> keys = gp.getDiplotypes().stream()
-        .filter(d -> d.getDiplotypeKey().equals(lookupMap))
+    Set<String> keys = gp.findDiplotypes(lookupMap).stream()
         .map(DiplotypeRecord::getLookupKey)
         .filter(Objects::nonNull)
         .collect(Collectors.toSet());
@@ -640,8 +671,7 @@ private String lookupPhenotypesByDiplotype(GenePhenotype gp, Map<String, Integer
     if (isUnknownAlleles()) {
       return TextConstants.NO_RESULT;
     }
-    SortedSet<String> keys = gp.getDiplotypes().stream()
-        .filter(d -> d.getDiplotypeKey().equals(lookupMap))
+    SortedSet<String> keys = gp.findDiplotypes(lookupMap).stream()
         .map(DiplotypeRecord::getGeneResult)
         .filter(Objects::nonNull)
         .collect(Collectors.toCollection(TreeSet::new));
@@ -659,8 +689,7 @@ private String lookupActivityByDiplotype(GenePhenotype gp, Map<String, Integer>
     if (isUnknownAlleles()) {
       return TextConstants.NO_RESULT;
     }
-    SortedSet<String> keys = gp.getDiplotypes().stream()
-        .filter(d -> d.getDiplotypeKey().equals(lookupMap))
+    SortedSet<String> keys = gp.findDiplotypes(lookupMap).stream()
         .map(DiplotypeRecord::getActivityScore)
         .filter(Objects::nonNull)
         .collect(Collectors.toCollection(TreeSet::new));
@@ -2,7 +2,7 @@
 
 import java.util.Collection;
 import java.util.List;
-import java.util.Objects;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import com.google.common.collect.HashMultimap;
@@ -10,6 +10,7 @@
 import com.google.gson.annotations.SerializedName;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.pharmgkb.common.util.ComparisonChain;
+import org.pharmgkb.pharmcat.reporter.RecommendationIndex;
 import org.pharmgkb.pharmcat.reporter.ReportContext;
 import org.pharmgkb.pharmcat.reporter.model.DataSource;
 import org.pharmgkb.pharmcat.reporter.model.PrescribingGuidanceSource;
@@ -145,21 +146,13 @@ public boolean isFda() {
 
   private void matchAnnotations(GuidelinePackage guidelinePackage, String drugName) {
     HashMultimap<RecommendationAnnotation, Genotype> matchedGenotypes = HashMultimap.create();
+    RecommendationIndex index = guidelinePackage.getRecommendationIndex(drugName);
     for (Genotype genotype : m_recommendationGenotypes) {
-      boolean matchedDiplotype = false;
-      for (RecommendationAnnotation rec : guidelinePackage.getRecommendations()) {
-        if (rec != null && rec.appliesToDrug(drugName) && rec.matchesDiplotype(genotype)) {
-          matchedGenotypes.put(rec, genotype);
-          matchedDiplotype = true;
-        }
-      }
-      if (!matchedDiplotype) {
-        guidelinePackage.getRecommendations().stream()
-            .filter(Objects::nonNull)
-            .filter(rec -> rec.appliesToDrug(drugName))
-            .filter(rec -> rec.matchesGenotype(genotype))
-            .forEach(rec -> matchedGenotypes.put(rec, genotype));
+      Set<RecommendationAnnotation> recs = index.find(genotype.getDiplotypeKey());
+      if (recs.isEmpty()) {
+        recs = index.find(genotype.getLookupKeys());
       }
+      recs.forEach(rec -> matchedGenotypes.put(rec, genotype));
     }
     if (drugName.equals("warfarin") && m_source == PrescribingGuidanceSource.CPIC_GUIDELINE) {
       AnnotationReport ann = AnnotationReport.forCpicWarfarin(m_recommendationGenotypes);
@@ -0,0 +1,297 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import com.google.common.base.Preconditions;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+
+/**
+ * This {@link InputStream} decompresses BGZF (blocked gzip) data, inflating blocks in parallel.
+ * <p>
+ * BGZF files (e.g. {@code .vcf.bgz} files produced by {@code bgzip}) are a series of independent gzip members of at
+ * most 64KB each, whose size is recorded in a {@code BC} extra subfield.  This stream reads compressed blocks
+ * sequentially, hands them off to a pool of worker threads, and returns the decompressed data in the original order.
+ * The number of blocks in flight is bounded, so memory use does not depend on the size of the file.
+ * <p>
+ * By default, all streams share a single, bounded pool of daemon threads that exit when idle, so streams that are
+ * never closed do not hold on to any threads.
+ * <p>
+ * Use {@link #open(InputStream)} to fall back to {@link GZIPInputStream} for plain gzip data.
+ *
+ * @author Mark Woon
+ */
+public class BgzfInputStream extends InputStream {
+  private static final int HEADER_SIZE = 18;
+  private static final int TRAILER_SIZE = 8;
+  private static final int MAX_BLOCK_SIZE = 65536;
+  /** Maximum number of threads in the shared pool. */
+  private static final int DEFAULT_MAX_THREADS = 4;
+  /** Maximum number of blocks each stream has in flight. */
+  private static final int MAX_IN_FLIGHT = DEFAULT_MAX_THREADS * 4;
+  private final InputStream m_in;
+  private final Executor m_executor;
+  private final Deque<Future<byte[]>> m_blocks = new ArrayDeque<>();
+  private boolean m_rawEof;
+  private byte[] m_buffer = new byte[0];
+  private int m_bufferPos;
+  private boolean m_closed;
+
+
+  /**
+   * Constructor.
+   * Decompresses blocks using a pool of up to {@value #DEFAULT_MAX_THREADS} threads (depending on the number of
+   * available processors) that is shared by all streams.
+   *
+   * @param in BGZF-compressed data
+   */
+  public BgzfInputStream(InputStream in) {
+    this(in, SharedPool.EXECUTOR);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param in BGZF-compressed data
+   * @param executor the executor to decompress blocks with, which is not shut down when this stream is closed
+   */
+  public BgzfInputStream(InputStream in, Executor executor) {
+    Preconditions.checkNotNull(in);
+    Preconditions.checkNotNull(executor);
+    m_in = in;
+    m_executor = executor;
+  }
+
+
+  /**
+   * Opens gzipped data, using a {@link BgzfInputStream} if the data is BGZF-compressed and a {@link GZIPInputStream}
+   * otherwise.
+   */
+  public static InputStream open(InputStream in) throws IOException {
+    BufferedInputStream bis = new BufferedInputStream(in);
+    bis.mark(HEADER_SIZE);
+    byte[] header = bis.readNBytes(HEADER_SIZE);
+    bis.reset();
+    if (isBgzfHeader(header)) {
+      return new BgzfInputStream(bis);
+    }
+    return new GZIPInputStream(bis);
+  }
+
+  /**
+   * Checks if {@code header} is the start of a BGZF block.
+   */
+  static boolean isBgzfHeader(byte[] header) {
+    return header.length >= HEADER_SIZE &&
+        (header[0] & 0xff) == 31 && (header[1] & 0xff) == 139 && header[2] == 8 &&
+        // only FEXTRA
+        header[3] == 4 &&
+        // XLEN = 6, with BC subfield of length 2
+        readShort(header, 10) == 6 && header[12] == 'B' && header[13] == 'C' && readShort(header, 14) == 2;
+  }
+
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureBuffer()) {
+      return -1;
+    }
+    return m_buffer[m_bufferPos++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    Preconditions.checkPositionIndexes(off, off + len, b.length);
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureBuffer()) {
+      return -1;
+    }
+    int numRead = Math.min(len, m_buffer.length - m_bufferPos);
+    System.arraycopy(m_buffer, m_bufferPos, b, off, numRead);
+    m_bufferPos += numRead;
+    return numRead;
+  }
+
+  @Override
+  public int available() throws IOException {
+    if (m_closed) {
+      throw new IOException("Stream closed");
+    }
+    return m_buffer.length - m_bufferPos;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (m_closed) {
+      return;
+    }
+    m_closed = true;
+    for (Future<byte[]> future : m_blocks) {
+      future.cancel(true);
+    }
+    m_blocks.clear();
+    m_in.close();
+  }
+
+
+  /**
+   * Makes sure there is data in the buffer.
+   *
+   * @return false if there is no more data
+   */
+  private boolean ensureBuffer() throws IOException {
+    if (m_closed) {
+      throw new IOException("Stream closed");
+    }
+    while (m_bufferPos >= m_buffer.length) {
+      fillPipeline();
+      Future<byte[]> next = m_blocks.poll();
+      if (next == null) {
+        return false;
+      }
+      m_buffer = await(next);
+      m_bufferPos = 0;
+      // keep workers busy while caller consumes this block
+      fillPipeline();
+    }
+    return true;
+  }
+
+  /**
+   * Reads compressed blocks and submits them for decompression until the maximum number of blocks is in flight.
+   */
+  private void fillPipeline() throws IOException {
+    while (!m_rawEof && m_blocks.size() < MAX_IN_FLIGHT) {
+      byte[] block = readRawBlock(m_in);
+      if (block == null) {
+        m_rawEof = true;
+      } else {
+        FutureTask<byte[]> task = new FutureTask<>(() -> inflate(block));
+        m_executor.execute(task);
+        m_blocks.add(task);
+      }
+    }
+  }
+
+  private byte[] await(Future<byte[]> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while decompressing BGZF block");
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException ioe) {
+        throw ioe;
+      }
+      throw new IOException("Error decompressing BGZF block", ex.getCause());
+    }
+  }
+
+
+  /**
+   * Reads the next compressed BGZF block, including its header and trailer.
+   *
+   * @return the raw block or null if there are no more blocks
+   */
+  static byte @Nullable [] readRawBlock(InputStream in) throws IOException {
+    byte[] header = in.readNBytes(HEADER_SIZE);
+    if (header.length == 0) {
+      return null;
+    }
+    if (!isBgzfHeader(header)) {
+      throw new IOException("Invalid BGZF block header");
+    }
+    int blockSize = readShort(header, 16) + 1;
+    if (blockSize < HEADER_SIZE + TRAILER_SIZE) {
+      throw new IOException("Invalid BGZF block size: " + blockSize);
+    }
+    byte[] block = Arrays.copyOf(header, blockSize);
+    int remaining = blockSize - HEADER_SIZE;
+    if (in.readNBytes(block, HEADER_SIZE, remaining) != remaining) {
+      throw new EOFException("Unexpected end of BGZF data");
+    }
+    return block;
+  }
+
+  /**
+   * Decompresses a raw BGZF block.
+   */
+  static byte[] inflate(byte[] block) throws IOException {
+    int trailerStart = block.length - TRAILER_SIZE;
+    long expectedCrc = readInt(block, trailerStart);
+    int size = (int)readInt(block, trailerStart + 4);
+    if (size > MAX_BLOCK_SIZE) {
+      throw new IOException("Invalid BGZF uncompressed block size: " + size);
+    }
+    byte[] data = new byte[size];
+    if (size == 0) {
+      // EOF marker
+      return data;
+    }
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(block, HEADER_SIZE, trailerStart - HEADER_SIZE);
+      int numInflated = inflater.inflate(data);
+      if (numInflated != size || !inflater.finished()) {
+        throw new IOException("BGZF block size mismatch");
+      }
+    } catch (DataFormatException ex) {
+      throw new IOException("Invalid BGZF block data", ex);
+    } finally {
+      inflater.end();
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    if (crc.getValue() != expectedCrc) {
+      throw new IOException("BGZF block CRC mismatch");
+    }
+    return data;
+  }
+
+
+  private static int readShort(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8);
+  }
+
+  private static long readInt(byte[] bytes, int offset) {
+    return (readShort(bytes, offset) | ((long)readShort(bytes, offset + 2) << 16));
+  }
+
+
+  /**
+   * Lazily initialized pool shared by all streams.
+   */
+  private static class SharedPool {
+    private static final ThreadPoolExecutor EXECUTOR;
+
+    static {
+      int numThreads = Math.min(DEFAULT_MAX_THREADS, Runtime.getRuntime().availableProcessors());
+      EXECUTOR = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+          r -> {
+            Thread thread = new Thread(r, "bgzf-inflater");
+            thread.setDaemon(true);
+            return thread;
+          });
+      EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import com.google.common.base.Preconditions;
+
+
+/**
+ * This {@link InputStream} decompresses only the specified chunks of a BGZF file, seeking past everything else.
+ * <p>
+ * Chunks are usually obtained from a {@link VcfIndex} and should be sorted and non-overlapping (see
+ * {@link VcfIndex#merge}).
+ *
+ * @author Mark Woon
+ */
+public class BgzfRegionInputStream extends InputStream {
+  private final SeekableByteChannel m_channel;
+  private final Iterator<VcfIndex.Chunk> m_chunks;
+  private InputStream m_in;
+  /** Virtual offset of the end of the current chunk. */
+  private long m_chunkEnd;
+  /** File offset of the current block. */
+  private long m_blockAddress = -1;
+  /** File offset of the block after the current block. */
+  private long m_nextBlockAddress;
+  private byte[] m_buffer = new byte[0];
+  private int m_bufferPos;
+  /** Position in buffer at which to stop reading. */
+  private int m_bufferEnd;
+  private boolean m_inChunk;
+
+
+  public BgzfRegionInputStream(Path bgzfFile, List<VcfIndex.Chunk> chunks) throws IOException {
+    Preconditions.checkNotNull(chunks);
+    m_channel = Files.newByteChannel(bgzfFile);
+    m_chunks = chunks.iterator();
+  }
+
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureBuffer()) {
+      return -1;
+    }
+    return m_buffer[m_bufferPos++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    Preconditions.checkPositionIndexes(off, off + len, b.length);
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureBuffer()) {
+      return -1;
+    }
+    int numRead = Math.min(len, m_bufferEnd - m_bufferPos);
+    System.arraycopy(m_buffer, m_bufferPos, b, off, numRead);
+    m_bufferPos += numRead;
+    return numRead;
+  }
+
+  @Override
+  public void close() throws IOException {
+    m_channel.close();
+  }
+
+
+  /**
+   * Makes sure there is data in the buffer.
+   *
+   * @return false if there is no more data
+   */
+  private boolean ensureBuffer() throws IOException {
+    while (m_bufferPos >= m_bufferEnd) {
+      if (m_inChunk && m_nextBlockAddress < (m_chunkEnd >>> 16)) {
+        // continue to next block in chunk
+        loadBlock(m_nextBlockAddress);
+        m_bufferPos = 0;
+      } else if (m_inChunk && m_nextBlockAddress == (m_chunkEnd >>> 16) && (m_chunkEnd & 0xffff) > 0) {
+        // chunk ends partway into next block
+        loadBlock(m_nextBlockAddress);
+        m_bufferPos = 0;
+      } else {
+        if (!m_chunks.hasNext()) {
+          return false;
+        }
+        VcfIndex.Chunk chunk = m_chunks.next();
+        m_chunkEnd = chunk.end();
+        m_inChunk = true;
+        long address = chunk.start() >>> 16;
+        int offset = (int)(chunk.start() & 0xffff);
+        if (address != m_blockAddress) {
+          loadBlock(address);
+        }
+        m_bufferPos = Math.min(offset, m_buffer.length);
+      }
+      m_bufferEnd = m_buffer.length;
+      if (m_blockAddress == (m_chunkEnd >>> 16)) {
+        m_bufferEnd = Math.min(m_buffer.length, (int)(m_chunkEnd & 0xffff));
+      }
+    }
+    return true;
+  }
+
+  private void loadBlock(long address) throws IOException {
+    if (m_in == null || address != m_nextBlockAddress) {
+      m_channel.position(address);
+      m_in = new BufferedInputStream(Channels.newInputStream(m_channel));
+    }
+    byte[] block = BgzfInputStream.readRawBlock(m_in);
+    if (block == null) {
+      throw new EOFException("Unexpected end of BGZF data at offset " + address);
+    }
+    m_buffer = BgzfInputStream.inflate(block);
+    m_blockAddress = address;
+    m_nextBlockAddress = address + block.length;
+  }
+}
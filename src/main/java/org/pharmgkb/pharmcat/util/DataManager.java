@@ -31,7 +31,6 @@
 import org.pharmgkb.pharmcat.definition.model.InternalWrapper;
 import org.pharmgkb.pharmcat.definition.model.NamedAllele;
 import org.pharmgkb.pharmcat.phenotype.PhenotypeMap;
-import org.pharmgkb.pharmcat.phenotype.model.DiplotypeRecord;
 import org.pharmgkb.pharmcat.phenotype.model.GenePhenotype;
 import org.pharmgkb.pharmcat.reporter.MessageHelper;
 import org.pharmgkb.pharmcat.reporter.PgkbGuidelineCollection;
@@ -432,15 +431,15 @@ private static void validatePhenotypes(PhenotypeMap phenotypeMap) {
   }
 
   private static void checkForDuplicatePhenotypeKeys(GenePhenotype gp, DataSource source) {
-    Set<String> keys = new HashSet<>();
-    for (DiplotypeRecord dr : gp.getDiplotypes()) {
-      String key = dr.getDiplotypeKey().keySet().stream()
+    // GenePhenotype finds these when it indexes its diplotypes
+    Set<Map<String, Integer>> ambiguousKeys = gp.getAmbiguousDiplotypeKeys();
+    if (!ambiguousKeys.isEmpty()) {
+      Map<String, Integer> diplotypeKey = ambiguousKeys.iterator().next();
+      String key = diplotypeKey.keySet().stream()
           .sorted()
-          .map(h -> h + " (" + dr.getDiplotypeKey().get(h) + ")")
+          .map(h -> h + " (" + diplotypeKey.get(h) + ")")
           .collect(Collectors.joining("/"));
-      if (!keys.add(key)) {
-        throw new IllegalStateException("Duplicate key: " + key + " for " + gp.getGene() + " from " + source);
-      }
+      throw new IllegalStateException("Duplicate key: " + key + " for " + gp.getGene() + " from " + source);
     }
   }
 
@@ -3,6 +3,8 @@
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -14,6 +16,8 @@
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Sets;
@@ -34,18 +38,78 @@
  * @author Mark Woon
  */
 public class DataSerializer {
-  public static final Gson GSON = new GsonBuilder()
-      .serializeNulls()
-      .disableHtmlEscaping()
-      .excludeFieldsWithoutExposeAnnotation()
-      .registerTypeAdapter(Date.class, new GsonDateAdapter())
+  public static final Gson GSON = newGsonBuilder()
       .setPrettyPrinting()
       .create();
+  /**
+   * Same as {@link #GSON} but without pretty printing, for smaller output.
+   */
+  public static final Gson GSON_COMPACT = newGsonBuilder()
+      .create();
   private static final Pattern sf_rsidPattern = Pattern.compile("rs\\d+");
   private static final Splitter sf_commaSplitter = Splitter.on(",").trimResults().omitEmptyStrings();
 
 
 
+  private static GsonBuilder newGsonBuilder() {
+    return new GsonBuilder()
+        .serializeNulls()
+        .disableHtmlEscaping()
+        .excludeFieldsWithoutExposeAnnotation()
+        .registerTypeAdapter(Date.class, new GsonDateAdapter());
+  }
+
+
+  /**
+   * Checks if {@code file} should be gzipped, based on its name.
+   */
+  public static boolean isGzipped(Path file) {
+    return file.getFileName().toString().endsWith(".gz");
+  }
+
+  /**
+   * Checks if {@code file} has the given extension, optionally followed by {@code .gz}.
+   */
+  public static boolean hasExtension(Path file, String extension) {
+    String name = file.getFileName().toString();
+    return name.endsWith(extension) || name.endsWith(extension + ".gz");
+  }
+
+  /**
+   * Opens a UTF-8 writer to {@code file}, gzipping output if the filename ends with {@code .gz}.
+   */
+  public static BufferedWriter newWriter(Path file) throws IOException {
+    if (isGzipped(file)) {
+      return new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file), 64 * 1024),
+          StandardCharsets.UTF_8), 64 * 1024);
+    }
+    return Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Opens a UTF-8 reader for {@code file}, decompressing it if the filename ends with {@code .gz}.
+   */
+  public static BufferedReader newReader(Path file) throws IOException {
+    if (isGzipped(file)) {
+      return new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file), 64 * 1024),
+          StandardCharsets.UTF_8), 64 * 1024);
+    }
+    return Files.newBufferedReader(file, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Streams {@code data} as JSON to {@code file} without building the whole document in memory.
+   * Output is gzipped if the filename ends with {@code .gz}.
+   *
+   * @param compact true to skip pretty printing
+   */
+  public static void toJson(Object data, Path file, boolean compact) throws IOException {
+    try (BufferedWriter writer = newWriter(file)) {
+      (compact ? GSON_COMPACT : GSON).toJson(data, writer);
+    }
+  }
+
+
   public static void serializeToJson(Object data, Path jsonFile) throws IOException {
     Preconditions.checkNotNull(jsonFile);
     Preconditions.checkArgument(jsonFile.toString().endsWith(".json"), "Invalid format: %s does not end with .json", jsonFile);
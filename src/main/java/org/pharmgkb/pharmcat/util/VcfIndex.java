@@ -0,0 +1,263 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+
+/**
+ * This class reads tabix ({@code .tbi}) and CSI ({@code .csi}) indexes for bgzipped VCF files and looks up the
+ * BGZF chunks that overlap genomic regions.
+ * <p>
+ * Chunk boundaries are BGZF virtual file offsets: the offset of the compressed block in the upper 48 bits and the
+ * offset within the uncompressed block in the lower 16 bits.
+ *
+ * @author Mark Woon
+ */
+public class VcfIndex {
+  private static final int TABIX_MIN_SHIFT = 14;
+  private static final int TABIX_DEPTH = 5;
+  private final int m_minShift;
+  private final int m_depth;
+  private final boolean m_isCsi;
+  private final Map<String, Integer> m_sequenceIdx = new HashMap<>();
+  private final List<Map<Integer, long[]>> m_bins = new ArrayList<>();
+  /** Linear index (only used by tabix) or the per-bin lowest record offsets (only used by CSI). */
+  private final List<Map<Integer, Long>> m_binOffsets = new ArrayList<>();
+  private final List<long[]> m_linearIndex = new ArrayList<>();
+
+
+  private VcfIndex(ByteBuffer buffer) throws IOException {
+    byte[] magic = new byte[4];
+    buffer.get(magic);
+    String magicStr = new String(magic, 0, 3, StandardCharsets.US_ASCII);
+    if (magic[3] != 1 || !(magicStr.equals("TBI") || magicStr.equals("CSI"))) {
+      throw new IOException("Not a tabix or CSI index");
+    }
+    m_isCsi = magicStr.equals("CSI");
+
+    int numRefs;
+    if (m_isCsi) {
+      m_minShift = buffer.getInt();
+      m_depth = buffer.getInt();
+      int auxLength = buffer.getInt();
+      int auxEnd = buffer.position() + auxLength;
+      if (auxLength >= 28) {
+        readSequenceNames(buffer);
+      }
+      buffer.position(auxEnd);
+      numRefs = buffer.getInt();
+    } else {
+      m_minShift = TABIX_MIN_SHIFT;
+      m_depth = TABIX_DEPTH;
+      numRefs = buffer.getInt();
+      readSequenceNames(buffer);
+    }
+
+    for (int x = 0; x < numRefs; x += 1) {
+      Map<Integer, long[]> bins = new HashMap<>();
+      Map<Integer, Long> binOffsets = new HashMap<>();
+      int numBins = buffer.getInt();
+      for (int y = 0; y < numBins; y += 1) {
+        int bin = buffer.getInt();
+        if (m_isCsi) {
+          binOffsets.put(bin, buffer.getLong());
+        }
+        int numChunks = buffer.getInt();
+        long[] chunks = new long[numChunks * 2];
+        for (int z = 0; z < chunks.length; z += 1) {
+          chunks[z] = buffer.getLong();
+        }
+        bins.put(bin, chunks);
+      }
+      m_bins.add(bins);
+      m_binOffsets.add(binOffsets);
+      if (!m_isCsi) {
+        long[] intervals = new long[buffer.getInt()];
+        for (int y = 0; y < intervals.length; y += 1) {
+          intervals[y] = buffer.getLong();
+        }
+        m_linearIndex.add(intervals);
+      }
+    }
+  }
+
+  private void readSequenceNames(ByteBuffer buffer) {
+    // format, col_seq, col_beg, col_end, meta, skip
+    buffer.position(buffer.position() + 24);
+    byte[] names = new byte[buffer.getInt()];
+    buffer.get(names);
+    int start = 0;
+    for (int x = 0; x < names.length; x += 1) {
+      if (names[x] == 0) {
+        m_sequenceIdx.put(new String(names, start, x - start, StandardCharsets.UTF_8), m_sequenceIdx.size());
+        start = x + 1;
+      }
+    }
+  }
+
+
+  /**
+   * Finds the index for a bgzipped VCF file.
+   *
+   * @return the {@code .tbi} or {@code .csi} file next to {@code vcfFile}, or null if there isn't one
+   */
+  public static @Nullable Path findIndex(Path vcfFile) {
+    for (String ext : new String[] { ".tbi", ".csi" }) {
+      Path file = vcfFile.resolveSibling(vcfFile.getFileName() + ext);
+      if (Files.isRegularFile(file)) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reads a tabix or CSI index.
+   */
+  public static VcfIndex read(Path indexFile) throws IOException {
+    byte[] data;
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(indexFile))) {
+      data = in.readAllBytes();
+    }
+    try {
+      return new VcfIndex(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN));
+    } catch (BufferUnderflowException | BufferOverflowException | IllegalArgumentException ex) {
+      throw new IOException("Invalid index file: " + indexFile, ex);
+    }
+  }
+
+
+  /**
+   * Checks if the index has data for the specified sequence (i.e. chromosome).
+   */
+  public boolean hasSequence(String chr) {
+    return m_sequenceIdx.containsKey(chr);
+  }
+
+  /**
+   * Gets the chunks that may contain records overlapping the specified region.
+   *
+   * @param chr the sequence (i.e. chromosome) name
+   * @param start 0-based start position (inclusive)
+   * @param end 0-based end position (exclusive)
+   */
+  public List<Chunk> query(String chr, long start, long end) {
+    Integer refIdx = m_sequenceIdx.get(chr);
+    List<Chunk> chunks = new ArrayList<>();
+    if (refIdx == null || refIdx >= m_bins.size() || start >= end) {
+      return chunks;
+    }
+    long minOffset = 0;
+    if (!m_isCsi) {
+      long[] intervals = m_linearIndex.get(refIdx);
+      if (intervals.length > 0) {
+        minOffset = intervals[(int)Math.min(start >> TABIX_MIN_SHIFT, intervals.length - 1)];
+      }
+    }
+    Map<Integer, long[]> bins = m_bins.get(refIdx);
+    Map<Integer, Long> binOffsets = m_binOffsets.get(refIdx);
+    for (int bin : regionToBins(start, end)) {
+      long[] binChunks = bins.get(bin);
+      if (binChunks == null) {
+        continue;
+      }
+      if (m_isCsi) {
+        // records overlapping the start of the region cannot be before the offset of its lowest level bin
+        Long offset = binOffsets.get(bin);
+        if (offset != null && bin == regionToBin(start)) {
+          minOffset = Math.max(minOffset, offset);
+        }
+      }
+      for (int x = 0; x < binChunks.length; x += 2) {
+        chunks.add(new Chunk(binChunks[x], binChunks[x + 1]));
+      }
+    }
+    final long min = minOffset;
+    return chunks.stream()
+        .filter(c -> c.end() > min)
+        .map(c -> c.start() < min ? new Chunk(min, c.end()) : c)
+        .toList();
+  }
+
+  /**
+   * Gets the bins that overlap the specified 0-based, half-open region.
+   */
+  private List<Integer> regionToBins(long start, long end) {
+    List<Integer> bins = new ArrayList<>();
+    int shift = m_minShift + m_depth * 3;
+    long maxEnd = 1L << shift;
+    if (end > maxEnd) {
+      end = maxEnd;
+    }
+    end -= 1;
+    int offset = 0;
+    for (int level = 0; level <= m_depth; level += 1) {
+      for (long bin = offset + (start >> shift); bin <= offset + (end >> shift); bin += 1) {
+        bins.add((int)bin);
+      }
+      shift -= 3;
+      offset += 1 << (level * 3);
+    }
+    return bins;
+  }
+
+  /**
+   * Gets the lowest level bin containing the specified 0-based position.
+   */
+  private int regionToBin(long pos) {
+    int offset = ((1 << (m_depth * 3)) - 1) / 7;
+    return (int)(offset + (pos >> m_minShift));
+  }
+
+
+  /**
+   * Sorts chunks and merges those that overlap or are adjacent.
+   */
+  public static List<Chunk> merge(Collection<Chunk> chunks) {
+    List<Chunk> sorted = new ArrayList<>(chunks);
+    sorted.sort(Comparator.comparingLong(Chunk::start).thenComparingLong(Chunk::end));
+    List<Chunk> merged = new ArrayList<>();
+    Chunk current = null;
+    for (Chunk chunk : sorted) {
+      if (current == null) {
+        current = chunk;
+      } else if (chunk.start() <= current.end()) {
+        if (chunk.end() > current.end()) {
+          current = new Chunk(current.start(), chunk.end());
+        }
+      } else {
+        merged.add(current);
+        current = chunk;
+      }
+    }
+    if (current != null) {
+      merged.add(current);
+    }
+    return merged;
+  }
+
+
+  /**
+   * A range of BGZF virtual file offsets.
+   *
+   * @param start virtual offset of the start of the chunk (inclusive)
+   * @param end virtual offset of the end of the chunk (exclusive)
+   */
+  public record Chunk(long start, long end) {
+  }
+}
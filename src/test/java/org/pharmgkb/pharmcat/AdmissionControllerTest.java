@@ -0,0 +1,189 @@
+package org.pharmgkb.pharmcat;
+
+import java.util.concurrent.Callable;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link AdmissionController}.
+ *
+ * @author Mark Woon
+ */
+class AdmissionControllerTest {
+  private static final long sf_maxHeap = 1000;
+
+
+  @Test
+  void testWarmup() throws Exception {
+    FakeHeapMonitor monitor = new FakeHeapMonitor(100);
+    // ceiling is 500, leaving 400 for tasks
+    AdmissionController controller = new AdmissionController(8, 0.5, sf_maxHeap, monitor);
+    assertEquals(2, controller.getConcurrency());
+    assertEquals(0, controller.getBytesPerTask());
+    assertTrue(controller.canAdmit(0));
+    assertTrue(controller.canAdmit(1));
+    assertFalse(controller.canAdmit(2));
+
+    // 2 tasks in flight retain 200 after GC
+    Callable<Void> inner = controller.track(() -> {
+      monitor.gc(300);
+      return null;
+    });
+    controller.track(inner).call();
+    assertEquals(100, controller.getBytesPerTask());
+    controller.taskCompleted();
+    // still warming up
+    assertEquals(2, controller.getConcurrency());
+
+    // no GC, so nothing new to measure
+    controller.track(() -> null).call();
+    assertEquals(100, controller.getBytesPerTask());
+    controller.taskCompleted();
+    assertEquals(4, controller.getConcurrency());
+    assertFalse(controller.isPaused());
+    assertTrue(controller.canAdmit(3));
+    assertFalse(controller.canAdmit(4));
+  }
+
+
+  @Test
+  void testIgnoresGarbage() throws Exception {
+    FakeHeapMonitor monitor = new FakeHeapMonitor(100);
+    AdmissionController controller = new AdmissionController(8, 0.5, sf_maxHeap, monitor);
+    for (int x = 0; x < 5; x += 1) {
+      // lots of allocation, but none of it is retained
+      assertEquals(1024, controller.track(() -> {
+        int size = new byte[1024 * 1024].length / 1024;
+        monitor.gc(110);
+        return size;
+      }).call());
+      controller.taskCompleted();
+    }
+    assertEquals(10, controller.getBytesPerTask());
+    assertEquals(8, controller.getConcurrency());
+  }
+
+
+  @Test
+  void testMemoryPressure() throws Exception {
+    FakeHeapMonitor monitor = new FakeHeapMonitor(100);
+    AdmissionController controller = new AdmissionController(8, 0.5, sf_maxHeap, monitor);
+    for (int x = 0; x < 2; x += 1) {
+      controller.track(() -> {
+        monitor.gc(150);
+        return null;
+      }).call();
+      controller.taskCompleted();
+    }
+    assertEquals(50, controller.getBytesPerTask());
+    assertEquals(8, controller.getConcurrency());
+    assertFalse(controller.isPaused());
+
+    // heap after GC goes over the ceiling
+    monitor.gc(600);
+    controller.taskCompleted();
+    assertTrue(controller.isPaused());
+    assertEquals(7, controller.getConcurrency());
+    assertFalse(controller.canAdmit(1));
+    // must always be able to run something
+    assertTrue(controller.canAdmit(0));
+
+    // concurrency keeps dropping while pressure lasts, but never below 1
+    for (int x = 0; x < 10; x += 1) {
+      controller.taskCompleted();
+      assertTrue(controller.isPaused());
+      assertFalse(controller.canAdmit(1));
+    }
+    assertEquals(1, controller.getConcurrency());
+    assertTrue(controller.canAdmit(0));
+
+    // pressure is relieved
+    monitor.gc(150);
+    controller.taskCompleted();
+    assertFalse(controller.isPaused());
+    assertEquals(8, controller.getConcurrency());
+  }
+
+
+  @Test
+  void testRetainedHeapLowersConcurrency() throws Exception {
+    FakeHeapMonitor monitor = new FakeHeapMonitor(100);
+    AdmissionController controller = new AdmissionController(8, 0.5, sf_maxHeap, monitor);
+    for (int x = 0; x < 2; x += 1) {
+      controller.track(() -> {
+        monitor.gc(150);
+        return null;
+      }).call();
+      controller.taskCompleted();
+    }
+    assertEquals(8, controller.getConcurrency());
+
+    // tasks start retaining a lot more, but heap is still under the ceiling
+    for (int x = 0; x < 20; x += 1) {
+      controller.track(() -> {
+        monitor.gc(300);
+        return null;
+      }).call();
+      controller.taskCompleted();
+      assertFalse(controller.isPaused());
+    }
+    assertTrue(controller.getBytesPerTask() > 190);
+    assertEquals(2, controller.getConcurrency());
+  }
+
+
+  @Test
+  void testSingleProcess() throws Exception {
+    AdmissionController controller = new AdmissionController(1, 0.5);
+    assertEquals(1, controller.getConcurrency());
+    for (int x = 0; x < 5; x += 1) {
+      controller.track(() -> null).call();
+      controller.taskCompleted();
+      assertEquals(1, controller.getConcurrency());
+      assertFalse(controller.canAdmit(1));
+    }
+  }
+
+
+  @Test
+  void testInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> new AdmissionController(0, 0.8));
+    assertThrows(IllegalArgumentException.class, () -> new AdmissionController(2, 0));
+    assertThrows(IllegalArgumentException.class, () -> new AdmissionController(2, 1.5));
+  }
+
+
+  private static class FakeHeapMonitor implements AdmissionController.HeapMonitor {
+    private long m_heapUsedAfterGc;
+    private long m_gcCount;
+
+    FakeHeapMonitor(long heapUsed) {
+      m_heapUsedAfterGc = heapUsed;
+    }
+
+    /**
+     * Simulates a GC that leaves {@code heapUsed} bytes in use.
+     */
+    void gc(long heapUsed) {
+      m_heapUsedAfterGc = heapUsed;
+      m_gcCount += 1;
+    }
+
+    @Override
+    public long getHeapUsedAfterGc() {
+      return m_heapUsedAfterGc;
+    }
+
+    @Override
+    public long getGcCount() {
+      return m_gcCount;
+    }
+
+    @Override
+    public long getGcTime() {
+      return 0;
+    }
+  }
+}
@@ -2,6 +2,10 @@
 
 import java.lang.invoke.MethodHandles;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import org.junit.jupiter.api.Test;
 import org.pharmgkb.common.util.CliHelper;
 import org.pharmgkb.common.util.PathUtils;
@@ -10,7 +14,9 @@
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 /**
@@ -68,4 +74,45 @@ void testSamples() throws Exception {
     assertThat(config.samples, contains("S1", "S2", "S3", "S4"));
     assertEquals(4, config.samples.size());
   }
+
+
+  @Test
+  void testShard() throws Exception {
+    CliHelper cliHelper = new CliHelper(MethodHandles.lookup().lookupClass())
+        .addOption("shard", "shard", "shard to process", false, "i/N");
+    cliHelper.parse(new String[0]);
+    BaseConfig config = new BaseConfig(cliHelper);
+    assertFalse(config.isSharded());
+    assertEquals("", config.getShardTag());
+    assertTrue(config.inShard("anything"));
+
+    int numShards = 3;
+    List<String> keys = new ArrayList<>();
+    for (int x = 0; x < 300; x += 1) {
+      keys.add(BaseConfig.getShardKey("cohort", "S" + x));
+    }
+    Set<String> seen = new HashSet<>();
+    for (int i = 1; i <= numShards; i += 1) {
+      cliHelper.parse(new String[] { "-shard", i + "/" + numShards });
+      config = new BaseConfig(cliHelper);
+      assertTrue(config.isSharded());
+      assertEquals(".shard-" + i + "-of-" + numShards, config.getShardTag());
+      int count = 0;
+      for (String key : keys) {
+        if (config.inShard(key)) {
+          // shards must not overlap
+          assertTrue(seen.add(key));
+          count += 1;
+        }
+      }
+      assertTrue(count > 0);
+    }
+    // shards must cover everything
+    assertEquals(keys.size(), seen.size());
+
+    for (String bad : new String[] { "0/3", "4/3", "1/0", "abc", "1-3" }) {
+      cliHelper.parse(new String[] { "-shard", bad });
+      assertThrows(ReportableException.class, () -> new BaseConfig(cliHelper));
+    }
+  }
 }
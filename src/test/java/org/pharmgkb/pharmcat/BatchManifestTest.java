@@ -0,0 +1,72 @@
+package org.pharmgkb.pharmcat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link BatchManifest}.
+ *
+ * @author Mark Woon
+ */
+class BatchManifestTest {
+
+  @Test
+  void testManifest(TestInfo testInfo) throws Exception {
+    Path dir = TestUtils.getTestOutputDir(testInfo, true);
+    Path manifestFile = dir.resolve(BatchManifest.FILENAME);
+    Path output1 = dir.resolve("s1.report.html");
+    Path output2 = dir.resolve("s2.report.html");
+    Files.writeString(output1, "sample 1");
+    Files.writeString(output2, "sample 2");
+
+    try (BatchManifest manifest = new BatchManifest(manifestFile)) {
+      assertEquals(0, manifest.size());
+      assertFalse(manifest.isComplete("s1", "abc"));
+      manifest.record("s1", "abc", List.of(output1));
+      manifest.record("s2", "abc", List.of(output2));
+      assertTrue(manifest.isComplete("s1", "abc"));
+    }
+
+    try (BatchManifest manifest = new BatchManifest(manifestFile)) {
+      assertEquals(2, manifest.size());
+      assertTrue(manifest.isComplete("s1", "abc"));
+      assertTrue(manifest.isComplete("s2", "abc"));
+      // different inputs or settings
+      assertFalse(manifest.isComplete("s1", "def"));
+    }
+
+    // output changed
+    Files.writeString(output2, "sample 2, modified");
+    // simulate partial line from an interrupted run
+    Files.writeString(manifestFile, "s3\tabc\t" + output1, StandardOpenOption.APPEND);
+    try (BatchManifest manifest = new BatchManifest(manifestFile)) {
+      assertEquals(2, manifest.size());
+      assertTrue(manifest.isComplete("s1", "abc"));
+      assertFalse(manifest.isComplete("s2", "abc"));
+      assertFalse(manifest.isComplete("s3", "abc"));
+
+      // last entry wins
+      manifest.record("s2", "def", List.of(output2));
+      assertTrue(manifest.isComplete("s2", "def"));
+    }
+
+    try (BatchManifest manifest = new BatchManifest(manifestFile)) {
+      assertEquals(2, manifest.size());
+      assertFalse(manifest.isComplete("s2", "abc"));
+      assertTrue(manifest.isComplete("s2", "def"));
+    }
+
+    // output deleted
+    Files.delete(output1);
+    try (BatchManifest manifest = new BatchManifest(manifestFile)) {
+      assertFalse(manifest.isComplete("s1", "abc"));
+    }
+  }
+}
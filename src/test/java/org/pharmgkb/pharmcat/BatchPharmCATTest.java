@@ -2,11 +2,13 @@
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
@@ -354,6 +356,48 @@ void singleSampleIgnoreUnrelated(TestInfo testInfo) throws Exception {
   }
 
 
+  @Test
+  void cohortCallsOnly(TestInfo testInfo) throws Exception {
+    Path multisampleVcfFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/haplotype/VcfSampleReaderTest.vcf");
+    Path tmpDir = TestUtils.getTestOutputDir(testInfo, true);
+    copyFiles(tmpDir, multisampleVcfFile);
+
+    String systemOut = tapSystemOut(() -> BatchPharmCAT.main(new String[] {
+        "-i", tmpDir.toString(),
+        "-cohortCallsOnly", "calls.tsv.gz",
+    }));
+    System.out.println(systemOut);
+    assertThat(systemOut, containsString("Done."));
+    assertThat(systemOut, not(containsString("FAIL")));
+
+    Path cohortFile = tmpDir.resolve("calls.tsv.gz");
+    assertTrue(Files.exists(cohortFile));
+    // no per-sample calls-only files
+    assertFalse(Files.exists(tmpDir.resolve("VcfSampleReaderTest.Sample_1.report.tsv")));
+
+    List<String> lines;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new GZIPInputStream(Files.newInputStream(cohortFile))))) {
+      lines = reader.lines().toList();
+    }
+    assertThat(lines.get(0), startsWith("Sample\tGene\t"));
+    List<String> samples = lines.subList(1, lines.size()).stream()
+        .map(l -> l.substring(0, l.indexOf("\t")))
+        .distinct()
+        .toList();
+    // rows are in task order
+    assertEquals(List.of("Sample_1", "Sample_2"), samples);
+
+    // cannot combine with resume
+    systemOut = tapSystemOut(() -> BatchPharmCAT.main(new String[] {
+        "-i", tmpDir.toString(),
+        "-cohortCallsOnly", "calls.tsv.gz",
+        "-resume",
+    }));
+    assertThat(systemOut, containsString("Cannot save cohort calls-only TSV when resuming"));
+  }
+
+
   private void copyFiles(Path targetDir, Path... srcFiles) throws IOException {
     for (Path file : srcFiles) {
       Files.copy(file, targetDir.resolve(FilenameUtils.getName(file.toString())));
@@ -0,0 +1,124 @@
+package org.pharmgkb.pharmcat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.pharmcat.reporter.MessageHelper;
+import org.pharmgkb.pharmcat.reporter.model.DataSource;
+import org.pharmgkb.pharmcat.reporter.model.result.Diplotype;
+import org.pharmgkb.pharmcat.reporter.model.result.Haplotype;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link Env}.
+ *
+ * @author Mark Woon
+ */
+class EnvTest {
+  private static final int sf_numThreads = 64;
+  private static final int sf_numIterations = 200;
+  // the first few alleles are also used to make diplotypes
+  private static final int sf_numDiplotypeAlleles = 5;
+  private static final String[][] sf_alleles = new String[][] {
+      { "CYP2C19", "*1" },
+      { "CYP2C19", "*2" },
+      { "CYP2C19", "*17" },
+      { "CYP2D6", "*1" },
+      { "CYP2D6", "*4" },
+      { "CYP2D6", "*1x2" },
+      { "HLA-A", "*31:01" },
+      { "CYP2C19", "*fake" },
+  };
+
+
+  /**
+   * Hammers a fresh {@link Env} from many threads at once, and checks that every thread sees the same cached objects
+   * and the same answers as single-threaded use.
+   */
+  @Test
+  void testConcurrentCaches() throws Exception {
+    Env env = new Env();
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(sf_numThreads);
+    List<Future<Result>> futures = new ArrayList<>();
+    try {
+      for (int x = 0; x < sf_numThreads; x += 1) {
+        int offset = x;
+        futures.add(executor.submit(() -> {
+          start.await();
+          Result result = new Result();
+          for (int i = 0; i < sf_numIterations; i += 1) {
+            // vary the order so that threads collide on different keys
+            int idx = (offset + i) % sf_alleles.length;
+            String gene = sf_alleles[idx][0];
+            String allele = sf_alleles[idx][1];
+            for (DataSource source : new DataSource[] { DataSource.CPIC, DataSource.DPWG }) {
+              Haplotype hap = env.makeHaplotype(gene, allele, source);
+              assertTrue(env.isCachedHaplotype(hap, source));
+              result.haplotypes[idx][source.ordinal()] = check(result.haplotypes[idx][source.ordinal()], hap);
+              if (idx < sf_numDiplotypeAlleles) {
+                Diplotype dip = env.getPhenotypedDiplotype(gene, allele, "*1", source);
+                result.diplotypes[idx][source.ordinal()] = check(result.diplotypes[idx][source.ordinal()], dip);
+              }
+            }
+            result.valid[idx] = env.isValidNamedAllele(gene, allele);
+          }
+          assertNotNull(env.getMessageHelper());
+          result.messageHelper = env.getMessageHelper();
+          return result;
+        }));
+      }
+      start.countDown();
+
+      List<Result> results = new ArrayList<>();
+      for (Future<Result> future : futures) {
+        results.add(future.get(2, TimeUnit.MINUTES));
+      }
+
+      Env serialEnv = new Env();
+      Result first = results.get(0);
+      for (Result result : results) {
+        assertSame(first.messageHelper, result.messageHelper);
+        for (int idx = 0; idx < sf_alleles.length; idx += 1) {
+          String gene = sf_alleles[idx][0];
+          String allele = sf_alleles[idx][1];
+          assertEquals(serialEnv.isValidNamedAllele(gene, allele), result.valid[idx], gene + " " + allele);
+          for (DataSource source : new DataSource[] { DataSource.CPIC, DataSource.DPWG }) {
+            assertSame(first.haplotypes[idx][source.ordinal()], result.haplotypes[idx][source.ordinal()]);
+            assertSame(first.diplotypes[idx][source.ordinal()], result.diplotypes[idx][source.ordinal()]);
+          }
+        }
+      }
+      assertTrue(first.valid[0]);
+      assertTrue(first.valid[6]);
+      assertFalse(first.valid[7]);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Makes sure that a thread always gets the same object back for the same key.
+   */
+  private static <T> T check(T previous, T current) {
+    if (previous != null) {
+      assertSame(previous, current);
+    }
+    return current;
+  }
+
+
+  private static class Result {
+    final Haplotype[][] haplotypes = new Haplotype[sf_alleles.length][DataSource.values().length];
+    final Diplotype[][] diplotypes = new Diplotype[sf_alleles.length][DataSource.values().length];
+    final boolean[] valid = new boolean[sf_alleles.length];
+    MessageHelper messageHelper;
+  }
+}
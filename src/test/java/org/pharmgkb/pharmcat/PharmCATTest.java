@@ -1,5 +1,6 @@
 package org.pharmgkb.pharmcat;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -22,6 +23,7 @@
 import org.pharmgkb.pharmcat.reporter.model.result.CallSource;
 import org.pharmgkb.pharmcat.reporter.model.result.GeneReport;
 import org.pharmgkb.pharmcat.reporter.model.result.Haplotype;
+import org.pharmgkb.pharmcat.util.DataSerializer;
 
 import static com.github.stefanbirkner.systemlambda.SystemLambda.tapSystemOut;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -569,6 +571,51 @@ void multipleOutsideCallFiles(TestInfo testInfo) throws Exception {
     }
   }
 
+  @Test
+  void compactGzipOutput(TestInfo testInfo) throws Exception {
+    Path outsideCallFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/PharmCATTest-cyp2d6.tsv");
+    Path outputDir = TestUtils.getTestOutputDir(testInfo, true);
+    Path phenotyperOutput = outputDir.resolve("PharmCATTest-cyp2d6.phenotype.json.gz");
+
+    try {
+      String systemOut = tapSystemOut(() -> PharmCAT.main(new String[] {
+          "-phenotyper",
+          "-po", outsideCallFile.toString(),
+          "-o", outputDir.toString(),
+          "-cj",
+          "-gz",
+      }));
+      assertTrue(systemOut.contains("Done."));
+      assertTrue(Files.exists(phenotyperOutput));
+      assertFalse(Files.exists(outputDir.resolve("PharmCATTest-cyp2d6.phenotype.json")));
+
+      try (BufferedReader reader = DataSerializer.newReader(phenotyperOutput)) {
+        // compact JSON is all on one line
+        assertNotNull(reader.readLine());
+        assertNull(reader.readLine());
+      }
+      validateCyp2d6OutsideCallOutput(phenotyperOutput);
+
+      // gzipped output from a previous step can be used as input
+      systemOut = tapSystemOut(() -> PharmCAT.main(new String[] {
+          "-reporter",
+          "-reporterJson",
+          "-ri", phenotyperOutput.toString(),
+          "-o", outputDir.toString(),
+          "-gz",
+      }));
+      assertTrue(systemOut.contains("Done."));
+      assertTrue(Files.exists(outputDir.resolve("PharmCATTest-cyp2d6.report.json.gz")));
+      Path htmlFile = outputDir.resolve("PharmCATTest-cyp2d6.report.html.gz");
+      try (BufferedReader reader = DataSerializer.newReader(htmlFile)) {
+        assertTrue(reader.lines().anyMatch(l -> l.contains("CYP2D6")));
+      }
+
+    } finally {
+      TestUtils.deleteTestFiles(outputDir);
+    }
+  }
+
   public static void checkOutsideDiplotype(@Nullable GeneReport report, String allele1, String allele2) {
     assertNotNull(report);
     assertEquals(CallSource.OUTSIDE, report.getCallSource());
@@ -0,0 +1,43 @@
+package org.pharmgkb.pharmcat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link ShardMerger}.
+ *
+ * @author Mark Woon
+ */
+class ShardMergerTest {
+
+  @Test
+  void testMerge(TestInfo testInfo) throws Exception {
+    Path dir = TestUtils.getTestOutputDir(testInfo, true);
+    Files.writeString(dir.resolve(BatchManifest.getFilename(".shard-1-of-2")), "#key\tfingerprint\na\t1\nb\t1\n");
+    Files.writeString(dir.resolve(BatchManifest.getFilename(".shard-2-of-2")), "#key\tfingerprint\nc\t1\n");
+    Files.writeString(dir.resolve("cohort.shard-1-of-2.tsv"), "Sample\tGene\nS1\tCYP2C19\n");
+    Files.writeString(dir.resolve("cohort.shard-2-of-2.tsv"), "Sample\tGene\nS2\tCYP2C19\n");
+    // per-sample outputs are left alone
+    Files.writeString(dir.resolve("S1.report.json"), "{}");
+
+    List<Path> merged = new ShardMerger(dir, dir).merge(true);
+    assertEquals(List.of(dir.resolve("cohort.tsv"), dir.resolve(BatchManifest.FILENAME)), merged);
+    assertEquals(List.of("#key\tfingerprint", "a\t1", "b\t1", "c\t1"),
+        Files.readAllLines(dir.resolve(BatchManifest.FILENAME)));
+    assertEquals(List.of("Sample\tGene", "S1\tCYP2C19", "S2\tCYP2C19"),
+        Files.readAllLines(dir.resolve("cohort.tsv")));
+    assertFalse(Files.exists(dir.resolve("cohort.shard-1-of-2.tsv")));
+    assertTrue(Files.exists(dir.resolve("S1.report.json")));
+
+    // incomplete set of shards
+    Files.writeString(dir.resolve("cohort.shard-1-of-3.tsv"), "Sample\tGene\nS1\tCYP2C19\n");
+    ReportableException ex = assertThrows(ReportableException.class, () -> new ShardMerger(dir, dir).merge(false));
+    assertTrue(ex.getMessage().contains("missing shards [2, 3]"));
+  }
+}
@@ -0,0 +1,198 @@
+package org.pharmgkb.pharmcat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link WorkQueue}.
+ *
+ * @author Mark Woon
+ */
+class WorkQueueTest {
+  private static final int sf_numTasks = 100;
+
+
+  @Test
+  void testClaim(TestInfo testInfo) throws Exception {
+    Path dir = TestUtils.getTestOutputDir(testInfo, true);
+    Path output = dir.resolve("output.txt");
+    Files.writeString(output, "output");
+
+    try (WorkQueue q1 = new WorkQueue(dir.resolve("queue"));
+         WorkQueue q2 = new WorkQueue(dir.resolve("queue"))) {
+      assertTrue(q1.claim("vcf:S1", "abc"));
+      assertFalse(q2.claim("vcf:S1", "abc"));
+      q1.complete("vcf:S1", "abc", List.of(output));
+      // already done
+      assertFalse(q2.claim("vcf:S1", "abc"));
+      // different inputs or settings
+      assertTrue(q2.claim("vcf:S1", "def"));
+      q2.release("vcf:S1");
+
+      assertTrue(q2.claim("vcf:S2", "abc"));
+      q2.fail("vcf:S2");
+      assertFalse(q1.claim("vcf:S2", "abc"));
+    }
+
+    // restarted worker retries failures
+    Thread.sleep(10);
+    try (WorkQueue q1 = new WorkQueue(dir.resolve("queue"))) {
+      assertFalse(q1.claim("vcf:S1", "abc"));
+      assertTrue(q1.claim("vcf:S2", "abc"));
+    }
+  }
+
+
+  @Test
+  void testExpiredLease(TestInfo testInfo) throws Exception {
+    Path dir = TestUtils.getTestOutputDir(testInfo, true);
+
+    try (WorkQueue q1 = new WorkQueue(dir, Duration.ofMinutes(5))) {
+      // simulate lease left behind by a crashed worker
+      Path leaseFile = q1.getLeaseFile("vcf:S1", 0);
+      Files.createDirectories(leaseFile.getParent());
+      Files.writeString(leaseFile, "crashed");
+      Files.setLastModifiedTime(leaseFile, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+
+      assertFalse(q1.claim("vcf:S1", "abc"));
+    }
+    try (WorkQueue q1 = new WorkQueue(dir, Duration.ofSeconds(30));
+         WorkQueue q2 = new WorkQueue(dir, Duration.ofSeconds(30))) {
+      assertTrue(q1.claim("vcf:S1", "abc"));
+      assertEquals(q1.getWorkerId(), Files.readString(q1.getLeaseFile("vcf:S1", 1)));
+      // expired generation is cleaned up
+      assertFalse(Files.exists(q1.getLeaseFile("vcf:S1", 0)));
+      // renewed lease is not expired
+      assertFalse(q2.claim("vcf:S1", "abc"));
+
+      // takes over from latest generation
+      Path latestFile = q1.getLeaseFile("vcf:S1", 5);
+      Files.writeString(latestFile, "crashed");
+      Files.setLastModifiedTime(latestFile, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+      q1.release("vcf:S1");
+      assertTrue(q2.claim("vcf:S1", "abc"));
+      assertEquals(q2.getWorkerId(), Files.readString(q2.getLeaseFile("vcf:S1", 6)));
+      assertFalse(Files.exists(latestFile));
+
+      // nothing is left behind once lease is released
+      q2.release("vcf:S1");
+      assertFalse(Files.exists(q2.getLeaseFile("vcf:S1", 6).getParent()));
+      assertTrue(q1.claim("vcf:S1", "abc"));
+      assertEquals(q1.getWorkerId(), Files.readString(q1.getLeaseFile("vcf:S1", 0)));
+    }
+  }
+
+
+  /**
+   * Two workers racing to take over the same expired lease must not both win.
+   */
+  @Test
+  void testConcurrentTakeOver(TestInfo testInfo) throws Exception {
+    Path dir = TestUtils.getTestOutputDir(testInfo, true);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try (WorkQueue q1 = new WorkQueue(dir, Duration.ofSeconds(30));
+         WorkQueue q2 = new WorkQueue(dir, Duration.ofSeconds(30))) {
+      for (int x = 0; x < sf_numTasks; x += 1) {
+        String key = "vcf:S" + x;
+        Path leaseFile = q1.getLeaseFile(key, 0);
+        Files.createDirectories(leaseFile.getParent());
+        Files.writeString(leaseFile, "crashed");
+        Files.setLastModifiedTime(leaseFile, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        Future<Boolean> f1 = executor.submit(() -> {
+          barrier.await();
+          return q1.claim(key, "abc");
+        });
+        Future<Boolean> f2 = executor.submit(() -> {
+          barrier.await();
+          return q2.claim(key, "abc");
+        });
+        boolean c1 = f1.get(1, TimeUnit.MINUTES);
+        boolean c2 = f2.get(1, TimeUnit.MINUTES);
+        assertTrue(c1 ^ c2, key + " claimed by " + (c1 ? "both workers" : "neither worker"));
+
+        // lease must name its owner as soon as it exists
+        WorkQueue owner = c1 ? q1 : q2;
+        assertEquals(owner.getWorkerId(), Files.readString(owner.getLeaseFile(key, 1)));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+
+  /**
+   * Runs several JVMs against the same queue.
+   */
+  @Test
+  void testMultipleProcesses(TestInfo testInfo) throws Exception {
+    Path dir = TestUtils.getTestOutputDir(testInfo, true);
+    String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+
+    List<Process> processes = new ArrayList<>();
+    List<Path> outputs = new ArrayList<>();
+    for (int x = 0; x < 3; x += 1) {
+      Path output = dir.resolve("worker" + x + ".txt");
+      outputs.add(output);
+      processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Worker.class.getName(),
+          dir.resolve("queue").toString(), output.toString())
+          .redirectErrorStream(true)
+          .redirectOutput(dir.resolve("worker" + x + ".log").toFile())
+          .start());
+    }
+    for (Process process : processes) {
+      assertTrue(process.waitFor(2, TimeUnit.MINUTES));
+      assertEquals(0, process.exitValue());
+    }
+
+    Set<String> claimed = new HashSet<>();
+    for (Path output : outputs) {
+      for (String key : Files.readAllLines(output)) {
+        // no task should be claimed by more than one worker
+        assertTrue(claimed.add(key), key + " claimed more than once");
+      }
+    }
+    assertEquals(sf_numTasks, claimed.size());
+  }
+
+
+  /**
+   * Worker for {@link #testMultipleProcesses(TestInfo)}.  Writes the keys of the tasks it ran to its output file.
+   */
+  public static class Worker {
+
+    public static void main(String[] args) throws Exception {
+      Path queueDir = Path.of(args[0]);
+      Path output = Path.of(args[1]);
+      List<String> claimed = new ArrayList<>();
+      try (WorkQueue queue = new WorkQueue(queueDir)) {
+        for (int x = 0; x < sf_numTasks; x += 1) {
+          String key = "vcf:S" + x;
+          if (queue.claim(key, "abc")) {
+            claimed.add(key);
+            Thread.sleep(5);
+            queue.complete(key, "abc", List.of());
+          }
+        }
+      }
+      Files.write(output, claimed);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package org.pharmgkb.pharmcat.definition;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.SortedSet;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link GeneMatchingIndex}.
+ *
+ * @author Mark Woon
+ */
+class GeneMatchingIndexTest {
+  private static DefinitionReader s_definitionReader;
+
+  @BeforeAll
+  static void prepare() throws Exception {
+    s_definitionReader = DefinitionReader.defaultReader();
+  }
+
+
+  @Test
+  void testPositions() {
+    GeneMatchingIndex index = s_definitionReader.getMatchingIndex("CYP2C19");
+    VariantLocus[] positions = s_definitionReader.getPositions("CYP2C19");
+    assertArrayEquals(positions, index.getPositions());
+    for (int x = 0; x < positions.length; x += 1) {
+      assertEquals(x, index.getOrdinal(positions[x]));
+      assertEquals(s_definitionReader.getReferenceHaplotype("CYP2C19").getAllele(x), index.getReferenceAllele(x));
+    }
+    assertEquals(-1, index.getOrdinal(s_definitionReader.getPositions("CYP2C9")[0]));
+  }
+
+
+  @Test
+  void testHaplotypes() {
+    GeneMatchingIndex index = s_definitionReader.getMatchingIndex("UGT1A1");
+    SortedSet<NamedAllele> haplotypes = s_definitionReader.getHaplotypes("UGT1A1");
+    assertEquals(new ArrayList<>(haplotypes), new ArrayList<>(index.getHaplotypes(false, false)));
+
+    SortedSet<NamedAllele> comboHaplotypes = index.getHaplotypes(true, false);
+    assertTrue(haplotypes.stream().anyMatch(h -> h.getName().contains("+")));
+    assertTrue(comboHaplotypes.stream().noneMatch(h -> h.getName().contains("+")));
+
+    SortedSet<NamedAllele> refHaplotypes = GeneMatchingIndex.defaultMissingAllelesToReference("UGT1A1", haplotypes,
+        index.getPositions());
+    assertEquals(new ArrayList<>(refHaplotypes), new ArrayList<>(index.getHaplotypes(false, true)));
+    for (NamedAllele hap : index.getHaplotypes(false, true)) {
+      for (String allele : hap.getAlleles()) {
+        assertNotNull(allele, hap + " has missing allele");
+      }
+    }
+  }
+
+
+  @Test
+  void testHaplotypesExcluding() {
+    GeneMatchingIndex index = s_definitionReader.getMatchingIndex("UGT1A1");
+    NamedAllele excluded = index.getHaplotypes().last();
+    Set<String> names = Set.of(excluded.getName());
+    SortedSet<NamedAllele> haplotypes = index.getHaplotypesExcluding(names);
+    assertEquals(index.getHaplotypes().size() - 1, haplotypes.size());
+    assertFalse(haplotypes.contains(excluded));
+    // same set is shared
+    assertSame(haplotypes, index.getHaplotypesExcluding(names));
+    assertSame(haplotypes, index.getHaplotypesExcluding(Set.of(excluded.getName())));
+  }
+
+
+  @Test
+  void testAllelePositions() {
+    GeneMatchingIndex index = s_definitionReader.getMatchingIndex("UGT1A1");
+    for (boolean findCombinations : new boolean[] { false, true }) {
+      for (boolean assumeReference : new boolean[] { false, true }) {
+        for (NamedAllele hap : index.getHaplotypes(findCombinations, assumeReference)) {
+          BitSet positions = index.getAllelePositions(hap);
+          assertNotNull(positions, hap + " has no allele positions");
+          for (int x = 0; x < hap.getAlleles().length; x += 1) {
+            assertEquals(hap.getAlleles()[x] != null, positions.get(x), hap + " at " + x);
+          }
+        }
+      }
+    }
+    // only haplotypes from the index are known
+    NamedAllele hap = index.getHaplotypes().first();
+    NamedAllele copy = new NamedAllele(hap.getId(), hap.getName(), hap.getAlleles(), hap.getCpicAlleles(),
+        hap.getMissingPositions(), hap.isReference());
+    assertNull(index.getAllelePositions(copy));
+  }
+}
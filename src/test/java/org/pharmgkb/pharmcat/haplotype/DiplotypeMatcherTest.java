@@ -1,9 +1,12 @@
 package org.pharmgkb.pharmcat.haplotype;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
@@ -18,6 +21,7 @@
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.pharmgkb.common.util.NoDuplicateMergeFunction;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
 import org.pharmgkb.pharmcat.definition.model.NamedAllele;
 import org.pharmgkb.pharmcat.definition.model.VariantLocus;
 import org.pharmgkb.pharmcat.haplotype.model.DiplotypeMatch;
@@ -26,6 +30,8 @@
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 
@@ -232,4 +238,149 @@ void testComparePermutations() {
     assertEquals(hap1, it.next().getHaplotype());
     assertEquals(hap2, it.next().getHaplotype());
   }
+
+
+  @Test
+  void testCombinationPruning() {
+
+    VariantLocus var1 = new VariantLocus("chr1", 1, "g.1T>A");
+    VariantLocus var2 = new VariantLocus("chr1", 2, "g.2T>A");
+    VariantLocus var3 = new VariantLocus("chr1", 3, "g.3T>A");
+    VariantLocus[] variants = new VariantLocus[] { var1, var2, var3 };
+
+    SortedSet<NamedAllele> haplotypes = new TreeSet<>();
+    String[][] definitions = new String[][] {
+        { "T", "T", "T" },
+        { "A", null, null },
+        { null, "A", null },
+        { null, null, "A" },
+    };
+    for (int x = 0; x < definitions.length; x += 1) {
+      NamedAllele hap = new NamedAllele("*" + (x + 1), "*" + (x + 1), definitions[x], definitions[x], x == 0);
+      hap.initialize(variants);
+      haplotypes.add(hap);
+    }
+
+    SortedMap<String, SampleAllele> sampleAlleleMap = new TreeMap<>();
+    for (VariantLocus vl : variants) {
+      sampleAlleleMap.put(vl.getVcfChrPosition(), new SampleAllele("chr1", vl.getPosition(), "A", "T", true,
+          Lists.newArrayList("T", "A"), "1|0"));
+    }
+    MatchData dataset = new MatchData("Sample_1", "GENE", sampleAlleleMap, variants, null, null);
+    dataset.marshallHaplotypes("TEST", haplotypes, true);
+    dataset.generateSamplePermutations();
+
+    // once *2 + *3 + *4 is found, [*2 + *4] and everything starting with *3 or *4 cannot beat it
+    DiplotypeMatcher diplotypeMatcher = new DiplotypeMatcher(dataset);
+    SortedSet<DiplotypeMatch> topMatches = diplotypeMatcher.compute(true, true);
+    assertEquals(2, diplotypeMatcher.getNumCombinationNodes());
+    assertEquals(2, diplotypeMatcher.getNumCombinationsPruned());
+    assertDiplotypePairs(Lists.newArrayList("*1/[*2 + *3 + *4]"), topMatches);
+
+    // must be the same as top candidates without pruning, which explores all combinations of *2, *3 and *4
+    DiplotypeMatcher unprunedMatcher = new DiplotypeMatcher(dataset);
+    SortedSet<DiplotypeMatch> allMatches = unprunedMatcher.compute(true, false);
+    assertEquals(4, unprunedMatcher.getNumCombinationNodes());
+    assertEquals(0, unprunedMatcher.getNumCombinationsPruned());
+    int topScore = allMatches.first().getScore();
+    assertDiplotypePairs(allMatches.stream()
+        .filter(dm -> dm.getScore() == topScore)
+        .map(DiplotypeMatch::getName)
+        .toList(), topMatches);
+
+    diplotypeMatcher = new DiplotypeMatcher(dataset)
+        .maxCombinationSize(2);
+    diplotypeMatcher.compute(true, true);
+    assertEquals(3, diplotypeMatcher.getNumCombinationNodes());
+    assertEquals(0, diplotypeMatcher.getNumCombinationsPruned());
+  }
+
+
+  /**
+   * Pruning must not change the top candidates when looking for combinations with real allele definitions.
+   * Each sample is heterozygous for the defining variants of a few single-variant haplotypes, phased (so that they
+   * combine) and unphased.  Pruning must also explore fewer combinations.
+   */
+  @Test
+  void testPruningWithDefinitions() throws Exception {
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+    for (String gene : new String[] { "CYP2C19", "CYP2D6", "DPYD" }) {
+      long numNodes = 0;
+      long numPrunedNodes = 0;
+      VariantLocus[] positions = definitionReader.getPositions(gene);
+      SortedSet<NamedAllele> haplotypes = definitionReader.getHaplotypes(gene);
+      NamedAllele reference = definitionReader.getReferenceHaplotype(gene);
+
+      // find positions that single-variant haplotypes are defined by
+      List<Integer> variantIdxs = new ArrayList<>();
+      for (NamedAllele hap : haplotypes) {
+        int variantIdx = -1;
+        for (int x = 0; x < positions.length; x += 1) {
+          String allele = hap.getAllele(x);
+          if (allele == null || allele.equals(reference.getAllele(x))) {
+            continue;
+          }
+          variantIdx = variantIdx == -1 ? x : -2;
+        }
+        if (variantIdx >= 0 && !variantIdxs.contains(variantIdx) && !Iupac.isWobble(hap.getAllele(variantIdx)) &&
+            reference.getAllele(variantIdx) != null && !Iupac.isWobble(reference.getAllele(variantIdx))) {
+          variantIdxs.add(variantIdx);
+        }
+      }
+      assertTrue(variantIdxs.size() >= 3, gene + " has too few single-variant haplotypes");
+
+      for (int start = 0; start + 3 <= Math.min(variantIdxs.size(), 9); start += 3) {
+        Map<Integer, String> altAlleles = new HashMap<>();
+        for (int idx : variantIdxs.subList(start, start + 3)) {
+          altAlleles.put(idx, haplotypes.stream()
+              .map(h -> h.getAllele(idx))
+              .filter(a -> a != null && !a.equals(reference.getAllele(idx)))
+              .findFirst()
+              .orElseThrow());
+        }
+        for (boolean phased : new boolean[] { true, false }) {
+          Map<String, SampleAllele> alleleMap = new HashMap<>();
+          for (int x = 0; x < positions.length; x += 1) {
+            VariantLocus vl = positions[x];
+            String ref = vl.getRef();
+            String alt = altAlleles.get(x);
+            SampleAllele sampleAllele;
+            if (alt == null) {
+              sampleAllele = new SampleAllele(vl.getChromosome(), vl.getPosition(), ref, ref, phased,
+                  Lists.newArrayList(ref), phased ? "0|0" : "0/0");
+            } else {
+              sampleAllele = new SampleAllele(vl.getChromosome(), vl.getPosition(), ref, alt, phased,
+                  Lists.newArrayList(ref, alt), phased ? "0|1" : "0/1");
+            }
+            alleleMap.put(vl.getVcfChrPosition(), sampleAllele);
+          }
+          String scenario = gene + " " + altAlleles + (phased ? " phased" : " unphased");
+
+          MatchData dataset = new MatchData("Sample_1", gene, alleleMap, positions, null, null);
+          dataset.marshallHaplotypes(gene, haplotypes, true);
+          dataset.generateSamplePermutations();
+
+          DiplotypeMatcher unprunedMatcher = new DiplotypeMatcher(dataset);
+          SortedSet<DiplotypeMatch> allMatches = unprunedMatcher.compute(true, false);
+          assertFalse(allMatches.isEmpty(), scenario);
+          int topScore = allMatches.first().getScore();
+          List<String> expected = allMatches.stream()
+              .filter(dm -> dm.getScore() == topScore)
+              .map(DiplotypeMatch::getName)
+              .toList();
+
+          DiplotypeMatcher prunedMatcher = new DiplotypeMatcher(dataset);
+          SortedSet<DiplotypeMatch> topMatches = prunedMatcher.compute(true, true);
+          assertEquals(expected, topMatches.stream().map(DiplotypeMatch::getName).toList(), scenario);
+          for (DiplotypeMatch dm : topMatches) {
+            assertEquals(topScore, dm.getScore(), scenario + " " + dm.getName());
+          }
+          assertTrue(prunedMatcher.getNumCombinationNodes() <= unprunedMatcher.getNumCombinationNodes(), scenario);
+          numNodes += unprunedMatcher.getNumCombinationNodes();
+          numPrunedNodes += prunedMatcher.getNumCombinationNodes();
+        }
+      }
+      assertTrue(numPrunedNodes < numNodes, gene + ": explored " + numPrunedNodes + " of " + numNodes);
+    }
+  }
 }
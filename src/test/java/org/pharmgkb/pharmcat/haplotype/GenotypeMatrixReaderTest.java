@@ -0,0 +1,84 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.common.util.PathUtils;
+import org.pharmgkb.pharmcat.VcfFile;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link GenotypeMatrixReader}.
+ *
+ * @author Mark Woon
+ */
+class GenotypeMatrixReaderTest {
+
+  @Test
+  void testMatchesVcfReader() throws Exception {
+    checkAgainstVcfReader("org/pharmgkb/pharmcat/100samples.vcf.bgz", false);
+    checkAgainstVcfReader("org/pharmgkb/pharmcat/100samples.vcf.bgz", true);
+    checkAgainstVcfReader("org/pharmgkb/pharmcat/multisample.vcf.bgz", false);
+    checkAgainstVcfReader("org/pharmgkb/pharmcat/haplotype/NamedAlleleMatcher-unknownAltMultisample.vcf", false);
+    checkAgainstVcfReader("org/pharmgkb/pharmcat/haplotype/VcfReaderTest-AD.vcf", false);
+    checkAgainstVcfReader("org/pharmgkb/pharmcat/haplotype/VcfReaderTest-phasing.vcf", false);
+  }
+
+  private void checkAgainstVcfReader(String file, boolean findCombinations) throws Exception {
+    Path vcfFile = PathUtils.getPathToResource(file);
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+    VcfFile vcf = new VcfFile(vcfFile);
+    List<String> samples = vcf.getSamples();
+
+    GenotypeMatrix matrix = GenotypeMatrixReader.read(definitionReader, vcfFile, null, findCombinations);
+    assertEquals(samples, matrix.getSampleIds());
+    for (String sampleId : samples) {
+      VcfReader expected = vcf.getReader(definitionReader, sampleId, findCombinations);
+      GenotypeMatrix.SampleView actual = matrix.getSample(sampleId);
+      assertEquals(toStringMap(expected.getAlleleMap()), toStringMap(actual), sampleId + " in " + file);
+      assertEquals(expected.getWarnings(), actual.getWarnings(), sampleId + " in " + file);
+      for (String chrPos : expected.getAlleleMap().keySet()) {
+        assertTrue(actual.containsKey(chrPos));
+      }
+      assertFalse(actual.containsKey("chr1:1"));
+      assertNull(actual.get("chr1:1"));
+    }
+  }
+
+  private Map<String, String> toStringMap(Map<String, SampleAllele> alleleMap) {
+    Map<String, String> map = new TreeMap<>();
+    alleleMap.forEach((k, v) -> map.put(k, v.toString() + " (" + v.getComputedAllele1() + ", " +
+        v.getComputedAllele2() + ") " + v.getGt() + " " + v.isPhased() + " " + v.isEffectivelyPhased() + " " +
+        v.getVcfAlleles() + " " + v.getUndocumentedVariations() + " " + v.isTreatUndocumentedVariationsAsReference()));
+    return map;
+  }
+
+
+  @Test
+  void testSubset() throws Exception {
+    Path vcfFile = PathUtils.getPathToResource("org/pharmgkb/pharmcat/100samples.vcf.bgz");
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+
+    GenotypeMatrix matrix = GenotypeMatrixReader.read(definitionReader, vcfFile, List.of("s3", "s1"), false);
+    assertEquals(List.of("s3", "s1"), matrix.getSampleIds());
+    assertTrue(matrix.hasSample("s1"));
+    assertFalse(matrix.hasSample("s2"));
+    assertThrows(IllegalArgumentException.class, () -> matrix.getSample("s2"));
+
+    // releasing a sample only frees that sample's data
+    GenotypeMatrix.SampleView s1 = matrix.getSample("s1");
+    assertFalse(matrix.getSample("s3").isEmpty());
+    matrix.release("s3");
+    assertThrows(IllegalStateException.class, () -> matrix.getSample("s3"));
+    assertFalse(s1.isEmpty());
+    assertEquals(toStringMap(new TreeMap<>(matrix.getSample("s1"))), toStringMap(s1));
+
+    assertThrows(IllegalStateException.class,
+        () -> GenotypeMatrixReader.read(definitionReader, vcfFile, List.of("foo"), false));
+  }
+}
@@ -0,0 +1,117 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.definition.GeneMatchingIndex;
+import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link MarshalledHaplotypeCache}.
+ *
+ * @author Mark Woon
+ */
+class MarshalledHaplotypeCacheTest {
+  private static final String sf_gene = "CYP2C19";
+
+
+  @Test
+  void testCache() throws Exception {
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+    GeneMatchingIndex index = definitionReader.getMatchingIndex(sf_gene);
+    VariantLocus[] positions = index.getPositions();
+
+    MarshalledHaplotypeCache cache = new MarshalledHaplotypeCache();
+    SortedSet<NamedAllele> haplotypes = marshall(index, buildAlleleMap(positions, 0), cache, true);
+    assertEquals(0, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+
+    // same missing positions
+    assertSame(haplotypes, marshall(index, buildAlleleMap(positions, 0), cache, true));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.size());
+
+    // different flags
+    assertNotSame(haplotypes, marshall(index, buildAlleleMap(positions, 0), cache, false));
+    // different missing positions
+    assertNotSame(haplotypes, marshall(index, buildAlleleMap(positions, 1), cache, true));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(3, cache.getMissCount());
+    // different haplotypes to marshall
+    SortedSet<NamedAllele> subset = index.getHaplotypesExcluding(Set.of(index.getHaplotypes().last().getName()));
+    SortedSet<NamedAllele> subsetHaplotypes = marshall(index, subset, buildAlleleMap(positions, 0), cache, true);
+    assertNotSame(haplotypes, subsetHaplotypes);
+    assertEquals(1, cache.getHitCount());
+    // same haplotypes to marshall
+    assertSame(subsetHaplotypes, marshall(index, subset, buildAlleleMap(positions, 0), cache, true));
+    assertEquals(2, cache.getHitCount());
+    // haplotypes to marshall are compared by identity, so equal haplotypes that are not shared don't get a hit
+    assertNotSame(subsetHaplotypes, marshall(index, new TreeSet<>(subset), buildAlleleMap(positions, 0), cache, true));
+    assertEquals(2, cache.getHitCount());
+    assertEquals(5, cache.getMissCount());
+
+    // must match uncached results
+    SortedSet<NamedAllele> uncached = marshall(index, buildAlleleMap(positions, 0), null, true);
+    assertEquals(uncached, haplotypes);
+    // no missing positions should not be cached
+    marshall(index, buildAlleleMap(positions, -1), cache, true);
+    assertEquals(5, cache.size());
+  }
+
+
+  @Test
+  void testBitVectorMatcher() throws Exception {
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+    GeneMatchingIndex index = definitionReader.getMatchingIndex(sf_gene);
+    VariantLocus[] positions = index.getPositions();
+
+    MarshalledHaplotypeCache cache = new MarshalledHaplotypeCache();
+    SortedSet<NamedAllele> haplotypes = marshall(index, buildAlleleMap(positions, 0), cache, true);
+    BitVectorMatcher matcher = cache.getBitVectorMatcher(haplotypes);
+    // masks are only built once per set of haplotypes
+    assertSame(matcher, cache.getBitVectorMatcher(marshall(index, buildAlleleMap(positions, 0), cache, true)));
+    assertSame(matcher, cache.getBitVectorMatcher(haplotypes));
+    // sets of haplotypes that are equal but not the same are not shared
+    assertNotSame(matcher, cache.getBitVectorMatcher(new TreeSet<>(haplotypes)));
+    assertNotSame(matcher, cache.getBitVectorMatcher(marshall(index, buildAlleleMap(positions, 1), cache, true)));
+  }
+
+
+  private SortedSet<NamedAllele> marshall(GeneMatchingIndex index, Map<String, SampleAllele> alleleMap,
+      MarshalledHaplotypeCache cache, boolean assumeReference) {
+    return marshall(index, index.getHaplotypes(), alleleMap, cache, assumeReference);
+  }
+
+  private SortedSet<NamedAllele> marshall(GeneMatchingIndex index, SortedSet<NamedAllele> allHaplotypes,
+      Map<String, SampleAllele> alleleMap, MarshalledHaplotypeCache cache, boolean assumeReference) {
+    MatchData data = new MatchData("Sample", sf_gene, alleleMap, index.getPositions(), null, null);
+    data.setHaplotypeCache(cache);
+    data.marshallHaplotypes(index, allHaplotypes, false, assumeReference);
+    return data.getHaplotypes();
+  }
+
+  /**
+   * Builds reference sample alleles for all positions except {@code missingIdx}.
+   */
+  private Map<String, SampleAllele> buildAlleleMap(VariantLocus[] positions, int missingIdx) {
+    Map<String, SampleAllele> alleleMap = new HashMap<>();
+    for (int x = 0; x < positions.length; x += 1) {
+      if (x == missingIdx) {
+        continue;
+      }
+      VariantLocus vl = positions[x];
+      alleleMap.put(vl.getVcfChrPosition(), new SampleAllele(vl.getChromosome(), vl.getPosition(), vl.getRef(),
+          vl.getRef(), false, List.of(vl.getRef()), "0/0"));
+    }
+    return alleleMap;
+  }
+}
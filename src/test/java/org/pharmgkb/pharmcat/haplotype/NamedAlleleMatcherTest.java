@@ -99,6 +99,19 @@ static Result testMatchNamedAlleles(Path definitionFile, Path vcfFile, boolean f
         topCandidateOnly, true);
     Result result = namedAlleleMatcher.call(new VcfFile(vcfFile), null);
 
+    // bit vector matching must give identical results
+    Result bitVectorResult = new NamedAlleleMatcher(new Env(), definitionReader, findCombinations, topCandidateOnly,
+        true)
+        .useBitVectorMatching()
+        .call(new VcfFile(vcfFile), null);
+    assertEquals(summarize(result), summarize(bitVectorResult));
+    // so must pruning permutations
+    Result prunedResult = new NamedAlleleMatcher(new Env(), definitionReader, findCombinations, topCandidateOnly,
+        true)
+        .prunePermutations()
+        .call(new VcfFile(vcfFile), null);
+    assertEquals(summarize(result), summarize(prunedResult));
+
     // print
     new ResultSerializer()
         .alwaysShowUnmatchedHaplotypes(showUnmatched)
@@ -109,6 +122,22 @@ static Result testMatchNamedAlleles(Path definitionFile, Path vcfFile, boolean f
   }
 
 
+  private static List<String> summarize(Result result) {
+    List<String> summary = new ArrayList<>();
+    for (GeneCall gc : result.getGeneCalls()) {
+      summary.add(gc.getGene());
+      for (DiplotypeMatch dm : gc.getDiplotypes()) {
+        summary.add(dm.getName() + " (" + dm.getScore() + "): " + dm.getHaplotype1().getSequences() +
+            (dm.getHaplotype2() == null ? "" : " + " + dm.getHaplotype2().getSequences()));
+      }
+      for (BaseMatch bm : gc.getHaplotypes()) {
+        summary.add(bm.getName() + ": " + bm.getSequences());
+      }
+    }
+    return summary;
+  }
+
+
   /**
    * Checks that the list of diplotype matches are what we expect.
    *
@@ -0,0 +1,130 @@
+package org.pharmgkb.pharmcat.haplotype;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.pharmcat.definition.model.NamedAllele;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+import org.pharmgkb.pharmcat.haplotype.model.HaplotypeMatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * JUnit test for {@link SamplePermutations} and {@link BitVectorMatcher}.
+ *
+ * @author Mark Woon
+ */
+class SamplePermutationsTest {
+  private static final VariantLocus[] sf_variants = new VariantLocus[] {
+      new VariantLocus("chr1", 1, "g.1T>C"),
+      new VariantLocus("chr1", 2, "g.2A>T"),
+      new VariantLocus("chr1", 3, "g.3C>G"),
+      new VariantLocus("chr1", 4, "g.4C>G"),
+  };
+
+
+  @Test
+  void testNotPhased() {
+    checkAgainstPermutations(Arrays.asList(
+        new SampleAllele("chr1", 1, "T", "T", false, Lists.newArrayList("T", "C"), "0/0"),
+        new SampleAllele("chr1", 2, "A", "T", false, Lists.newArrayList("A", "T"), "0/1"),
+        new SampleAllele("chr1", 3, "C", "G", false, Lists.newArrayList("C", "G"), "0/1"),
+        new SampleAllele("chr1", 4, "C", "G", false, Lists.newArrayList("C", "G"), "0/1")
+    ));
+  }
+
+  @Test
+  void testPhased() {
+    checkAgainstPermutations(Arrays.asList(
+        new SampleAllele("chr1", 1, "T", "C", true, Lists.newArrayList("T", "C"), "0|1"),
+        new SampleAllele("chr1", 2, "A", "T", true, Lists.newArrayList("A", "T"), "0|1"),
+        new SampleAllele("chr1", 3, "C", "C", true, Lists.newArrayList("C", "G"), "0|0"),
+        new SampleAllele("chr1", 4, "G", "C", true, Lists.newArrayList("C", "G"), "1|0")
+    ));
+  }
+
+  @Test
+  void testHomozygous() {
+    checkAgainstPermutations(Arrays.asList(
+        new SampleAllele("chr1", 1, "T", "T", false, Lists.newArrayList("T", "C"), "0/0"),
+        new SampleAllele("chr1", 2, "T", "T", false, Lists.newArrayList("A", "T"), "1/1"),
+        new SampleAllele("chr1", 3, "C", "C", false, Lists.newArrayList("C", "G"), "0/0"),
+        new SampleAllele("chr1", 4, "G", "G", false, Lists.newArrayList("C", "G"), "1/1")
+    ));
+  }
+
+  @Test
+  void testMixed() {
+    checkAgainstPermutations(Arrays.asList(
+        new SampleAllele("chr1", 1, "T", "C", true, Lists.newArrayList("T", "C"), "0|1"),
+        new SampleAllele("chr1", 2, "A", "T", false, Lists.newArrayList("A", "T"), "0/1"),
+        new SampleAllele("chr1", 3, "C", null, false, Lists.newArrayList("C", "G"), "0/."),
+        new SampleAllele("chr1", 4, "G", "G", false, Lists.newArrayList("C", "G"), "1/1")
+    ));
+  }
+
+  @Test
+  void testHaploid() {
+    checkAgainstPermutations(Arrays.asList(
+        new SampleAllele("chr1", 1, "T", null, false, Lists.newArrayList("T", "C"), "0"),
+        new SampleAllele("chr1", 2, "T", null, false, Lists.newArrayList("A", "T"), "1"),
+        new SampleAllele("chr1", 3, "C", null, false, Lists.newArrayList("C", "G"), "0"),
+        new SampleAllele("chr1", 4, "G", null, false, Lists.newArrayList("C", "G"), "1")
+    ));
+  }
+
+
+  private void checkAgainstPermutations(List<SampleAllele> alleles) {
+    Set<String> permutations = CombinationUtil.generatePermutations(alleles);
+    SamplePermutations samplePermutations = new SamplePermutations(alleles);
+    assertEquals(permutations.size(), samplePermutations.size());
+    assertEquals(permutations, samplePermutations.enumerate());
+    assertTrue(permutations.contains(samplePermutations.first()));
+
+    List<String> generated = new ArrayList<>();
+    samplePermutations.forEach(generated::add);
+    assertEquals(permutations.size(), generated.size());
+    assertEquals(permutations, new HashSet<>(generated));
+
+    List<String[]> definitions = Arrays.asList(
+        new String[] { "T", "A", "C", "C" },
+        new String[] { "T", "T", "G", "G" },
+        new String[] { "C", null, null, "G" },
+        new String[] { "Y", "W", "S", "S" },
+        new String[] { null, "T", null, null },
+        new String[] { "T", "T", "C", "G" }
+    );
+    List<NamedAllele> haplotypes = new ArrayList<>();
+    List<HaplotypeMatch> expectedMatches = new ArrayList<>();
+    for (String[] def : definitions) {
+      NamedAllele hap = new NamedAllele("*x", "*x", def, def, false);
+      hap.initialize(sf_variants);
+      haplotypes.add(hap);
+
+      HaplotypeMatch expected = new HaplotypeMatch(hap);
+      permutations.forEach(expected::match);
+      expectedMatches.add(expected);
+      HaplotypeMatch actual = new HaplotypeMatch(hap);
+      samplePermutations.match(actual, () -> permutations);
+      assertEquals(new TreeSet<>(expected.getSequences()), new TreeSet<>(actual.getSequences()),
+          Arrays.toString(def));
+    }
+
+    // bit vectors must match the same sequences without going through permutation strings
+    List<HaplotypeMatch> bitVectorMatches = haplotypes.stream()
+        .map(HaplotypeMatch::new)
+        .toList();
+    new BitVectorMatcher(haplotypes).match(bitVectorMatches, samplePermutations);
+    for (int x = 0; x < definitions.size(); x += 1) {
+      assertEquals(new TreeSet<>(expectedMatches.get(x).getSequences()),
+          new TreeSet<>(bitVectorMatches.get(x).getSequences()), Arrays.toString(definitions.get(x)));
+    }
+  }
+}
@@ -1,15 +1,26 @@
 package org.pharmgkb.pharmcat.haplotype;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
 import org.pharmgkb.common.util.PathUtils;
 import org.pharmgkb.parser.vcf.VcfFormatException;
+import org.pharmgkb.pharmcat.ParseException;
 import org.pharmgkb.pharmcat.TestUtils;
 import org.pharmgkb.pharmcat.VcfFile;
 import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -31,6 +42,45 @@ void testCompressed() throws Exception {
   }
 
 
+  @Test
+  void testMultipleSamples() throws Exception {
+    Path file = PathUtils.getPathToResource("org/pharmgkb/pharmcat/100samples.vcf.bgz");
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+    VcfFile vcfFile = new VcfFile(file);
+    List<String> samples = vcfFile.getSamples();
+
+    VcfReader multiReader;
+    try (BufferedReader reader = VcfReader.openVcfFile(file)) {
+      multiReader = new VcfReader(definitionReader, reader, samples, false);
+    }
+    assertEquals(samples.size(), multiReader.getSampleIds().size());
+    for (String sampleId : samples) {
+      VcfReader expected = vcfFile.getReader(definitionReader, sampleId, false);
+      assertEquals(toStringMap(expected.getAlleleMap()), toStringMap(multiReader.getAlleleMap(sampleId)));
+      assertEquals(expected.getWarnings(), multiReader.getWarnings(sampleId));
+    }
+
+    multiReader.removeSample(samples.get(0));
+    assertFalse(multiReader.hasSample(samples.get(0)));
+    assertTrue(multiReader.hasSample(samples.get(1)));
+
+    VcfFile preloadedFile = new VcfFile(file);
+    preloadedFile.preload(definitionReader, samples, false);
+    assertNotNull(preloadedFile.getPreloadedSample(definitionReader, samples.get(0), false));
+    assertNull(preloadedFile.getPreloadedSample(definitionReader, samples.get(0), true));
+    preloadedFile.releaseSample(samples.get(0));
+    assertNull(preloadedFile.getPreloadedSample(definitionReader, samples.get(0), false));
+    assertNotNull(preloadedFile.getPreloadedSample(definitionReader, samples.get(1), false));
+  }
+
+  private Map<String, String> toStringMap(Map<String, SampleAllele> alleleMap) {
+    Map<String, String> map = new TreeMap<>();
+    alleleMap.forEach((k, v) -> map.put(k, v.toString() + " (" + v.getComputedAllele1() + ", " +
+        v.getComputedAllele2() + ")"));
+    return map;
+  }
+
+
   @Test
   void testAlleleOrder() throws Exception {
     VcfReader reader = new VcfReader(PathUtils.getPathToResource("org/pharmgkb/pharmcat/haplotype/VcfReaderTest-alleleOrder.vcf"));
@@ -325,6 +375,91 @@ void testIsVcf(TestInfo testInfo) throws IOException {
   }
 
 
+  @Test
+  void testLineFilter() throws Exception {
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+    VariantLocus vl = definitionReader.getPositions("CYP2C19")[0];
+    String chr = vl.getChromosome();
+    long pos = vl.getPosition();
+
+    String header = "##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tSample\n";
+    String dataLine = chr + "\t" + pos + "\t.\t" + vl.getRef() + "\t.\t.\tPASS\t.\tGT\t0/0\n";
+    // these lines don't have sample data, so the VCF parser fails if they get to it
+    String offTarget = chr + "\t" + (pos - 1) + "\t.\tA\t.\t.\tPASS\t.\n" +
+        chr + "\t" + (pos + 1) + "\t.\tA\t.\t.\tPASS\t.\n" +
+        chr + "_alt\t" + pos + "\t.\tA\t.\t.\tPASS\t.\n" +
+        "chrUn\t" + pos + "\t.\tA\t.\t.\tPASS\t.\n" +
+        // contigs are matched exactly, the same way VcfReader matches them
+        chr.substring(3) + "\t" + pos + "\t.\tA\t.\t.\tPASS\t.\n" +
+        chr.substring(3) + "\tfoo\t.\tA\t.\t.\tPASS\t.\n";
+    // leave anything unexpected on a contig of interest to the VCF parser
+    String badPosLine = chr + "\tfoo\t.\tA\t.\t.\tPASS\t.\tGT\t0/0";
+    String vcf = header + offTarget + dataLine + offTarget + badPosLine;
+    String expected = header + dataLine + badPosLine;
+
+    // no matter how it is read, only lines of interest come out
+    try (VcfLineFilter filter = newLineFilter(vcf.getBytes(StandardCharsets.UTF_8), definitionReader, false)) {
+      assertEquals(expected, new String(filter.readAllBytes(), StandardCharsets.UTF_8));
+      assertEquals(12, filter.getNumSkipped());
+    }
+    try (VcfLineFilter filter = newLineFilter(vcf.getBytes(StandardCharsets.UTF_8), definitionReader, true)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      int b;
+      while ((b = filter.read()) != -1) {
+        out.write(b);
+      }
+      assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+    }
+
+    // lines longer than the buffer
+    String longLine = chr + "\t" + pos + "\t.\t" + vl.getRef() + "\t.\t.\tPASS\t" + "A".repeat(200_000) +
+        "\tGT\t0/0\n";
+    String longVcf = header + offTarget.repeat(10_000) + longLine + offTarget;
+    try (VcfLineFilter filter = newLineFilter(longVcf.getBytes(StandardCharsets.UTF_8), definitionReader, false)) {
+      assertEquals(header + longLine, new String(filter.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    VcfReader reader = new VcfReader(definitionReader,
+        VcfReader.filterVcfData(new ByteArrayInputStream((header + offTarget + dataLine + offTarget)
+            .getBytes(StandardCharsets.UTF_8)), definitionReader),
+        List.of("Sample"), false);
+    assertEquals(1, reader.getAlleleMap().size());
+    assertTrue(reader.getAlleleMap().containsKey(vl.getVcfChrPosition()));
+  }
+
+  /**
+   * @param trickle if true, underlying stream only returns 1 byte at a time, so lines span multiple reads
+   */
+  private static VcfLineFilter newLineFilter(byte[] vcf, DefinitionReader definitionReader, boolean trickle) {
+    InputStream in = new ByteArrayInputStream(vcf);
+    if (trickle) {
+      in = new FilterInputStream(in) {
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          return super.read(b, off, Math.min(len, 1));
+        }
+      };
+    }
+    return new VcfLineFilter(in, definitionReader.getLocationsOfInterest().values());
+  }
+
+
+  @Test
+  void testNoSampleData() {
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+    VariantLocus vl = definitionReader.getPositions("CYP2C19")[0];
+    // only line is not at a location of interest, so it never gets to the VCF parser
+    String vcf = "##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n" +
+        vl.getChromosome() + "\t" + (vl.getPosition() + 1) + "\t.\tA\t.\t.\tPASS\t.\n";
+
+    ParseException ex = assertThrows(ParseException.class,
+        () -> new VcfReader(definitionReader, new BufferedReader(new StringReader(vcf)), (String)null, false));
+    assertEquals("VCF does not contain sample data", ex.getMessage());
+  }
+
+
   @Test
   void testBadAllele() {
 
@@ -0,0 +1,52 @@
+package org.pharmgkb.pharmcat.phenotype.model;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.pharmcat.Env;
+import org.pharmgkb.pharmcat.reporter.model.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * This is a JUnit test for {@link GenePhenotype}.
+ *
+ * @author Mark Woon
+ */
+class GenePhenotypeTest {
+  private static Env s_env;
+
+  @BeforeAll
+  static void prepare() throws Exception {
+    s_env = new Env();
+  }
+
+
+  @Test
+  void testFindDiplotype() {
+    for (DataSource source : new DataSource[] { DataSource.CPIC, DataSource.DPWG }) {
+      GenePhenotype gp = s_env.getPhenotype("CYP2D6", source);
+      if (gp == null) {
+        continue;
+      }
+      assertTrue(gp.getAmbiguousDiplotypeKeys().isEmpty());
+      for (DiplotypeRecord dr : gp.getDiplotypes()) {
+        // should not depend on the type of map
+        Map<String, Integer> key = new TreeMap<>(dr.getDiplotypeKey());
+        assertEquals(dr, gp.findDiplotype(key).orElse(null), dr.getDiplotype());
+        assertEquals(List.of(dr), gp.findDiplotypes(new HashMap<>(key)));
+      }
+    }
+
+    GenePhenotype gp = Objects.requireNonNull(s_env.getPhenotype("CYP2D6", DataSource.CPIC));
+    assertTrue(gp.findDiplotype(Map.of("*1", 1, "*4", 1)).isPresent());
+    assertTrue(gp.findDiplotype(Map.of("*1", 2)).isPresent());
+    assertFalse(gp.findDiplotype(Map.of("*fake", 2)).isPresent());
+    assertFalse(gp.findDiplotype(Map.of()).isPresent());
+  }
+}
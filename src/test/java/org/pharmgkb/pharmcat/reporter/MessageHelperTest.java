@@ -0,0 +1,387 @@
+package org.pharmgkb.pharmcat.reporter;
+
+import java.io.BufferedReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.apache.commons.lang3.StringUtils;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.common.util.PathUtils;
+import org.pharmgkb.pharmcat.definition.model.VariantLocus;
+import org.pharmgkb.pharmcat.reporter.model.DataSource;
+import org.pharmgkb.pharmcat.reporter.model.MatchLogic;
+import org.pharmgkb.pharmcat.reporter.model.MessageAnnotation;
+import org.pharmgkb.pharmcat.reporter.model.PrescribingGuidanceSource;
+import org.pharmgkb.pharmcat.reporter.model.VariantReport;
+import org.pharmgkb.pharmcat.reporter.model.result.CallSource;
+import org.pharmgkb.pharmcat.reporter.model.result.Diplotype;
+import org.pharmgkb.pharmcat.reporter.model.result.GeneReport;
+import org.pharmgkb.pharmcat.reporter.model.result.Haplotype;
+import org.pharmgkb.pharmcat.util.DataSerializer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link MessageHelper}.
+ * <p>
+ * Checks that the compiled {@link MessageRule}s select the same messages as the {@link MatchLogic} did when it was
+ * evaluated directly against every report.
+ *
+ * @author Mark Woon
+ */
+class MessageHelperTest {
+  private static MessageHelper s_messageHelper;
+  private static List<MessageAnnotation> s_messages;
+
+
+  @BeforeAll
+  static void prepare() throws Exception {
+    s_messageHelper = new MessageHelper();
+    try (BufferedReader reader = Files.newBufferedReader(PathUtils.getPathToResource(
+        "org/pharmgkb/pharmcat/reporter/" + MessageHelper.MESSAGES_JSON_FILE_NAME))) {
+      s_messages = List.of(DataSerializer.GSON.fromJson(reader, MessageAnnotation[].class));
+    }
+  }
+
+
+  @Test
+  void testAllowedForSource() {
+    for (MessageAnnotation msg : s_messages) {
+      MessageRule rule = new MessageRule(msg);
+      for (PrescribingGuidanceSource source : PrescribingGuidanceSource.values()) {
+        assertEquals(allowedForSource(msg, source), rule.isAllowedFor(source), msg.getName() + " for " + source);
+      }
+    }
+  }
+
+
+  /**
+   * Builds gene reports that satisfy each message's match logic, along with variations that each break one part of
+   * it, and checks that the same messages get added to them as before.
+   */
+  @Test
+  void testGeneMessages() {
+    Set<String> matched = new HashSet<>();
+    int numReports = 0;
+    for (MessageAnnotation msg : s_messages) {
+      MatchLogic match = msg.getMatches();
+      if (StringUtils.isBlank(match.getGene())) {
+        continue;
+      }
+      for (Criteria criteria : buildVariations(match)) {
+        for (boolean phased : new boolean[] { true, false }) {
+          for (boolean het : new boolean[] { true, false }) {
+            for (ReportState state : ReportState.values()) {
+              TestGeneReport report = new TestGeneReport(match.getGene(), criteria, phased, het, state);
+              Set<String> expected = new TreeSet<>();
+              addMatchingMessages(report, expected);
+              expected.forEach(matched::add);
+
+              s_messageHelper.addMatchingMessagesTo(report);
+              Set<String> actual = new TreeSet<>();
+              report.getMessages().forEach(m -> actual.add(m.getName()));
+              assertEquals(expected, actual, msg.getName() + ": " + criteria + ", phased=" + phased + ", het=" +
+                  het + ", " + state);
+              numReports += 1;
+            }
+          }
+        }
+      }
+    }
+    assertTrue(numReports > 0);
+    for (MessageAnnotation msg : s_messages) {
+      if (StringUtils.isNotBlank(msg.getMatches().getGene())) {
+        assertTrue(matched.contains(msg.getName()), msg.getName() + " was never matched");
+      }
+    }
+  }
+
+
+  /**
+   * Builds criteria that satisfy {@code match}, followed by variations that each leave out one requirement.
+   */
+  private static List<Criteria> buildVariations(MatchLogic match) {
+    Criteria full = new Criteria(match.getHapsCalled(), match.getDips(), match.getHapsMissing(),
+        StringUtils.stripToNull(match.getVariant()), match.getVariantsMissing());
+    List<Criteria> variations = new ArrayList<>();
+    variations.add(full);
+    for (int x = 0; x < full.hapsCalled().size(); x += 1) {
+      variations.add(full.withHapsCalled(without(full.hapsCalled(), x)));
+    }
+    for (int x = 0; x < full.dips().size(); x += 1) {
+      variations.add(full.withDips(without(full.dips(), x)));
+    }
+    for (int x = 0; x < full.hapsMissing().size(); x += 1) {
+      variations.add(full.withHapsMissing(without(full.hapsMissing(), x)));
+    }
+    if (full.variant() != null) {
+      variations.add(full.withVariant(null));
+    }
+    for (int x = 0; x < full.variantsMissing().size(); x += 1) {
+      variations.add(full.withVariantsMissing(without(full.variantsMissing(), x)));
+    }
+    return variations;
+  }
+
+  private static List<String> without(List<String> list, int idx) {
+    List<String> rez = new ArrayList<>(list);
+    rez.remove(idx);
+    return rez;
+  }
+
+
+  //-- MessageHelper logic before match logic was compiled into MessageRules
+
+  private static void addMatchingMessages(GeneReport report, Set<String> messages) {
+    List<MessageAnnotation> geneMessages = s_messages.stream()
+        .filter(m -> report.getGene().equals(m.getMatches().getGene()))
+        .toList();
+    if (!report.isReportable()) {
+      if (!report.isNoData()) {
+        geneMessages.stream()
+            .filter(m -> m.getExceptionType().equalsIgnoreCase(MessageAnnotation.TYPE_NONMATCH) &&
+                matchesGeneReport(m, report))
+            .forEach(m -> messages.add(m.getName()));
+      }
+      return;
+    }
+    if (report.getCallSource() != CallSource.MATCHER) {
+      return;
+    }
+    geneMessages.stream()
+        .filter(m -> !m.getExceptionType().equalsIgnoreCase(MessageAnnotation.TYPE_NONMATCH))
+        .filter(m -> matchesGeneReport(m, report))
+        .forEach(m -> messages.add(m.getName()));
+  }
+
+  private static boolean matchesGeneReport(MessageAnnotation message, GeneReport gene) {
+    MatchLogic match = message.getMatches();
+
+    if (!Objects.equals(match.getGene(), gene.getGene())) {
+      return false;
+    }
+
+    boolean passHapMatchCriteria = match.getHapsCalled().isEmpty() ||
+        match.getHapsCalled().stream().allMatch(gene::hasHaplotype);
+    boolean passHapMissingCriteria = match.getHapsMissing().isEmpty() ||
+        gene.getUncalledHaplotypes().containsAll(match.getHapsMissing());
+    boolean passVariantMatchCriteria = StringUtils.isBlank(match.getVariant()) ||
+        gene.findVariantReport(match.getVariant()).map((v) -> !v.isMissing()).orElse(false);
+    boolean passVariantMissingCriteria = match.getVariantsMissing().isEmpty() ||
+        match.getVariantsMissing().stream()
+            .allMatch((r) -> gene.findVariantReport(r).map(VariantReport::isMissing).orElse(false));
+    boolean passDipMatchCriteria = match.getDips().isEmpty() ||
+        match.getDips().stream()
+            .allMatch(d -> gene.getSourceDiplotypes().stream()
+                .anyMatch(e -> e.getLabel().equals(d)));
+
+    boolean passAmbiguityCriteria = true;
+    if (message.getExceptionType().equals(MessageAnnotation.TYPE_AMBIGUITY)) {
+      if (!match.getDips().isEmpty() && gene.isPhased()) {
+        passAmbiguityCriteria = false;
+      } else if (!StringUtils.isBlank(match.getVariant()) &&
+          !gene.findVariantReport(match.getVariant()).map(VariantReport::isHetCall).orElse(false)) {
+        passAmbiguityCriteria = false;
+      }
+    }
+
+    return passHapMatchCriteria && passHapMissingCriteria && passVariantMatchCriteria && passVariantMissingCriteria
+        && passDipMatchCriteria && passAmbiguityCriteria;
+  }
+
+  private static boolean allowedForSource(MessageAnnotation messageAnnotation, PrescribingGuidanceSource source) {
+    String key = messageAnnotation.getName();
+    if (key.contains("cpic-") && source != PrescribingGuidanceSource.CPIC_GUIDELINE) {
+      return false;
+    }
+    if (key.contains("dpwg-") && source != PrescribingGuidanceSource.DPWG_GUIDELINE) {
+      return false;
+    }
+    return !key.contains("fda-") || source == PrescribingGuidanceSource.FDA_LABEL;
+  }
+
+
+  //-- test fixtures
+
+  private enum ReportState {
+    MATCHER,
+    OUTSIDE_CALL,
+    NOT_REPORTABLE,
+    NO_DATA
+  }
+
+  /**
+   * What a gene report should have.
+   */
+  private record Criteria(List<String> hapsCalled, List<String> dips, List<String> hapsMissing,
+      @Nullable String variant, List<String> variantsMissing) {
+
+    Criteria withHapsCalled(List<String> hapsCalled) {
+      return new Criteria(hapsCalled, dips, hapsMissing, variant, variantsMissing);
+    }
+
+    Criteria withDips(List<String> dips) {
+      return new Criteria(hapsCalled, dips, hapsMissing, variant, variantsMissing);
+    }
+
+    Criteria withHapsMissing(List<String> hapsMissing) {
+      return new Criteria(hapsCalled, dips, hapsMissing, variant, variantsMissing);
+    }
+
+    Criteria withVariant(@Nullable String variant) {
+      return new Criteria(hapsCalled, dips, hapsMissing, variant, variantsMissing);
+    }
+
+    Criteria withVariantsMissing(List<String> variantsMissing) {
+      return new Criteria(hapsCalled, dips, hapsMissing, variant, variantsMissing);
+    }
+  }
+
+
+  /**
+   * {@link GeneReport} with just enough data to be matched against messages.
+   */
+  private static class TestGeneReport extends GeneReport {
+    private final boolean m_phased;
+    private final ReportState m_state;
+    private final SortedSet<Diplotype> m_recommendationDiplotypes =
+        new TreeSet<>(Comparator.comparing(Diplotype::getLabel));
+    private final SortedSet<Diplotype> m_sourceDiplotypes = new TreeSet<>(Comparator.comparing(Diplotype::getLabel));
+    private final Set<String> m_uncalledHaplotypes;
+    private final Map<String, VariantReport> m_variantReports = new HashMap<>();
+
+
+    TestGeneReport(String gene, Criteria criteria, boolean phased, boolean het, ReportState state) {
+      super(gene, DataSource.CPIC, null);
+      m_phased = phased;
+      m_state = state;
+      m_uncalledHaplotypes = new HashSet<>(criteria.hapsMissing());
+
+      for (String hap : criteria.hapsCalled()) {
+        m_recommendationDiplotypes.add(new TestDiplotype(gene, hap, "Reference"));
+      }
+      for (String dip : criteria.dips()) {
+        String[] haps = dip.split("/", 2);
+        TestDiplotype diplotype = new TestDiplotype(gene, haps[0], haps.length > 1 ? haps[1] : null);
+        m_recommendationDiplotypes.add(diplotype);
+        m_sourceDiplotypes.add(diplotype);
+      }
+      if (criteria.variant() != null) {
+        m_variantReports.put(criteria.variant(), newVariantReport(gene, criteria.variant(), het ? "A|G" : "G|G"));
+      }
+      for (String rsid : criteria.variantsMissing()) {
+        m_variantReports.put(rsid, newVariantReport(gene, rsid, null));
+      }
+    }
+
+    private static VariantReport newVariantReport(String gene, String rsid, @Nullable String call) {
+      VariantReport variantReport = new VariantReport(gene, new VariantLocus("chr1", 1, "g.1A>G"));
+      variantReport.setDbSnpId(rsid);
+      if (call != null) {
+        variantReport.setCall(call);
+      }
+      return variantReport;
+    }
+
+
+    @Override
+    public boolean isReportable() {
+      return m_state == ReportState.MATCHER || m_state == ReportState.OUTSIDE_CALL;
+    }
+
+    @Override
+    public boolean isNoData() {
+      return m_state == ReportState.NO_DATA;
+    }
+
+    @Override
+    public CallSource getCallSource() {
+      return m_state == ReportState.OUTSIDE_CALL ? CallSource.OUTSIDE : CallSource.MATCHER;
+    }
+
+    @Override
+    public boolean isPhased() {
+      return m_phased;
+    }
+
+    @Override
+    public SortedSet<Diplotype> getRecommendationDiplotypes() {
+      return m_recommendationDiplotypes;
+    }
+
+    @Override
+    public boolean hasHaplotype(String haplotype) {
+      return m_recommendationDiplotypes.stream()
+          .anyMatch((d) -> d.hasAllele(haplotype));
+    }
+
+    @Override
+    public SortedSet<Diplotype> getSourceDiplotypes() {
+      return m_sourceDiplotypes;
+    }
+
+    @Override
+    public Set<String> getUncalledHaplotypes() {
+      return m_uncalledHaplotypes;
+    }
+
+    @Override
+    public Optional<VariantReport> findVariantReport(String rsid) {
+      return m_variantReports.values().stream()
+          .filter(v -> v.getDbSnpId() != null && v.getDbSnpId().contains(rsid))
+          .findFirst();
+    }
+  }
+
+
+  /**
+   * {@link Diplotype} that only has alleles and a label.
+   */
+  private static class TestDiplotype extends Diplotype {
+    private final Haplotype m_allele1;
+    private final @Nullable Haplotype m_allele2;
+    private final String m_label;
+
+
+    TestDiplotype(String gene, String allele1, @Nullable String allele2) {
+      super(gene, "n/a", DataSource.CPIC);
+      m_allele1 = new Haplotype(gene, allele1);
+      m_allele2 = allele2 == null ? null : new Haplotype(gene, allele2);
+      m_label = allele2 == null ? allele1 : allele1 + "/" + allele2;
+    }
+
+
+    @Override
+    public String getLabel() {
+      return m_label;
+    }
+
+    @Override
+    public Haplotype getAllele1() {
+      return m_allele1;
+    }
+
+    @Override
+    public @Nullable Haplotype getAllele2() {
+      return m_allele2;
+    }
+
+    @Override
+    public boolean hasAllele(String alleleName) {
+      return m_allele1.getName().equals(alleleName) ||
+          (m_allele2 != null && m_allele2.getName().equals(alleleName));
+    }
+  }
+}
@@ -1,14 +1,19 @@
 package org.pharmgkb.pharmcat.reporter;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.pharmgkb.pharmcat.Env;
 import org.pharmgkb.pharmcat.reporter.model.DataSource;
 import org.pharmgkb.pharmcat.reporter.model.PrescribingGuidanceSource;
 import org.pharmgkb.pharmcat.reporter.model.pgkb.GuidelinePackage;
+import org.pharmgkb.pharmcat.reporter.model.pgkb.RecommendationAnnotation;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -38,4 +43,58 @@ void testLoad() throws IOException {
     SortedSet<String> dpwgGenes = pgkbGuidelineCollection.getGenesUsedInSource(DataSource.DPWG);
     assertFalse(dpwgGenes.contains("CACNA1S"));
   }
+
+  @Test
+  void testDrugIndex() {
+    PgkbGuidelineCollection pgkbGuidelineCollection = s_env.getDrugs();
+    List<GuidelinePackage> packages = pgkbGuidelineCollection.findGuidelinePackages("clopidogrel",
+        PrescribingGuidanceSource.CPIC_GUIDELINE);
+    assertFalse(packages.isEmpty());
+    assertEquals(packages, pgkbGuidelineCollection.findGuidelinePackages("Clopidogrel",
+        PrescribingGuidanceSource.CPIC_GUIDELINE));
+    assertTrue(pgkbGuidelineCollection.findGuidelinePackages("not a drug", PrescribingGuidanceSource.CPIC_GUIDELINE)
+        .isEmpty());
+    assertEquals(packages, pgkbGuidelineCollection.getGuidelinePackagesByDrug(PrescribingGuidanceSource.CPIC_GUIDELINE)
+        .get("clopidogrel"));
+    assertTrue(pgkbGuidelineCollection.getChemicalsUsedInSource(PrescribingGuidanceSource.CPIC_GUIDELINE)
+        .contains("clopidogrel"));
+    assertTrue(pgkbGuidelineCollection.getGenesUsedInSource(DataSource.CPIC).contains("CYP2C19"));
+    // indexes are shared, so they must not be modifiable
+    assertThrows(UnsupportedOperationException.class,
+        () -> pgkbGuidelineCollection.getGenesUsedInSource(DataSource.CPIC).add("FAKE"));
+  }
+
+
+  /**
+   * Makes sure {@link RecommendationIndex} finds the same recommendations as testing each one with
+   * {@link RecommendationUtils#mapContains}.
+   */
+  @Test
+  void testRecommendationIndex() {
+    PgkbGuidelineCollection pgkbGuidelineCollection = s_env.getDrugs();
+    int numChecked = 0;
+    for (GuidelinePackage guidelinePackage : pgkbGuidelineCollection.getGuidelinePackages()) {
+      for (String drug : guidelinePackage.getDrugs()) {
+        RecommendationIndex index = guidelinePackage.getRecommendationIndex(drug);
+        for (RecommendationAnnotation rec : guidelinePackage.getRecommendations()) {
+          if (rec == null || rec.getLookupKey() == null || rec.getLookupKey().isEmpty()) {
+            continue;
+          }
+          // use each lookup key, with an extra gene, as a genotype's key
+          Map<String, Object> key = new HashMap<>(rec.getLookupKey());
+          key.put("FAKE_GENE", "Normal Metabolizer");
+          Set<RecommendationAnnotation> expected = guidelinePackage.getRecommendations().stream()
+              .filter(r -> r != null && r.appliesToDrug(drug))
+              .filter(r -> RecommendationUtils.mapContains(key, r.getLookupKey()))
+              .collect(Collectors.toSet());
+          assertEquals(expected, index.find(key), guidelinePackage + " / " + drug + " / " + key);
+          assertEquals(rec.appliesToDrug(drug), index.find(key).contains(rec));
+          numChecked += 1;
+        }
+      }
+    }
+    assertTrue(numChecked > 0);
+    assertTrue(pgkbGuidelineCollection.getGuidelinePackages().get(0).getRecommendationIndex("no such drug")
+        .find(Map.of("CYP2C19", "Normal Metabolizer")).isEmpty());
+  }
 }
@@ -108,6 +108,40 @@ void testCyp2d6() {
     assertFalse(diplotype.hasAllele("foo"));
   }
 
+  @Test
+  void testCachedPhenotype() {
+    String gene = "CYP2D6";
+
+    Diplotype d1 = new Diplotype(gene, "*1", "*4", s_env, DataSource.CPIC, 10);
+    Diplotype d2 = new Diplotype(gene, "*1", "*4", s_env, DataSource.CPIC, 5);
+    // phenotype data is shared
+    assertSame(d1.getAllele1(), d2.getAllele1());
+    assertSame(d1.getPhenotypes(), d2.getPhenotypes());
+    assertSame(d1.getLookupKeys(), d2.getLookupKeys());
+    assertThrows(UnsupportedOperationException.class, () -> d1.getPhenotypes().add("foo"));
+    // per-sample data is not
+    assertEquals(10, d1.getMatchScore());
+    assertEquals(5, d2.getMatchScore());
+    d1.setCombination(true);
+    assertFalse(d2.isCombination());
+
+    // same as uncached diplotype
+    Haplotype h1 = new Haplotype(gene, "*1");
+    h1.setReference(true);
+    Haplotype h2 = new Haplotype(gene, "*4");
+    Diplotype uncached = new Diplotype(gene, h1, h2, s_env, DataSource.CPIC);
+    assertEquals(uncached.getLabel(), d1.getLabel());
+    assertEquals(uncached.getPhenotypes(), d1.getPhenotypes());
+    assertEquals(uncached.getActivityScore(), d1.getActivityScore());
+    assertEquals(uncached.getLookupKeys(), d1.getLookupKeys());
+    assertEquals(uncached.getDiplotypeKey(), d1.getDiplotypeKey());
+
+    // diplotypes made from cached haplotypes are also cached
+    Diplotype d3 = new Diplotype(gene, s_env.makeHaplotype(gene, "*1", DataSource.CPIC),
+        s_env.makeHaplotype(gene, "*4", DataSource.CPIC), s_env, DataSource.CPIC);
+    assertSame(d1.getPhenotypes(), d3.getPhenotypes());
+  }
+
   @Test
   void testJoinPhased() {
     String result = Stream.of("*1/*60", "*1/*80")
@@ -0,0 +1,114 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.common.util.PathUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link BgzfInputStream}.
+ *
+ * @author Mark Woon
+ */
+class BgzfInputStreamTest {
+
+  @Test
+  void testBgzf() throws Exception {
+    byte[] raw = Files.readAllBytes(PathUtils.getPathToResource("org/pharmgkb/pharmcat/100samples.vcf.bgz"));
+    byte[] expected = gunzip(raw);
+
+    try (InputStream in = BgzfInputStream.open(new ByteArrayInputStream(raw))) {
+      assertInstanceOf(BgzfInputStream.class, in);
+      assertArrayEquals(expected, in.readAllBytes());
+    }
+
+    // single thread, byte at a time
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      try (InputStream in = new BgzfInputStream(new ByteArrayInputStream(raw), executor)) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+          out.write(b);
+        }
+        assertArrayEquals(expected, out.toByteArray());
+      }
+      // closing the stream must not shut down an executor that was passed in
+      assertFalse(executor.isShutdown());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+
+  /**
+   * Streams that are abandoned without being closed must not each pin their own threads.
+   */
+  @Test
+  void testAbandoned() throws Exception {
+    byte[] raw = Files.readAllBytes(PathUtils.getPathToResource("org/pharmgkb/pharmcat/100samples.vcf.bgz"));
+    byte[] expected = gunzip(raw);
+    List<InputStream> streams = new ArrayList<>();
+    for (int x = 0; x < 20; x += 1) {
+      InputStream in = new BgzfInputStream(new ByteArrayInputStream(raw));
+      assertNotEquals(-1, in.read());
+      streams.add(in);
+    }
+    long numThreads = Thread.getAllStackTraces().keySet().stream()
+        .filter(t -> t.getName().equals("bgzf-inflater"))
+        .peek(t -> assertTrue(t.isDaemon()))
+        .count();
+    assertTrue(numThreads <= Runtime.getRuntime().availableProcessors());
+    assertTrue(numThreads <= 4);
+    // still readable
+    assertArrayEquals(Arrays.copyOfRange(expected, 1, expected.length), streams.get(0).readAllBytes());
+  }
+
+
+  @Test
+  void testPlainGzip() throws Exception {
+    Path file = PathUtils.getPathToResource("org/pharmgkb/pharmcat/multisample.vcf.bgz");
+    byte[] expected = gunzip(Files.readAllBytes(file));
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+      out.write(expected);
+    }
+
+    try (InputStream in = BgzfInputStream.open(new ByteArrayInputStream(gzipped.toByteArray()))) {
+      assertInstanceOf(GZIPInputStream.class, in);
+      assertArrayEquals(expected, in.readAllBytes());
+    }
+  }
+
+
+  @Test
+  void testCorrupt() throws Exception {
+    byte[] raw = Files.readAllBytes(PathUtils.getPathToResource("org/pharmgkb/pharmcat/multisample.vcf.bgz"));
+    // flip a byte in the compressed data of the first block
+    raw[100] ^= (byte)0xff;
+    try (InputStream in = new BgzfInputStream(new ByteArrayInputStream(raw))) {
+      assertThrows(IOException.class, in::readAllBytes);
+    }
+  }
+
+
+  private static byte[] gunzip(byte[] data) throws IOException {
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+      return in.readAllBytes();
+    }
+  }
+}
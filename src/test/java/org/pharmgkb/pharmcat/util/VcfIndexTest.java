@@ -0,0 +1,96 @@
+package org.pharmgkb.pharmcat.util;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.pharmgkb.common.util.PathUtils;
+import org.pharmgkb.pharmcat.TestUtils;
+import org.pharmgkb.pharmcat.VcfFile;
+import org.pharmgkb.pharmcat.definition.DefinitionReader;
+import org.pharmgkb.pharmcat.haplotype.VcfReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * JUnit test for {@link VcfIndex} and {@link BgzfRegionInputStream}.
+ *
+ * @author Mark Woon
+ */
+class VcfIndexTest {
+  private static final String sf_vcfFile = "org/pharmgkb/pharmcat/util/VcfIndexTest.vcf.bgz";
+
+
+  @Test
+  void testQuery() throws Exception {
+    Path vcfFile = PathUtils.getPathToResource(sf_vcfFile);
+    Path indexFile = VcfIndex.findIndex(vcfFile);
+    assertNotNull(indexFile);
+    VcfIndex index = VcfIndex.read(indexFile);
+    assertTrue(index.hasSequence("chr19"));
+    assertFalse(index.hasSequence("19"));
+    assertTrue(index.query("19", 0, 1000).isEmpty());
+
+    List<String> dataLines;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new GZIPInputStream(Files.newInputStream(vcfFile))))) {
+      dataLines = reader.lines()
+          .filter(l -> !l.startsWith("#"))
+          .toList();
+    }
+
+    // look up every 10th position
+    List<VcfIndex.Chunk> chunks = new ArrayList<>();
+    List<String> expected = new ArrayList<>();
+    for (int x = 0; x < dataLines.size(); x += 10) {
+      String[] fields = dataLines.get(x).split("\t");
+      long pos = Long.parseLong(fields[1]);
+      chunks.addAll(index.query(fields[0], pos - 1, pos));
+      expected.add(dataLines.get(x));
+    }
+    List<VcfIndex.Chunk> merged = VcfIndex.merge(chunks);
+    for (int x = 1; x < merged.size(); x += 1) {
+      assertTrue(merged.get(x - 1).end() < merged.get(x).start());
+    }
+
+    List<String> lines;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new BgzfRegionInputStream(vcfFile, merged)))) {
+      lines = reader.lines().toList();
+    }
+    assertTrue(lines.containsAll(expected));
+    // lines must be in file order and not repeated
+    int lastIdx = -1;
+    for (String line : lines) {
+      int idx = dataLines.indexOf(line);
+      assertTrue(idx > lastIdx);
+      lastIdx = idx;
+    }
+  }
+
+
+  @Test
+  void testVcfFile(TestInfo testInfo) throws Exception {
+    DefinitionReader definitionReader = DefinitionReader.defaultReader();
+    Path indexedFile = PathUtils.getPathToResource(sf_vcfFile);
+    Path unindexedFile = TestUtils.getTestOutputDir(testInfo, true).resolve("unindexed.vcf.bgz");
+    Files.copy(indexedFile, unindexedFile);
+
+    VcfFile indexedVcf = new VcfFile(indexedFile, false);
+    assertNotNull(indexedVcf.getIndexFile());
+    VcfFile unindexedVcf = new VcfFile(unindexedFile, false);
+    assertNull(unindexedVcf.getIndexFile());
+
+    VcfReader expected = unindexedVcf.getReader(definitionReader, null, false);
+    VcfReader actual = indexedVcf.getReader(definitionReader, null, false);
+    assertEquals(expected.getAlleleMap().keySet(), actual.getAlleleMap().keySet());
+    assertEquals(expected.getWarnings(), actual.getWarnings());
+    assertEquals(unindexedVcf.getSamples(), indexedVcf.getSamples());
+  }
+}